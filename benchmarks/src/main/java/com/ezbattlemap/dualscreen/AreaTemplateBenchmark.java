@@ -0,0 +1,79 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dragging an area template across a large grid: one mouse move's coverage,
+ * and the tokens it then touches, as the controller works them out to paint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class AreaTemplateBenchmark {
+    private static final int SQUARE_SIZE = 10;
+    private static final int GRID_SIZE = 1000;
+    private static final int TOKEN_COUNT = 5000;
+
+    @Param({"CIRCLE", "CONE", "LINE", "CUBE"})
+    public String shapeName;
+
+    // Template length in squares
+    @Param({"12", "120"})
+    public int squares;
+
+    private GridOverlay gridOverlay;
+    private TokenOverlay tokenOverlay;
+    private AreaTemplate areaTemplate;
+    private AreaTemplate.Shape shape;
+    private final Random random = new Random(13);
+    private int originX;
+    private int originY;
+    private double angle;
+
+    @Setup
+    public void setUp() {
+        gridOverlay = new GridOverlay();
+        gridOverlay.setSquareSize(SQUARE_SIZE);
+        gridOverlay.setImageDimensions(GRID_SIZE * SQUARE_SIZE, GRID_SIZE * SQUARE_SIZE);
+        tokenOverlay = new TokenOverlay();
+        for (int i = 0; i < TOKEN_COUNT; i++) {
+            tokenOverlay.addToken("token", random.nextInt(GRID_SIZE), random.nextInt(GRID_SIZE));
+        }
+        areaTemplate = new AreaTemplate();
+        shape = AreaTemplate.Shape.valueOf(shapeName);
+        originX = GRID_SIZE * SQUARE_SIZE / 2;
+        originY = GRID_SIZE * SQUARE_SIZE / 2;
+    }
+
+    /**
+     * Step the origin a square and swing the end round it, so the template
+     * covers a different area each time.
+     */
+    private void drag() {
+        angle += 0.05;
+        originX = (originX + SQUARE_SIZE) % (GRID_SIZE * SQUARE_SIZE);
+        double length = squares * SQUARE_SIZE;
+        areaTemplate.set(shape, originX, originY, originX + (int) (Math.cos(angle) * length),
+                originY + (int) (Math.sin(angle) * length), SQUARE_SIZE);
+    }
+
+    @Benchmark
+    public AreaTemplate dragCoverage() {
+        drag();
+        areaTemplate.updateCoverage(gridOverlay);
+        return areaTemplate;
+    }
+
+    @Benchmark
+    public AreaTemplate dragCoverageAndTokens() {
+        drag();
+        areaTemplate.updateTokens(gridOverlay, tokenOverlay);
+        return areaTemplate;
+    }
+}
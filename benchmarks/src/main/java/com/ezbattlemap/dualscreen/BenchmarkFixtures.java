@@ -0,0 +1,120 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic maps, tokens and throwaway libraries shared by the benchmarks.
+ */
+final class BenchmarkFixtures {
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Create an empty library in a fresh temporary directory.
+     */
+    static ImageLibrary createTempLibrary() throws IOException {
+        File root = Files.createTempDirectory("ezbattlemap-bench").toFile();
+        return new ImageLibrary(root);
+    }
+
+    /**
+     * Delete a temporary library directory and everything in it.
+     */
+    static void deleteLibrary(ImageLibrary library) throws IOException {
+        deleteRecursively(library.getLibraryRoot());
+    }
+
+    static void deleteRecursively(File root) throws IOException {
+        try (Stream<java.nio.file.Path> paths = Files.walk(root.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Generate a textured, opaque battlemap of the given size.
+     */
+    static BufferedImage createMap(int width, int height, int squareSize) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setPaint(new GradientPaint(0, 0, new Color(60, 80, 50), width, height, new Color(130, 110, 90)));
+        g2d.fillRect(0, 0, width, height);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            g2d.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), 90));
+            g2d.fillOval(random.nextInt(width), random.nextInt(height), width / 16 + 1, height / 16 + 1);
+        }
+
+        g2d.setColor(new Color(0, 0, 0, 80));
+        for (int x = 0; x <= width; x += squareSize) {
+            g2d.drawLine(x, 0, x, height);
+        }
+        for (int y = 0; y <= height; y += squareSize) {
+            g2d.drawLine(0, y, width, y);
+        }
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * Generate a round, translucent token sprite.
+     */
+    static BufferedImage createToken(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(new Color(180, 40, 40));
+        g2d.fillOval(0, 0, size, size);
+        g2d.setColor(Color.WHITE);
+        g2d.drawOval(size / 8, size / 8, size * 3 / 4, size * 3 / 4);
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * Write an image to a temporary file in the given format.
+     */
+    static File writeTempImage(BufferedImage image, String format) throws IOException {
+        File file = File.createTempFile("ezbattlemap-bench", "." + format);
+        file.deleteOnExit();
+        ImageIO.write(image, format, file);
+        return file;
+    }
+
+    /**
+     * Reveal a random subset of cells, roughly the given fraction of the grid.
+     */
+    static void revealRandomCells(GridOverlay gridOverlay, double fraction, long seed) {
+        Random random = new Random(seed);
+        for (int y = 0; y < gridOverlay.getGridRows(); y++) {
+            for (int x = 0; x < gridOverlay.getGridCols(); x++) {
+                gridOverlay.selectCell(x, y, random.nextDouble() < fraction);
+            }
+        }
+    }
+
+    /**
+     * Scatter tokens over the grid, sharing one sprite so memory stays flat.
+     * The sprite is seeded into the library's sprite cache when a library is given.
+     */
+    static void placeTokens(TokenOverlay tokenOverlay, GridOverlay gridOverlay, ImageLibrary library,
+                            int count, long seed) {
+        Random random = new Random(seed);
+        if (library != null) {
+            library.putTokenSprite("bench_token", createToken(64));
+        }
+        int cols = Math.max(1, gridOverlay.getGridCols());
+        int rows = Math.max(1, gridOverlay.getGridRows());
+        for (int i = 0; i < count; i++) {
+            tokenOverlay.addToken("bench_token", random.nextInt(cols), random.nextInt(rows));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load-time cost and blit-time gain of converting decoded images to the
+ * compatible layout. Each source format is decoded from an in-memory file as
+ * ImageIO returns it, then drawn into a screen-sized target both raw and
+ * after conversion: scaled with bilinear filtering as the panels draw maps,
+ * and copied 1:1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CompatibleImageBenchmark {
+    private static final int TARGET_WIDTH = 1920;
+    private static final int TARGET_HEIGHT = 1080;
+
+    /** Source file format; png-indexed produces a TYPE_BYTE_INDEXED image. */
+    @Param({"jpg", "png", "png-alpha", "png-indexed"})
+    public String format;
+
+    @Param({"2048"})
+    public int mapSize;
+
+    private byte[] encoded;
+    private BufferedImage raw;
+    private BufferedImage compatible;
+    private boolean translucent;
+    private BufferedImage target;
+    private Graphics2D targetGraphics;
+
+    @Setup
+    public void setUp() throws IOException {
+        BufferedImage map = BenchmarkFixtures.createMap(mapSize, mapSize, 64);
+        BufferedImage source;
+        String writerFormat = "png";
+        translucent = false;
+        switch (format) {
+            case "jpg":
+                source = map;
+                writerFormat = "jpg";
+                break;
+            case "png-alpha":
+                source = new BufferedImage(mapSize, mapSize, BufferedImage.TYPE_INT_ARGB);
+                translucent = true;
+                break;
+            case "png-indexed":
+                source = new BufferedImage(mapSize, mapSize, BufferedImage.TYPE_BYTE_INDEXED);
+                break;
+            default:
+                source = new BufferedImage(mapSize, mapSize, BufferedImage.TYPE_3BYTE_BGR);
+                break;
+        }
+        if (source != map) {
+            Graphics2D g2d = source.createGraphics();
+            g2d.drawImage(map, 0, 0, null);
+            g2d.dispose();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(source, writerFormat, out);
+        encoded = out.toByteArray();
+        raw = decode();
+        compatible = CompatibleImages.toCompatible(raw, translucent);
+
+        target = new BufferedImage(TARGET_WIDTH, TARGET_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        targetGraphics = target.createGraphics();
+        targetGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    }
+
+    @TearDown
+    public void tearDown() {
+        targetGraphics.dispose();
+    }
+
+    private BufferedImage decode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(encoded));
+    }
+
+    @Benchmark
+    public BufferedImage loadRaw() throws IOException {
+        return decode();
+    }
+
+    @Benchmark
+    public BufferedImage loadCompatible() throws IOException {
+        return CompatibleImages.toCompatible(decode(), translucent);
+    }
+
+    @Benchmark
+    public BufferedImage blitRaw() {
+        targetGraphics.drawImage(raw, 0, 0, TARGET_WIDTH, TARGET_HEIGHT, null);
+        return target;
+    }
+
+    @Benchmark
+    public BufferedImage blitCompatible() {
+        targetGraphics.drawImage(compatible, 0, 0, TARGET_WIDTH, TARGET_HEIGHT, null);
+        return target;
+    }
+
+    @Benchmark
+    public BufferedImage copyRaw() {
+        targetGraphics.drawImage(raw, 0, 0, null);
+        return target;
+    }
+
+    @Benchmark
+    public BufferedImage copyCompatible() {
+        targetGraphics.drawImage(compatible, 0, 0, null);
+        return target;
+    }
+}
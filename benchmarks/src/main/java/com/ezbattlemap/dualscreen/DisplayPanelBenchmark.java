@@ -0,0 +1,74 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless player-screen repaint into an offscreen image. Run with -prof gc
+ * to check that a steady-state frame does not allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DisplayPanelBenchmark {
+    private static final int PANEL_WIDTH = 1920;
+    private static final int PANEL_HEIGHT = 1080;
+
+    @Param({"4096"})
+    public int mapSize;
+
+    @Param({"40", "200"})
+    public int cellsPerSide;
+
+    @Param({"0", "200"})
+    public int tokenCount;
+
+    private ImageLibrary library;
+    private DisplayPanel displayPanel;
+    private BufferedImage target;
+    private Graphics2D targetGraphics;
+
+    @Setup
+    public void setUp() throws IOException {
+        library = BenchmarkFixtures.createTempLibrary();
+        int squareSize = Math.max(1, mapSize / cellsPerSide);
+        BufferedImage map = BenchmarkFixtures.createMap(mapSize, mapSize, squareSize);
+
+        GridOverlay gridOverlay = new GridOverlay();
+        gridOverlay.setSquareSize(squareSize);
+        gridOverlay.setImageDimensions(mapSize, mapSize);
+        BenchmarkFixtures.revealRandomCells(gridOverlay, 0.6, 3);
+        TokenOverlay tokenOverlay = new TokenOverlay();
+        BenchmarkFixtures.placeTokens(tokenOverlay, gridOverlay, library, tokenCount, 5);
+
+        displayPanel = new DisplayPanel();
+        displayPanel.setSize(PANEL_WIDTH, PANEL_HEIGHT);
+        displayPanel.setImageLibrary(library);
+        displayPanel.setGridOverlay(gridOverlay);
+        displayPanel.setTokenOverlay(tokenOverlay);
+        displayPanel.setFullImage(map);
+        displayPanel.setViewportImage(map, gridOverlay.getSelectedBounds());
+
+        target = new BufferedImage(PANEL_WIDTH, PANEL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        targetGraphics = target.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        targetGraphics.dispose();
+        BenchmarkFixtures.deleteLibrary(library);
+    }
+
+    @Benchmark
+    public BufferedImage paintComponent() {
+        displayPanel.paintComponent(targetGraphics);
+        return target;
+    }
+}
@@ -0,0 +1,87 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brushed fog: one mouse move's stroke segment, and a player-screen fog pass
+ * after it, which rebuilds only the tiles the segment touched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FogMaskBenchmark {
+    private static final int SQUARE_SIZE = 100;
+    private static final int VIEW_SIZE = 2048;
+
+    @Param({"4096", "20000"})
+    public int mapSize;
+
+    @Param({"25", "100"})
+    public int brushRadius;
+
+    private GridOverlay gridOverlay;
+    private FogMaskTiles tiles;
+    private ViewTransform view;
+    private BufferedImage target;
+    private Graphics2D targetGraphics;
+    private final Random random = new Random(11);
+    private double brushX;
+    private double brushY;
+
+    @Setup
+    public void setUp() {
+        gridOverlay = new GridOverlay();
+        gridOverlay.setSquareSize(SQUARE_SIZE);
+        gridOverlay.setImageDimensions(mapSize, mapSize);
+        BenchmarkFixtures.revealRandomCells(gridOverlay, 0.5, 3);
+        tiles = new FogMaskTiles(0, 0xff000000, true);
+        view = new ViewTransform();
+        target = new BufferedImage(VIEW_SIZE / 2, VIEW_SIZE / 2, BufferedImage.TYPE_INT_RGB);
+        targetGraphics = target.createGraphics();
+        view.set(targetGraphics, 0.5, 0, 0, 0, 0);
+        brushX = VIEW_SIZE / 2.0;
+        brushY = VIEW_SIZE / 2.0;
+        // Start from a mask that has strokes, so the tiled path is the one drawn
+        for (int i = 0; i < 200; i++) {
+            stroke();
+        }
+        tiles.draw(targetGraphics, view, gridOverlay, 0, 0, VIEW_SIZE, VIEW_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        targetGraphics.dispose();
+    }
+
+    /**
+     * A short drag segment that wanders around the drawn area.
+     */
+    private void stroke() {
+        double x = Math.max(0, Math.min(VIEW_SIZE, brushX + random.nextInt(41) - 20));
+        double y = Math.max(0, Math.min(VIEW_SIZE, brushY + random.nextInt(41) - 20));
+        gridOverlay.brush(brushX, brushY, x, y, brushRadius, random.nextInt(4) != 0);
+        brushX = x;
+        brushY = y;
+    }
+
+    @Benchmark
+    public FogMask strokeSegment() {
+        stroke();
+        return gridOverlay.getFogMask();
+    }
+
+    @Benchmark
+    public BufferedImage strokeAndDraw() {
+        stroke();
+        tiles.draw(targetGraphics, view, gridOverlay, 0, 0, VIEW_SIZE, VIEW_SIZE);
+        return target;
+    }
+}
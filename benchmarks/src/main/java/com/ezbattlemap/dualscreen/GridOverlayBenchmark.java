@@ -0,0 +1,78 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fog-of-war queries that run on every controller and display repaint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GridOverlayBenchmark {
+    private static final int SQUARE_SIZE = 20;
+    // Small squares keep the map for the color fill in memory at 1000 cells per side
+    private static final int MAP_SQUARE_SIZE = 4;
+
+    @Param({"10", "100", "1000"})
+    public int cellsPerSide;
+
+    @Param({"0.5"})
+    public double revealedFraction;
+
+    private GridOverlay gridOverlay;
+    private GridOverlay mapOverlay;
+    private BufferedImage map;
+
+    @Setup
+    public void setUp() {
+        gridOverlay = new GridOverlay();
+        gridOverlay.setSquareSize(SQUARE_SIZE);
+        gridOverlay.setImageDimensions(cellsPerSide * SQUARE_SIZE, cellsPerSide * SQUARE_SIZE);
+        BenchmarkFixtures.revealRandomCells(gridOverlay, revealedFraction, 7);
+        mapOverlay = new GridOverlay();
+        mapOverlay.setSquareSize(MAP_SQUARE_SIZE);
+        mapOverlay.setImageDimensions(cellsPerSide * MAP_SQUARE_SIZE, cellsPerSide * MAP_SQUARE_SIZE);
+        map = BenchmarkFixtures.createMap(cellsPerSide * MAP_SQUARE_SIZE, cellsPerSide * MAP_SQUARE_SIZE,
+                MAP_SQUARE_SIZE);
+        // A wall ring around the middle half of the grid, so regions inside and outside it differ
+        int from = cellsPerSide / 4;
+        int to = cellsPerSide * 3 / 4;
+        for (int i = from; i <= to; i++) {
+            gridOverlay.setWall(i, from, true);
+            gridOverlay.setWall(i, to, true);
+            gridOverlay.setWall(from, i, true);
+            gridOverlay.setWall(to, i, true);
+        }
+    }
+
+    @Benchmark
+    public List<Rectangle> unselectedCellRectangles() {
+        return gridOverlay.getUnselectedCellRectangles();
+    }
+
+    @Benchmark
+    public Rectangle selectedBounds() {
+        return gridOverlay.getSelectedBounds();
+    }
+
+    // The room inside the wall ring, and the area of similar color around the middle of a textured map
+
+    @Benchmark
+    public BitSet findRegionInsideWalls() {
+        return gridOverlay.findRegion(cellsPerSide / 2, cellsPerSide / 2, null, 0);
+    }
+
+    @Benchmark
+    public BitSet findRegionByColor() {
+        return mapOverlay.findRegion(cellsPerSide / 2, cellsPerSide / 2, map, 90);
+    }
+}
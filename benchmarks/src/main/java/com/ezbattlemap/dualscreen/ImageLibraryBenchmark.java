@@ -0,0 +1,83 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Library search, metadata persistence and thumbnail generation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImageLibraryBenchmark {
+    private static final String[] CATEGORIES = {"Dungeons", "Caves", "Towns", "Forests", "Ships"};
+    private static final String[] TAGS = {"indoor", "outdoor", "boss-fight", "urban", "night", "water"};
+
+    @Param({"2000"})
+    public int imageCount;
+
+    @Param({"4096"})
+    public int mapSize;
+
+    private ImageLibrary library;
+    private File mapFile;
+    private String updatedId;
+
+    @Setup
+    public void setUp() throws IOException {
+        library = BenchmarkFixtures.createTempLibrary();
+        List<ImageMetadata> entries = new ArrayList<>();
+        for (int i = 0; i < imageCount; i++) {
+            String id = "map_" + i;
+            ImageMetadata meta = new ImageMetadata(id, id + ".png",
+                    i % 4 == 0 ? ImageMetadata.LibraryType.TOKEN : ImageMetadata.LibraryType.MAP);
+            meta.setDisplayName("Encounter " + i);
+            meta.setCategory(CATEGORIES[i % CATEGORIES.length]);
+            meta.addTag(TAGS[i % TAGS.length]);
+            meta.addTag(TAGS[(i * 7) % TAGS.length]);
+            meta.setNotes("Session " + (i % 40) + " notes for encounter " + i);
+            entries.add(meta);
+        }
+        library.putMetadata(entries);
+        updatedId = "map_0";
+        mapFile = BenchmarkFixtures.writeTempImage(BenchmarkFixtures.createMap(mapSize, mapSize, 100), "png");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteLibrary(library);
+        mapFile.delete();
+    }
+
+    @Benchmark
+    public List<String> searchImages() {
+        return library.searchImages("boss");
+    }
+
+    @Benchmark
+    public void saveMetadata() {
+        library.updateMetadata(updatedId, library.getMetadata(updatedId));
+    }
+
+    @Benchmark
+    public ImageLibrary loadMetadata() throws IOException {
+        return new ImageLibrary(library.getLibraryRoot());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void generateThumbnail() {
+        library.generateThumbnail(mapFile, "bench_thumbnail");
+    }
+}
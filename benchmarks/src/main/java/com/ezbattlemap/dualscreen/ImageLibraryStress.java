@@ -0,0 +1,187 @@
+package com.ezbattlemap.dualscreen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency stress run for ImageLibrary.
+ *
+ * Worker threads add, search and delete images in one shared library at the
+ * same time. The run checks that no worker failed, addImage never hands out an
+ * id that is still live, every remaining entry has its file on disk, and a
+ * library reloaded from disk holds exactly the same ids. A last phase races
+ * deleting the newest image against adding one of the same name, which is
+ * given the freed id if the library releases it too early, and checks that
+ * the delete never takes the new image's files. Exits with status 1 on any
+ * violation.
+ *
+ * Usage:
+ *   java -cp benchmarks/target/benchmarks.jar com.ezbattlemap.dualscreen.ImageLibraryStress \
+ *        [threads=4] [seconds=10]
+ */
+public class ImageLibraryStress {
+    private static final int RACE_ROUNDS = 200;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ImageLibrary library = BenchmarkFixtures.createTempLibrary();
+        File sourceImage = BenchmarkFixtures.writeTempImage(BenchmarkFixtures.createToken(64), "png");
+        AtomicInteger listenerEvents = new AtomicInteger();
+        library.addLibraryListener((type, imageId) -> listenerEvents.incrementAndGet());
+
+        // Ids currently in the library; a single deleter keeps this exact
+        Set<String> liveIds = ConcurrentHashMap.newKeySet();
+        List<String> failures = new CopyOnWriteArrayList<>();
+        AtomicLong adds = new AtomicLong();
+        AtomicLong searches = new AtomicLong();
+        AtomicLong deletes = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads * 2 + 1);
+        for (int t = 0; t < threads; t++) {
+            final int worker = t;
+            pool.execute(() -> {
+                ImageMetadata.LibraryType type = worker % 2 == 0
+                        ? ImageMetadata.LibraryType.MAP : ImageMetadata.LibraryType.TOKEN;
+                while (System.nanoTime() < deadline) {
+                    try {
+                        ImageMetadata meta = library.addImage(sourceImage, type);
+                        if (!liveIds.add(meta.getId())) {
+                            failures.add("Duplicate id issued: " + meta.getId());
+                        }
+                        meta.addTag("worker-" + worker);
+                        library.updateMetadata(meta.getId(), meta);
+                        adds.incrementAndGet();
+                    } catch (Exception e) {
+                        failures.add("add: " + e);
+                    }
+                }
+            });
+            pool.execute(() -> {
+                Random random = new Random(worker);
+                while (System.nanoTime() < deadline) {
+                    try {
+                        library.searchImages("worker-" + random.nextInt(threads));
+                        library.getCategoriesByType(ImageMetadata.LibraryType.MAP);
+                        for (String id : library.getImageIdsByType(ImageMetadata.LibraryType.TOKEN)) {
+                            library.getThumbnail(id);
+                        }
+                        searches.incrementAndGet();
+                    } catch (Exception e) {
+                        failures.add("search: " + e);
+                    }
+                }
+            });
+        }
+        pool.execute(() -> {
+            Random random = new Random(42);
+            while (System.nanoTime() < deadline) {
+                try {
+                    List<String> ids = library.getAllImageIds();
+                    if (ids.size() > 20) {
+                        // Only delete ids an adder has recorded, and release them first:
+                        // adders, which take the lowest free id, may be given this one
+                        // again as soon as the delete completes
+                        String id = ids.get(random.nextInt(ids.size()));
+                        if (liveIds.remove(id)) {
+                            library.deleteImage(id);
+                            deletes.incrementAndGet();
+                            // Reissued while the delete ran, it would have lost its new file
+                            ImageMetadata reissued = library.getMetadata(id);
+                            if (reissued != null && !fileOf(library, reissued).exists()) {
+                                failures.add("Delete removed the file of reissued id " + id);
+                            }
+                        }
+                    } else {
+                        Thread.sleep(1);
+                    }
+                } catch (Exception e) {
+                    failures.add("delete: " + e);
+                }
+            }
+        });
+        pool.shutdown();
+        if (!pool.awaitTermination(seconds + 60L, TimeUnit.SECONDS)) {
+            failures.add("Workers did not finish");
+        }
+
+        raceDeletesWithAdds(library, sourceImage, liveIds, failures);
+        verifyFiles(library, failures);
+        ImageLibrary reloaded = new ImageLibrary(library.getLibraryRoot());
+        Set<String> live = new TreeSet<>(library.getAllImageIds());
+        Set<String> persisted = new TreeSet<>(reloaded.getAllImageIds());
+        if (!live.equals(persisted)) {
+            failures.add("Reloaded library differs: " + live.size() + " live vs " + persisted.size() + " on disk");
+        }
+        if (!live.equals(new TreeSet<>(liveIds))) {
+            failures.add("Library holds " + live.size() + " ids but workers expected " + liveIds.size());
+        }
+
+        System.out.printf("adds=%d searches=%d deletes=%d remaining=%d listenerEvents=%d%n",
+                adds.get(), searches.get(), deletes.get(), live.size(), listenerEvents.get());
+        BenchmarkFixtures.deleteLibrary(library);
+        sourceImage.delete();
+
+        if (!failures.isEmpty()) {
+            System.err.println(failures.size() + " failures, first: " + failures.get(0));
+            System.exit(1);
+        }
+        System.out.println("ImageLibrary stress run passed");
+        System.exit(0);
+    }
+
+    /**
+     * Add an image, then delete it while adding another of the same name
+     * from a second thread. Whichever id the second add is given, its file
+     * and thumbnail must survive the delete.
+     */
+    private static void raceDeletesWithAdds(ImageLibrary library, File sourceImage, Set<String> liveIds,
+                                            List<String> failures) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < RACE_ROUNDS; round++) {
+                String deletedId = library.addImage(sourceImage, ImageMetadata.LibraryType.TOKEN).getId();
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?> delete = pool.submit(() -> {
+                    start.await();
+                    library.deleteImage(deletedId);
+                    return null;
+                });
+                Future<ImageMetadata> add = pool.submit(() -> {
+                    start.await();
+                    return library.addImage(sourceImage, ImageMetadata.LibraryType.TOKEN);
+                });
+                start.countDown();
+                delete.get();
+                ImageMetadata added = add.get();
+                liveIds.add(added.getId());
+                File thumbnail = new File(new File(library.getLibraryRoot(), "thumbnails"), added.getId() + ".png");
+                if (!fileOf(library, added).exists() || !thumbnail.exists()) {
+                    failures.add("Delete of " + deletedId + " removed the files of " + added.getId());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void verifyFiles(ImageLibrary library, List<String> failures) throws IOException {
+        for (String id : library.getAllImageIds()) {
+            if (!fileOf(library, library.getMetadata(id)).exists()) {
+                failures.add("Missing file for " + id);
+            }
+        }
+    }
+
+    private static File fileOf(ImageLibrary library, ImageMetadata meta) {
+        String dir = meta.getLibraryType() == ImageMetadata.LibraryType.TOKEN ? "tokens" : "maps";
+        return new File(new File(library.getLibraryRoot(), dir), meta.getFileName());
+    }
+}
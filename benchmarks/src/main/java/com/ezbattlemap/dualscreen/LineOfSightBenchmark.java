@@ -0,0 +1,52 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One vision token's field of view, computed again each time it moves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineOfSightBenchmark {
+    @Param({"100", "500"})
+    public int cellsPerSide;
+
+    // 0 is an open field, where the whole grid is visible
+    @Param({"0", "0.05", "0.3"})
+    public double wallFraction;
+
+    @Param({"1", "3"})
+    public int tokenSize;
+
+    private BitSet walls;
+    private int origin;
+
+    @Setup
+    public void setUp() {
+        walls = new BitSet(cellsPerSide * cellsPerSide);
+        Random random = new Random(7);
+        for (int i = 0; i < cellsPerSide * cellsPerSide; i++) {
+            if (random.nextDouble() < wallFraction) {
+                walls.set(i);
+            }
+        }
+        origin = (cellsPerSide - tokenSize) / 2;
+        // The token stands on floor
+        for (int y = origin; y < origin + tokenSize; y++) {
+            walls.clear(y * cellsPerSide + origin, y * cellsPerSide + origin + tokenSize);
+        }
+    }
+
+    @Benchmark
+    public BitSet computeVisible() {
+        return LineOfSight.computeVisible(walls, cellsPerSide, cellsPerSide, origin, origin, tokenSize, tokenSize);
+    }
+}
@@ -0,0 +1,69 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reopening a map: decoding the original file versus reading the fast-decode
+ * cache written after the first open. The cache is decoded strip by strip in
+ * parallel; compare thread counts with
+ * -jvmArgsAppend -Dezbattlemap.decodeThreads=N.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class MapCacheBenchmark {
+    private static final String MAP_ID = "bench_map";
+
+    @Param({"4096", "8192"})
+    public int mapSize;
+
+    @Param({"png", "jpg"})
+    public String format;
+
+    private File root;
+    private File mapFile;
+    private MapCache mapCache;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        root = Files.createTempDirectory("ezbattlemap-mapcache").toFile();
+        mapFile = BenchmarkFixtures.writeTempImage(BenchmarkFixtures.createMap(mapSize, mapSize, 128), format);
+        mapCache = new MapCache(root);
+        mapCache.writeAsync(MAP_ID, mapFile, CompatibleImages.toCompatible(ImageIO.read(mapFile), false));
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (mapCache.read(MAP_ID, mapFile) == null) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Map cache was not written");
+            }
+            Thread.sleep(100);
+        }
+        System.out.printf("%n%s source %d KB, cache %d KB%n", format, mapFile.length() / 1024,
+                new File(new File(root, "cache"), MAP_ID + ".ezc").length() / 1024);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mapFile.delete();
+        BenchmarkFixtures.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public BufferedImage decodeOriginal() throws IOException {
+        return CompatibleImages.toCompatible(ImageIO.read(mapFile), false);
+    }
+
+    @Benchmark
+    public BufferedImage readCache() {
+        return CompatibleImages.toCompatible(mapCache.read(MAP_ID, mapFile), false);
+    }
+}
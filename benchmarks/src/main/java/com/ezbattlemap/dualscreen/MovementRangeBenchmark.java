@@ -0,0 +1,100 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Movement range of a selected token among walls and other tokens, as the
+ * controller paints it: after the token moves, its range at 30 ft with a path
+ * to a nearby square, or a path right across the grid; and following the
+ * cursor with its path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MovementRangeBenchmark {
+    private static final int SQUARE_SIZE = 10;
+    private static final int SPEED_SQUARES = 6;
+
+    @Param({"100", "300", "1000"})
+    public int gridSize;
+
+    private GridOverlay gridOverlay;
+    private TokenOverlay tokenOverlay;
+    private MovementRange movementRange;
+    private Token token;
+    private int tokenIndex;
+    private final Random random = new Random(17);
+    private int[] targets;
+    private int target;
+
+    @Setup
+    public void setUp() {
+        gridOverlay = new GridOverlay();
+        gridOverlay.setSquareSize(SQUARE_SIZE);
+        gridOverlay.setImageDimensions(gridSize * SQUARE_SIZE, gridSize * SQUARE_SIZE);
+        // Scattered walls and tokens on a tenth of the cells each
+        for (int i = 0; i < gridSize * gridSize / 10; i++) {
+            gridOverlay.setWall(random.nextInt(gridSize), random.nextInt(gridSize), true);
+        }
+        tokenOverlay = new TokenOverlay();
+        for (int i = 0; i < gridSize * gridSize / 10; i++) {
+            tokenOverlay.addToken("token", random.nextInt(gridSize), random.nextInt(gridSize));
+        }
+        token = tokenOverlay.addToken("hero", gridSize / 2, gridSize / 2);
+        tokenIndex = tokenOverlay.indexOf(token);
+        movementRange = new MovementRange(gridOverlay, tokenOverlay);
+        movementRange.update(tokenIndex);
+        // A cursor wandering a square at a time
+        targets = new int[4096];
+        int x = gridSize / 2;
+        int y = gridSize / 2;
+        for (int i = 0; i < targets.length; i += 2) {
+            x = Math.max(0, Math.min(gridSize - 1, x + random.nextInt(3) - 1));
+            y = Math.max(0, Math.min(gridSize - 1, y + random.nextInt(3) - 1));
+            targets[i] = x;
+            targets[i + 1] = y;
+        }
+    }
+
+    /**
+     * Back and forth between two cells, so every call searches again.
+     */
+    private void moveToken() {
+        int x = token.getGridX() == gridSize / 2 ? gridSize / 2 + 1 : gridSize / 2;
+        tokenOverlay.moveToken(token.getId(), x, gridSize / 2);
+        movementRange.update(tokenIndex);
+    }
+
+    @Benchmark
+    public int moveAndShowRange() {
+        moveToken();
+        int reachable = 0;
+        for (int y = gridSize / 2 - SPEED_SQUARES; y <= gridSize / 2 + SPEED_SQUARES; y++) {
+            for (int x = gridSize / 2 - SPEED_SQUARES; x <= gridSize / 2 + SPEED_SQUARES + 1; x++) {
+                if (movementRange.canReach(x, y, SPEED_SQUARES)) {
+                    reachable++;
+                }
+            }
+        }
+        return reachable + movementRange.pathTo(gridSize / 2 + 8, gridSize / 2 + 3);
+    }
+
+    @Benchmark
+    public int moveAndPathAcross() {
+        moveToken();
+        return movementRange.pathTo(gridSize - 1, gridSize - 1);
+    }
+
+    @Benchmark
+    public int cursorMove() {
+        target = (target + 2) % targets.length;
+        movementRange.update(tokenIndex);
+        return movementRange.pathTo(targets[target], targets[target + 1]);
+    }
+}
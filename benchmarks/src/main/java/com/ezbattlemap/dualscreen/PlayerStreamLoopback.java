@@ -0,0 +1,247 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Loopback run of the network player screen.
+ *
+ * Starts a PlayerStreamServer and a PlayerStreamClient on localhost for each
+ * map size, then reveals single cells and moves single tokens one at a time.
+ * For each kind of change it reports the bytes sent and the time until the
+ * client's mirrored grid or tokens match, which should stay flat as the map
+ * grows. Last it reveals all but the map's edge at once while a token is
+ * dragged at 60 Hz, and reports the time until the client has every tile;
+ * maps over 16384 pixels have more tiles than the server lets a viewer fall
+ * behind by in scene messages. Exits with status 1 if the client ever
+ * disagrees with the server or does not catch up.
+ *
+ * Usage:
+ *   java -cp benchmarks/target/benchmarks.jar com.ezbattlemap.dualscreen.PlayerStreamLoopback \
+ *        [maps=1024,4096,8192] [changes=50]
+ *
+ * Maps of 16384 pixels and more need a heap of about 4 GB (-Xmx4g).
+ */
+public class PlayerStreamLoopback {
+    private static final int SQUARE_SIZE = 50;
+    private static final int TOKEN_COUNT = 500;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long OPEN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(300);
+    private static final int DRAG_MILLIS = 16;
+
+    private PlayerStreamServer server;
+    private PlayerStreamClient client;
+    private GridOverlay gridOverlay;
+    private TokenOverlay tokenOverlay;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int[] maps = Arrays.stream((args.length > 0 ? args[0] : "1024,4096,8192").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int changes = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        ImageLibrary library = BenchmarkFixtures.createTempLibrary();
+        try {
+            System.out.printf("%-6s %14s %12s %12s %12s %12s %12s %12s%n", "map", "snapshot KB",
+                    "cell bytes", "cell ms", "token bytes", "token ms", "open KB", "open ms");
+            for (int size : maps) {
+                new PlayerStreamLoopback().run(library, size, changes);
+            }
+        } finally {
+            BenchmarkFixtures.deleteLibrary(library);
+        }
+        System.exit(0);
+    }
+
+    private void run(ImageLibrary library, int size, int changes) throws Exception {
+        BufferedImage map = BenchmarkFixtures.createMap(size, size, SQUARE_SIZE);
+        onEdt(() -> {
+            gridOverlay = new GridOverlay();
+            gridOverlay.setSquareSize(SQUARE_SIZE);
+            gridOverlay.setImageDimensions(size, size);
+            // A revealed room in the middle, so the viewport stays put
+            int middle = gridOverlay.getGridCols() / 2;
+            for (int y = middle - 5; y < middle + 5; y++) {
+                for (int x = middle - 5; x < middle + 5; x++) {
+                    gridOverlay.selectCell(x, y, true);
+                }
+            }
+            tokenOverlay = new TokenOverlay();
+            BenchmarkFixtures.placeTokens(tokenOverlay, gridOverlay, library, TOKEN_COUNT, 42);
+
+            server = new PlayerStreamServer(library);
+            try {
+                server.start(0);
+            } catch (java.io.IOException e) {
+                throw new IllegalStateException(e);
+            }
+            server.setImage(map);
+            server.updateGridOverlay(gridOverlay);
+            server.updateTokenOverlay(tokenOverlay);
+            DisplayPanel panel = new DisplayPanel();
+            panel.setSize(1920, 1080);
+            client = new PlayerStreamClient("localhost", server.getPort(), panel, null);
+            client.start();
+        });
+
+        long start = sent();
+        awaitInSync();
+        long snapshotBytes = sent() - start;
+
+        // Single cells at the room's edge, alternately revealed and hidden
+        int middle = gridOverlay.getGridCols() / 2;
+        long cellBytes = 0;
+        long cellNanos = 0;
+        for (int i = 0; i < changes; i++) {
+            int x = middle - 4 + i % 8;
+            boolean reveal = (i / 8) % 2 == 1;
+            long before = sent();
+            long changeStart = System.nanoTime();
+            onEdt(() -> {
+                gridOverlay.selectCell(x, middle - 5, reveal);
+                server.updateRevealedCells();
+            });
+            awaitInSync();
+            cellNanos += System.nanoTime() - changeStart;
+            cellBytes += sent() - before;
+        }
+
+        long tokenBytes = 0;
+        long tokenNanos = 0;
+        for (int i = 0; i < changes; i++) {
+            int step = i;
+            long before = sent();
+            long changeStart = System.nanoTime();
+            onEdt(() -> {
+                String tokenId = tokenOverlay.getTokenId(step % TOKEN_COUNT);
+                Token token = tokenOverlay.getToken(tokenId);
+                tokenOverlay.moveToken(tokenId, token.getGridX() + 1, token.getGridY());
+                server.updateTokenOverlay(tokenOverlay);
+            });
+            awaitInSync();
+            tokenNanos += System.nanoTime() - changeStart;
+            tokenBytes += sent() - before;
+        }
+
+        // All but the edge revealed at once, while a token is dragged
+        long openBefore = sent();
+        long openStart = System.nanoTime();
+        int[] expectedTiles = new int[1];
+        onEdt(() -> {
+            int cols = gridOverlay.getGridCols();
+            int rows = gridOverlay.getGridRows();
+            for (int y = 1; y < rows - 1; y++) {
+                for (int x = 1; x < cols - 1; x++) {
+                    gridOverlay.selectCell(x, y, true);
+                }
+            }
+            server.updateRevealedCells();
+            expectedTiles[0] = tilesCovering(gridOverlay.getSelectedBounds());
+        });
+        awaitAllTiles(expectedTiles[0]);
+        long openNanos = System.nanoTime() - openStart;
+        long openBytes = sent() - openBefore;
+
+        System.out.printf("%-6d %14d %12.1f %12.2f %12.1f %12.2f %12d %12.0f%n", size, snapshotBytes / 1024,
+                cellBytes / (double) changes, cellNanos / 1e6 / changes,
+                tokenBytes / (double) changes, tokenNanos / 1e6 / changes,
+                openBytes / 1024, openNanos / 1e6);
+        onEdt(() -> {
+            client.close();
+            server.stop();
+        });
+    }
+
+    private static long sent() {
+        return PerfMetrics.Counter.STREAM_BYTES_SENT.getCount();
+    }
+
+    private void awaitInSync() throws Exception {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (!check(this::inSync)) {
+            if (System.nanoTime() > deadline) {
+                System.err.println("Client did not catch up with the server");
+                System.exit(1);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static int tilesCovering(java.awt.Rectangle area) {
+        int size = PlayerStreamCodec.TILE_SIZE;
+        int columns = (area.x + area.width - 1) / size - area.x / size + 1;
+        int rows = (area.y + area.height - 1) / size - area.y / size + 1;
+        return columns * rows;
+    }
+
+    /**
+     * Drag a token back and forth at 60 Hz until the client has a number of
+     * tiles and agrees with the server. The drag runs on a timer, so it goes
+     * on while the event dispatch thread is busy with the client's tiles.
+     */
+    private void awaitAllTiles(int tiles) throws Exception {
+        long deadline = System.nanoTime() + OPEN_TIMEOUT_NANOS;
+        Timer[] drag = new Timer[1];
+        onEdt(() -> {
+            String tokenId = tokenOverlay.getTokenId(0);
+            int[] step = {1};
+            drag[0] = new Timer(DRAG_MILLIS, e -> {
+                Token token = tokenOverlay.getToken(tokenId);
+                tokenOverlay.moveToken(tokenId, token.getGridX() + step[0], token.getGridY());
+                server.updateTokenOverlay(tokenOverlay);
+                step[0] = -step[0];
+            });
+            drag[0].start();
+        });
+        try {
+            while (!check(() -> client.getTileCount() >= tiles && inSync())) {
+                if (System.nanoTime() > deadline) {
+                    System.err.println("Client did not receive the revealed map's tiles");
+                    System.exit(1);
+                }
+                Thread.sleep(DRAG_MILLIS);
+            }
+        } finally {
+            onEdt(() -> drag[0].stop());
+        }
+    }
+
+    private boolean inSync() {
+        GridOverlay mirroredGrid = client.getGridOverlay();
+        if (mirroredGrid.getGridCols() != gridOverlay.getGridCols()
+                || mirroredGrid.getGridRows() != gridOverlay.getGridRows()) {
+            return false;
+        }
+        for (int y = 0; y < gridOverlay.getGridRows(); y++) {
+            if (!Arrays.equals(mirroredGrid.getSelectedCells()[y], gridOverlay.getSelectedCells()[y])) {
+                return false;
+            }
+        }
+        TokenOverlay mirroredTokens = client.getTokenOverlay();
+        if (mirroredTokens.getTokenCount() != tokenOverlay.getTokenCount()) {
+            return false;
+        }
+        for (int i = 0; i < tokenOverlay.getTokenCount(); i++) {
+            Token token = mirroredTokens.getToken(tokenOverlay.getTokenId(i));
+            if (token == null || token.getGridX() != tokenOverlay.getGridX(i)
+                    || token.getGridY() != tokenOverlay.getGridY(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean check(BooleanSupplier condition) throws Exception {
+        boolean[] result = new boolean[1];
+        SwingUtilities.invokeAndWait(() -> result[0] = condition.getAsBoolean());
+        return result[0];
+    }
+
+    private static void onEdt(Runnable action) throws Exception {
+        SwingUtilities.invokeAndWait(action);
+    }
+}
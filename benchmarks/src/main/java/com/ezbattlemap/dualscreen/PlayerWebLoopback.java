@@ -0,0 +1,286 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback run of the browser player screen.
+ *
+ * Starts a PlayerWebServer on localhost for each map size and checks it the
+ * way a browser uses it: the page, a map tile with its immutable caching, a
+ * token image revalidated by ETag, and the event stream. Then it opens an
+ * event stream per simulated phone, reveals single cells and moves single
+ * tokens one at a time, and reports the bytes of each change's event and the
+ * time until every phone has it, which should stay flat as the map grows.
+ * Exits with status 1 if a response or event is not the expected one.
+ *
+ * Usage:
+ *   java -cp benchmarks/target/benchmarks.jar com.ezbattlemap.dualscreen.PlayerWebLoopback \
+ *        [maps=1024,4096,8192] [changes=50] [browsers=12]
+ */
+public class PlayerWebLoopback {
+    private static final int SQUARE_SIZE = 50;
+    private static final int TOKEN_COUNT = 500;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private PlayerWebServer server;
+    private GridOverlay gridOverlay;
+    private TokenOverlay tokenOverlay;
+    private final List<EventStream> streams = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int[] maps = Arrays.stream((args.length > 0 ? args[0] : "1024,4096,8192").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int changes = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int browsers = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+
+        ImageLibrary library = BenchmarkFixtures.createTempLibrary();
+        try {
+            System.out.printf("%-6s %14s %12s %12s %12s %12s%n", "map", "snapshot KB",
+                    "cell bytes", "cell ms", "token bytes", "token ms");
+            for (int size : maps) {
+                new PlayerWebLoopback().run(library, size, changes, browsers);
+            }
+        } finally {
+            BenchmarkFixtures.deleteLibrary(library);
+        }
+        System.exit(0);
+    }
+
+    private void run(ImageLibrary library, int size, int changes, int browsers) throws Exception {
+        BufferedImage map = BenchmarkFixtures.createMap(size, size, SQUARE_SIZE);
+        onEdt(() -> {
+            gridOverlay = new GridOverlay();
+            gridOverlay.setSquareSize(SQUARE_SIZE);
+            gridOverlay.setImageDimensions(size, size);
+            // A revealed room in the middle, so the viewport stays put
+            int middle = gridOverlay.getGridCols() / 2;
+            for (int y = middle - 5; y < middle + 5; y++) {
+                for (int x = middle - 5; x < middle + 5; x++) {
+                    gridOverlay.selectCell(x, y, true);
+                }
+            }
+            tokenOverlay = new TokenOverlay();
+            BenchmarkFixtures.placeTokens(tokenOverlay, gridOverlay, library, TOKEN_COUNT, 42);
+
+            server = new PlayerWebServer(library);
+            try {
+                server.start(0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            server.setImage(map);
+            server.updateGridOverlay(gridOverlay);
+            server.updateTokenOverlay(tokenOverlay);
+        });
+        String base = "http://localhost:" + server.getPort();
+
+        String page = new String(get(base + "/", null, 200, "no-cache"), StandardCharsets.UTF_8);
+        expect(page.contains("new EventSource('/events')"), "page does not open the event stream");
+
+        int snapshotBytes = 0;
+        for (int i = 0; i < browsers; i++) {
+            EventStream stream = new EventStream(base + "/events");
+            streams.add(stream);
+            String snapshot = stream.next();
+            snapshotBytes = snapshot.length();
+            expect(snapshot.startsWith("[{\"t\":\"map\",\"v\":1,\"w\":" + size), "snapshot does not start with the map");
+            expect(snapshot.contains("{\"t\":\"grid\",\"size\":" + SQUARE_SIZE), "snapshot has no grid");
+            expect(count(snapshot, "{\"t\":\"token\"") == TOKEN_COUNT, "snapshot does not have every token");
+        }
+
+        // The tile under the revealed room, as a browser would fetch it
+        Rectangle viewport = gridOverlay.getSelectedBounds();
+        expect(viewport != null && snapshotContains(viewportJson(viewport)), "snapshot has the wrong viewport");
+        int column = viewport.x / PlayerStreamCodec.TILE_SIZE;
+        int row = viewport.y / PlayerStreamCodec.TILE_SIZE;
+        BufferedImage tile = ImageIO.read(new ByteArrayInputStream(get(base + "/tiles/1/" + column + "_" + row
+                + ".png", null, 200, "public, max-age=31536000, immutable")));
+        expect(tile != null && tile.getRGB(5, 5) == map.getRGB(column * PlayerStreamCodec.TILE_SIZE + 5,
+                row * PlayerStreamCodec.TILE_SIZE + 5), "tile does not show the map");
+        get(base + "/tiles/2/" + column + "_" + row + ".png", null, 404, null);
+
+        String imageId = tokenOverlay.getImageId(0);
+        String spriteUrl = base + "/sprites/" + URLEncoder.encode(imageId, "UTF-8").replace("+", "%20");
+        HttpURLConnection sprite = open(spriteUrl, null);
+        expect(sprite.getResponseCode() == 200 && sprite.getHeaderField("ETag") != null, "sprite has no ETag");
+        sprite.getInputStream().readAllBytes();
+        get(spriteUrl, sprite.getHeaderField("ETag"), 304, null);
+
+        // Single cells at the room's edge, alternately revealed and hidden
+        int middle = gridOverlay.getGridCols() / 2;
+        long cellBytes = 0;
+        long cellNanos = 0;
+        for (int i = 0; i < changes; i++) {
+            int x = middle - 4 + i % 8;
+            boolean reveal = (i / 8) % 2 == 1;
+            long changeStart = System.nanoTime();
+            onEdt(() -> {
+                gridOverlay.selectCell(x, middle - 5, reveal);
+                server.updateRevealedCells();
+            });
+            String expected = "[{\"t\":\"fog\",\"y\":" + (middle - 5) + ",\"x\":" + x + ",\"n\":1,\"on\":" + reveal + "}";
+            cellBytes += awaitEvent(expected);
+            cellNanos += System.nanoTime() - changeStart;
+        }
+
+        long tokenBytes = 0;
+        long tokenNanos = 0;
+        for (int i = 0; i < changes; i++) {
+            int step = i;
+            String[] expected = new String[1];
+            long changeStart = System.nanoTime();
+            onEdt(() -> {
+                String tokenId = tokenOverlay.getTokenId(step % TOKEN_COUNT);
+                Token token = tokenOverlay.getToken(tokenId);
+                int x = token.getGridX() + 1;
+                int y = token.getGridY();
+                tokenOverlay.moveToken(tokenId, x, y);
+                server.updateTokenOverlay(tokenOverlay);
+                expected[0] = "[{\"t\":\"move\",\"id\":" + TokenOverlay.numberOf(tokenId)
+                        + ",\"x\":" + x + ",\"y\":" + y + ",";
+            });
+            tokenBytes += awaitEvent(expected[0]);
+            tokenNanos += System.nanoTime() - changeStart;
+        }
+
+        System.out.printf("%-6d %14d %12.1f %12.2f %12.1f %12.2f%n", size, snapshotBytes / 1024,
+                cellBytes / (double) changes, cellNanos / 1e6 / changes,
+                tokenBytes / (double) changes, tokenNanos / 1e6 / changes);
+        // Stopping the server ends the streams
+        onEdt(server::stop);
+        for (EventStream stream : streams) {
+            expect(stream.awaitEnd(), "event stream still open after stopping");
+        }
+    }
+
+    private boolean snapshotContains(String text) {
+        return streams.get(0).snapshot.contains(text);
+    }
+
+    private static String viewportJson(Rectangle viewport) {
+        return "{\"t\":\"view\",\"x\":" + viewport.x + ",\"y\":" + viewport.y
+                + ",\"w\":" + viewport.width + ",\"h\":" + viewport.height + "}";
+    }
+
+    /**
+     * Wait for every browser's next event, which should start with expected.
+     * Returns the size of one browser's event as sent.
+     */
+    private long awaitEvent(String expected) throws Exception {
+        long bytes = 0;
+        for (EventStream stream : streams) {
+            String event = stream.next();
+            expect(event.startsWith(expected), "expected " + expected + " but got " + event);
+            bytes = ("data: " + event + "\n\n").getBytes(StandardCharsets.UTF_8).length;
+        }
+        return bytes;
+    }
+
+    private static byte[] get(String url, String etag, int status, String cacheControl) throws IOException {
+        HttpURLConnection connection = open(url, etag);
+        expect(connection.getResponseCode() == status,
+                url + " answered " + connection.getResponseCode() + " instead of " + status);
+        if (cacheControl != null) {
+            expect(cacheControl.equals(connection.getHeaderField("Cache-Control")), url + " has the wrong caching");
+        }
+        if (status != 200) {
+            return null;
+        }
+        try (InputStream in = connection.getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static HttpURLConnection open(String url, String etag) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setUseCaches(false);
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        return connection;
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void expect(boolean condition, String problem) {
+        if (!condition) {
+            System.err.println("Browser player screen failed: " + problem);
+            System.exit(1);
+        }
+    }
+
+    private static void onEdt(Runnable action) throws Exception {
+        SwingUtilities.invokeAndWait(action);
+    }
+
+    /**
+     * One browser's event stream, read on a thread of its own.
+     */
+    private static class EventStream {
+        private final Thread reader;
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        private String snapshot;
+
+        EventStream(String url) throws IOException {
+            HttpURLConnection connection = open(url, null);
+            expect(connection.getResponseCode() == 200
+                    && connection.getContentType().startsWith("text/event-stream"), "no event stream");
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+            this.reader = new Thread(() -> read(reader), "event-stream");
+            this.reader.setDaemon(true);
+            this.reader.start();
+        }
+
+        private void read(BufferedReader reader) {
+            try {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (line.startsWith("data: ")) {
+                        events.add(line.substring("data: ".length()));
+                    }
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        String next() throws InterruptedException {
+            String event = events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            expect(event != null, "no event within " + TIMEOUT_SECONDS + " s");
+            if (snapshot == null) {
+                snapshot = event;
+            }
+            return event;
+        }
+
+        boolean awaitEnd() throws InterruptedException {
+            reader.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            return !reader.isAlive();
+        }
+    }
+}
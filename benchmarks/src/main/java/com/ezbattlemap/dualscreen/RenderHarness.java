@@ -0,0 +1,275 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.JComponent;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Headless frame-cost harness for the controller and player panels.
+ *
+ * Builds synthetic maps, grids and token layouts, paints ImagePanel and
+ * DisplayPanel into offscreen images and records per-frame time and
+ * allocation. Results are written one JSON object per line; when a baseline
+ * file is given, any configuration whose p95 frame time or allocation per
+ * frame grew beyond the tolerance is reported and the process exits with 1.
+ *
+ * Usage:
+ *   java -Djava.awt.headless=true -cp benchmarks/target/benchmarks.jar \
+ *        com.ezbattlemap.dualscreen.RenderHarness [options]
+ *
+ *   --maps 1024,4096,8192     map edge lengths in pixels
+ *   --grids 10,100,1000       grid cells per side
+ *   --tokens 0,200,2000       tokens placed on the map
+ *   --frames 30               measured frames per configuration
+ *   --warmup 10               unmeasured frames per configuration
+ *   --out render-results.jsonl
+ *   --baseline previous.jsonl
+ *   --tolerance 0.25          allowed relative growth before failing
+ */
+public class RenderHarness {
+    private static final int PANEL_WIDTH = 1920;
+    private static final int PANEL_HEIGHT = 1080;
+    private static final double MIN_TIME_REGRESSION_MS = 0.5;
+    private static final long MIN_ALLOC_REGRESSION_BYTES = 4096;
+    private static final Pattern FIELD = Pattern.compile("\"(\\w+)\":\"?([^,\"}]+)\"?");
+
+    private final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        Map<String, String> options = parseOptions(args);
+
+        int[] maps = parseList(options.getOrDefault("maps", "1024,4096,8192"));
+        int[] grids = parseList(options.getOrDefault("grids", "10,100,1000"));
+        int[] tokens = parseList(options.getOrDefault("tokens", "0,200,2000"));
+        int frames = Integer.parseInt(options.getOrDefault("frames", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        File out = new File(options.getOrDefault("out", "render-results.jsonl"));
+        double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "0.25"));
+
+        RenderHarness harness = new RenderHarness();
+        List<Result> results = new ArrayList<>();
+        ImageLibrary library = BenchmarkFixtures.createTempLibrary();
+        try {
+            for (int mapSize : maps) {
+                for (int cells : grids) {
+                    BufferedImage map = BenchmarkFixtures.createMap(mapSize, mapSize, Math.max(1, mapSize / cells));
+                    for (int tokenCount : tokens) {
+                        results.addAll(harness.runScenario(library, map, cells, tokenCount, warmup, frames));
+                    }
+                }
+            }
+        } finally {
+            BenchmarkFixtures.deleteLibrary(library);
+        }
+
+        try (PrintWriter writer = new PrintWriter(out, StandardCharsets.UTF_8.name())) {
+            for (Result result : results) {
+                writer.println(result.toJson());
+            }
+        }
+        System.out.println("Wrote " + results.size() + " results to " + out.getAbsolutePath());
+
+        if (options.containsKey("baseline")) {
+            List<String> regressions = compare(new File(options.get("baseline")), results, tolerance);
+            if (!regressions.isEmpty()) {
+                System.err.println("Render regressions against " + options.get("baseline") + ":");
+                for (String regression : regressions) {
+                    System.err.println("  " + regression);
+                }
+                System.exit(1);
+            }
+            System.out.println("No regressions against " + options.get("baseline"));
+        }
+    }
+
+    /**
+     * Measure both panels for one map, grid and token configuration.
+     */
+    private List<Result> runScenario(ImageLibrary library, BufferedImage map, int cells, int tokenCount,
+                                     int warmup, int frames) {
+        int squareSize = Math.max(1, map.getWidth() / cells);
+        GridOverlay gridOverlay = new GridOverlay();
+        gridOverlay.setSquareSize(squareSize);
+        gridOverlay.setImageDimensions(map.getWidth(), map.getHeight());
+        BenchmarkFixtures.revealRandomCells(gridOverlay, 0.6, 3);
+        TokenOverlay tokenOverlay = new TokenOverlay();
+        BenchmarkFixtures.placeTokens(tokenOverlay, gridOverlay, library, tokenCount, 5);
+
+        ImagePanel imagePanel = new ImagePanel(gridOverlay, tokenOverlay, library);
+        imagePanel.setSize(PANEL_WIDTH, PANEL_HEIGHT);
+        imagePanel.setImage(map);
+
+        DisplayPanel displayPanel = new DisplayPanel();
+        displayPanel.setSize(PANEL_WIDTH, PANEL_HEIGHT);
+        displayPanel.setImageLibrary(library);
+        displayPanel.setGridOverlay(gridOverlay);
+        displayPanel.setTokenOverlay(tokenOverlay);
+        displayPanel.setFullImage(map);
+        Rectangle bounds = gridOverlay.getSelectedBounds();
+        if (bounds != null) {
+            displayPanel.setViewportImage(map.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height), bounds);
+        }
+
+        List<Result> results = new ArrayList<>();
+        results.add(measure("controller", imagePanel, map.getWidth(), cells, tokenCount, warmup, frames));
+        results.add(measure("display", displayPanel, map.getWidth(), cells, tokenCount, warmup, frames));
+        return results;
+    }
+
+    private Result measure(String panelName, JComponent panel, int mapSize, int cells, int tokenCount,
+                           int warmup, int frames) {
+        BufferedImage target = new BufferedImage(PANEL_WIDTH, PANEL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = target.createGraphics();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < warmup; i++) {
+            panel.paint(g2d);
+        }
+
+        long[] frameNanos = new long[frames];
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < frames; i++) {
+            long start = System.nanoTime();
+            panel.paint(g2d);
+            frameNanos[i] = System.nanoTime() - start;
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        g2d.dispose();
+
+        Arrays.sort(frameNanos);
+        Result result = new Result(panelName, mapSize, cells, tokenCount,
+                percentileMs(frameNanos, 0.50), percentileMs(frameNanos, 0.95), percentileMs(frameNanos, 0.99),
+                frames > 0 ? allocated / frames : 0);
+        System.out.println(result.toJson());
+        return result;
+    }
+
+    private static double percentileMs(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        index = Math.max(0, Math.min(index, sortedNanos.length - 1));
+        return sortedNanos[index] / 1_000_000.0;
+    }
+
+    /**
+     * Compare results with a previous run; returns one line per regression.
+     */
+    private static List<String> compare(File baselineFile, List<Result> results, double tolerance) throws IOException {
+        Map<String, Result> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(baselineFile.toPath(), StandardCharsets.UTF_8)) {
+            Result result = Result.fromJson(line);
+            if (result != null) {
+                baseline.put(result.key(), result);
+            }
+        }
+
+        List<String> regressions = new ArrayList<>();
+        for (Result current : results) {
+            Result previous = baseline.get(current.key());
+            if (previous == null) {
+                continue;
+            }
+            if (current.p95Ms > previous.p95Ms * (1 + tolerance)
+                    && current.p95Ms - previous.p95Ms > MIN_TIME_REGRESSION_MS) {
+                regressions.add(String.format(Locale.ROOT, "%s p95 %.2f ms -> %.2f ms",
+                        current.key(), previous.p95Ms, current.p95Ms));
+            }
+            if (current.allocBytesPerFrame > previous.allocBytesPerFrame * (1 + tolerance)
+                    && current.allocBytesPerFrame - previous.allocBytesPerFrame > MIN_ALLOC_REGRESSION_BYTES) {
+                regressions.add(String.format(Locale.ROOT, "%s allocation %d B -> %d B per frame",
+                        current.key(), previous.allocBytesPerFrame, current.allocBytesPerFrame));
+            }
+        }
+        return regressions;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static int[] parseList(String value) {
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * Frame statistics for one panel and configuration.
+     */
+    private static final class Result {
+        final String panel;
+        final int mapSize;
+        final int cells;
+        final int tokens;
+        final double p50Ms;
+        final double p95Ms;
+        final double p99Ms;
+        final long allocBytesPerFrame;
+
+        Result(String panel, int mapSize, int cells, int tokens,
+               double p50Ms, double p95Ms, double p99Ms, long allocBytesPerFrame) {
+            this.panel = panel;
+            this.mapSize = mapSize;
+            this.cells = cells;
+            this.tokens = tokens;
+            this.p50Ms = p50Ms;
+            this.p95Ms = p95Ms;
+            this.p99Ms = p99Ms;
+            this.allocBytesPerFrame = allocBytesPerFrame;
+        }
+
+        String key() {
+            return panel + " map=" + mapSize + " cells=" + cells + " tokens=" + tokens;
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"panel\":\"%s\",\"mapSize\":%d,\"cells\":%d,\"tokens\":%d,"
+                            + "\"p50Ms\":%.3f,\"p95Ms\":%.3f,\"p99Ms\":%.3f,\"allocBytesPerFrame\":%d}",
+                    panel, mapSize, cells, tokens, p50Ms, p95Ms, p99Ms, allocBytesPerFrame);
+        }
+
+        static Result fromJson(String line) {
+            Map<String, String> fields = new HashMap<>();
+            Matcher matcher = FIELD.matcher(line);
+            while (matcher.find()) {
+                fields.put(matcher.group(1), matcher.group(2));
+            }
+            if (!fields.containsKey("panel")) {
+                return null;
+            }
+            return new Result(fields.get("panel"),
+                    Integer.parseInt(fields.get("mapSize")),
+                    Integer.parseInt(fields.get("cells")),
+                    Integer.parseInt(fields.get("tokens")),
+                    Double.parseDouble(fields.get("p50Ms")),
+                    Double.parseDouble(fields.get("p95Ms")),
+                    Double.parseDouble(fields.get("p99Ms")),
+                    Long.parseLong(fields.get("allocBytesPerFrame")));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capturing, encoding and decoding a scene. "rooms" reveals rectangular
+ * areas, which run-length encode well; "scattered" reveals random cells,
+ * which fall back to a bitset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SceneCodecBenchmark {
+    private static final int SQUARE_SIZE = 10;
+
+    @Param({"100", "1000"})
+    public int cellsPerSide;
+
+    @Param({"5000"})
+    public int tokenCount;
+
+    @Param({"rooms", "scattered"})
+    public String reveal;
+
+    private GridOverlay gridOverlay;
+    private TokenOverlay tokenOverlay;
+    private Scene scene;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        gridOverlay = new GridOverlay();
+        gridOverlay.setSquareSize(SQUARE_SIZE);
+        gridOverlay.setImageDimensions(cellsPerSide * SQUARE_SIZE, cellsPerSide * SQUARE_SIZE);
+        Random random = new Random(7);
+        if ("rooms".equals(reveal)) {
+            for (int i = 0; i < cellsPerSide / 5; i++) {
+                int x = random.nextInt(cellsPerSide);
+                int y = random.nextInt(cellsPerSide);
+                for (int cy = y; cy < y + cellsPerSide / 15; cy++) {
+                    for (int cx = x; cx < x + cellsPerSide / 12; cx++) {
+                        gridOverlay.selectCell(cx, cy, true);
+                    }
+                }
+            }
+        } else {
+            BenchmarkFixtures.revealRandomCells(gridOverlay, 0.5, 7);
+        }
+
+        tokenOverlay = new TokenOverlay();
+        for (int i = 0; i < tokenCount; i++) {
+            tokenOverlay.addToken("token_image_" + (i % 40), random.nextInt(cellsPerSide), random.nextInt(cellsPerSide));
+        }
+        scene = captureScene();
+        encoded = encodeScene();
+        System.out.printf("%n%d x %d %s, %d tokens: %d bytes%n", cellsPerSide, cellsPerSide, reveal,
+                tokenCount, encoded.length);
+    }
+
+    @Benchmark
+    public Scene captureScene() {
+        return Scene.capture("bench_map", gridOverlay, tokenOverlay, 1.0, new Point(), 1.0, new Point());
+    }
+
+    @Benchmark
+    public byte[] encodeScene() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SceneCodec.write(scene, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Scene decodeScene() throws IOException {
+        return SceneCodec.read(new ByteArrayInputStream(encoded));
+    }
+}
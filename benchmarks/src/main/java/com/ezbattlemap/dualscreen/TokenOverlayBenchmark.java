@@ -0,0 +1,64 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token hit-testing as used by every click and drag in Token Mode, and the
+ * per-frame walk over all tokens done by both paint paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenOverlayBenchmark {
+    private static final int GRID_SIDE = 300;
+    private static final int PROBE_COUNT = 1024;
+
+    @Param({"10", "500", "2000", "10000"})
+    public int tokenCount;
+
+    private TokenOverlay tokenOverlay;
+    private int[] probeX;
+    private int[] probeY;
+    private int probe;
+
+    @Setup
+    public void setUp() {
+        GridOverlay gridOverlay = new GridOverlay();
+        gridOverlay.setSquareSize(1);
+        gridOverlay.setImageDimensions(GRID_SIDE, GRID_SIDE);
+        tokenOverlay = new TokenOverlay();
+        BenchmarkFixtures.placeTokens(tokenOverlay, gridOverlay, null, tokenCount, 11);
+
+        Random random = new Random(13);
+        probeX = new int[PROBE_COUNT];
+        probeY = new int[PROBE_COUNT];
+        for (int i = 0; i < PROBE_COUNT; i++) {
+            probeX[i] = random.nextInt(GRID_SIDE);
+            probeY[i] = random.nextInt(GRID_SIDE);
+        }
+    }
+
+    @Benchmark
+    public Token tokenAtPosition() {
+        int i = probe++ & (PROBE_COUNT - 1);
+        return tokenOverlay.getTokenAtPosition(probeX[i], probeY[i]);
+    }
+
+    @Benchmark
+    public long iterateTokens() {
+        long sum = 0;
+        int count = tokenOverlay.getTokenCount();
+        for (int i = 0; i < count; i++) {
+            sum += tokenOverlay.getGridX(i) + tokenOverlay.getGridY(i)
+                    + tokenOverlay.getGridWidth(i) + tokenOverlay.getGridHeight(i)
+                    + tokenOverlay.getImageId(i).length();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,63 @@
+package com.ezbattlemap.dualscreen;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full decode versus region-of-interest decode of the player viewport from a
+ * large map file. The viewport covers the given fraction of the map's edge and
+ * is decoded with the subsampling needed for a 1920x1080 output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class ViewportDecodeBenchmark {
+    private static final int OUTPUT_WIDTH = 1920;
+    private static final int OUTPUT_HEIGHT = 1080;
+
+    @Param({"8192"})
+    public int mapSize;
+
+    @Param({"png", "jpg"})
+    public String format;
+
+    @Param({"0.25", "0.5"})
+    public double viewportFraction;
+
+    private File mapFile;
+    private Rectangle viewport;
+    private int subsampling;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapFile = BenchmarkFixtures.writeTempImage(BenchmarkFixtures.createMap(mapSize, mapSize, 128), format);
+        int edge = (int) (mapSize * viewportFraction);
+        viewport = new Rectangle(mapSize / 4, mapSize / 4, edge, edge);
+        subsampling = Math.max(1, (int) Math.max(edge / (double) OUTPUT_WIDTH, edge / (double) OUTPUT_HEIGHT));
+    }
+
+    @TearDown
+    public void tearDown() {
+        mapFile.delete();
+    }
+
+    @Benchmark
+    public BufferedImage fullDecodeAndCrop() throws IOException {
+        BufferedImage full = ImageIO.read(mapFile);
+        return full.getSubimage(viewport.x, viewport.y, viewport.width, viewport.height);
+    }
+
+    @Benchmark
+    public BufferedImage regionDecode() throws IOException {
+        return ViewportDecoder.decodeRegion(mapFile, viewport, subsampling);
+    }
+}
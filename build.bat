@@ -5,9 +5,14 @@ if not exist "bin" mkdir bin
 javac -d bin src\com\ezbattlemap\dualscreen\*.java
 
 if %ERRORLEVEL% EQU 0 (
+    rem Class data sharing needs a jar on the class path, and the fast-start
+    rem archive is tied to the classes it was recorded from
+    if exist "bin\ezbattlemap.jar" del "bin\ezbattlemap.jar"
+    if exist "bin\ezbattlemap.jsa" del "bin\ezbattlemap.jsa"
+    jar cf bin\ezbattlemap.jar -C bin com
     echo Compilation successful!
     echo.
-    echo To run the application, use: run.bat
+    echo To run the application, use: run.bat ^(or run.bat --fast^)
 ) else (
     echo Compilation failed!
 )
@@ -5,9 +5,13 @@ mkdir -p bin
 javac -d bin src/com/ezbattlemap/dualscreen/*.java
 
 if [ $? -eq 0 ]; then
+    # Class data sharing needs a jar on the class path, and the fast-start
+    # archives are tied to the classes they were recorded from
+    rm -f bin/ezbattlemap.jar bin/ezbattlemap.jsa bin/ezbattlemap.aot
+    jar cf bin/ezbattlemap.jar -C bin com
     echo "Compilation successful!"
     echo ""
-    echo "To run the application, use: ./run.sh"
+    echo "To run the application, use: ./run.sh (or ./run.sh --fast)"
 else
     echo "Compilation failed!"
 fi
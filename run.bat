@@ -1,3 +1,27 @@
 @echo off
-echo Running Dual Screen Image Application...
-java -cp bin com.ezbattlemap.dualscreen.DualScreenImageApp
+rem Usage: run.bat [--fast] [--fullscreen | --viewer host[:port]]
+rem   --fast  Reuse a class data sharing archive recorded from a training run.
+rem           The archive is generated on the first fast start after each build.
+rem   --fullscreen  Show the player screen full screen on the second screen
+rem   --viewer host[:port]  Show a GM's network player screen instead
+set MAIN_CLASS=com.ezbattlemap.dualscreen.DualScreenImageApp
+set CDS_ARCHIVE=bin\ezbattlemap.jsa
+set FAST_JAR=bin\ezbattlemap.jar
+
+if not "%1"=="--fast" (
+    echo Running Dual Screen Image Application...
+    java -cp bin %MAIN_CLASS% %*
+    goto :eof
+)
+
+if not exist "%FAST_JAR%" (
+    echo Fast start needs %FAST_JAR% - run build.bat first.
+    goto :eof
+)
+
+if not exist "%CDS_ARCHIVE%" (
+    echo Recording class data sharing archive ^(one-time training run^)...
+    java -Xlog:cds=off -XX:ArchiveClassesAtExit=%CDS_ARCHIVE% -cp %FAST_JAR% %MAIN_CLASS% --train
+)
+echo Running Dual Screen Image Application (fast start)...
+java -XX:SharedArchiveFile=%CDS_ARCHIVE% -cp %FAST_JAR% %MAIN_CLASS% %2 %3
\ No newline at end of file
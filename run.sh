@@ -1,3 +1,41 @@
 #!/bin/bash
-echo "Running Dual Screen Image Application..."
-java -cp bin com.ezbattlemap.dualscreen.DualScreenImageApp
+# Usage: ./run.sh [--fast] [--fullscreen | --viewer host[:port]]
+#   --fast  Reuse a class data sharing archive (or AOT cache on JDK 25+)
+#           recorded from a training run. The archive is generated on the
+#           first fast start after each build.
+#   --fullscreen  Show the player screen full screen on the second screen
+#   --viewer host[:port]  Show a GM's network player screen instead
+MAIN_CLASS=com.ezbattlemap.dualscreen.DualScreenImageApp
+CDS_ARCHIVE=bin/ezbattlemap.jsa
+AOT_CACHE=bin/ezbattlemap.aot
+FAST_JAR=bin/ezbattlemap.jar
+
+if [ "$1" != "--fast" ]; then
+    echo "Running Dual Screen Image Application..."
+    java -cp bin $MAIN_CLASS "$@"
+    exit $?
+fi
+shift
+
+if [ ! -f "$FAST_JAR" ]; then
+    echo "Fast start needs $FAST_JAR - run ./build.sh first."
+    exit 1
+fi
+
+JAVA_MAJOR=$(java -version 2>&1 | head -1 | sed -E 's/.*version "([0-9]+).*/\1/')
+
+if [ "$JAVA_MAJOR" -ge 25 ] 2>/dev/null; then
+    if [ ! -f "$AOT_CACHE" ]; then
+        echo "Recording AOT cache (one-time training run)..."
+        java -XX:AOTCacheOutput="$AOT_CACHE" -cp $FAST_JAR $MAIN_CLASS --train
+    fi
+    echo "Running Dual Screen Image Application (fast start)..."
+    java -XX:AOTCache="$AOT_CACHE" -cp $FAST_JAR $MAIN_CLASS "$@"
+else
+    if [ ! -f "$CDS_ARCHIVE" ]; then
+        echo "Recording class data sharing archive (one-time training run)..."
+        java -Xlog:cds=off -XX:ArchiveClassesAtExit="$CDS_ARCHIVE" -cp $FAST_JAR $MAIN_CLASS --train
+    fi
+    echo "Running Dual Screen Image Application (fast start)..."
+    java -XX:SharedArchiveFile="$CDS_ARCHIVE" -cp $FAST_JAR $MAIN_CLASS "$@"
+fi
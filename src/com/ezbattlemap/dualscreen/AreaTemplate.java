@@ -0,0 +1,353 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.Graphics2D;
+import java.util.BitSet;
+
+/**
+ * An area-of-effect template dragged out on the grid: a circle, cone, line
+ * or cube, sized in whole squares.
+ *
+ * A cell is covered if its center lies inside the template. Every shape is
+ * convex, so the covered cells of a row form one run; each row's run is
+ * worked out from where the row's center line crosses the shape rather than
+ * by testing cells. Runs are kept until the template or the grid changes, and
+ * the tokens touching them until the tokens change too. Used only on the
+ * event dispatch thread.
+ */
+class AreaTemplate {
+    static final int FEET_PER_SQUARE = 5;
+
+    enum Shape {
+        CIRCLE("Circle"), CONE("Cone"), LINE("Line"), CUBE("Cube");
+
+        private final String label;
+
+        Shape(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private Shape shape;
+    // Snapped origin and direction in map pixels; length in squares
+    private double originX;
+    private double originY;
+    private double directionX;
+    private double directionY;
+    private int squares;
+    private int squareSize;
+    private String label = "";
+    private int modCount;
+
+    // Runs of covered columns, per row from firstRow, as of coverageModCount
+    private int[] runStarts = new int[0];
+    private int[] runEnds = new int[0];
+    private int firstRow;
+    private int endRow;
+    private int coverageModCount = -1;
+    private int coverageCols;
+    private int coverageRows;
+    // Counts recomputes, including those for a grid change alone
+    private int coverageVersion;
+
+    // Numbers of the tokens touching the covered cells
+    private final BitSet coveredTokens = new BitSet();
+    private int tokensModCount = -1;
+    private int tokensCoverageVersion = -1;
+    private TokenOverlay coveredOverlay;
+
+    // Scratch polygon for the cone, line and cube
+    private final double[] xs = new double[4];
+    private final double[] ys = new double[4];
+    private int corners;
+
+    boolean isActive() {
+        return shape != null;
+    }
+
+    void clear() {
+        shape = null;
+        modCount++;
+    }
+
+    /**
+     * Size, e.g. "20 ft Cone", for labelling the template.
+     */
+    String getLabel() {
+        return label;
+    }
+
+    /**
+     * Place the template from the point the drag started at to the cursor,
+     * both in map pixels. Circles, cones and cubes start at the nearest grid
+     * intersection, lines at the center of the cell. Returns false if the
+     * template covers the same area as before.
+     */
+    boolean set(Shape shape, int fromX, int fromY, int toX, int toY, int squareSize) {
+        double snappedX;
+        double snappedY;
+        if (shape == Shape.LINE) {
+            snappedX = (Math.floor((double) fromX / squareSize) + 0.5) * squareSize;
+            snappedY = (Math.floor((double) fromY / squareSize) + 0.5) * squareSize;
+        } else {
+            snappedX = Math.round((double) fromX / squareSize) * (double) squareSize;
+            snappedY = Math.round((double) fromY / squareSize) * (double) squareSize;
+        }
+        double dx = toX - snappedX;
+        double dy = toY - snappedY;
+        double distance = shape == Shape.CUBE ? Math.max(Math.abs(dx), Math.abs(dy)) : Math.hypot(dx, dy);
+        int length = Math.max(1, (int) Math.round(distance / squareSize));
+        double unitX = 1;
+        double unitY = 0;
+        if (shape == Shape.CUBE) {
+            // Only which way the cube grows matters
+            unitX = dx < 0 ? -1 : 1;
+            unitY = dy < 0 ? -1 : 1;
+        } else if (distance > 0 && shape != Shape.CIRCLE) {
+            unitX = dx / Math.hypot(dx, dy);
+            unitY = dy / Math.hypot(dx, dy);
+        }
+
+        if (shape == this.shape && snappedX == originX && snappedY == originY && length == squares
+                && unitX == directionX && unitY == directionY && squareSize == this.squareSize) {
+            return false;
+        }
+        this.shape = shape;
+        this.originX = snappedX;
+        this.originY = snappedY;
+        this.directionX = unitX;
+        this.directionY = unitY;
+        this.squares = length;
+        this.squareSize = squareSize;
+        this.label = length * FEET_PER_SQUARE + " ft " + shape;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Map point the template grows from, e.g. for drawing its label.
+     */
+    int getOriginX() {
+        return (int) originX;
+    }
+
+    int getOriginY() {
+        return (int) originY;
+    }
+
+    /**
+     * Bring the covered runs up to date with the template and grid.
+     */
+    void updateCoverage(GridOverlay gridOverlay) {
+        int cols = gridOverlay.getGridCols();
+        int rows = gridOverlay.getGridRows();
+        if (coverageModCount == modCount && coverageCols == cols && coverageRows == rows
+                && gridOverlay.getSquareSize() == squareSize) {
+            return;
+        }
+        coverageModCount = modCount;
+        coverageCols = cols;
+        coverageRows = rows;
+        coverageVersion++;
+        firstRow = 0;
+        endRow = 0;
+        if (shape == null || gridOverlay.getSquareSize() != squareSize) {
+            return;
+        }
+
+        double length = squares * (double) squareSize;
+        double top;
+        double bottom;
+        if (shape == Shape.CIRCLE) {
+            top = originY - length;
+            bottom = originY + length;
+        } else {
+            buildPolygon(length);
+            top = Double.POSITIVE_INFINITY;
+            bottom = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < corners; i++) {
+                top = Math.min(top, ys[i]);
+                bottom = Math.max(bottom, ys[i]);
+            }
+        }
+        // Rows whose center lines cross the template
+        firstRow = Math.max(0, (int) Math.ceil(top / squareSize - 0.5));
+        endRow = Math.max(firstRow, Math.min(rows, (int) Math.floor(bottom / squareSize - 0.5) + 1));
+        if (runStarts.length < endRow - firstRow) {
+            runStarts = new int[endRow - firstRow];
+            runEnds = new int[endRow - firstRow];
+        }
+
+        for (int row = firstRow; row < endRow; row++) {
+            double y = (row + 0.5) * squareSize;
+            double left = Double.POSITIVE_INFINITY;
+            double right = Double.NEGATIVE_INFINITY;
+            if (shape == Shape.CIRCLE) {
+                double squared = length * length - (y - originY) * (y - originY);
+                if (squared >= 0) {
+                    left = originX - Math.sqrt(squared);
+                    right = originX + Math.sqrt(squared);
+                }
+            } else {
+                for (int i = 0; i < corners; i++) {
+                    int j = (i + 1) % corners;
+                    double y0 = ys[i];
+                    double y1 = ys[j];
+                    if (y < Math.min(y0, y1) || y > Math.max(y0, y1)) {
+                        continue;
+                    }
+                    double x = y0 == y1 ? xs[i] : xs[i] + (y - y0) * (xs[j] - xs[i]) / (y1 - y0);
+                    left = Math.min(left, Math.min(x, y0 == y1 ? xs[j] : x));
+                    right = Math.max(right, Math.max(x, y0 == y1 ? xs[j] : x));
+                }
+            }
+            // Columns whose centers are within the crossing
+            int start = Math.max(0, (int) Math.ceil(left / squareSize - 0.5));
+            int end = Math.min(cols, (int) Math.floor(right / squareSize - 0.5) + 1);
+            runStarts[row - firstRow] = start;
+            runEnds[row - firstRow] = Math.max(start, end);
+        }
+    }
+
+    private void buildPolygon(double length) {
+        double perpendicularX = -directionY;
+        double perpendicularY = directionX;
+        switch (shape) {
+            case CONE: {
+                // As wide at any point as it is far from its origin
+                double endX = originX + directionX * length;
+                double endY = originY + directionY * length;
+                setCorners(originX, originY,
+                        endX + perpendicularX * length / 2, endY + perpendicularY * length / 2,
+                        endX - perpendicularX * length / 2, endY - perpendicularY * length / 2,
+                        Double.NaN, Double.NaN);
+                break;
+            }
+            case LINE: {
+                // One square wide, from the edge of the origin cell
+                double half = squareSize / 2.0;
+                double startX = originX + directionX * half;
+                double startY = originY + directionY * half;
+                double endX = startX + directionX * length;
+                double endY = startY + directionY * length;
+                setCorners(startX + perpendicularX * half, startY + perpendicularY * half,
+                        endX + perpendicularX * half, endY + perpendicularY * half,
+                        endX - perpendicularX * half, endY - perpendicularY * half,
+                        startX - perpendicularX * half, startY - perpendicularY * half);
+                break;
+            }
+            default: {
+                double cornerX = originX + directionX * length;
+                double cornerY = originY + directionY * length;
+                setCorners(originX, originY, cornerX, originY, cornerX, cornerY, originX, cornerY);
+                break;
+            }
+        }
+    }
+
+    private void setCorners(double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3) {
+        xs[0] = x0;
+        ys[0] = y0;
+        xs[1] = x1;
+        ys[1] = y1;
+        xs[2] = x2;
+        ys[2] = y2;
+        xs[3] = x3;
+        ys[3] = y3;
+        corners = Double.isNaN(x3) ? 3 : 4;
+    }
+
+    /**
+     * First row with covered cells, after {@link #updateCoverage}.
+     */
+    int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * Row after the last row with covered cells.
+     */
+    int getEndRow() {
+        return endRow;
+    }
+
+    /**
+     * First covered column of a row between the first and end rows.
+     */
+    int getRunStart(int row) {
+        return runStarts[row - firstRow];
+    }
+
+    /**
+     * Column after the last covered column of a row; equal to the start if none is.
+     */
+    int getRunEnd(int row) {
+        return runEnds[row - firstRow];
+    }
+
+    /**
+     * Fill the covered cells within a rectangle of map pixels, one rectangle
+     * per row, in the Graphics' current color.
+     */
+    void fill(Graphics2D g2d, ViewTransform view, GridOverlay gridOverlay,
+              int mapX, int mapY, int mapWidth, int mapHeight) {
+        updateCoverage(gridOverlay);
+        if (firstRow == endRow) {
+            return;
+        }
+        int right = mapX + mapWidth;
+        int bottom = mapY + mapHeight;
+        for (int row = Math.max(firstRow, mapY / squareSize); row < endRow; row++) {
+            int top = Math.max(mapY, row * squareSize);
+            int rowBottom = Math.min(bottom, (row + 1) * squareSize);
+            if (top >= rowBottom) {
+                break;
+            }
+            int left = Math.max(mapX, runStarts[row - firstRow] * squareSize);
+            int runRight = Math.min(right, runEnds[row - firstRow] * squareSize);
+            if (left < runRight) {
+                view.fillRect(g2d, left, top, runRight - left, rowBottom - top);
+            }
+        }
+    }
+
+    /**
+     * Whether any cell of a token is covered, after {@link #updateTokens}.
+     */
+    boolean isTokenCovered(int tokenNumber) {
+        return tokenNumber >= 0 && coveredTokens.get(tokenNumber);
+    }
+
+    /**
+     * Bring the covered tokens up to date with the coverage and the tokens.
+     */
+    void updateTokens(GridOverlay gridOverlay, TokenOverlay tokenOverlay) {
+        updateCoverage(gridOverlay);
+        if (tokenOverlay == coveredOverlay && tokensModCount == tokenOverlay.getModCount()
+                && tokensCoverageVersion == coverageVersion) {
+            return;
+        }
+        coveredOverlay = tokenOverlay;
+        tokensModCount = tokenOverlay.getModCount();
+        tokensCoverageVersion = coverageVersion;
+        coveredTokens.clear();
+        int count = tokenOverlay.getTokenCount();
+        for (int i = 0; i < count; i++) {
+            int top = Math.max(firstRow, tokenOverlay.getGridY(i));
+            int bottom = Math.min(endRow, tokenOverlay.getGridY(i) + tokenOverlay.getGridHeight(i));
+            int left = tokenOverlay.getGridX(i);
+            int right = left + tokenOverlay.getGridWidth(i);
+            for (int row = top; row < bottom; row++) {
+                if (runStarts[row - firstRow] < right && runEnds[row - firstRow] > left
+                        && runStarts[row - firstRow] < runEnds[row - firstRow]) {
+                    coveredTokens.set(tokenOverlay.getNumber(i));
+                    break;
+                }
+            }
+        }
+    }
+}
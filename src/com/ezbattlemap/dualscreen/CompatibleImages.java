@@ -0,0 +1,83 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+
+/**
+ * Converts decoded images into the pixel layout of the default screen.
+ *
+ * ImageIO hands back whatever layout suits the file (3-byte BGR, indexed,
+ * custom rasters), and Java2D falls back to slow generic loops when blitting
+ * those. Images loaded through here match
+ * {@link GraphicsConfiguration#createCompatibleImage(int, int, int)}: opaque
+ * for maps and translucent for tokens. Headless, packed int RGB and
+ * premultiplied ARGB are used instead.
+ */
+final class CompatibleImages {
+    private static BufferedImage opaquePrototype;
+    private static BufferedImage translucentPrototype;
+
+    private CompatibleImages() {
+    }
+
+    /**
+     * Return the image in a compatible layout, converting it only if needed.
+     */
+    static BufferedImage toCompatible(BufferedImage source, boolean translucent) {
+        if (source == null || isCompatible(source, translucent)) {
+            return source;
+        }
+        BufferedImage result = create(source.getWidth(), source.getHeight(), translucent);
+        Graphics2D g2d = result.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(source, 0, 0, null);
+        g2d.dispose();
+        return result;
+    }
+
+    /**
+     * Create an empty image in the compatible layout.
+     */
+    static BufferedImage create(int width, int height, boolean translucent) {
+        GraphicsConfiguration configuration = getConfiguration();
+        if (configuration != null) {
+            return configuration.createCompatibleImage(width, height,
+                    translucent ? Transparency.TRANSLUCENT : Transparency.OPAQUE);
+        }
+        return new BufferedImage(width, height,
+                translucent ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Whether the image already has the compatible layout.
+     */
+    static boolean isCompatible(BufferedImage image, boolean translucent) {
+        BufferedImage prototype = getPrototype(translucent);
+        if (image.getType() == BufferedImage.TYPE_CUSTOM || image.getType() != prototype.getType()) {
+            return false;
+        }
+        ColorModel colorModel = image.getColorModel();
+        return colorModel.equals(prototype.getColorModel());
+    }
+
+    private static synchronized BufferedImage getPrototype(boolean translucent) {
+        if (translucent) {
+            if (translucentPrototype == null) {
+                translucentPrototype = create(1, 1, true);
+            }
+            return translucentPrototype;
+        }
+        if (opaquePrototype == null) {
+            opaquePrototype = create(1, 1, false);
+        }
+        return opaquePrototype;
+    }
+
+    private static GraphicsConfiguration getConfiguration() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return null;
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+    }
+}
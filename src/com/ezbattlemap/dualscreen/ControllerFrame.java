@@ -4,13 +4,25 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Controller frame for managing the image display and grid overlay
  */
 public class ControllerFrame extends JFrame {
+    // Largest color difference, summed over red, green and blue, inside a revealed region
+    private static final int REGION_COLOR_TOLERANCE = 90;
+
     private DualScreenImageApp app;
-    private DisplayFrame displayFrame;
+    private PlayerDisplays displays;
     private ImagePanel imagePanel;
     private JSpinner gridSizeSpinner;
     private JButton selectImageButton;
@@ -18,17 +30,39 @@ public class ControllerFrame extends JFrame {
     private TokenOverlay tokenOverlay;
     private ImageLibrary library;
     private boolean dragSelectMode = false;
+    private boolean dragWallMode = false;
     private int lastCellX = -1;
     private int lastCellY = -1;
     private ImageLibraryPanel libraryPanel;
     private JComboBox<String> modeSelector;
     private boolean isTokenMode = false;
+    private boolean isWallMode = false;
+    private boolean isBrushMode = false;
+    private boolean brushReveal;
+    private Point lastBrushPoint;
+    private JSpinner brushSizeSpinner;
+    private boolean isTemplateMode = false;
+    private final AreaTemplate areaTemplate = new AreaTemplate();
+    // Where the template drag started and the cursor last was, in map pixels
+    private Point templateFrom;
+    private Point templateTo;
+    private boolean templateDragging;
+    private JComboBox<AreaTemplate.Shape> templateShapeSelector;
+    private JCheckBox templatePlayersCheckBox;
+    private MovementRange movementRange;
+    private JSpinner speedSpinner;
+    // Cell under the cursor, where the selected token's path leads
+    private int pathTargetX = -1;
+    private int pathTargetY = -1;
     private Token selectedToken = null;
     private String currentImageId = null;
+    private SceneManager sceneManager;
+    private int savedFogModCount;
+    private LineOfSight lineOfSight;
 
-    public ControllerFrame(DualScreenImageApp app, DisplayFrame displayFrame, ImageLibrary library) {
+    public ControllerFrame(DualScreenImageApp app, PlayerDisplays displays, ImageLibrary library) {
         this.app = app;
-        this.displayFrame = displayFrame;
+        this.displays = displays;
         this.library = library;
 
         setTitle("EZBattleMap - Controller");
@@ -41,6 +75,11 @@ public class ControllerFrame extends JFrame {
 
         gridOverlay = new GridOverlay();
         tokenOverlay = new TokenOverlay();
+        lineOfSight = new LineOfSight(gridOverlay, tokenOverlay, () -> {
+            imagePanel.repaint();
+            displays.updateRevealedCells();
+        });
+        movementRange = new MovementRange(gridOverlay, tokenOverlay);
         imagePanel = new ImagePanel(gridOverlay, tokenOverlay, library);
         imagePanel.setController(this);
 
@@ -48,21 +87,7 @@ public class ControllerFrame extends JFrame {
 
         // Create image library panel on the left
         libraryPanel = new ImageLibraryPanel(library);
-        libraryPanel.setSelectionListener((imageId, image) -> {
-            currentImageId = imageId;
-            setImage(image);
-            displayFrame.setImage(image);
-
-            // Load saved pixel size from metadata
-            ImageMetadata metadata = library.getMetadata(imageId);
-            if (metadata != null) {
-                int savedPixelSize = metadata.getPixelSize();
-                gridSizeSpinner.setValue(savedPixelSize);
-                gridOverlay.setSquareSize(savedPixelSize);
-                imagePanel.repaint();
-                displayFrame.updateGridOverlay(gridOverlay);
-            }
-        });
+        libraryPanel.setSelectionListener(this::showLibraryMap);
         libraryPanel.setTokenDragListener(new ImageLibraryPanel.TokenDragListener() {
             @Override
             public void onTokenDragStart(String imageId, BufferedImage tokenImage) {
@@ -73,10 +98,9 @@ public class ControllerFrame extends JFrame {
             @Override
             public void onTokenPlace(String imageId, BufferedImage tokenImage, int gridX, int gridY) {
                 // Place token at specific grid position
-                Token token = tokenOverlay.addToken(imageId, gridX, gridY);
-                token.setCachedImage(tokenImage);
-                imagePanel.repaint();
-                displayFrame.updateTokenOverlay(tokenOverlay);
+                library.putTokenSprite(imageId, tokenImage);
+                tokenOverlay.addToken(imageId, gridX, gridY);
+                tokensChanged();
                 imagePanel.setDraggingToken(null, null);
             }
         });
@@ -91,6 +115,35 @@ public class ControllerFrame extends JFrame {
 
             @Override
             public void mousePressed(MouseEvent e) {
+                if (ControllerFrame.this.isBrushMode && !e.isControlDown()
+                        && (SwingUtilities.isLeftMouseButton(e) || SwingUtilities.isRightMouseButton(e))) {
+                    Point imagePoint = imagePanel.getImagePoint(e.getPoint());
+                    if (imagePoint == null) return;
+
+                    // Brush mode: the left button reveals, the right button hides
+                    brushReveal = SwingUtilities.isLeftMouseButton(e);
+                    lastBrushPoint = imagePoint;
+                    isDragging = true;
+                    brushTo(imagePoint);
+                    return;
+                }
+                if (ControllerFrame.this.isTemplateMode && !e.isControlDown()
+                        && imagePanel.getDraggingTokenImageId() == null) {
+                    if (SwingUtilities.isRightMouseButton(e)) {
+                        clearAreaTemplate();
+                        return;
+                    }
+                    Point imagePoint = imagePanel.getImagePoint(e.getPoint());
+                    if (imagePoint == null || !SwingUtilities.isLeftMouseButton(e)) return;
+
+                    // Template mode: drag out from the origin; the template stays after release
+                    templateFrom = imagePoint;
+                    templateTo = imagePoint;
+                    templateDragging = true;
+                    isDragging = true;
+                    placeAreaTemplate();
+                    return;
+                }
                 if (SwingUtilities.isLeftMouseButton(e) && !e.isControlDown()) {
                     Point imagePoint = imagePanel.getImagePoint(e.getPoint());
                     if (imagePoint == null) return;
@@ -108,11 +161,10 @@ public class ControllerFrame extends JFrame {
                         // Place token at drop position
                         String imageId = imagePanel.getDraggingTokenImageId();
                         BufferedImage tokenImage = imagePanel.getDraggingTokenImage();
-                        Token token = tokenOverlay.addToken(imageId, cellX, cellY);
-                        token.setCachedImage(tokenImage);
+                        library.putTokenSprite(imageId, tokenImage);
+                        tokenOverlay.addToken(imageId, cellX, cellY);
                         imagePanel.setDraggingToken(null, null);
-                        imagePanel.repaint();
-                        displayFrame.updateTokenOverlay(tokenOverlay);
+                        tokensChanged();
                         return;
                     }
 
@@ -134,6 +186,27 @@ public class ControllerFrame extends JFrame {
                         return;
                     }
 
+                    if (ControllerFrame.this.isWallMode) {
+                        // Wall mode: mark or clear walls, which block line of sight
+                        dragWallMode = !gridOverlay.isWall(cellX, cellY);
+                        isDragging = true;
+                        lastCellX = cellX;
+                        lastCellY = cellY;
+                        gridOverlay.setWall(cellX, cellY, dragWallMode);
+                        imagePanel.repaint();
+                        lineOfSight.update();
+                        return;
+                    }
+
+                    if (e.isShiftDown()) {
+                        // Reveal the whole room, up to walls and color edges, as one change
+                        if (gridOverlay.revealRegion(cellX, cellY, imagePanel.getImage(), REGION_COLOR_TOLERANCE) > 0) {
+                            imagePanel.repaint();
+                            updateViewport();
+                        }
+                        return;
+                    }
+
                     // Map mode: grid selection only
                     dragSelectMode = !gridOverlay.isCellSelected(cellX, cellY);
                     isDragging = true;
@@ -148,9 +221,15 @@ public class ControllerFrame extends JFrame {
 
             @Override
             public void mouseDragged(MouseEvent e) {
+                followCursor(e);
                 if (isDragging) {
                     Point imagePoint = imagePanel.getImagePoint(e.getPoint());
-                    if (imagePoint != null) {
+                    if (imagePoint != null && lastBrushPoint != null) {
+                        brushTo(imagePoint);
+                    } else if (imagePoint != null && templateDragging) {
+                        templateTo = imagePoint;
+                        placeAreaTemplate();
+                    } else if (imagePoint != null) {
                         int cellX = imagePoint.x / gridOverlay.getSquareSize();
                         int cellY = imagePoint.y / gridOverlay.getSquareSize();
 
@@ -161,12 +240,18 @@ public class ControllerFrame extends JFrame {
                                 // Token mode: only move selected token
                                 if (ControllerFrame.this.selectedToken != null) {
                                     if (cellX != ControllerFrame.this.selectedToken.getGridX() || cellY != ControllerFrame.this.selectedToken.getGridY()) {
-                                        ControllerFrame.this.selectedToken.setGridX(cellX);
-                                        ControllerFrame.this.selectedToken.setGridY(cellY);
-                                        imagePanel.repaint();
-                                        displayFrame.updateTokenOverlay(tokenOverlay);
+                                        tokenOverlay.moveToken(ControllerFrame.this.selectedToken.getId(), cellX, cellY);
+                                        tokensChanged();
                                     }
                                 }
+                            } else if (ControllerFrame.this.isWallMode) {
+                                if (cellX != lastCellX || cellY != lastCellY) {
+                                    gridOverlay.setWall(cellX, cellY, dragWallMode);
+                                    lastCellX = cellX;
+                                    lastCellY = cellY;
+                                    imagePanel.repaint();
+                                    lineOfSight.update();
+                                }
                             } else {
                                 // Map mode: grid selection only
                                 if (cellX != lastCellX || cellY != lastCellY) {
@@ -186,10 +271,26 @@ public class ControllerFrame extends JFrame {
             public void mouseReleased(MouseEvent e) {
                 isDragging = false;
                 dragStartPoint = null;
+                lastBrushPoint = null;
+                templateDragging = false;
                 lastCellX = -1;
                 lastCellY = -1;
             }
 
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                followCursor(e);
+            }
+
+            @Override
+            public void mouseExited(MouseEvent e) {
+                if (pathTargetX != -1 || pathTargetY != -1) {
+                    pathTargetX = -1;
+                    pathTargetY = -1;
+                    imagePanel.repaint();
+                }
+            }
+
             @Override
             public void mouseClicked(MouseEvent e) {
                 // Right-click to show token context menu in token mode
@@ -214,6 +315,65 @@ public class ControllerFrame extends JFrame {
 
         imagePanel.addMouseListener(gridSelectionAdapter);
         imagePanel.addMouseMotionListener(gridSelectionAdapter);
+
+        sceneManager = new SceneManager(this, library.getLibraryRoot());
+        sceneManager.startAutosave();
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                // Runs before the frame's exit-on-close handling
+                saveFog();
+                library.getFogStore().flush();
+                sceneManager.flush();
+            }
+        });
+    }
+
+    /**
+     * Show a map from the library on both screens with its saved grid size.
+     */
+    private void showLibraryMap(String imageId, BufferedImage image) {
+        setImage(image);
+        currentImageId = imageId;
+        displays.setImage(image, library.getImageFile(imageId));
+
+        // Load saved pixel size from metadata
+        ImageMetadata metadata = library.getMetadata(imageId);
+        if (metadata != null) {
+            int savedPixelSize = metadata.getPixelSize();
+            gridSizeSpinner.setValue(savedPixelSize);
+            gridOverlay.setSquareSize(savedPixelSize);
+            imagePanel.repaint();
+            displays.updateGridOverlay(gridOverlay);
+        }
+
+        // Bring back what the players had already seen of this map
+        FogStore.Fog fog = library.getFogStore().load(imageId, gridOverlay.getSquareSize(),
+                gridOverlay.getGridCols(), gridOverlay.getGridRows());
+        if (fog != null) {
+            gridOverlay.setSelectedCells(fog.cells);
+            gridOverlay.setWallCells(fog.walls);
+            if (fog.mask != null) {
+                // The store keeps its own copy for saving
+                gridOverlay.setFogMask(fog.mask.copy());
+            }
+            imagePanel.repaint();
+            displays.updateViewport(gridOverlay.getSelectedBounds());
+        }
+        savedFogModCount = gridOverlay.getModCount();
+        lineOfSight.update();
+    }
+
+    /**
+     * Save the open library map's revealed cells if they changed since they
+     * were loaded or last saved.
+     */
+    void saveFog() {
+        if (currentImageId != null && gridOverlay.getModCount() != savedFogModCount
+                && library.getMetadata(currentImageId) != null) {
+            library.getFogStore().saveAsync(currentImageId, gridOverlay);
+            savedFogModCount = gridOverlay.getModCount();
+        }
     }
 
     private void showTokenContextMenu(Token token, Point location) {
@@ -224,32 +384,34 @@ public class ControllerFrame extends JFrame {
 
         JMenuItem size1x1 = new JMenuItem("1x1 (Small)");
         size1x1.addActionListener(e -> {
-            token.setGridWidth(1);
-            token.setGridHeight(1);
-            imagePanel.repaint();
-            displayFrame.updateTokenOverlay(tokenOverlay);
+            tokenOverlay.resizeToken(token.getId(), 1, 1);
+            tokensChanged();
         });
         sizeMenu.add(size1x1);
 
         JMenuItem size2x2 = new JMenuItem("2x2 (Medium)");
         size2x2.addActionListener(e -> {
-            token.setGridWidth(2);
-            token.setGridHeight(2);
-            imagePanel.repaint();
-            displayFrame.updateTokenOverlay(tokenOverlay);
+            tokenOverlay.resizeToken(token.getId(), 2, 2);
+            tokensChanged();
         });
         sizeMenu.add(size2x2);
 
         JMenuItem size3x3 = new JMenuItem("3x3 (Large)");
         size3x3.addActionListener(e -> {
-            token.setGridWidth(3);
-            token.setGridHeight(3);
-            imagePanel.repaint();
-            displayFrame.updateTokenOverlay(tokenOverlay);
+            tokenOverlay.resizeToken(token.getId(), 3, 3);
+            tokensChanged();
         });
         sizeMenu.add(size3x3);
 
         contextMenu.add(sizeMenu);
+
+        JCheckBoxMenuItem visionItem = new JCheckBoxMenuItem("Line of Sight",
+                lineOfSight.hasVision(TokenOverlay.numberOf(token.getId())));
+        visionItem.addActionListener(e -> {
+            lineOfSight.setVision(token.getId(), visionItem.isSelected());
+            imagePanel.repaint();
+        });
+        contextMenu.add(visionItem);
         contextMenu.addSeparator();
 
         // Delete option
@@ -268,8 +430,7 @@ public class ControllerFrame extends JFrame {
                 if (selectedToken == token) {
                     selectedToken = null;
                 }
-                imagePanel.repaint();
-                displayFrame.updateTokenOverlay(tokenOverlay);
+                tokensChanged();
             }
         });
         contextMenu.add(deleteItem);
@@ -284,17 +445,20 @@ public class ControllerFrame extends JFrame {
         // Mode selector
         JLabel modeLabel = new JLabel("Mode:");
         modeLabel.setFont(modeLabel.getFont().deriveFont(Font.BOLD, 14f));
-        modeSelector = new JComboBox<>(new String[]{"Map Mode", "Token Mode"});
+        modeSelector = new JComboBox<>(new String[]{"Map Mode", "Token Mode", "Wall Mode", "Brush Mode", "Template Mode"});
         modeSelector.setFont(modeSelector.getFont().deriveFont(Font.BOLD, 14f));
 
         // Use ItemListener for reliable selection change detection
         modeSelector.addItemListener(e -> {
             if (e.getStateChange() == java.awt.event.ItemEvent.SELECTED) {
                 isTokenMode = modeSelector.getSelectedIndex() == 1;
+                isWallMode = modeSelector.getSelectedIndex() == 2;
+                isBrushMode = modeSelector.getSelectedIndex() == 3;
+                isTemplateMode = modeSelector.getSelectedIndex() == 4;
                 selectedToken = null;
                 imagePanel.repaint();
                 // Update title to show current mode
-                String modeText = isTokenMode ? "Token Mode" : "Map Mode";
+                String modeText = (String) modeSelector.getSelectedItem();
                 setTitle("EZBattleMap - Controller [" + modeText + "]");
             }
         });
@@ -308,7 +472,9 @@ public class ControllerFrame extends JFrame {
             int size = (Integer) gridSizeSpinner.getValue();
             gridOverlay.setSquareSize(size);
             imagePanel.repaint();
-            displayFrame.updateGridOverlay(gridOverlay);
+            displays.updateGridOverlay(gridOverlay);
+            lineOfSight.update();
+            placeAreaTemplate();
 
             // Save pixel size to metadata if an image is currently loaded from library
             if (currentImageId != null) {
@@ -320,18 +486,33 @@ public class ControllerFrame extends JFrame {
             }
         });
 
-        JButton displayAllButton = new JButton("Display All");
-        displayAllButton.addActionListener(e -> {
-            gridOverlay.selectAll();
-            imagePanel.repaint();
-            displayFrame.updateViewport(gridOverlay.getSelectedBounds());
+        JLabel brushLabel = new JLabel("Brush Size (pixels):");
+        brushSizeSpinner = new JSpinner(new SpinnerNumberModel(50, 1, 2000, 1));
+
+        JLabel templateLabel = new JLabel("Template:");
+        templateShapeSelector = new JComboBox<>(AreaTemplate.Shape.values());
+        templateShapeSelector.addItemListener(e -> {
+            if (e.getStateChange() == java.awt.event.ItemEvent.SELECTED) {
+                placeAreaTemplate();
+            }
         });
+        templatePlayersCheckBox = new JCheckBox("Show to Players");
+        templatePlayersCheckBox.addActionListener(e ->
+                displays.updateAreaTemplate(templatePlayersCheckBox.isSelected() ? areaTemplate : null));
+
+        JLabel speedLabel = new JLabel("Speed (ft):");
+        speedSpinner = new JSpinner(new SpinnerNumberModel(30, AreaTemplate.FEET_PER_SQUARE, 1000,
+                AreaTemplate.FEET_PER_SQUARE));
+        speedSpinner.addChangeListener(e -> imagePanel.repaint());
+
+        JButton displayAllButton = new JButton("Display All");
+        displayAllButton.addActionListener(e -> revealAll());
 
         JButton clearSelectionButton = new JButton("Clear Selection");
         clearSelectionButton.addActionListener(e -> {
             gridOverlay.clearSelection();
             imagePanel.repaint();
-            displayFrame.updateViewport(null);
+            displays.updateViewport(null);
         });
 
         panel.add(modeLabel);
@@ -342,6 +523,16 @@ public class ControllerFrame extends JFrame {
         panel.add(gridLabel);
         panel.add(gridSizeSpinner);
         panel.add(Box.createHorizontalStrut(20));
+        panel.add(brushLabel);
+        panel.add(brushSizeSpinner);
+        panel.add(Box.createHorizontalStrut(20));
+        panel.add(speedLabel);
+        panel.add(speedSpinner);
+        panel.add(Box.createHorizontalStrut(20));
+        panel.add(templateLabel);
+        panel.add(templateShapeSelector);
+        panel.add(templatePlayersCheckBox);
+        panel.add(Box.createHorizontalStrut(20));
         panel.add(displayAllButton);
         panel.add(Box.createHorizontalStrut(10));
         panel.add(clearSelectionButton);
@@ -370,6 +561,20 @@ public class ControllerFrame extends JFrame {
         importMenu.add(massImportTokens);
         menuBar.add(importMenu);
 
+        // Scene menu
+        JMenu sceneMenu = new JMenu("Scene");
+        JMenuItem saveSceneItem = new JMenuItem("Save Scene As...");
+        saveSceneItem.addActionListener(e -> saveSceneAs());
+        JMenuItem openSceneItem = new JMenuItem("Open Scene...");
+        openSceneItem.addActionListener(e -> openScene());
+        JMenuItem restoreSessionItem = new JMenuItem("Restore Last Session");
+        restoreSessionItem.addActionListener(e -> openScene(sceneManager.getAutosaveFile()));
+        sceneMenu.add(saveSceneItem);
+        sceneMenu.add(openSceneItem);
+        sceneMenu.addSeparator();
+        sceneMenu.add(restoreSessionItem);
+        menuBar.add(sceneMenu);
+
         // Tools menu
         JMenu toolsMenu = new JMenu("Tools");
         JMenu diceRollersMenu = new JMenu("Dice Rollers");
@@ -379,6 +584,41 @@ public class ControllerFrame extends JFrame {
         toolsMenu.add(diceRollersMenu);
         menuBar.add(toolsMenu);
 
+        // View menu
+        JMenu viewMenu = new JMenu("View");
+        JCheckBoxMenuItem perfOverlayItem = new JCheckBoxMenuItem("Performance Overlay");
+        perfOverlayItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0));
+        perfOverlayItem.addActionListener(e -> imagePanel.setPerfOverlayVisible(perfOverlayItem.isSelected()));
+        viewMenu.add(perfOverlayItem);
+        JCheckBoxMenuItem fullScreenItem = new JCheckBoxMenuItem("Player Screen Full Screen...");
+        fullScreenItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F11, 0));
+        DisplayFrame primaryDisplay = displays.getPrimary();
+        fullScreenItem.addActionListener(e -> {
+            togglePlayerFullScreen();
+            // Follow the actual state, also when the dialog was cancelled
+            fullScreenItem.setSelected(primaryDisplay.isFullScreen());
+        });
+        // Kept in sync when the player screen changes by itself (Esc, F11)
+        primaryDisplay.addPropertyChangeListener(DisplayFrame.FULL_SCREEN_PROPERTY,
+                e -> fullScreenItem.setSelected(primaryDisplay.isFullScreen()));
+        viewMenu.add(fullScreenItem);
+        JMenuItem addDisplayItem = new JMenuItem("Add Player Screen...");
+        addDisplayItem.addActionListener(e -> addPlayerScreen());
+        viewMenu.add(addDisplayItem);
+        JCheckBoxMenuItem streamItem = new JCheckBoxMenuItem("Network Player Screen...");
+        streamItem.addActionListener(e -> {
+            toggleStreamServer();
+            streamItem.setSelected(displays.getStreamServer().isRunning());
+        });
+        viewMenu.add(streamItem);
+        JCheckBoxMenuItem webItem = new JCheckBoxMenuItem("Browser Player Screen...");
+        webItem.addActionListener(e -> {
+            toggleWebServer();
+            webItem.setSelected(displays.getWebServer().isRunning());
+        });
+        viewMenu.add(webItem);
+        menuBar.add(viewMenu);
+
         // About button
         JButton aboutButton = new JButton("About");
         aboutButton.addActionListener(e -> showAboutDialog());
@@ -400,6 +640,145 @@ public class ControllerFrame extends JFrame {
         return menuBar;
     }
 
+    /**
+     * Take the player screen full screen on a chosen screen and display
+     * mode, or back to a window.
+     */
+    private void togglePlayerFullScreen() {
+        DisplayFrame display = displays.getPrimary();
+        if (display.isFullScreen()) {
+            display.exitFullScreen();
+        } else {
+            PlayerScreenDialog choice = PlayerScreenDialog.show(this, "Player Screen Full Screen",
+                    display.getScreenDevice());
+            if (choice != null) {
+                enterFullScreen(display, choice);
+            }
+        }
+    }
+
+    /**
+     * Open another player screen, full screen on the chosen screen unless
+     * that is the controller's own screen.
+     */
+    private void addPlayerScreen() {
+        GraphicsDevice controllerScreen = getGraphicsConfiguration().getDevice();
+        GraphicsDevice suggested = controllerScreen;
+        for (GraphicsDevice screen : GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices()) {
+            boolean used = screen == controllerScreen;
+            for (DisplayFrame display : displays.getDisplays()) {
+                used |= screen == display.getScreenDevice();
+            }
+            if (!used) {
+                suggested = screen;
+                break;
+            }
+        }
+
+        PlayerScreenDialog choice = PlayerScreenDialog.show(this, "Add Player Screen", suggested);
+        if (choice == null) {
+            return;
+        }
+        DisplayFrame display = displays.open(choice.getDevice());
+        if (choice.getDevice() != controllerScreen) {
+            enterFullScreen(display, choice);
+        }
+    }
+
+    /**
+     * Start or stop serving the player screen to viewers on other computers.
+     */
+    private void toggleStreamServer() {
+        PlayerStreamServer server = displays.getStreamServer();
+        if (server.isRunning()) {
+            server.stop();
+            return;
+        }
+        int port = Integer.getInteger(PlayerStreamServer.PORT_PROPERTY, PlayerStreamCodec.DEFAULT_PORT);
+        try {
+            server.start(port);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this,
+                "Error starting network player screen on port " + port + ": " + e.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        StringBuilder addresses = new StringBuilder();
+        for (String address : getNetworkAddresses()) {
+            addresses.append("\n    ./run.sh --viewer ").append(address).append(':').append(server.getPort());
+        }
+        JOptionPane.showMessageDialog(this,
+            "Players can now connect from another computer on this network with:"
+                + (addresses.length() > 0 ? addresses.toString() : "\n    ./run.sh --viewer <this computer>:" + server.getPort())
+                + "\n(run.bat on Windows). Anyone on the network can connect while this is on.",
+            "Network Player Screen",
+            JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    /**
+     * Start or stop serving the player screen to web browsers, e.g. phones.
+     */
+    private void toggleWebServer() {
+        PlayerWebServer server = displays.getWebServer();
+        if (server.isRunning()) {
+            server.stop();
+            return;
+        }
+        int port = Integer.getInteger(PlayerWebServer.PORT_PROPERTY, PlayerWebServer.DEFAULT_PORT);
+        try {
+            server.start(port);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this,
+                "Error starting browser player screen on port " + port + ": " + e.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        StringBuilder addresses = new StringBuilder();
+        for (String address : getNetworkAddresses()) {
+            addresses.append("\n    http://").append(address).append(':').append(server.getPort()).append('/');
+        }
+        JOptionPane.showMessageDialog(this,
+            "Players can now open the player screen in a web browser on this network at:"
+                + (addresses.length() > 0 ? addresses.toString() : "\n    http://<this computer>:" + server.getPort() + "/")
+                + "\nAnyone on the network can connect while this is on.",
+            "Browser Player Screen",
+            JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    /**
+     * This computer's IPv4 addresses on the network, for players to connect to.
+     */
+    private static List<String> getNetworkAddresses() {
+        List<String> addresses = new ArrayList<>();
+        try {
+            for (NetworkInterface network : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!network.isUp() || network.isLoopback()) {
+                    continue;
+                }
+                for (InetAddress address : Collections.list(network.getInetAddresses())) {
+                    if (address instanceof Inet4Address) {
+                        addresses.add(address.getHostAddress());
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            System.err.println("Error listing network addresses: " + e.getMessage());
+        }
+        return addresses;
+    }
+
+    private void enterFullScreen(DisplayFrame display, PlayerScreenDialog choice) {
+        if (!display.enterFullScreen(choice.getDevice(), choice.getMode())) {
+            JOptionPane.showMessageDialog(this,
+                "The screen did not accept display mode " + PlayerScreenDialog.describe(choice.getMode())
+                    + ".\nThe player screen is full screen in the current mode.",
+                "Display Mode",
+                JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
     private void showAboutDialog() {
         JDialog aboutDialog = new JDialog(this, "About EZBattleMap", true);
         aboutDialog.setLayout(new BorderLayout(10, 10));
@@ -614,12 +993,24 @@ public class ControllerFrame extends JFrame {
             "MENU BAR:\n" +
             "---------\n" +
             "  Mass Import:          Import multiple images at once to active library\n" +
+            "  Scene > Save Scene As / Open Scene: Save or reopen map, fog, tokens and views\n" +
+            "  Scene > Restore Last Session: Reopen the automatically saved scene\n" +
+            "  View > Performance Overlay (F3): Show frame times, cache hits and heap\n" +
+            "  View > Player Screen Full Screen (F11): Fill a screen with the player view,\n" +
+            "                        optionally in another display mode; Esc leaves it\n" +
+            "  View > Add Player Screen: Show the player view on another screen too,\n" +
+            "                        with its own zoom; F11 on any player screen fills it\n" +
+            "  View > Network Player Screen: Let players watch from a laptop or tablet\n" +
+            "                        started with ./run.sh --viewer <address>\n" +
+            "  View > Browser Player Screen: Let players watch in a web browser, e.g. on\n" +
+            "                        their phones, at http://<address>:8080/\n" +
             "  About:                View application information and version\n" +
             "  Help:                 Display this help dialog\n\n" +
 
             "GENERAL CONTROLS:\n" +
             "-----------------\n" +
-            "  Mode Selector:        Switch between 'Map Mode' and 'Token Mode'\n" +
+            "  Mode Selector:        Switch between 'Map Mode', 'Token Mode',\n" +
+            "                        'Wall Mode', 'Brush Mode' and 'Template Mode'\n" +
             "  Select Image:         Load a new image from file system\n" +
             "  Square Size:          Adjust grid square size (1-2000 pixels)\n" +
             "                        Grid size is saved per map\n" +
@@ -630,6 +1021,8 @@ public class ControllerFrame extends JFrame {
             "---------\n" +
             "  Left Click:           Select/deselect grid cells\n" +
             "  Click + Drag:         Select multiple grid cells\n" +
+            "  Shift + Left Click:   Reveal the whole room, up to walls or where the\n" +
+            "                        map's color changes sharply\n" +
             "  Ctrl + Left Drag:     Pan the image\n" +
             "  Middle Mouse Drag:    Pan the image\n" +
             "  Mouse Wheel:          Zoom in/out\n\n" +
@@ -640,10 +1033,37 @@ public class ControllerFrame extends JFrame {
             "  Drag Selected Token:  Move token to new grid position\n" +
             "  Right Click Token:    Open context menu with options:\n" +
             "    - Change Size:      Resize token (1x1, 2x2, or 3x3 grids)\n" +
+            "    - Line of Sight:    Reveal what the token sees as it moves\n" +
             "    - Delete Token:     Remove token with confirmation\n" +
+            "  Selected Token:       Shows the squares it can reach with its Speed, and\n" +
+            "                        the shortest way around walls and other tokens\n" +
+            "                        to the square under the cursor\n" +
             "  Drag from Library:    Place new token on map\n" +
             "  Click Empty Space:    Deselect current token\n\n" +
 
+            "WALL MODE:\n" +
+            "----------\n" +
+            "  Left Click:           Mark/clear a wall cell, which blocks line of sight\n" +
+            "  Click + Drag:         Mark or clear several wall cells\n" +
+            "                        Walls are saved per map with its fog\n\n" +
+
+            "BRUSH MODE:\n" +
+            "-----------\n" +
+            "  Left Drag:            Reveal with a round brush, finer than grid squares\n" +
+            "  Right Drag:           Hide with the brush\n" +
+            "  Brush Size:           Brush diameter in map pixels\n" +
+            "                        Brushed fog is saved per map; Display All and\n" +
+            "                        Clear Selection clear it\n\n" +
+
+            "TEMPLATE MODE:\n" +
+            "--------------\n" +
+            "  Left Drag:            Drag out an area of effect from a grid corner\n" +
+            "                        (a line starts from the square clicked)\n" +
+            "  Right Click:          Remove the template\n" +
+            "  Template:             Circle, Cone, Line or Cube, sized in 5 ft squares\n" +
+            "  Show to Players:      Shade the covered squares on the player screens\n" +
+            "                        Tokens in the area get an orange border\n\n" +
+
             "IMAGE LIBRARY:\n" +
             "--------------\n" +
             "  Library Selector:     Switch between 'Maps' and 'Tokens' libraries\n" +
@@ -677,6 +1097,8 @@ public class ControllerFrame extends JFrame {
             "TIPS:\n" +
             "-----\n" +
             "  - Grid size is saved per map and restored when reopened\n" +
+            "  - Revealed areas are saved per map and restored when reopened\n" +
+            "  - The scene is autosaved every few seconds while it changes\n" +
             "  - Use Map Mode to reveal areas progressively during play\n" +
             "  - Use Token Mode to manage character/monster positions\n" +
             "  - Display All useful for outdoor encounters or full map reveals\n" +
@@ -701,297 +1123,254 @@ public class ControllerFrame extends JFrame {
     }
 
     public void setImage(BufferedImage image) {
+        saveFog();
+        // Cleared for maps opened from a file; library maps set it afterwards
+        currentImageId = null;
+        // The controller, display and app share this one decoded map
+        library.getMemoryManager().pin("map", image);
         imagePanel.setImage(image);
         gridOverlay.setImageDimensions(image.getWidth(), image.getHeight());
-        displayFrame.updateGridOverlay(gridOverlay);
+        displays.updateGridOverlay(gridOverlay);
+        lineOfSight.update();
+        clearAreaTemplate();
+
+        // Warm the sprites for tokens already on the table
+        List<String> tokenImageIds = new ArrayList<>();
+        for (int i = 0; i < tokenOverlay.getTokenCount(); i++) {
+            tokenImageIds.add(tokenOverlay.getImageId(i));
+        }
+        if (!tokenImageIds.isEmpty()) {
+            library.getPrefetcher().prefetchTokens(tokenImageIds);
+        }
     }
 
-    public Token getSelectedToken() {
-        return selectedToken;
+    /**
+     * Reveal every grid cell to the players.
+     */
+    void revealAll() {
+        gridOverlay.selectAll();
+        imagePanel.repaint();
+        displays.updateViewport(gridOverlay.getSelectedBounds());
     }
 
-    private void updateViewport() {
-        // Only update viewport in Map Mode
-        if (!isTokenMode) {
-            Rectangle viewport = gridOverlay.getSelectedBounds();
-            displayFrame.updateViewport(viewport);
+    /**
+     * Snapshot the current scene, or null if no library map is open.
+     */
+    Scene captureScene() {
+        if (currentImageId == null) {
+            return null;
         }
+        return Scene.capture(currentImageId, gridOverlay, tokenOverlay,
+                imagePanel.getScale(), imagePanel.getOffset(),
+                displays.getPrimary().getViewScale(), displays.getPrimary().getViewOffset());
     }
-}
-
-/**
- * Panel for displaying the image with grid overlay
- */
-class ImagePanel extends JPanel {
-    private BufferedImage image;
-    private GridOverlay gridOverlay;
-    private TokenOverlay tokenOverlay;
-    private ImageLibrary library;
-    private double scale = 1.0;
-    private Point offset = new Point(0, 0);
-    private String draggingTokenImageId;
-    private BufferedImage draggingTokenImage;
-    private Point mousePosition;
-    private ControllerFrame controller;
-
-    public ImagePanel(GridOverlay gridOverlay, TokenOverlay tokenOverlay, ImageLibrary library) {
-        this.gridOverlay = gridOverlay;
-        this.tokenOverlay = tokenOverlay;
-        this.library = library;
-        setBackground(Color.DARK_GRAY);
-        setPreferredSize(new Dimension(800, 600));
 
-        MouseAdapter mouseAdapter = new MouseAdapter() {
-            private Point lastPoint;
+    /**
+     * Total number of changes to the scene so far; autosave compares it with
+     * the value at the last save.
+     */
+    long getSceneModCount() {
+        return (long) gridOverlay.getModCount() + tokenOverlay.getModCount()
+                + imagePanel.getViewModCount() + displays.getViewModCount();
+    }
 
-            @Override
-            public void mousePressed(MouseEvent e) {
-                if (SwingUtilities.isMiddleMouseButton(e) ||
-                    (SwingUtilities.isLeftMouseButton(e) && e.isControlDown())) {
-                    lastPoint = e.getPoint();
-                }
-            }
+    private void saveSceneAs() {
+        Scene scene = captureScene();
+        if (scene == null) {
+            JOptionPane.showMessageDialog(this,
+                "Open a map from the library before saving a scene.",
+                "Save Scene",
+                JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
 
-            @Override
-            public void mouseDragged(MouseEvent e) {
-                if (lastPoint != null) {
-                    int dx = e.getX() - lastPoint.x;
-                    int dy = e.getY() - lastPoint.y;
-                    offset.translate(dx, dy);
-                    lastPoint = e.getPoint();
-                    repaint();
-                }
+        JFileChooser fileChooser = createSceneChooser();
+        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            if (!file.getName().toLowerCase().endsWith(SceneManager.EXTENSION)) {
+                file = new File(file.getParentFile(), file.getName() + SceneManager.EXTENSION);
             }
+            sceneManager.saveAsync(scene, file);
+        }
+    }
 
-            @Override
-            public void mouseReleased(MouseEvent e) {
-                lastPoint = null;
-            }
+    private void openScene() {
+        JFileChooser fileChooser = createSceneChooser();
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            openScene(fileChooser.getSelectedFile());
+        }
+    }
 
+    private JFileChooser createSceneChooser() {
+        File scenesDir = sceneManager.getScenesDirectory();
+        scenesDir.mkdirs();
+        JFileChooser fileChooser = new JFileChooser(scenesDir);
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
             @Override
-            public void mouseWheelMoved(MouseWheelEvent e) {
-                double oldScale = scale;
-                if (e.getWheelRotation() < 0) {
-                    scale *= 1.1;
-                } else {
-                    scale /= 1.1;
-                }
-                scale = Math.max(0.1, Math.min(scale, 10.0));
-
-                Point mousePoint = e.getPoint();
-                offset.x = (int) (mousePoint.x - (mousePoint.x - offset.x) * scale / oldScale);
-                offset.y = (int) (mousePoint.y - (mousePoint.y - offset.y) * scale / oldScale);
-
-                repaint();
+            public boolean accept(File f) {
+                return f.isDirectory() || f.getName().toLowerCase().endsWith(SceneManager.EXTENSION);
             }
 
             @Override
-            public void mouseMoved(MouseEvent e) {
-                // Track mouse position for drag preview
-                if (draggingTokenImageId != null) {
-                    mousePosition = e.getPoint();
-                    repaint();
-                }
+            public String getDescription() {
+                return "EZBattleMap Scenes (*" + SceneManager.EXTENSION + ")";
             }
-        };
-
-        addMouseListener(mouseAdapter);
-        addMouseMotionListener(mouseAdapter);
-        addMouseWheelListener(mouseAdapter);
+        });
+        return fileChooser;
     }
 
-    public void setImage(BufferedImage image) {
-        this.image = image;
-        if (image != null) {
-            scale = Math.min(
-                getWidth() / (double) image.getWidth(),
-                getHeight() / (double) image.getHeight()
-            ) * 0.9;
-            offset.x = (getWidth() - (int) (image.getWidth() * scale)) / 2;
-            offset.y = (getHeight() - (int) (image.getHeight() * scale)) / 2;
+    private void openScene(File file) {
+        if (!file.exists()) {
+            JOptionPane.showMessageDialog(this,
+                "No saved scene found: " + file.getName(),
+                "Open Scene",
+                JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        try {
+            applyScene(SceneManager.read(file));
+            sceneManager.markSaved();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this,
+                "Error opening scene: " + e.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE);
         }
-        repaint();
     }
 
-    public void setController(ControllerFrame controller) {
-        this.controller = controller;
+    /**
+     * Open a scene's map and restore its grid, revealed cells, brushed fog,
+     * tokens and views. Scenes saved without brushed fog open with none.
+     */
+    void applyScene(Scene scene) throws IOException {
+        BufferedImage image = library.loadImage(scene.getMapId());
+
+        // Tokens first, so opening the map warms their sprites
+        tokenOverlay.restoreTokens(scene.getTokens(), scene.getNextTokenId());
+        selectedToken = null;
+        lineOfSight.clearVision();
+        showLibraryMap(scene.getMapId(), image);
+        gridSizeSpinner.setValue(scene.getSquareSize());
+        gridOverlay.setSquareSize(scene.getSquareSize());
+        if (gridOverlay.getGridCols() == scene.getGridCols() && gridOverlay.getGridRows() == scene.getGridRows()) {
+            gridOverlay.setSelectedCells(scene.getRevealedCells());
+        }
+        // Replace the brush strokes of the map's current fog with the scene's
+        gridOverlay.setFogMask(scene.getFogMask() != null ? scene.getFogMask().copy()
+                : new FogMask(gridOverlay.getFogMask().getWidth(), gridOverlay.getFogMask().getHeight()));
+        displays.updateGridOverlay(gridOverlay);
+        displays.updateTokenOverlay(tokenOverlay);
+        displays.updateViewport(gridOverlay.getSelectedBounds());
+
+        imagePanel.setView(scene.getControllerScale(), scene.getControllerOffset());
+        displays.getPrimary().setView(scene.getDisplayScale(), scene.getDisplayOffset());
     }
 
-    public void setDraggingToken(String imageId, BufferedImage tokenImage) {
-        this.draggingTokenImageId = imageId;
-        this.draggingTokenImage = tokenImage;
+    public Token getSelectedToken() {
+        return selectedToken;
     }
 
-    public String getDraggingTokenImageId() {
-        return draggingTokenImageId;
+    /**
+     * Paint the brush from the last point of the drag to this one.
+     */
+    private void brushTo(Point imagePoint) {
+        double radius = (Integer) brushSizeSpinner.getValue() / 2.0;
+        gridOverlay.brush(lastBrushPoint.x, lastBrushPoint.y, imagePoint.x, imagePoint.y, radius, brushReveal);
+        lastBrushPoint = imagePoint;
+        imagePanel.repaint();
+        displays.updateRevealedCells();
     }
 
-    public BufferedImage getDraggingTokenImage() {
-        return draggingTokenImage;
+    /**
+     * Place the area template from the drag's origin to its last point in the
+     * chosen shape, repainting only if that changed which area it covers.
+     */
+    private void placeAreaTemplate() {
+        if (templateFrom == null) {
+            return;
+        }
+        AreaTemplate.Shape shape = (AreaTemplate.Shape) templateShapeSelector.getSelectedItem();
+        if (areaTemplate.set(shape, templateFrom.x, templateFrom.y, templateTo.x, templateTo.y,
+                gridOverlay.getSquareSize())) {
+            areaTemplateChanged();
+        }
     }
 
-    public Point getImagePoint(Point panelPoint) {
-        if (image == null) return null;
-
-        int x = (int) ((panelPoint.x - offset.x) / scale);
-        int y = (int) ((panelPoint.y - offset.y) / scale);
-
-        if (x >= 0 && x < image.getWidth() && y >= 0 && y < image.getHeight()) {
-            return new Point(x, y);
+    private void clearAreaTemplate() {
+        if (areaTemplate.isActive()) {
+            areaTemplate.clear();
+            areaTemplateChanged();
         }
-        return null;
+        templateFrom = null;
+        templateTo = null;
+        templateDragging = false;
     }
 
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    private void areaTemplateChanged() {
+        imagePanel.repaint();
+        if (templatePlayersCheckBox.isSelected()) {
+            displays.updateAreaTemplate(areaTemplate);
+        }
+    }
 
-        if (image != null) {
-            int width = (int) (image.getWidth() * scale);
-            int height = (int) (image.getHeight() * scale);
+    AreaTemplate getAreaTemplate() {
+        return areaTemplate;
+    }
 
-            g2d.drawImage(image, offset.x, offset.y, width, height, null);
-            drawGrid(g2d, width, height);
-            drawTokens(g2d);
-            drawDraggingTokenPreview(g2d);
-        }
+    MovementRange getMovementRange() {
+        return movementRange;
     }
 
-    private void drawTokens(Graphics2D g2d) {
-        int squareSize = gridOverlay.getSquareSize();
-        Token selectedToken = (controller != null) ? controller.getSelectedToken() : null;
+    /**
+     * The selected token's speed in squares.
+     */
+    int getSpeedSquares() {
+        return (Integer) speedSpinner.getValue() / AreaTemplate.FEET_PER_SQUARE;
+    }
 
-        for (Token token : tokenOverlay.getAllTokens()) {
-            // Load token image if not cached
-            if (token.getCachedImage() == null) {
-                try {
-                    BufferedImage tokenImg = library.loadImage(token.getImageId());
-                    token.setCachedImage(tokenImg);
-                } catch (Exception e) {
-                    continue; // Skip if image can't be loaded
-                }
-            }
+    int getPathTargetX() {
+        return pathTargetX;
+    }
 
-            BufferedImage tokenImg = token.getCachedImage();
-            if (tokenImg == null) continue;
-
-            // Calculate token position and size in pixels
-            int tokenX = token.getGridX() * squareSize;
-            int tokenY = token.getGridY() * squareSize;
-            int tokenWidth = token.getGridWidth() * squareSize;
-            int tokenHeight = token.getGridHeight() * squareSize;
-
-            // Apply scale and offset
-            int screenX = offset.x + (int) (tokenX * scale);
-            int screenY = offset.y + (int) (tokenY * scale);
-            int screenWidth = (int) (tokenWidth * scale);
-            int screenHeight = (int) (tokenHeight * scale);
-
-            // Draw token image
-            g2d.drawImage(tokenImg, screenX, screenY, screenWidth, screenHeight, null);
-
-            // Draw token border (different color if selected)
-            boolean isSelected = (token == selectedToken);
-            if (isSelected) {
-                g2d.setColor(new Color(100, 255, 100, 255));
-                g2d.setStroke(new BasicStroke(4));
-            } else {
-                g2d.setColor(new Color(255, 100, 100, 200));
-                g2d.setStroke(new BasicStroke(2));
-            }
-            g2d.drawRect(screenX, screenY, screenWidth, screenHeight);
-        }
-    }
-
-    private void drawDraggingTokenPreview(Graphics2D g2d) {
-        if (draggingTokenImage != null && mousePosition != null) {
-            Point imagePoint = getImagePoint(mousePosition);
-            if (imagePoint != null) {
-                int squareSize = gridOverlay.getSquareSize();
-                int cellX = imagePoint.x / squareSize;
-                int cellY = imagePoint.y / squareSize;
-
-                if (cellX >= 0 && cellX < gridOverlay.getGridCols() &&
-                    cellY >= 0 && cellY < gridOverlay.getGridRows()) {
-
-                    // Calculate position to draw preview
-                    int tokenX = cellX * squareSize;
-                    int tokenY = cellY * squareSize;
-                    int tokenWidth = squareSize;
-                    int tokenHeight = squareSize;
-
-                    // Apply scale and offset
-                    int screenX = offset.x + (int) (tokenX * scale);
-                    int screenY = offset.y + (int) (tokenY * scale);
-                    int screenWidth = (int) (tokenWidth * scale);
-                    int screenHeight = (int) (tokenHeight * scale);
-
-                    // Draw semi-transparent preview
-                    Composite originalComposite = g2d.getComposite();
-                    g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.6f));
-                    g2d.drawImage(draggingTokenImage, screenX, screenY, screenWidth, screenHeight, null);
-                    g2d.setComposite(originalComposite);
-
-                    // Draw preview border
-                    g2d.setColor(new Color(100, 255, 100, 200));
-                    g2d.setStroke(new BasicStroke(3));
-                    g2d.drawRect(screenX, screenY, screenWidth, screenHeight);
-                }
-            }
-        }
+    int getPathTargetY() {
+        return pathTargetY;
     }
 
-    private void drawGrid(Graphics2D g2d, int displayWidth, int displayHeight) {
+    /**
+     * Lead the selected token's path to the square under the cursor,
+     * repainting only when the cursor enters another square. Does not allocate.
+     */
+    private void followCursor(MouseEvent e) {
+        if (selectedToken == null) {
+            return;
+        }
         int squareSize = gridOverlay.getSquareSize();
-        int gridCols = gridOverlay.getGridCols();
-        int gridRows = gridOverlay.getGridRows();
-
-        g2d.setStroke(new BasicStroke(2));
-        g2d.setColor(new Color(255, 255, 0, 150));
-
-        // Draw vertical lines
-        for (int i = 0; i <= gridCols; i++) {
-            int x = offset.x + (int) (i * squareSize * scale);
-            g2d.drawLine(x, offset.y, x, offset.y + displayHeight);
-        }
-
-        // Draw horizontal lines
-        for (int i = 0; i <= gridRows; i++) {
-            int y = offset.y + (int) (i * squareSize * scale);
-            g2d.drawLine(offset.x, y, offset.x + displayWidth, y);
-        }
-
-        // Highlight selected cells
-        boolean[][] selected = gridOverlay.getSelectedCells();
-        g2d.setColor(new Color(0, 255, 0, 100));
-        for (int y = 0; y < gridRows; y++) {
-            for (int x = 0; x < gridCols; x++) {
-                if (selected[y][x]) {
-                    Rectangle cellRect = gridOverlay.getCellRectangle(x, y);
-                    if (cellRect != null) {
-                        int px = offset.x + (int) (cellRect.x * scale);
-                        int py = offset.y + (int) (cellRect.y * scale);
-                        int pw = (int) (cellRect.width * scale);
-                        int ph = (int) (cellRect.height * scale);
-                        g2d.fillRect(px, py, pw, ph);
-                    }
-                }
-            }
+        int cellX = Math.floorDiv(imagePanel.getMapX(e.getX()), squareSize);
+        int cellY = Math.floorDiv(imagePanel.getMapY(e.getY()), squareSize);
+        if (cellX != pathTargetX || cellY != pathTargetY) {
+            pathTargetX = cellX;
+            pathTargetY = cellY;
+            imagePanel.repaint();
         }
+    }
+
+    /**
+     * Show changed tokens on every screen and reveal what vision tokens now see.
+     */
+    private void tokensChanged() {
+        imagePanel.repaint();
+        displays.updateTokenOverlay(tokenOverlay);
+        lineOfSight.update();
+    }
+
+    LineOfSight getLineOfSight() {
+        return lineOfSight;
+    }
 
-        // Draw viewport boundary
-        Rectangle viewport = gridOverlay.getSelectedBounds();
-        if (viewport != null) {
-            g2d.setColor(new Color(255, 0, 0, 200));
-            g2d.setStroke(new BasicStroke(3));
-            int vx = offset.x + (int) (viewport.x * scale);
-            int vy = offset.y + (int) (viewport.y * scale);
-            int vw = (int) (viewport.width * scale);
-            int vh = (int) (viewport.height * scale);
-            g2d.drawRect(vx, vy, vw, vh);
+    private void updateViewport() {
+        // Only update viewport in Map Mode
+        if (!isTokenMode) {
+            displays.updateRevealedCells();
         }
     }
 }
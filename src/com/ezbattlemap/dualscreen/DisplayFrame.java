@@ -4,19 +4,27 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
-import java.util.List;
 
 /**
- * Display frame for the second screen showing the selected viewport
+ * Display frame for a player screen showing the selected viewport
  */
 public class DisplayFrame extends JFrame {
+    /** Bound property fired when the frame enters or leaves full-screen mode. */
+    public static final String FULL_SCREEN_PROPERTY = "fullScreen";
+
     private DualScreenImageApp app;
     private DisplayPanel displayPanel;
+    private JPanel statusPanel;
     private BufferedImage currentImage;
     private Rectangle viewport;
     private GridOverlay gridOverlay;
     private TokenOverlay tokenOverlay;
+    private ViewportDecoder viewportDecoder;
+    private final DisplayUpdateChannel updates;
+    private GraphicsDevice fullScreenDevice;
+    private Rectangle windowedBounds;
+    // Fit the viewport once the panel has its size
+    private boolean refitOnResize = true;
 
     public DisplayFrame(DualScreenImageApp app) {
         this.app = app;
@@ -28,268 +36,288 @@ public class DisplayFrame extends JFrame {
 
         displayPanel = new DisplayPanel();
         add(displayPanel, BorderLayout.CENTER);
+        updates = new DisplayUpdateChannel(this::applyUpdates, refreshRate());
 
-        JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         statusPanel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
         JLabel statusLabel = new JLabel("Waiting for viewport selection...");
         statusPanel.add(statusLabel);
         add(statusPanel, BorderLayout.SOUTH);
+
+        // Fit the viewport to the new panel size when first shown and after
+        // switching to or from full screen
+        displayPanel.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (refitOnResize) {
+                    refitOnResize = false;
+                    updates.mark(DisplayUpdateChannel.VIEWPORT);
+                }
+            }
+        });
+
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "exitFullScreen");
+        getRootPane().getActionMap().put("exitFullScreen", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                exitFullScreen();
+            }
+        });
+        // F11 on a player screen fills the screen it is on, in its current mode
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_F11, 0), "toggleFullScreen");
+        getRootPane().getActionMap().put("toggleFullScreen", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (isFullScreen()) {
+                    exitFullScreen();
+                } else {
+                    enterFullScreen(getScreenDevice(), null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Show the player screen full screen on a device, switching the device to
+     * the given display mode first if it is not null.
+     *
+     * Exclusive full-screen mode bypasses the window manager's compositing and
+     * draws the panel at the device's native resolution. Devices without it
+     * get an undecorated window covering the screen instead. Returns false if
+     * the display mode could not be changed, in which case the current mode is kept.
+     */
+    public boolean enterFullScreen(GraphicsDevice device, DisplayMode mode) {
+        if (fullScreenDevice != null) {
+            exitFullScreen();
+        }
+        // Another player screen already filling this device gives way
+        Window previous = device.getFullScreenWindow();
+        if (previous instanceof DisplayFrame && previous != this) {
+            ((DisplayFrame) previous).exitFullScreen();
+        }
+        windowedBounds = getBounds();
+
+        // Decorations can only be removed while the frame is not displayable
+        dispose();
+        setUndecorated(true);
+        statusPanel.setVisible(false);
+        displayPanel.setCursor(blankCursor());
+        refitOnResize = true;
+        device.setFullScreenWindow(this);
+        fullScreenDevice = device;
+
+        boolean modeChanged = true;
+        if (mode != null && !mode.equals(device.getDisplayMode())) {
+            modeChanged = false;
+            if (device.isDisplayChangeSupported()) {
+                try {
+                    device.setDisplayMode(mode);
+                    modeChanged = true;
+                } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                    System.err.println("Error changing display mode: " + e.getMessage());
+                }
+            }
+        }
+        updates.setRefreshRate(device.getDisplayMode().getRefreshRate());
+        firePropertyChange(FULL_SCREEN_PROPERTY, false, true);
+        return modeChanged;
+    }
+
+    /**
+     * Return to a decorated window where the frame was before going full
+     * screen. Leaving full-screen mode restores the device's original display mode.
+     */
+    public void exitFullScreen() {
+        if (fullScreenDevice == null) {
+            return;
+        }
+        GraphicsDevice device = fullScreenDevice;
+        fullScreenDevice = null;
+        device.setFullScreenWindow(null);
+
+        dispose();
+        setUndecorated(false);
+        statusPanel.setVisible(true);
+        displayPanel.setCursor(Cursor.getDefaultCursor());
+        if (windowedBounds != null) {
+            setBounds(windowedBounds);
+        }
+        refitOnResize = true;
+        setVisible(true);
+        updates.setRefreshRate(refreshRate());
+        firePropertyChange(FULL_SCREEN_PROPERTY, true, false);
+    }
+
+    public boolean isFullScreen() {
+        return fullScreenDevice != null;
+    }
+
+    /**
+     * The device the player screen is on, or full screen on.
+     */
+    public GraphicsDevice getScreenDevice() {
+        return fullScreenDevice != null ? fullScreenDevice : getGraphicsConfiguration().getDevice();
     }
 
-    public void setImageLibrary(ImageLibrary library) {
+    private static Cursor blankCursor() {
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        return Toolkit.getDefaultToolkit().createCustomCursor(image, new Point(0, 0), "blank");
+    }
+
+    /**
+     * Use the library's token sprites and a region decoder shared with the
+     * other player screens. The decoder's source is set by its owner.
+     */
+    void setImageLibrary(ImageLibrary library, ViewportDecoder viewportDecoder) {
         displayPanel.setImageLibrary(library);
+        this.viewportDecoder = viewportDecoder;
     }
 
     public void setImage(BufferedImage image) {
         this.currentImage = image;
         displayPanel.setFullImage(image);
-        updateDisplay();
+        // A new map is shown at once, together with anything still pending
+        updates.mark(DisplayUpdateChannel.VIEWPORT);
+        updates.flush();
     }
 
+    /**
+     * The grid changed; the player screen catches up on its next frame.
+     */
     public void updateGridOverlay(GridOverlay gridOverlay) {
         this.gridOverlay = gridOverlay;
         displayPanel.setGridOverlay(gridOverlay);
-        updateDisplay();
+        updates.mark(DisplayUpdateChannel.VIEWPORT);
     }
 
+    /**
+     * Tokens changed; the player screen catches up on its next frame.
+     */
     public void updateTokenOverlay(TokenOverlay tokenOverlay) {
         this.tokenOverlay = tokenOverlay;
         displayPanel.setTokenOverlay(tokenOverlay);
-        updateDisplay();
+        updates.mark(DisplayUpdateChannel.TOKENS);
+    }
+
+    /**
+     * An area template was placed, moved or cleared, or null to stop showing
+     * one; the player screen catches up on its next frame.
+     */
+    void updateAreaTemplate(AreaTemplate areaTemplate) {
+        displayPanel.setAreaTemplate(areaTemplate);
+        updates.mark(DisplayUpdateChannel.OVERLAYS);
     }
 
+    /**
+     * The revealed area changed; the player screen catches up on its next
+     * frame. If its bounds are unchanged the player's zoom is kept.
+     */
     public void updateViewport(Rectangle viewport) {
+        boolean moved = viewport == null ? this.viewport != null : !viewport.equals(this.viewport);
         this.viewport = viewport;
-        updateDisplay();
+        updates.mark(moved ? DisplayUpdateChannel.VIEWPORT : DisplayUpdateChannel.FOG);
     }
 
-    private void updateDisplay() {
-        if (currentImage != null && viewport != null && gridOverlay != null) {
-            int x = Math.max(0, viewport.x);
-            int y = Math.max(0, viewport.y);
-            int w = Math.min(viewport.width, currentImage.getWidth() - x);
-            int h = Math.min(viewport.height, currentImage.getHeight() - y);
+    /**
+     * Cells were revealed or hidden; the viewport is recomputed from the grid
+     * on the player screen's next frame rather than for every cell.
+     */
+    public void updateRevealedCells() {
+        updates.mark(DisplayUpdateChannel.FOG);
+    }
 
-            if (w > 0 && h > 0) {
-                BufferedImage croppedImage = currentImage.getSubimage(x, y, w, h);
-                displayPanel.setViewportImage(croppedImage, viewport);
+    private void applyUpdates(int changes) {
+        if ((changes & DisplayUpdateChannel.FOG) != 0 && gridOverlay != null) {
+            Rectangle bounds = gridOverlay.getSelectedBounds();
+            if (bounds == null ? viewport != null : !bounds.equals(viewport)) {
+                viewport = bounds;
+                changes |= DisplayUpdateChannel.VIEWPORT;
             }
+        }
+        if ((changes & DisplayUpdateChannel.VIEWPORT) != 0) {
+            updateDisplay();
         } else {
-            displayPanel.setViewportImage(null, null);
+            displayPanel.repaint();
         }
-        displayPanel.repaint();
-    }
-}
-
-/**
- * Panel for displaying the viewport image with black boxes over unselected squares
- */
-class DisplayPanel extends JPanel {
-    private BufferedImage fullImage;
-    private BufferedImage viewportImage;
-    private Rectangle viewportBounds;
-    private GridOverlay gridOverlay;
-    private TokenOverlay tokenOverlay;
-    private ImageLibrary library;
-    private double scale = 1.0;
-    private Point offset = new Point(0, 0);
-
-    public DisplayPanel() {
-        setBackground(Color.BLACK);
-        setupMouseControls();
-    }
-
-    public void setImageLibrary(ImageLibrary library) {
-        this.library = library;
     }
 
-    private void setupMouseControls() {
-        MouseAdapter mouseAdapter = new MouseAdapter() {
-            private Point lastPoint;
-
-            @Override
-            public void mousePressed(MouseEvent e) {
-                if (SwingUtilities.isMiddleMouseButton(e) ||
-                    (SwingUtilities.isLeftMouseButton(e) && e.isControlDown())) {
-                    lastPoint = e.getPoint();
-                }
-            }
-
-            @Override
-            public void mouseDragged(MouseEvent e) {
-                if (lastPoint != null) {
-                    int dx = e.getX() - lastPoint.x;
-                    int dy = e.getY() - lastPoint.y;
-                    offset.translate(dx, dy);
-                    lastPoint = e.getPoint();
-                    repaint();
-                }
-            }
-
-            @Override
-            public void mouseReleased(MouseEvent e) {
-                lastPoint = null;
-            }
-
-            @Override
-            public void mouseWheelMoved(MouseWheelEvent e) {
-                if (viewportImage != null) {
-                    double oldScale = scale;
-                    if (e.getWheelRotation() < 0) {
-                        scale *= 1.1;
-                    } else {
-                        scale /= 1.1;
-                    }
-                    scale = Math.max(0.1, Math.min(scale, 10.0));
-
-                    Point mousePoint = e.getPoint();
-                    offset.x = (int) (mousePoint.x - (mousePoint.x - offset.x) * scale / oldScale);
-                    offset.y = (int) (mousePoint.y - (mousePoint.y - offset.y) * scale / oldScale);
-
-                    repaint();
-                }
-            }
-        };
-
-        addMouseListener(mouseAdapter);
-        addMouseMotionListener(mouseAdapter);
-        addMouseWheelListener(mouseAdapter);
+    private int refreshRate() {
+        try {
+            return getGraphicsConfiguration().getDevice().getDisplayMode().getRefreshRate();
+        } catch (RuntimeException e) {
+            return DisplayMode.REFRESH_RATE_UNKNOWN;
+        }
     }
 
-    public void setFullImage(BufferedImage image) {
-        this.fullImage = image;
-        repaint();
+    /**
+     * The player screen's zoom, in screen pixels per map pixel.
+     */
+    public double getViewScale() {
+        return displayPanel.getScale();
     }
 
-    public void setGridOverlay(GridOverlay gridOverlay) {
-        this.gridOverlay = gridOverlay;
+    public Point getViewOffset() {
+        return displayPanel.getOffset();
     }
 
-    public void setTokenOverlay(TokenOverlay tokenOverlay) {
-        this.tokenOverlay = tokenOverlay;
+    /**
+     * Restore the player screen's zoom and pan, e.g. from a saved scene.
+     */
+    public void setView(double scale, Point offset) {
+        // Lay out pending changes first so they do not reset the restored view
+        updates.flush();
+        displayPanel.setView(scale, offset);
     }
 
-    public void setViewportImage(BufferedImage image, Rectangle viewport) {
-        this.viewportImage = image;
-        this.viewportBounds = viewport;
-
-        // Reset zoom and offset when new viewport is set
-        if (image != null) {
-            scale = Math.min(
-                getWidth() / (double) image.getWidth(),
-                getHeight() / (double) image.getHeight()
-            ) * 0.95;
-            offset.x = (getWidth() - (int) (image.getWidth() * scale)) / 2;
-            offset.y = (getHeight() - (int) (image.getHeight() * scale)) / 2;
-        }
-
-        repaint();
+    /**
+     * Number of zoom, pan and viewport changes on the player screen so far.
+     */
+    public int getViewModCount() {
+        return displayPanel.getViewModCount();
     }
 
-    private void drawTokens(Graphics2D g2d) {
-        if (tokenOverlay == null || gridOverlay == null || library == null || viewportBounds == null) {
-            return;
-        }
-
-        int squareSize = gridOverlay.getSquareSize();
+    private void updateDisplay() {
+        if (currentImage != null && viewport != null && gridOverlay != null) {
+            int x = Math.max(0, viewport.x);
+            int y = Math.max(0, viewport.y);
+            int w = Math.min(viewport.width, currentImage.getWidth() - x);
+            int h = Math.min(viewport.height, currentImage.getHeight() - y);
 
-        for (Token token : tokenOverlay.getAllTokens()) {
-            // Load token image if not cached
-            if (token.getCachedImage() == null) {
-                try {
-                    BufferedImage tokenImg = library.loadImage(token.getImageId());
-                    token.setCachedImage(tokenImg);
-                } catch (Exception e) {
-                    continue; // Skip if image can't be loaded
+            if (w > 0 && h > 0) {
+                Rectangle region = new Rectangle(x, y, w, h);
+                BufferedImage regionImage = decodedRegion();
+                if (regionImage == null) {
+                    // Full-resolution crop until the decoded region is ready
+                    regionImage = currentImage.getSubimage(x, y, w, h);
                 }
+                displayPanel.setViewportImage(regionImage, region, viewport);
             }
-
-            BufferedImage tokenImg = token.getCachedImage();
-            if (tokenImg == null) continue;
-
-            // Calculate token position and size in image coordinates
-            int tokenX = token.getGridX() * squareSize;
-            int tokenY = token.getGridY() * squareSize;
-            int tokenWidth = token.getGridWidth() * squareSize;
-            int tokenHeight = token.getGridHeight() * squareSize;
-
-            // Create rectangle for token bounds
-            Rectangle tokenBounds = new Rectangle(tokenX, tokenY, tokenWidth, tokenHeight);
-
-            // Check if token intersects with viewport
-            if (tokenBounds.intersects(viewportBounds)) {
-                // Convert to viewport-relative coordinates
-                int relX = tokenX - viewportBounds.x;
-                int relY = tokenY - viewportBounds.y;
-
-                // Apply scale and offset for display
-                int screenX = offset.x + (int) (relX * scale);
-                int screenY = offset.y + (int) (relY * scale);
-                int screenWidth = (int) (tokenWidth * scale);
-                int screenHeight = (int) (tokenHeight * scale);
-
-                // Draw token image
-                g2d.drawImage(tokenImg, screenX, screenY, screenWidth, screenHeight, null);
-            }
+        } else {
+            displayPanel.setViewportImage(null, null);
         }
+        displayPanel.repaint();
     }
 
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-
-        if (viewportImage != null && viewportBounds != null && gridOverlay != null) {
-            int width = (int) (viewportImage.getWidth() * scale);
-            int height = (int) (viewportImage.getHeight() * scale);
-
-            // Draw the viewport image
-            g2d.drawImage(viewportImage, offset.x, offset.y, width, height, null);
-
-            // Draw black boxes over unselected squares
-            List<Rectangle> unselectedRects = gridOverlay.getUnselectedCellRectangles();
-            g2d.setColor(Color.BLACK);
-
-            for (Rectangle cellRect : unselectedRects) {
-                // Check if this cell intersects with the viewport
-                if (cellRect.intersects(viewportBounds)) {
-                    // Calculate the intersection
-                    Rectangle intersection = cellRect.intersection(viewportBounds);
-
-                    // Convert to viewport-relative coordinates
-                    int relX = intersection.x - viewportBounds.x;
-                    int relY = intersection.y - viewportBounds.y;
-
-                    // Scale and offset for display
-                    int displayX = offset.x + (int)(relX * scale);
-                    int displayY = offset.y + (int)(relY * scale);
-                    int displayW = (int)Math.ceil(intersection.width * scale) + 1;
-                    int displayH = (int)Math.ceil(intersection.height * scale) + 1;
-
-                    g2d.fillRect(displayX, displayY, displayW, displayH);
-                }
-            }
+    /**
+     * Get the viewport from the region decoder, or null if it is not in use
+     * or the region is still being decoded.
+     */
+    private BufferedImage decodedRegion() {
+        if (viewportDecoder == null || !viewportDecoder.isActive()) {
+            return null;
+        }
+        return viewportDecoder.getViewportImage(viewport, displayPanel.getWidth(), displayPanel.getHeight());
+    }
 
-            // Draw tokens on top of everything
-            drawTokens(g2d);
-        } else if (fullImage != null) {
-            g2d.setColor(Color.GRAY);
-            g2d.setFont(new Font("Arial", Font.PLAIN, 24));
-            String message = "Select grid cells on the controller to display viewport";
-            FontMetrics fm = g2d.getFontMetrics();
-            int x = (getWidth() - fm.stringWidth(message)) / 2;
-            int y = getHeight() / 2;
-            g2d.drawString(message, x, y);
-        } else {
-            g2d.setColor(Color.GRAY);
-            g2d.setFont(new Font("Arial", Font.PLAIN, 24));
-            String message = "Waiting for image...";
-            FontMetrics fm = g2d.getFontMetrics();
-            int x = (getWidth() - fm.stringWidth(message)) / 2;
-            int y = getHeight() / 2;
-            g2d.drawString(message, x, y);
+    /**
+     * The region decoder finished a region; use it if it covers this screen's viewport.
+     */
+    void regionDecoded() {
+        BufferedImage regionImage = viewport != null ? decodedRegion() : null;
+        if (regionImage != null) {
+            displayPanel.replaceViewportImage(regionImage);
         }
     }
 }
@@ -0,0 +1,303 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.util.function.Function;
+
+/**
+ * Panel for displaying the viewport image with black boxes over unselected squares
+ */
+class DisplayPanel extends JPanel {
+    private static final Font MESSAGE_FONT = new Font("Arial", Font.PLAIN, 24);
+    private static final Color TEMPLATE_COLOR = new Color(255, 140, 0, 90);
+
+    private BufferedImage fullImage;
+    private BufferedImage viewportImage;
+    private Rectangle viewportBounds;
+    private Rectangle imageRegion;
+    private GridOverlay gridOverlay;
+    private TokenOverlay tokenOverlay;
+    private Function<String, BufferedImage> tokenSprites;
+    private AreaTemplate areaTemplate;
+    private double scale = 1.0;
+    private Point offset = new Point(0, 0);
+    private int viewModCount;
+    // Reused by every paint: map-to-panel transform, scaled map and sprites
+    private final ViewTransform view = new ViewTransform();
+    private final MapViewBuffer mapBuffer = new MapViewBuffer();
+    private final ScaledSpriteCache sprites = new ScaledSpriteCache();
+    private final FogMaskTiles fogTiles = new FogMaskTiles(0, 0xff000000, true);
+
+    public DisplayPanel() {
+        setBackground(Color.BLACK);
+        setupMouseControls();
+    }
+
+    public void setImageLibrary(ImageLibrary library) {
+        this.tokenSprites = library::getTokenSprite;
+        sprites.setMemoryManager(library.getMemoryManager());
+    }
+
+    /**
+     * Take token images from elsewhere than a library, by image id. The
+     * function returns null for images that are not available.
+     */
+    void setTokenSprites(Function<String, BufferedImage> tokenSprites) {
+        this.tokenSprites = tokenSprites;
+    }
+
+    private void setupMouseControls() {
+        MouseAdapter mouseAdapter = new MouseAdapter() {
+            private Point lastPoint;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                if (SwingUtilities.isMiddleMouseButton(e) ||
+                    (SwingUtilities.isLeftMouseButton(e) && e.isControlDown())) {
+                    lastPoint = e.getPoint();
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (lastPoint != null) {
+                    int dx = e.getX() - lastPoint.x;
+                    int dy = e.getY() - lastPoint.y;
+                    offset.translate(dx, dy);
+                    lastPoint = e.getPoint();
+                    viewModCount++;
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                lastPoint = null;
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                if (viewportImage != null) {
+                    double oldScale = scale;
+                    if (e.getWheelRotation() < 0) {
+                        scale *= 1.1;
+                    } else {
+                        scale /= 1.1;
+                    }
+                    scale = Math.max(0.1, Math.min(scale, 10.0));
+
+                    Point mousePoint = e.getPoint();
+                    offset.x = (int) (mousePoint.x - (mousePoint.x - offset.x) * scale / oldScale);
+                    offset.y = (int) (mousePoint.y - (mousePoint.y - offset.y) * scale / oldScale);
+                    viewModCount++;
+
+                    repaint();
+                }
+            }
+        };
+
+        addMouseListener(mouseAdapter);
+        addMouseMotionListener(mouseAdapter);
+        addMouseWheelListener(mouseAdapter);
+    }
+
+    public void setFullImage(BufferedImage image) {
+        this.fullImage = image;
+        repaint();
+    }
+
+    public void setGridOverlay(GridOverlay gridOverlay) {
+        this.gridOverlay = gridOverlay;
+    }
+
+    public void setTokenOverlay(TokenOverlay tokenOverlay) {
+        this.tokenOverlay = tokenOverlay;
+    }
+
+    void setAreaTemplate(AreaTemplate areaTemplate) {
+        this.areaTemplate = areaTemplate;
+    }
+
+    public void setViewportImage(BufferedImage image, Rectangle viewport) {
+        Rectangle region = null;
+        if (image != null && viewport != null) {
+            region = new Rectangle(Math.max(0, viewport.x), Math.max(0, viewport.y), image.getWidth(), image.getHeight());
+        }
+        setViewportImage(image, region, viewport);
+    }
+
+    /**
+     * Set the viewport image covering the given map region. The image may be
+     * subsampled; scale is computed from the region in map pixels.
+     */
+    public void setViewportImage(BufferedImage image, Rectangle region, Rectangle viewport) {
+        this.viewportImage = image;
+        this.imageRegion = region;
+        this.viewportBounds = viewport;
+
+        // Reset zoom and offset when new viewport is set
+        if (image != null && region != null) {
+            scale = Math.min(
+                getWidth() / (double) region.width,
+                getHeight() / (double) region.height
+            ) * 0.95;
+            offset.x = (getWidth() - (int) (region.width * scale)) / 2;
+            offset.y = (getHeight() - (int) (region.height * scale)) / 2;
+        }
+        viewModCount++;
+
+        repaint();
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public Point getOffset() {
+        return new Point(offset);
+    }
+
+    /**
+     * Restore a zoom and pan, e.g. from a saved scene.
+     */
+    public void setView(double scale, Point offset) {
+        this.scale = scale;
+        this.offset = new Point(offset);
+        viewModCount++;
+        repaint();
+    }
+
+    public int getViewModCount() {
+        return viewModCount;
+    }
+
+    /**
+     * Swap in a different rendition of the same region without resetting zoom.
+     */
+    public void replaceViewportImage(BufferedImage image) {
+        this.viewportImage = image;
+        repaint();
+    }
+
+    private void drawTokens(Graphics2D g2d) {
+        if (tokenOverlay == null || tokenSprites == null) {
+            return;
+        }
+
+        int squareSize = gridOverlay.getSquareSize();
+        int viewportRight = viewportBounds.x + viewportBounds.width;
+        int viewportBottom = viewportBounds.y + viewportBounds.height;
+
+        // Index accessors read the token arrays directly, without allocating
+        int tokenCount = tokenOverlay.getTokenCount();
+        for (int i = 0; i < tokenCount; i++) {
+            // Token position and size in map pixels
+            int tokenX = tokenOverlay.getGridX(i) * squareSize;
+            int tokenY = tokenOverlay.getGridY(i) * squareSize;
+            int tokenWidth = tokenOverlay.getGridWidth(i) * squareSize;
+            int tokenHeight = tokenOverlay.getGridHeight(i) * squareSize;
+
+            // Check if token intersects with viewport
+            if (tokenX < viewportRight && tokenX + tokenWidth > viewportBounds.x
+                    && tokenY < viewportBottom && tokenY + tokenHeight > viewportBounds.y) {
+                // Shared sprite cache loads the image on first use
+                BufferedImage tokenImg = tokenSprites.apply(tokenOverlay.getImageId(i));
+                if (tokenImg == null) continue; // Skip if image can't be loaded
+
+                sprites.draw(g2d, view, tokenImg, tokenX, tokenY, tokenWidth, tokenHeight);
+            }
+        }
+    }
+
+    /**
+     * Black out unrevealed cells within the viewport, one rectangle per run
+     * of hidden cells in a row, or from tiles once fog has been brushed.
+     */
+    private void drawFog(Graphics2D g2d) {
+        if (!gridOverlay.getFogMask().isEmpty()) {
+            fogTiles.draw(g2d, view, gridOverlay, viewportBounds.x, viewportBounds.y,
+                    viewportBounds.width, viewportBounds.height);
+            return;
+        }
+        int squareSize = gridOverlay.getSquareSize();
+        boolean[][] selected = gridOverlay.getSelectedCells();
+        int left = viewportBounds.x;
+        int top = viewportBounds.y;
+        int right = left + viewportBounds.width;
+        int bottom = top + viewportBounds.height;
+        int firstCol = Math.max(0, left / squareSize);
+        int firstRow = Math.max(0, top / squareSize);
+        int endCol = Math.min(gridOverlay.getGridCols(), (right + squareSize - 1) / squareSize);
+        int endRow = Math.min(gridOverlay.getGridRows(), (bottom + squareSize - 1) / squareSize);
+
+        g2d.setColor(Color.BLACK);
+        for (int y = firstRow; y < endRow; y++) {
+            int cellTop = Math.max(top, y * squareSize);
+            int cellBottom = Math.min(bottom, (y + 1) * squareSize);
+            int x = firstCol;
+            while (x < endCol) {
+                if (selected[y][x]) {
+                    x++;
+                    continue;
+                }
+                int runStart = x;
+                while (x < endCol && !selected[y][x]) {
+                    x++;
+                }
+                int runLeft = Math.max(left, runStart * squareSize);
+                int runRight = Math.min(right, x * squareSize);
+                view.fillRect(g2d, runLeft, cellTop, runRight - runLeft, cellBottom - cellTop);
+            }
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        long paintStart = PerfMetrics.begin();
+        // Fill the background here; super.paintComponent would copy the Graphics
+        if (isOpaque()) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+        Graphics2D g2d = (Graphics2D) g;
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+        // Scale is 0 if a viewport was set before the panel was laid out
+        if (viewportImage != null && viewportBounds != null && imageRegion != null && gridOverlay != null
+                && scale > 0) {
+            // The viewport's top-left corner is drawn at the offset
+            view.set(g2d, scale, offset.x, offset.y, viewportBounds.x, viewportBounds.y);
+
+            mapBuffer.draw(g2d, view, viewportImage, imageRegion.x, imageRegion.y, imageRegion.width,
+                    imageRegion.height, getWidth(), getHeight(), getBackground());
+            // Under the fog, so hidden cells stay hidden
+            if (areaTemplate != null && areaTemplate.isActive()) {
+                g2d.setColor(TEMPLATE_COLOR);
+                areaTemplate.fill(g2d, view, gridOverlay, viewportBounds.x, viewportBounds.y,
+                        viewportBounds.width, viewportBounds.height);
+            }
+            drawFog(g2d);
+            // Draw tokens on top of everything
+            drawTokens(g2d);
+        } else if (fullImage != null) {
+            mapBuffer.clear();
+            drawMessage(g2d, "Select grid cells on the controller to display viewport");
+        } else {
+            mapBuffer.clear();
+            drawMessage(g2d, "Waiting for image...");
+        }
+        PerfMetrics.end(PerfMetrics.Probe.DISPLAY_PAINT, paintStart);
+    }
+
+    private void drawMessage(Graphics2D g2d, String message) {
+        g2d.setColor(Color.GRAY);
+        g2d.setFont(MESSAGE_FONT);
+        FontMetrics fm = g2d.getFontMetrics();
+        int x = (getWidth() - fm.stringWidth(message)) / 2;
+        int y = getHeight() / 2;
+        g2d.drawString(message, x, y);
+    }
+}
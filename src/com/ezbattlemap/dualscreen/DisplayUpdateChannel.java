@@ -0,0 +1,82 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.Timer;
+import java.util.function.IntConsumer;
+
+/**
+ * Coalesces controller changes bound for the player screen.
+ *
+ * Callers {@link #mark(int)} what changed; the changes accumulate as dirty
+ * flags and are handed to the flush action at most once per display frame,
+ * so a fast drag across many cells costs one player-screen update per frame
+ * instead of one per cell, and intermediate states are never drawn. All
+ * methods run on the event dispatch thread.
+ */
+class DisplayUpdateChannel {
+    /** Revealed cells changed; the viewport may have grown or shrunk. */
+    static final int FOG = 1;
+    /** Tokens were added, moved, resized or removed. */
+    static final int TOKENS = 1 << 1;
+    /** The viewport, grid or map changed and the view must be laid out again. */
+    static final int VIEWPORT = 1 << 2;
+    /** Something drawn over the map for the players, e.g. an area template, changed. */
+    static final int OVERLAYS = 1 << 3;
+
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    private final IntConsumer flushAction;
+    private long frameNanos;
+    private final Timer timer;
+    private int dirty;
+    private long lastFlushNanos;
+
+    /**
+     * @param refreshRate the player screen's refresh rate in Hz, or 0 if unknown
+     */
+    DisplayUpdateChannel(IntConsumer flushAction, int refreshRate) {
+        this.flushAction = flushAction;
+        setRefreshRate(refreshRate);
+        this.timer = new Timer(0, e -> flush());
+        this.timer.setRepeats(false);
+        this.lastFlushNanos = System.nanoTime() - frameNanos;
+    }
+
+    /**
+     * Pace flushes to a new refresh rate in Hz, or 0 if unknown, e.g. after a
+     * display mode change.
+     */
+    void setRefreshRate(int refreshRate) {
+        frameNanos = 1_000_000_000L / (refreshRate > 0 ? refreshRate : DEFAULT_REFRESH_RATE);
+    }
+
+    /**
+     * Record changes and schedule a flush for the next display frame.
+     */
+    void mark(int changes) {
+        dirty |= changes;
+        PerfMetrics.Counter.DISPLAY_UPDATES_REQUESTED.increment();
+        if (!timer.isRunning()) {
+            long wait = frameNanos - (System.nanoTime() - lastFlushNanos);
+            timer.setInitialDelay((int) Math.max(0, wait / 1_000_000));
+            timer.start();
+        }
+    }
+
+    /**
+     * Apply pending changes now, e.g. before an update that must not be
+     * overwritten by a later flush.
+     */
+    void flush() {
+        timer.stop();
+        if (dirty == 0) {
+            return;
+        }
+        int changes = dirty;
+        dirty = 0;
+        lastFlushNanos = System.nanoTime();
+        PerfMetrics.Counter.DISPLAY_UPDATES_FLUSHED.increment();
+        long start = PerfMetrics.begin();
+        flushAction.accept(changes);
+        PerfMetrics.end(PerfMetrics.Probe.DISPLAY_UPDATE, start);
+    }
+}
@@ -6,45 +6,66 @@ import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Main application class for dual-screen image display with controller
  */
 public class DualScreenImageApp {
+    /** Start with the player screens full screen on every screen but the first. */
+    static final String FULL_SCREEN_ARG = "--fullscreen";
+
     private ControllerFrame controllerFrame;
-    private DisplayFrame displayFrame;
+    private PlayerDisplays displays;
     private BufferedImage currentImage;
     private ImageLibrary imageLibrary;
 
     public static void main(String[] args) {
+        if (args.length > 0 && PlayerStreamViewer.VIEWER_ARG.equals(args[0])) {
+            PlayerStreamViewer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        boolean training = args.length > 0 && StartupTrainer.TRAIN_ARG.equals(args[0]);
+        boolean fullScreen = Arrays.asList(args).contains(FULL_SCREEN_ARG);
+        if (training && GraphicsEnvironment.isHeadless()) {
+            StartupTrainer.runHeadless();
+            return;
+        }
+
         SwingUtilities.invokeLater(() -> {
             try {
                 UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
             } catch (Exception e) {
                 e.printStackTrace();
             }
-            new DualScreenImageApp();
+            if (training) {
+                StartupTrainer.run(fullScreen);
+            } else {
+                new DualScreenImageApp(fullScreen);
+            }
         });
     }
 
     public DualScreenImageApp() {
-        // Initialize image library
-        try {
-            imageLibrary = new ImageLibrary();
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(null,
-                "Error initializing image library: " + e.getMessage(),
-                "Error",
-                JOptionPane.ERROR_MESSAGE);
-            System.exit(1);
-        }
+        this(false);
+    }
+
+    public DualScreenImageApp(boolean fullScreen) {
+        this(fullScreen, openImageLibrary());
+    }
+
+    /**
+     * Start on a given library, e.g. a temporary one for a training run.
+     */
+    DualScreenImageApp(boolean fullScreen, ImageLibrary imageLibrary) {
+        this.imageLibrary = imageLibrary;
 
         GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
         GraphicsDevice[] screens = ge.getScreenDevices();
 
-        displayFrame = new DisplayFrame(this);
-        displayFrame.setImageLibrary(imageLibrary);
-        controllerFrame = new ControllerFrame(this, displayFrame, imageLibrary);
+        displays = new PlayerDisplays(this, imageLibrary);
+        DisplayFrame displayFrame = displays.getPrimary();
+        controllerFrame = new ControllerFrame(this, displays, imageLibrary);
 
         if (screens.length > 1) {
             Rectangle screen1Bounds = screens[0].getDefaultConfiguration().getBounds();
@@ -59,6 +80,34 @@ public class DualScreenImageApp {
 
         controllerFrame.setVisible(true);
         displayFrame.setVisible(true);
+
+        // One more player screen on each further screen, e.g. a projector and a TV
+        for (int i = 2; i < screens.length; i++) {
+            displays.open(screens[i]);
+        }
+
+        if (fullScreen) {
+            if (screens.length > 1) {
+                for (int i = 1; i < screens.length; i++) {
+                    displays.getDisplays().get(i - 1).enterFullScreen(screens[i], null);
+                }
+            } else {
+                System.err.println("Full screen needs a second screen; showing the player screen in a window");
+            }
+        }
+    }
+
+    private static ImageLibrary openImageLibrary() {
+        try {
+            return new ImageLibrary();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null,
+                "Error initializing image library: " + e.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+            return null;
+        }
     }
 
     public void promptForImage() {
@@ -88,9 +137,7 @@ public class DualScreenImageApp {
 
     public void loadImage(File file) {
         try {
-            currentImage = ImageIO.read(file);
-            controllerFrame.setImage(currentImage);
-            displayFrame.setImage(currentImage);
+            showImage(CompatibleImages.toCompatible(ImageIO.read(file), false), file);
         } catch (IOException e) {
             JOptionPane.showMessageDialog(controllerFrame,
                 "Error loading image: " + e.getMessage(),
@@ -99,6 +146,30 @@ public class DualScreenImageApp {
         }
     }
 
+    /**
+     * Show an already decoded image on the controller and player screens.
+     */
+    void showImage(BufferedImage image) {
+        showImage(image, null);
+    }
+
+    /**
+     * Show a decoded image along with the file it came from, which lets the
+     * player screen decode large maps by region.
+     */
+    void showImage(BufferedImage image, File sourceFile) {
+        currentImage = image;
+        controllerFrame.setImage(currentImage);
+        displays.setImage(currentImage, sourceFile);
+    }
+
+    /**
+     * Reveal the whole current map to the players.
+     */
+    void revealAll() {
+        controllerFrame.revealAll();
+    }
+
     public BufferedImage getCurrentImage() {
         return currentImage;
     }
@@ -0,0 +1,396 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.Rectangle;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fog painted with a brush, finer than the grid's cells.
+ *
+ * Two layers over the map, brushed-revealed and brushed-hidden, each stored
+ * as runs per row: a row is an array of start and end x pairs, and a row
+ * without strokes takes no space, so even a 20000 pixel map's mask stays at a
+ * few kilobytes. Mask pixels are map pixels divided by the mask's unit, which
+ * is 1 up to 8192 pixel maps. Rows are replaced rather than changed in place,
+ * so {@link #copy} only copies the row arrays. Each tile of
+ * {@link #TILE_SIZE} mask pixels counts the strokes that touched it, so
+ * renderers can rebuild only those tiles. Used on the event dispatch thread.
+ */
+final class FogMask {
+    static final int TILE_SIZE = 256;
+    private static final int MAX_SIDE = 8192;
+
+    private final int width;
+    private final int height;
+    private final int unit;
+    private final int maskWidth;
+    private final int maskHeight;
+    private final int[][] revealed;
+    private final int[][] hidden;
+    private final int tileCols;
+    private final int[] tileVersions;
+    private int revealedRows;
+    private int hiddenRows;
+    // Scratch for stroke
+    private final double[] interval = new double[2];
+
+    /**
+     * An empty mask over a map of the given size in pixels.
+     */
+    FogMask(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.unit = Math.max(1, (Math.max(width, height) + MAX_SIDE - 1) / MAX_SIDE);
+        this.maskWidth = (width + unit - 1) / unit;
+        this.maskHeight = (height + unit - 1) / unit;
+        this.revealed = new int[maskHeight][];
+        this.hidden = new int[maskHeight][];
+        this.tileCols = (maskWidth + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileVersions = new int[tileCols * ((maskHeight + TILE_SIZE - 1) / TILE_SIZE)];
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Map pixels per mask pixel.
+     */
+    int getUnit() {
+        return unit;
+    }
+
+    int getMaskWidth() {
+        return maskWidth;
+    }
+
+    int getMaskHeight() {
+        return maskHeight;
+    }
+
+    int getTileCols() {
+        return tileCols;
+    }
+
+    int getTileRows() {
+        return tileCols > 0 ? tileVersions.length / tileCols : 0;
+    }
+
+    /**
+     * Number of changes to a tile so far.
+     */
+    int getTileVersion(int tileX, int tileY) {
+        return tileVersions[tileY * tileCols + tileX];
+    }
+
+    boolean isEmpty() {
+        return revealedRows == 0 && hiddenRows == 0;
+    }
+
+    boolean hasHidden() {
+        return hiddenRows > 0;
+    }
+
+    /**
+     * Brushed-revealed runs of a mask row as start and end x pairs, or null.
+     * The array must not be changed.
+     */
+    int[] getRevealedRuns(int row) {
+        return revealed[row];
+    }
+
+    /**
+     * Brushed-hidden runs of a mask row as start and end x pairs, or null.
+     * The array must not be changed.
+     */
+    int[] getHiddenRuns(int row) {
+        return hidden[row];
+    }
+
+    /**
+     * Reveal or hide everything within radius of a line segment, all in map
+     * pixels. A drag is painted one segment per mouse move, each rasterized
+     * as one run per row of the capsule around it.
+     */
+    void stroke(double fromX, double fromY, double toX, double toY, double radius, boolean reveal) {
+        double x0 = fromX / unit;
+        double y0 = fromY / unit;
+        double x1 = toX / unit;
+        double y1 = toY / unit;
+        double r = radius / unit;
+        int firstRow = Math.max(0, (int) Math.floor(Math.min(y0, y1) - r));
+        int lastRow = Math.min(maskHeight - 1, (int) Math.ceil(Math.max(y0, y1) + r));
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double lengthSquared = dx * dx + dy * dy;
+        double length = Math.sqrt(lengthSquared);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            // The capsule is convex, so it covers one interval of the row's center line
+            double y = row + 0.5;
+            double left = Double.POSITIVE_INFINITY;
+            double right = Double.NEGATIVE_INFINITY;
+            double half = discHalfWidth(y - y0, r);
+            if (half >= 0) {
+                left = x0 - half;
+                right = x0 + half;
+            }
+            half = discHalfWidth(y - y1, r);
+            if (half >= 0) {
+                left = Math.min(left, x1 - half);
+                right = Math.max(right, x1 + half);
+            }
+            if (length > 0) {
+                // Points whose projection falls on the segment, within radius of it
+                interval[0] = Double.NEGATIVE_INFINITY;
+                interval[1] = Double.POSITIVE_INFINITY;
+                if (clip(interval, dx, (y - y0) * dy - x0 * dx, 0, lengthSquared)
+                        && clip(interval, dy, -(y - y0) * dx - x0 * dy, -r * length, r * length)) {
+                    left = Math.min(left, interval[0]);
+                    right = Math.max(right, interval[1]);
+                }
+            }
+            if (left > right) {
+                continue;
+            }
+            // Mask pixels whose centers are covered
+            int start = Math.max(0, (int) Math.ceil(left - 0.5));
+            int end = Math.min(maskWidth, (int) Math.floor(right - 0.5) + 1);
+            if (start < end) {
+                paintRun(row, start, end, reveal);
+            }
+        }
+    }
+
+    private static double discHalfWidth(double dy, double r) {
+        double squared = r * r - dy * dy;
+        return squared >= 0 ? Math.sqrt(squared) : -1;
+    }
+
+    /**
+     * Narrow interval to the x where lo <= a * x + b <= hi. Returns false if
+     * nothing is left.
+     */
+    private static boolean clip(double[] interval, double a, double b, double lo, double hi) {
+        if (a == 0) {
+            return b >= lo && b <= hi;
+        }
+        double first = (lo - b) / a;
+        double second = (hi - b) / a;
+        interval[0] = Math.max(interval[0], Math.min(first, second));
+        interval[1] = Math.min(interval[1], Math.max(first, second));
+        return interval[0] <= interval[1];
+    }
+
+    private void paintRun(int row, int start, int end, boolean reveal) {
+        int[] before = revealed[row];
+        revealed[row] = reveal ? add(before, start, end) : remove(before, start, end);
+        revealedRows += (revealed[row] != null ? 1 : 0) - (before != null ? 1 : 0);
+        before = hidden[row];
+        hidden[row] = reveal ? remove(before, start, end) : add(before, start, end);
+        hiddenRows += (hidden[row] != null ? 1 : 0) - (before != null ? 1 : 0);
+
+        int tileRow = row / TILE_SIZE;
+        for (int tileX = start / TILE_SIZE; tileX <= (end - 1) / TILE_SIZE; tileX++) {
+            tileVersions[tileRow * tileCols + tileX]++;
+        }
+    }
+
+    /**
+     * Runs with [start, end) added, merging runs it overlaps or touches.
+     */
+    static int[] add(int[] runs, int start, int end) {
+        int count = runs != null ? runs.length : 0;
+        int[] merged = new int[count + 2];
+        int size = 0;
+        int i = 0;
+        while (i < count && runs[i + 1] < start) {
+            merged[size++] = runs[i++];
+            merged[size++] = runs[i++];
+        }
+        while (i < count && runs[i] <= end) {
+            start = Math.min(start, runs[i]);
+            end = Math.max(end, runs[i + 1]);
+            i += 2;
+        }
+        merged[size++] = start;
+        merged[size++] = end;
+        while (i < count) {
+            merged[size++] = runs[i++];
+        }
+        return size == merged.length ? merged : Arrays.copyOf(merged, size);
+    }
+
+    /**
+     * Runs with [start, end) taken out, or null if none are left.
+     */
+    static int[] remove(int[] runs, int start, int end) {
+        if (runs == null) {
+            return null;
+        }
+        int[] kept = new int[runs.length + 2];
+        int size = 0;
+        for (int i = 0; i < runs.length; i += 2) {
+            int runStart = runs[i];
+            int runEnd = runs[i + 1];
+            if (runEnd <= start || runStart >= end) {
+                kept[size++] = runStart;
+                kept[size++] = runEnd;
+                continue;
+            }
+            if (runStart < start) {
+                kept[size++] = runStart;
+                kept[size++] = start;
+            }
+            if (runEnd > end) {
+                kept[size++] = end;
+                kept[size++] = runEnd;
+            }
+        }
+        return size == 0 ? null : Arrays.copyOf(kept, size);
+    }
+
+    /**
+     * Whether any brushed-hidden pixel lies in a rectangle of map pixels.
+     */
+    boolean anyHidden(int mapX, int mapY, int mapWidth, int mapHeight) {
+        if (hiddenRows == 0) {
+            return false;
+        }
+        int left = mapX / unit;
+        int right = (mapX + mapWidth + unit - 1) / unit;
+        int lastRow = Math.min(maskHeight, (mapY + mapHeight + unit - 1) / unit);
+        for (int row = Math.max(0, mapY / unit); row < lastRow; row++) {
+            int[] runs = hidden[row];
+            if (runs == null) {
+                continue;
+            }
+            for (int i = 0; i < runs.length; i += 2) {
+                if (runs[i] < right && runs[i + 1] > left) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy the bounds of the brushed-revealed pixels, in map pixels, into the
+     * given rectangle. Returns false, leaving it unchanged, if nothing is
+     * brushed revealed.
+     */
+    boolean getRevealedBounds(Rectangle bounds) {
+        if (revealedRows == 0) {
+            return false;
+        }
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int minY = -1;
+        int maxY = -1;
+        for (int row = 0; row < maskHeight; row++) {
+            int[] runs = revealed[row];
+            if (runs != null) {
+                minY = minY < 0 ? row : minY;
+                maxY = row;
+                minX = Math.min(minX, runs[0]);
+                maxX = Math.max(maxX, runs[runs.length - 1]);
+            }
+        }
+        int x = minX * unit;
+        int y = minY * unit;
+        bounds.setBounds(x, y, Math.min(width, maxX * unit) - x, Math.min(height, (maxY + 1) * unit) - y);
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(revealed, null);
+        Arrays.fill(hidden, null);
+        revealedRows = 0;
+        hiddenRows = 0;
+        for (int i = 0; i < tileVersions.length; i++) {
+            tileVersions[i]++;
+        }
+    }
+
+    /**
+     * A copy that later strokes on either mask do not affect.
+     */
+    FogMask copy() {
+        FogMask copy = new FogMask(width, height);
+        System.arraycopy(revealed, 0, copy.revealed, 0, maskHeight);
+        System.arraycopy(hidden, 0, copy.hidden, 0, maskHeight);
+        copy.revealedRows = revealedRows;
+        copy.hiddenRows = hiddenRows;
+        return copy;
+    }
+
+    /**
+     * Write both layers: per layer the number of rows with runs, then for
+     * each the gap from the previous such row, its run count and the runs
+     * as gaps and lengths, all as varints.
+     */
+    void write(DataOutputStream out) throws IOException {
+        writeLayer(out, revealed, revealedRows);
+        writeLayer(out, hidden, hiddenRows);
+    }
+
+    private static void writeLayer(DataOutputStream out, int[][] layer, int rows) throws IOException {
+        SceneCodec.writeVarInt(out, rows);
+        int previousRow = -1;
+        for (int row = 0; row < layer.length; row++) {
+            int[] runs = layer[row];
+            if (runs == null) {
+                continue;
+            }
+            SceneCodec.writeVarInt(out, row - previousRow - 1);
+            SceneCodec.writeVarInt(out, runs.length / 2);
+            int previousEnd = 0;
+            for (int i = 0; i < runs.length; i += 2) {
+                SceneCodec.writeVarInt(out, runs[i] - previousEnd);
+                SceneCodec.writeVarInt(out, runs[i + 1] - runs[i]);
+                previousEnd = runs[i + 1];
+            }
+            previousRow = row;
+        }
+    }
+
+    /**
+     * Read a mask written by {@link #write} for a map of the given size.
+     */
+    static FogMask read(DataInputStream in, int width, int height) throws IOException {
+        FogMask mask = new FogMask(width, height);
+        mask.revealedRows = readLayer(in, mask.revealed, mask.maskWidth);
+        mask.hiddenRows = readLayer(in, mask.hidden, mask.maskWidth);
+        return mask;
+    }
+
+    private static int readLayer(DataInputStream in, int[][] layer, int maskWidth) throws IOException {
+        int rows = SceneCodec.readVarInt(in);
+        int row = -1;
+        for (int i = 0; i < rows; i++) {
+            row += SceneCodec.readVarInt(in) + 1;
+            int count = SceneCodec.readVarInt(in);
+            if (row >= layer.length || count <= 0 || count > maskWidth) {
+                throw new IOException("Corrupt fog mask");
+            }
+            int[] runs = new int[count * 2];
+            int previousEnd = 0;
+            for (int j = 0; j < runs.length; j += 2) {
+                runs[j] = previousEnd + SceneCodec.readVarInt(in);
+                runs[j + 1] = runs[j] + SceneCodec.readVarInt(in);
+                if (runs[j + 1] > maskWidth) {
+                    throw new IOException("Corrupt fog mask");
+                }
+                previousEnd = runs[j + 1];
+            }
+            layer[row] = runs;
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,197 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Brushed fog drawn from tile images.
+ *
+ * Each tile of a {@link FogMask} is rasterized once into a translucent image
+ * of mask pixels and drawn scaled from then on. A tile is rebuilt only when a
+ * stroke touched it or, when drawn over the cells, when the selection of the
+ * cells under it changed, so painting a brush stroke re-uploads just the
+ * tiles along it. A tile of one color is filled rather than drawn, or skipped
+ * if it is clear. Tiles that go unused while many are cached are dropped.
+ * Used only on the event dispatch thread.
+ */
+final class FogMaskTiles {
+    private static final int MAX_TILES = 96;
+
+    private final int revealedArgb;
+    private final int hiddenArgb;
+    private final boolean overCells;
+    private final Color revealedColor;
+    private final Color hiddenColor;
+    private final int[] pixels = new int[FogMask.TILE_SIZE * FogMask.TILE_SIZE];
+    private FogMask mask;
+    private Tile[] tiles = new Tile[0];
+    private int tileCount;
+    private int frame;
+
+    /**
+     * @param revealedArgb color of revealed pixels
+     * @param hiddenArgb color of hidden pixels
+     * @param overCells whether pixels not brushed take the color of their
+     *                  cell, as on a player screen, or stay transparent
+     */
+    FogMaskTiles(int revealedArgb, int hiddenArgb, boolean overCells) {
+        this.revealedArgb = revealedArgb;
+        this.hiddenArgb = hiddenArgb;
+        this.overCells = overCells;
+        this.revealedColor = new Color(revealedArgb, true);
+        this.hiddenColor = new Color(hiddenArgb, true);
+    }
+
+    /**
+     * Draw the fog over a rectangle of map pixels.
+     */
+    void draw(Graphics2D g2d, ViewTransform view, GridOverlay gridOverlay,
+              int mapX, int mapY, int mapWidth, int mapHeight) {
+        FogMask current = gridOverlay.getFogMask();
+        if (current != mask) {
+            mask = current;
+            tiles = new Tile[mask.getTileCols() * mask.getTileRows()];
+            tileCount = 0;
+        }
+        frame++;
+        int unit = mask.getUnit();
+        int tileSpan = FogMask.TILE_SIZE * unit;
+        int firstTileX = Math.max(0, mapX / tileSpan);
+        int firstTileY = Math.max(0, mapY / tileSpan);
+        int endTileX = Math.min(mask.getTileCols(), (mapX + mapWidth + tileSpan - 1) / tileSpan);
+        int endTileY = Math.min(mask.getTileRows(), (mapY + mapHeight + tileSpan - 1) / tileSpan);
+        for (int tileY = firstTileY; tileY < endTileY; tileY++) {
+            for (int tileX = firstTileX; tileX < endTileX; tileX++) {
+                Tile tile = tile(gridOverlay, tileX, tileY);
+                int width = tile.image.getWidth() * unit;
+                int height = tile.image.getHeight() * unit;
+                if (!tile.uniform) {
+                    view.drawImage(g2d, tile.image, tileX * tileSpan, tileY * tileSpan, width, height);
+                } else if ((tile.argb >>> 24) != 0) {
+                    g2d.setColor(tile.argb == revealedArgb ? revealedColor : hiddenColor);
+                    view.fillRect(g2d, tileX * tileSpan, tileY * tileSpan, width, height);
+                }
+            }
+        }
+
+        if (tileCount > MAX_TILES) {
+            for (int i = 0; i < tiles.length; i++) {
+                if (tiles[i] != null && tiles[i].frame != frame) {
+                    tiles[i] = null;
+                    tileCount--;
+                }
+            }
+        }
+    }
+
+    private Tile tile(GridOverlay gridOverlay, int tileX, int tileY) {
+        int index = tileY * mask.getTileCols() + tileX;
+        Tile tile = tiles[index];
+        int version = mask.getTileVersion(tileX, tileY);
+        long cells = overCells ? cellsHash(gridOverlay, tileX, tileY) : 0;
+        if (tile == null) {
+            int width = Math.min(FogMask.TILE_SIZE, mask.getMaskWidth() - tileX * FogMask.TILE_SIZE);
+            int height = Math.min(FogMask.TILE_SIZE, mask.getMaskHeight() - tileY * FogMask.TILE_SIZE);
+            tile = new Tile(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+            tiles[index] = tile;
+            tileCount++;
+            rasterize(gridOverlay, tileX, tileY, tile);
+        } else if (tile.version != version || tile.cells != cells) {
+            rasterize(gridOverlay, tileX, tileY, tile);
+        }
+        tile.version = version;
+        tile.cells = cells;
+        tile.frame = frame;
+        return tile;
+    }
+
+    private void rasterize(GridOverlay gridOverlay, int tileX, int tileY, Tile tile) {
+        BufferedImage image = tile.image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int left = tileX * FogMask.TILE_SIZE;
+        int top = tileY * FogMask.TILE_SIZE;
+        int unit = mask.getUnit();
+        int squareSize = gridOverlay.getSquareSize();
+        boolean[][] selected = gridOverlay.getSelectedCells();
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            int row = top + y;
+            // Cells first, at the map pixel under each mask pixel's corner
+            int cellY = row * unit / squareSize;
+            if (overCells && cellY < gridOverlay.getGridRows()) {
+                int x = 0;
+                while (x < width) {
+                    int cellX = (left + x) * unit / squareSize;
+                    // First mask pixel of the next cell
+                    int next = Math.min(width, ((cellX + 1) * squareSize + unit - 1) / unit - left);
+                    boolean shown = cellX < gridOverlay.getGridCols() && selected[cellY][cellX];
+                    Arrays.fill(pixels, offset + x, offset + next, shown ? revealedArgb : hiddenArgb);
+                    x = next;
+                }
+            } else {
+                Arrays.fill(pixels, offset, offset + width, overCells ? hiddenArgb : 0);
+            }
+            fillRuns(mask.getRevealedRuns(row), offset, left, width, revealedArgb);
+            fillRuns(mask.getHiddenRuns(row), offset, left, width, hiddenArgb);
+        }
+        tile.argb = pixels[0];
+        tile.uniform = true;
+        for (int i = 1; i < width * height && tile.uniform; i++) {
+            tile.uniform = pixels[i] == tile.argb;
+        }
+        if (!tile.uniform) {
+            // Copies into the image's own buffer, which keeps it accelerated
+            image.getRaster().setDataElements(0, 0, width, height, pixels);
+        }
+    }
+
+    private void fillRuns(int[] runs, int offset, int left, int width, int argb) {
+        if (runs == null) {
+            return;
+        }
+        for (int i = 0; i < runs.length; i += 2) {
+            int start = Math.max(0, runs[i] - left);
+            int end = Math.min(width, runs[i + 1] - left);
+            if (start < end) {
+                Arrays.fill(pixels, offset + start, offset + end, argb);
+            }
+        }
+    }
+
+    /**
+     * A hash of the selection of the cells under a tile.
+     */
+    private long cellsHash(GridOverlay gridOverlay, int tileX, int tileY) {
+        int tileSpan = FogMask.TILE_SIZE * mask.getUnit();
+        int squareSize = gridOverlay.getSquareSize();
+        int firstCol = tileX * tileSpan / squareSize;
+        int firstRow = tileY * tileSpan / squareSize;
+        int endCol = Math.min(gridOverlay.getGridCols(), ((tileX + 1) * tileSpan + squareSize - 1) / squareSize);
+        int endRow = Math.min(gridOverlay.getGridRows(), ((tileY + 1) * tileSpan + squareSize - 1) / squareSize);
+        boolean[][] selected = gridOverlay.getSelectedCells();
+        long hash = squareSize;
+        for (int y = firstRow; y < endRow; y++) {
+            for (int x = firstCol; x < endCol; x++) {
+                hash = hash * 31 + (selected[y][x] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    private static final class Tile {
+        private final BufferedImage image;
+        private int version;
+        private long cells;
+        private int frame;
+        // Whether every pixel is argb, in which case the image is not filled in
+        private boolean uniform;
+        private int argb;
+
+        Tile(BufferedImage image) {
+            this.image = image;
+        }
+    }
+}
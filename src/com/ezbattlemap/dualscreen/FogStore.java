@@ -0,0 +1,192 @@
+package com.ezbattlemap.dualscreen;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Revealed cells, walls and brushed fog of each library map, kept in
+ * fog/&lt;id&gt;.fog under the library root rather than in the metadata file.
+ *
+ * A map's fog is read only when the map is opened and is written on a
+ * background thread when the GM moves on. Cells are encoded with
+ * {@link SceneCodec#writeCells}, so a typical half-explored dungeon takes a
+ * few hundred bytes. Fog is stored for one square size; after the grid size
+ * is changed, the saved fog no longer matches and the map starts hidden and
+ * without walls. Brushed fog is kept as its {@link FogMask} runs. Version 1
+ * files have no walls and versions before 3 no brushed fog.
+ */
+class FogStore {
+    private static final String FOG_DIR_NAME = "fog";
+    private static final String EXTENSION = ".fog";
+    private static final int MAGIC = 0x455a4647; // "EZFG"
+    private static final int VERSION = 3;
+
+    private final File fogDir;
+    private final ExecutorService writer;
+    // Fog handed to the writer but not yet on disk, so a quick reopen sees it
+    private final Map<String, Fog> pending = new ConcurrentHashMap<>();
+
+    FogStore(File libraryRoot) {
+        this.fogDir = new File(libraryRoot, FOG_DIR_NAME);
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "fog-writer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Read a map's revealed cells, walls and brushed fog, or return null if
+     * none were saved for this square size and grid.
+     */
+    Fog load(String id, int squareSize, int cols, int rows) {
+        Fog fog = pending.get(id);
+        if (fog == null) {
+            fog = read(id);
+        }
+        if (fog == null || fog.squareSize != squareSize || fog.cols != cols || fog.rows != rows) {
+            return null;
+        }
+        return fog;
+    }
+
+    /**
+     * Save a snapshot of the grid's revealed cells, walls and brushed fog in the background.
+     */
+    void saveAsync(String id, GridOverlay gridOverlay) {
+        int cols = gridOverlay.getGridCols();
+        int rows = gridOverlay.getGridRows();
+        Fog fog = new Fog(gridOverlay.getSquareSize(), cols, rows,
+                copy(gridOverlay.getSelectedCells(), rows), copy(gridOverlay.getWallCells(), rows),
+                gridOverlay.getFogMask().copy());
+        pending.put(id, fog);
+        writer.execute(() -> {
+            try {
+                write(id, fog);
+            } catch (IOException e) {
+                System.err.println("Error saving fog: " + e.getMessage());
+            } finally {
+                pending.remove(id, fog);
+            }
+        });
+    }
+
+    /**
+     * Wait for all queued writes, e.g. before the application exits.
+     */
+    void flush() {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Error saving fog: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove a map's fog file, after any write still queued for it.
+     */
+    void delete(String id) {
+        pending.remove(id);
+        writer.execute(() -> {
+            File file = fogFile(id);
+            if (file.exists()) {
+                file.delete();
+            }
+        });
+    }
+
+    private static boolean[][] copy(boolean[][] cells, int rows) {
+        boolean[][] copy = new boolean[rows][];
+        for (int y = 0; y < rows; y++) {
+            copy[y] = cells[y].clone();
+        }
+        return copy;
+    }
+
+    private Fog read(String id) {
+        File file = fogFile(id);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                return null;
+            }
+            int squareSize = SceneCodec.readVarInt(in);
+            int cols = SceneCodec.readVarInt(in);
+            int rows = SceneCodec.readVarInt(in);
+            boolean[][] cells = SceneCodec.readCells(in, cols, rows);
+            boolean[][] walls = version >= 2 ? SceneCodec.readCells(in, cols, rows) : new boolean[rows][cols];
+            FogMask mask = null;
+            if (version >= 3) {
+                int width = SceneCodec.readVarInt(in);
+                int height = SceneCodec.readVarInt(in);
+                mask = FogMask.read(in, width, height);
+            }
+            return new Fog(squareSize, cols, rows, cells, walls, mask);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading fog: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void write(String id, Fog fog) throws IOException {
+        if (!fogDir.exists()) {
+            fogDir.mkdirs();
+        }
+        File tempFile = new File(fogDir, id + EXTENSION + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            SceneCodec.writeVarInt(out, fog.squareSize);
+            SceneCodec.writeVarInt(out, fog.cols);
+            SceneCodec.writeVarInt(out, fog.rows);
+            SceneCodec.writeCells(out, fog.cells, fog.cols, fog.rows);
+            SceneCodec.writeCells(out, fog.walls, fog.cols, fog.rows);
+            SceneCodec.writeVarInt(out, fog.mask.getWidth());
+            SceneCodec.writeVarInt(out, fog.mask.getHeight());
+            fog.mask.write(out);
+        }
+        Files.move(tempFile.toPath(), fogFile(id).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private File fogFile(String id) {
+        return new File(fogDir, id + EXTENSION);
+    }
+
+    /**
+     * A map's saved grid state.
+     */
+    static final class Fog {
+        final int squareSize;
+        final int cols;
+        final int rows;
+        /** Revealed cells. */
+        final boolean[][] cells;
+        final boolean[][] walls;
+        /** Brushed fog, or null if none was saved. */
+        final FogMask mask;
+
+        Fog(int squareSize, int cols, int rows, boolean[][] cells, boolean[][] walls, FogMask mask) {
+            this.squareSize = squareSize;
+            this.cols = cols;
+            this.rows = rows;
+            this.cells = cells;
+            this.walls = walls;
+            this.mask = mask;
+        }
+    }
+}
@@ -1,19 +1,37 @@
 package com.ezbattlemap.dualscreen;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 /**
- * Manages the grid overlay and cell selection state
+ * Manages the grid overlay, cell selection state and wall cells.
+ *
+ * Walls are marked per map by the GM and block line of sight; they are never
+ * shown to the players. A {@link FogMask} adds fog brushed finer than the
+ * cells: a pixel is revealed if it was brushed revealed, or if its cell is
+ * selected and it was not brushed hidden.
  */
 public class GridOverlay {
     private int squareSize = 100; // pixel size of each square
     private boolean[][] selectedCells;
+    private boolean[][] wallCells;
     private int imageWidth;
     private int imageHeight;
     private int gridCols;
     private int gridRows;
+    private int modCount;
+    private int wallModCount;
+    private FogMask fogMask = new FogMask(0, 0);
+
+    // Selected bounds as of boundsModCount, so each paint does not rescan the grid
+    private final Rectangle selectedBounds = new Rectangle();
+    private final Rectangle brushedBounds = new Rectangle();
+    private boolean hasSelectedBounds;
+    private int boundsModCount = -1;
 
     public GridOverlay() {
         updateGridDimensions();
@@ -23,6 +41,7 @@ public class GridOverlay {
         if (size != squareSize && size > 0) {
             squareSize = size;
             updateGridDimensions();
+            modCount++;
         }
     }
 
@@ -46,6 +65,9 @@ public class GridOverlay {
         this.imageWidth = width;
         this.imageHeight = height;
         updateGridDimensions();
+        // The mask is in map pixels, so it outlives square size changes but not a new map
+        fogMask = new FogMask(width, height);
+        modCount++;
     }
 
     private void updateGridDimensions() {
@@ -53,11 +75,14 @@ public class GridOverlay {
             gridCols = (int) Math.ceil((double) imageWidth / squareSize);
             gridRows = (int) Math.ceil((double) imageHeight / squareSize);
             selectedCells = new boolean[gridRows][gridCols];
+            wallCells = new boolean[gridRows][gridCols];
         } else {
             gridCols = 0;
             gridRows = 0;
             selectedCells = new boolean[0][0];
+            wallCells = new boolean[0][0];
         }
+        wallModCount++;
     }
 
     public int getImageWidth() {
@@ -71,12 +96,16 @@ public class GridOverlay {
     public void toggleCell(int x, int y) {
         if (x >= 0 && x < gridCols && y >= 0 && y < gridRows) {
             selectedCells[y][x] = !selectedCells[y][x];
+            modCount++;
         }
     }
 
     public void selectCell(int x, int y, boolean selected) {
         if (x >= 0 && x < gridCols && y >= 0 && y < gridRows) {
-            selectedCells[y][x] = selected;
+            if (selectedCells[y][x] != selected) {
+                selectedCells[y][x] = selected;
+                modCount++;
+            }
         }
     }
 
@@ -91,12 +120,75 @@ public class GridOverlay {
         return selectedCells;
     }
 
+    /**
+     * Replace the selection, e.g. from a saved scene. Cells outside the
+     * current grid are ignored and cells missing from the source are cleared.
+     */
+    public void setSelectedCells(boolean[][] cells) {
+        for (int y = 0; y < gridRows; y++) {
+            for (int x = 0; x < gridCols; x++) {
+                selectedCells[y][x] = y < cells.length && x < cells[y].length && cells[y][x];
+            }
+        }
+        modCount++;
+    }
+
+    public boolean isWall(int x, int y) {
+        if (x >= 0 && x < gridCols && y >= 0 && y < gridRows) {
+            return wallCells[y][x];
+        }
+        return false;
+    }
+
+    public void setWall(int x, int y, boolean wall) {
+        if (x >= 0 && x < gridCols && y >= 0 && y < gridRows && wallCells[y][x] != wall) {
+            wallCells[y][x] = wall;
+            modCount++;
+            wallModCount++;
+        }
+    }
+
+    public boolean[][] getWallCells() {
+        return wallCells;
+    }
+
+    /**
+     * Replace the walls, e.g. from the map's saved fog. Cells outside the
+     * current grid are ignored and cells missing from the source are cleared.
+     */
+    public void setWallCells(boolean[][] cells) {
+        for (int y = 0; y < gridRows; y++) {
+            for (int x = 0; x < gridCols; x++) {
+                wallCells[y][x] = y < cells.length && x < cells[y].length && cells[y][x];
+            }
+        }
+        modCount++;
+        wallModCount++;
+    }
+
+    /**
+     * Number of changes to the walls or the grid itself so far, for knowing
+     * when line of sight must be worked out again.
+     */
+    public int getWallModCount() {
+        return wallModCount;
+    }
+
+    /**
+     * Number of changes to the grid, selection or walls so far, for detecting unsaved changes.
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
     public void clearSelection() {
         for (int y = 0; y < gridRows; y++) {
             for (int x = 0; x < gridCols; x++) {
                 selectedCells[y][x] = false;
             }
         }
+        fogMask.clear();
+        modCount++;
     }
 
     public void selectAll() {
@@ -105,9 +197,224 @@ public class GridOverlay {
                 selectedCells[y][x] = true;
             }
         }
+        fogMask.clear();
+        modCount++;
+    }
+
+    public FogMask getFogMask() {
+        return fogMask;
+    }
+
+    /**
+     * Replace the brushed fog, e.g. from the map's saved fog. Ignored if the
+     * mask is for a map of another size.
+     */
+    public void setFogMask(FogMask mask) {
+        if (mask.getWidth() == imageWidth && mask.getHeight() == imageHeight) {
+            fogMask = mask;
+            modCount++;
+        }
+    }
+
+    /**
+     * Reveal or hide everything within radius of a line segment, all in map
+     * pixels, regardless of cells. A brush drag paints one segment per move.
+     */
+    public void brush(double fromX, double fromY, double toX, double toY, double radius, boolean reveal) {
+        fogMask.stroke(fromX, fromY, toX, toY, radius, reveal);
+        modCount++;
+    }
+
+    /**
+     * Select every cell of the region around a cell, as found by
+     * {@link #findRegion}, in one change. Returns the number of cells that
+     * were not selected before.
+     */
+    public int revealRegion(int startX, int startY, BufferedImage image, int colorTolerance) {
+        BitSet region = findRegion(startX, startY, image, colorTolerance);
+        int revealed = 0;
+        for (int cell = region.nextSetBit(0); cell >= 0; cell = region.nextSetBit(cell + 1)) {
+            boolean[] row = selectedCells[cell / gridCols];
+            if (!row[cell % gridCols]) {
+                row[cell % gridCols] = true;
+                revealed++;
+            }
+        }
+        if (revealed > 0) {
+            modCount++;
+        }
+        return revealed;
+    }
+
+    /**
+     * The region around a cell, e.g. the room it is in, as bits indexed by
+     * y * cols + x: the cells reachable from it without crossing a wall or a
+     * cell whose color on the map differs from the start cell's by more than
+     * colorTolerance, summed over red, green and blue, plus the cells bordering
+     * them, so a room comes with its walls. With a null image only walls
+     * bound the region. Empty if the start cell is a wall or off the grid.
+     */
+    public BitSet findRegion(int startX, int startY, BufferedImage image, int colorTolerance) {
+        BitSet region = new BitSet(gridCols * gridRows);
+        if (startX < 0 || startX >= gridCols || startY < 0 || startY >= gridRows || wallCells[startY][startX]) {
+            return region;
+        }
+        new RegionFill(image, colorTolerance, startX, startY).fill(region, startX, startY);
+        return region;
+    }
+
+    /**
+     * Scanline flood fill: each run of open cells in a row is filled at once,
+     * and only the first cell of each open run it touches in the rows above
+     * and below is queued, so the queue stays small and nothing recurses.
+     * Whether a cell is open is worked out once, when the fill first reaches it.
+     */
+    private class RegionFill {
+        private final BufferedImage image;
+        private final int colorTolerance;
+        private final int startColor;
+        private final BitSet checked = new BitSet(gridCols * gridRows);
+        private final BitSet open = new BitSet(gridCols * gridRows);
+        private int[] queue = new int[64];
+        private int queueSize;
+
+        RegionFill(BufferedImage image, int colorTolerance, int startX, int startY) {
+            this.image = image;
+            this.colorTolerance = colorTolerance;
+            this.startColor = image != null ? cellColor(startX, startY) : 0;
+        }
+
+        void fill(BitSet region, int startX, int startY) {
+            BitSet filled = new BitSet(gridCols * gridRows);
+            push(startY * gridCols + startX);
+            while (queueSize > 0) {
+                int cell = queue[--queueSize];
+                if (filled.get(cell)) {
+                    continue;
+                }
+                int y = cell / gridCols;
+                int rowStart = y * gridCols;
+                int left = cell % gridCols;
+                int right = left;
+                while (left > 0 && !filled.get(rowStart + left - 1) && isOpen(left - 1, y)) {
+                    left--;
+                }
+                while (right < gridCols - 1 && !filled.get(rowStart + right + 1) && isOpen(right + 1, y)) {
+                    right++;
+                }
+                filled.set(rowStart + left, rowStart + right + 1);
+                if (y > 0) {
+                    queueRuns(filled, left, right, y - 1);
+                }
+                if (y < gridRows - 1) {
+                    queueRuns(filled, left, right, y + 1);
+                }
+            }
+
+            // Add the walls and edges around the filled cells, a run in a row at a time
+            region.or(filled);
+            for (int start = filled.nextSetBit(0); start >= 0; ) {
+                int y = start / gridCols;
+                int rowStart = y * gridCols;
+                int end = Math.min(filled.nextClearBit(start), rowStart + gridCols);
+                int from = Math.max(start - 1, rowStart);
+                int to = Math.min(end + 1, rowStart + gridCols);
+                region.set(from, to);
+                if (y > 0) {
+                    region.set(from - gridCols, to - gridCols);
+                }
+                if (y < gridRows - 1) {
+                    region.set(from + gridCols, to + gridCols);
+                }
+                start = filled.nextSetBit(end);
+            }
+        }
+
+        private void queueRuns(BitSet filled, int left, int right, int y) {
+            int rowStart = y * gridCols;
+            boolean inRun = false;
+            for (int x = left; x <= right; x++) {
+                boolean fillable = !filled.get(rowStart + x) && isOpen(x, y);
+                if (fillable && !inRun) {
+                    push(rowStart + x);
+                }
+                inRun = fillable;
+            }
+        }
+
+        private void push(int cell) {
+            if (queueSize == queue.length) {
+                queue = Arrays.copyOf(queue, queueSize * 2);
+            }
+            queue[queueSize++] = cell;
+        }
+
+        private boolean isOpen(int x, int y) {
+            if (image == null) {
+                return !wallCells[y][x];
+            }
+            int cell = y * gridCols + x;
+            if (!checked.get(cell)) {
+                checked.set(cell);
+                if (!wallCells[y][x] && colorDistance(cellColor(x, y), startColor) <= colorTolerance) {
+                    open.set(cell);
+                }
+            }
+            return open.get(cell);
+        }
+
+        /**
+         * Average color of a cell from five points inside it, away from any
+         * grid lines drawn on the map.
+         */
+        private int cellColor(int x, int y) {
+            int left = x * squareSize;
+            int top = y * squareSize;
+            int width = Math.max(1, Math.min(squareSize, image.getWidth() - left));
+            int height = Math.max(1, Math.min(squareSize, image.getHeight() - top));
+            int red = 0;
+            int green = 0;
+            int blue = 0;
+            for (int sample = 0; sample < 5; sample++) {
+                // Center, then the centers of the four quarters
+                int sampleX = left + (sample == 0 ? width / 2 : (sample % 2 == 1 ? width / 4 : width * 3 / 4));
+                int sampleY = top + (sample == 0 ? height / 2 : (sample <= 2 ? height / 4 : height * 3 / 4));
+                int rgb = image.getRGB(Math.min(sampleX, image.getWidth() - 1), Math.min(sampleY, image.getHeight() - 1));
+                red += (rgb >> 16) & 0xff;
+                green += (rgb >> 8) & 0xff;
+                blue += rgb & 0xff;
+            }
+            return ((red / 5) << 16) | ((green / 5) << 8) | (blue / 5);
+        }
+
+        private int colorDistance(int a, int b) {
+            return Math.abs(((a >> 16) & 0xff) - ((b >> 16) & 0xff))
+                    + Math.abs(((a >> 8) & 0xff) - ((b >> 8) & 0xff))
+                    + Math.abs((a & 0xff) - (b & 0xff));
+        }
     }
 
     public Rectangle getSelectedBounds() {
+        Rectangle bounds = new Rectangle();
+        return getSelectedBounds(bounds) ? bounds : null;
+    }
+
+    /**
+     * Copy the bounds of the selected cells into the given rectangle without
+     * allocating. Returns false, leaving it unchanged, if nothing is selected.
+     */
+    public boolean getSelectedBounds(Rectangle bounds) {
+        if (boundsModCount != modCount) {
+            hasSelectedBounds = computeSelectedBounds(selectedBounds);
+            boundsModCount = modCount;
+        }
+        if (hasSelectedBounds) {
+            bounds.setBounds(selectedBounds);
+        }
+        return hasSelectedBounds;
+    }
+
+    private boolean computeSelectedBounds(Rectangle bounds) {
         int minX = gridCols;
         int minY = gridRows;
         int maxX = -1;
@@ -124,8 +431,12 @@ public class GridOverlay {
             }
         }
 
+        boolean brushed = fogMask.getRevealedBounds(brushedBounds);
         if (maxX < 0) {
-            return null;
+            if (brushed) {
+                bounds.setBounds(brushedBounds);
+            }
+            return brushed;
         }
 
         int x = minX * squareSize;
@@ -137,7 +448,11 @@ public class GridOverlay {
         width = Math.min(width, imageWidth - x);
         height = Math.min(height, imageHeight - y);
 
-        return new Rectangle(x, y, width, height);
+        bounds.setBounds(x, y, width, height);
+        if (brushed) {
+            bounds.add(brushedBounds);
+        }
+        return true;
     }
 
     public boolean hasSelection() {
@@ -0,0 +1,30 @@
+package com.ezbattlemap.dualscreen;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event emitted each time an instrumented hot path completes.
+ *
+ * Record with: java -XX:StartFlightRecording=filename=session.jfr ...
+ * and filter on "com.ezbattlemap.HotPath" in JDK Mission Control or
+ * "jfr print --events com.ezbattlemap.HotPath session.jfr".
+ */
+@Name("com.ezbattlemap.HotPath")
+@Label("EZBattleMap Hot Path")
+@Category("EZBattleMap")
+@Description("Duration of a paint, image load, thumbnail or metadata operation")
+@StackTrace(false)
+class HotPathEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Elapsed")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+}
@@ -1,15 +1,26 @@
 package com.ezbattlemap.dualscreen;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Manages the image library including storage, metadata, and retrieval.
+ *
+ * The library is safe to use from background threads. Lookups read a
+ * concurrent map without locking; adding and deleting reserve and release ids
+ * atomically, and metadata saves are serialized and written through a
+ * temporary file. Change listeners are always notified on the event
+ * dispatch thread.
  */
 public class ImageLibrary {
     private static final String LIBRARY_DIR_NAME = ".ezbattlemap";
@@ -18,6 +29,7 @@ public class ImageLibrary {
     private static final String METADATA_FILE_NAME = "library.dat";
     private static final String THUMBNAILS_DIR_NAME = "thumbnails";
     private static final int THUMBNAIL_SIZE = 150;
+    private static final long TOKEN_SPRITE_IDLE_MILLIS = 5000;
 
     private final File libraryRoot;
     private final File mapsDir;
@@ -25,18 +37,43 @@ public class ImageLibrary {
     private final File thumbnailsDir;
     private final File metadataFile;
     private final Map<String, ImageMetadata> metadata;
-    private final Map<String, BufferedImage> thumbnailCache;
+    private final Set<String> pendingIds;
+    private final Object saveLock = new Object();
+    private final List<LibraryListener> listeners = new CopyOnWriteArrayList<>();
+    private final ImageMemoryManager memoryManager;
+    private final LruImageCache thumbnailCache;
+    private final LruImageCache tokenSprites;
+    private final MapCache mapCache;
+    private final FogStore fogStore;
+    private final LruImageCache prefetchedMaps;
+    private final MapPrefetcher prefetcher;
 
     public ImageLibrary() throws IOException {
         // Set up directory structure in user home
-        String userHome = System.getProperty("user.home");
-        this.libraryRoot = new File(userHome, LIBRARY_DIR_NAME);
+        this(new File(System.getProperty("user.home"), LIBRARY_DIR_NAME));
+    }
+
+    /**
+     * Create a library rooted at an explicit directory (used by benchmarks and tools).
+     */
+    ImageLibrary(File libraryRoot) throws IOException {
+        this.libraryRoot = libraryRoot;
         this.mapsDir = new File(libraryRoot, MAPS_DIR_NAME);
         this.tokensDir = new File(libraryRoot, TOKENS_DIR_NAME);
         this.thumbnailsDir = new File(libraryRoot, THUMBNAILS_DIR_NAME);
         this.metadataFile = new File(libraryRoot, METADATA_FILE_NAME);
-        this.metadata = new HashMap<>();
-        this.thumbnailCache = new HashMap<>();
+        this.metadata = new ConcurrentHashMap<>();
+        this.pendingIds = new HashSet<>();
+        this.memoryManager = new ImageMemoryManager();
+        this.thumbnailCache = new LruImageCache(memoryManager, ImageMemoryManager.Priority.THUMBNAIL,
+                PerfMetrics.CacheStat.THUMBNAILS, 0);
+        this.tokenSprites = new LruImageCache(memoryManager, ImageMemoryManager.Priority.TOKEN_SPRITE,
+                PerfMetrics.CacheStat.TOKEN_IMAGES, TOKEN_SPRITE_IDLE_MILLIS);
+        this.mapCache = new MapCache(libraryRoot);
+        this.fogStore = new FogStore(libraryRoot);
+        this.prefetchedMaps = new LruImageCache(memoryManager, ImageMemoryManager.Priority.PREFETCHED_MAP,
+                PerfMetrics.CacheStat.PREFETCHED_MAPS, 0);
+        this.prefetcher = new MapPrefetcher(this);
 
         // Create directories if they don't exist
         createDirectories();
@@ -81,10 +118,29 @@ public class ImageLibrary {
      * Save metadata to disk.
      */
     private void saveMetadata() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(metadataFile))) {
-            oos.writeObject(metadata);
-        } catch (Exception e) {
-            System.err.println("Error saving metadata: " + e.getMessage());
+        long start = PerfMetrics.begin();
+        synchronized (saveLock) {
+            // Write a plain HashMap snapshot so the file format stays unchanged,
+            // and replace the file in one step so readers never see a partial write
+            File tempFile = new File(libraryRoot, METADATA_FILE_NAME + ".tmp");
+            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tempFile))) {
+                oos.writeObject(new HashMap<>(metadata));
+            } catch (Exception e) {
+                System.err.println("Error saving metadata: " + e.getMessage());
+                return;
+            } finally {
+                PerfMetrics.end(PerfMetrics.Probe.METADATA_SAVE, start);
+            }
+            try {
+                Files.move(tempFile.toPath(), metadataFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                try {
+                    Files.move(tempFile.toPath(), metadataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException ex) {
+                    System.err.println("Error saving metadata: " + ex.getMessage());
+                }
+            }
         }
     }
 
@@ -92,29 +148,37 @@ public class ImageLibrary {
      * Add an image to the library by copying it from the source file.
      */
     public ImageMetadata addImage(File sourceFile, ImageMetadata.LibraryType libraryType) throws IOException {
-        // Generate unique ID
+        // Generate unique ID (reserved until the image is fully added)
         String baseName = getBaseName(sourceFile.getName());
         String extension = getExtension(sourceFile.getName());
         String id = generateUniqueId(baseName);
 
-        // Determine target directory
-        File targetDir = (libraryType == ImageMetadata.LibraryType.TOKEN) ? tokensDir : mapsDir;
-
-        // Copy file to library
-        String fileName = id + "." + extension;
-        File destFile = new File(targetDir, fileName);
-        Files.copy(sourceFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-
-        // Create metadata
-        ImageMetadata meta = new ImageMetadata(id, fileName, libraryType);
-        meta.setDisplayName(baseName);
-        metadata.put(id, meta);
-
-        // Generate thumbnail
-        generateThumbnail(destFile, id);
+        ImageMetadata meta;
+        try {
+            // Determine target directory
+            File targetDir = (libraryType == ImageMetadata.LibraryType.TOKEN) ? tokensDir : mapsDir;
+
+            // Copy file to library
+            String fileName = id + "." + extension;
+            File destFile = new File(targetDir, fileName);
+            Files.copy(sourceFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            // Generate thumbnail
+            generateThumbnail(destFile, id);
+
+            // Publish metadata only once the file and thumbnail are in place
+            meta = new ImageMetadata(id, fileName, libraryType);
+            meta.setDisplayName(baseName);
+            metadata.put(id, meta);
+        } finally {
+            synchronized (pendingIds) {
+                pendingIds.remove(id);
+            }
+        }
 
         // Save metadata
         saveMetadata();
+        fireLibraryChanged(ChangeType.ADDED, id);
 
         return meta;
     }
@@ -134,22 +198,27 @@ public class ImageLibrary {
     }
 
     /**
-     * Generate a unique ID based on the base name.
+     * Generate a unique ID based on the base name and reserve it so concurrent
+     * adds never pick the same one. The caller must release the reservation.
      */
     private String generateUniqueId(String baseName) {
-        String id = baseName;
-        int counter = 1;
-        while (metadata.containsKey(id)) {
-            id = baseName + "_" + counter;
-            counter++;
+        synchronized (pendingIds) {
+            String id = baseName;
+            int counter = 1;
+            while (metadata.containsKey(id) || pendingIds.contains(id)) {
+                id = baseName + "_" + counter;
+                counter++;
+            }
+            pendingIds.add(id);
+            return id;
         }
-        return id;
     }
 
     /**
      * Generate thumbnail for an image.
      */
-    private void generateThumbnail(File imageFile, String id) {
+    void generateThumbnail(File imageFile, String id) {
+        long start = PerfMetrics.begin();
         try {
             BufferedImage original = ImageIO.read(imageFile);
             if (original == null) {
@@ -163,8 +232,8 @@ public class ImageLibrary {
             int thumbWidth = (int) (width * scale);
             int thumbHeight = (int) (height * scale);
 
-            // Create thumbnail
-            BufferedImage thumbnail = new BufferedImage(THUMBNAIL_SIZE, THUMBNAIL_SIZE, BufferedImage.TYPE_INT_ARGB);
+            // Create thumbnail (opaque: the background fills every pixel)
+            BufferedImage thumbnail = CompatibleImages.create(THUMBNAIL_SIZE, THUMBNAIL_SIZE, false);
             Graphics2D g2d = thumbnail.createGraphics();
             g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
             g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
@@ -181,15 +250,19 @@ public class ImageLibrary {
             g2d.drawImage(original, x, y, thumbWidth, thumbHeight, null);
             g2d.dispose();
 
-            // Save thumbnail
+            // Save thumbnail through a temporary file so concurrent readers never see a partial PNG
             File thumbFile = new File(thumbnailsDir, id + ".png");
-            ImageIO.write(thumbnail, "PNG", thumbFile);
+            File tempFile = new File(thumbnailsDir, id + ".png.tmp");
+            ImageIO.write(thumbnail, "PNG", tempFile);
+            Files.move(tempFile.toPath(), thumbFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
 
             // Cache thumbnail
             thumbnailCache.put(id, thumbnail);
 
         } catch (Exception e) {
             System.err.println("Error generating thumbnail: " + e.getMessage());
+        } finally {
+            PerfMetrics.end(PerfMetrics.Probe.THUMBNAIL_GENERATE, start);
         }
     }
 
@@ -198,15 +271,16 @@ public class ImageLibrary {
      */
     public BufferedImage getThumbnail(String id) {
         // Check cache first
-        if (thumbnailCache.containsKey(id)) {
-            return thumbnailCache.get(id);
+        BufferedImage cached = thumbnailCache.get(id);
+        if (cached != null) {
+            return cached;
         }
 
         // Load from disk
         File thumbFile = new File(thumbnailsDir, id + ".png");
         if (thumbFile.exists()) {
             try {
-                BufferedImage thumb = ImageIO.read(thumbFile);
+                BufferedImage thumb = CompatibleImages.toCompatible(ImageIO.read(thumbFile), false);
                 thumbnailCache.put(id, thumb);
                 return thumb;
             } catch (Exception e) {
@@ -218,9 +292,28 @@ public class ImageLibrary {
     }
 
     /**
-     * Load full image from library.
+     * Load full image from library. A map already decoded by the prefetcher is
+     * handed over directly; otherwise pending prefetches are cancelled so the
+     * decode the user is waiting for runs alone.
      */
     public BufferedImage loadImage(String id) throws IOException {
+        ImageMetadata meta = metadata.get(id);
+        if (meta != null && meta.getLibraryType() == ImageMetadata.LibraryType.MAP) {
+            BufferedImage prefetched = prefetchedMaps.take(id);
+            if (prefetched != null) {
+                return prefetched;
+            }
+            prefetcher.cancel();
+        }
+        return decodeImage(id);
+    }
+
+    /**
+     * Decode an image, converted to a screen-compatible layout: opaque for
+     * maps, translucent for tokens. Maps are read from the fast-decode cache
+     * when it is current, and cached after the first decode.
+     */
+    BufferedImage decodeImage(String id) throws IOException {
         ImageMetadata meta = metadata.get(id);
         if (meta == null) {
             throw new IOException("Image not found: " + id);
@@ -232,44 +325,231 @@ public class ImageLibrary {
             throw new IOException("Image file not found: " + imageFile.getAbsolutePath());
         }
 
-        return ImageIO.read(imageFile);
+        long start = PerfMetrics.begin();
+        try {
+            if (meta.getLibraryType() == ImageMetadata.LibraryType.TOKEN) {
+                return CompatibleImages.toCompatible(ImageIO.read(imageFile), true);
+            }
+
+            BufferedImage cached = mapCache.read(id, imageFile);
+            if (cached != null) {
+                PerfMetrics.CacheStat.DECODED_MAPS.hit();
+                return CompatibleImages.toCompatible(cached, false);
+            }
+            PerfMetrics.CacheStat.DECODED_MAPS.miss();
+            BufferedImage image = CompatibleImages.toCompatible(ImageIO.read(imageFile), false);
+            mapCache.writeAsync(id, imageFile, image);
+            return image;
+        } finally {
+            PerfMetrics.end(PerfMetrics.Probe.IMAGE_LOAD, start);
+        }
     }
 
     /**
-     * Delete an image from the library.
+     * Get the library file holding an image, or null if the image is unknown.
      */
-    public void deleteImage(String id) {
-        ImageMetadata meta = metadata.remove(id);
+    public File getImageFile(String id) {
+        ImageMetadata meta = metadata.get(id);
         if (meta == null) {
-            return;
+            return null;
         }
+        return new File(getDirectoryForType(meta.getLibraryType()), meta.getFileName());
+    }
 
-        // Delete image file
-        File imageDir = getDirectoryForType(meta.getLibraryType());
-        File imageFile = new File(imageDir, meta.getFileName());
-        if (imageFile.exists()) {
-            imageFile.delete();
+    /**
+     * Get the shared sprite for a token image, loading it on first use.
+     * Returns null if the image cannot be loaded.
+     */
+    public BufferedImage getTokenSprite(String id) {
+        BufferedImage sprite = tokenSprites.get(id);
+        if (sprite == null) {
+            try {
+                sprite = decodeImage(id);
+                tokenSprites.put(id, sprite);
+            } catch (IOException e) {
+                System.err.println("Error loading token image: " + e.getMessage());
+            }
         }
+        return sprite;
+    }
 
-        // Delete thumbnail
-        File thumbFile = new File(thumbnailsDir, id + ".png");
-        if (thumbFile.exists()) {
-            thumbFile.delete();
+    /**
+     * Seed the token sprite cache with an image that is already decoded.
+     */
+    public void putTokenSprite(String id, BufferedImage sprite) {
+        tokenSprites.put(id, sprite);
+    }
+
+    /**
+     * Read an image's dimensions from its file header without decoding it.
+     * Returns null if the file cannot be read.
+     */
+    Dimension readImageSize(String id) {
+        File file = getImageFile(id);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading image size: " + e.getMessage());
+            return null;
+        }
+    }
+
+    boolean isPrefetched(String id) {
+        return prefetchedMaps.contains(id);
+    }
+
+    /**
+     * Keep a speculatively decoded map until it is opened or evicted.
+     */
+    void putPrefetched(String id, BufferedImage image) {
+        prefetchedMaps.put(id, image);
+    }
+
+    /**
+     * Wait for the map cache and fog files still queued to be written.
+     */
+    void flushWrites() {
+        mapCache.flush();
+        fogStore.flush();
+    }
+
+    /**
+     * Get the store for each map's revealed cells.
+     */
+    FogStore getFogStore() {
+        return fogStore;
+    }
+
+    /**
+     * Get the prefetcher that decodes likely next maps in the background.
+     */
+    MapPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Get the memory manager that budgets every decoded image in the session.
+     */
+    public ImageMemoryManager getMemoryManager() {
+        return memoryManager;
+    }
+
+    /**
+     * Delete an image from the library. Its id is not reissued until its
+     * files and cached copies are gone, so a concurrent add of an image with
+     * the same name cannot lose its new files to this delete.
+     */
+    public void deleteImage(String id) {
+        ImageMetadata meta;
+        synchronized (pendingIds) {
+            meta = metadata.remove(id);
+            if (meta == null) {
+                return;
+            }
+            pendingIds.add(id);
         }
 
-        // Remove from cache
-        thumbnailCache.remove(id);
+        try {
+            // Delete image file
+            File imageDir = getDirectoryForType(meta.getLibraryType());
+            File imageFile = new File(imageDir, meta.getFileName());
+            if (imageFile.exists()) {
+                imageFile.delete();
+            }
+
+            // Delete thumbnail
+            File thumbFile = new File(thumbnailsDir, id + ".png");
+            if (thumbFile.exists()) {
+                thumbFile.delete();
+            }
+
+            // Remove from caches
+            thumbnailCache.remove(id);
+            tokenSprites.remove(id);
+            prefetchedMaps.remove(id);
+            mapCache.delete(id);
+            fogStore.delete(id);
+        } finally {
+            synchronized (pendingIds) {
+                pendingIds.remove(id);
+            }
+        }
 
         // Save metadata
         saveMetadata();
+        fireLibraryChanged(ChangeType.DELETED, id);
     }
 
     /**
-     * Update metadata for an image.
+     * Update metadata for an image. Ignored if the image was deleted meanwhile;
+     * images are added with {@link #addImage}.
      */
     public void updateMetadata(String id, ImageMetadata updatedMeta) {
-        metadata.put(id, updatedMeta);
+        if (updatedMeta == null) {
+            throw new IllegalArgumentException("No metadata given for " + id);
+        }
+        if (metadata.replace(id, updatedMeta) == null) {
+            return;
+        }
         saveMetadata();
+        fireLibraryChanged(ChangeType.UPDATED, id);
+    }
+
+    /**
+     * Add entries without copying any files and save them once, e.g. to seed
+     * a benchmark library.
+     */
+    void putMetadata(Collection<ImageMetadata> entries) {
+        for (ImageMetadata meta : entries) {
+            metadata.put(meta.getId(), meta);
+        }
+        saveMetadata();
+    }
+
+    /**
+     * Kinds of library change reported to listeners.
+     */
+    public enum ChangeType {
+        ADDED, UPDATED, DELETED
+    }
+
+    /**
+     * Interface for library change events, delivered on the event dispatch thread.
+     */
+    public interface LibraryListener {
+        void libraryChanged(ChangeType type, String imageId);
+    }
+
+    public void addLibraryListener(LibraryListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeLibraryListener(LibraryListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireLibraryChanged(ChangeType type, String imageId) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            for (LibraryListener listener : listeners) {
+                listener.libraryChanged(type, imageId);
+            }
+        });
     }
 
     /**
@@ -12,6 +12,10 @@ import java.util.List;
  * Panel displaying the image library with thumbnails and management controls.
  */
 public class ImageLibraryPanel extends JPanel {
+    private static final int MAX_RECENT_MAPS = 4;
+    private static final int PREFETCH_NEIGHBOURS = 2;
+    private static final int HOVER_PREFETCH_DELAY_MS = 300;
+
     private final ImageLibrary library;
     private final JPanel thumbnailGrid;
     private final JComboBox<String> categoryFilter;
@@ -21,6 +25,10 @@ public class ImageLibraryPanel extends JPanel {
     private TokenDragListener tokenDragListener;
     private String selectedImageId;
     private ImageMetadata.LibraryType currentLibraryType;
+    private boolean refreshPending = false;
+    private final Deque<String> recentMapIds = new ArrayDeque<>();
+    private final javax.swing.Timer hoverPrefetchTimer;
+    private String hoveredMapId;
 
     public ImageLibraryPanel(ImageLibrary library) {
         this.library = library;
@@ -96,6 +104,77 @@ public class ImageLibraryPanel extends JPanel {
         // Initialize
         refreshCategories();
         refreshThumbnails();
+
+        // Library changes (from this panel or background workers) refresh the view
+        library.addLibraryListener((type, imageId) -> scheduleRefresh());
+
+        // Resting on a map thumbnail starts decoding it
+        hoverPrefetchTimer = new javax.swing.Timer(HOVER_PREFETCH_DELAY_MS, e -> {
+            if (hoveredMapId != null && !hoveredMapId.equals(selectedImageId)) {
+                library.getPrefetcher().prefetchFirst(hoveredMapId);
+            }
+        });
+        hoverPrefetchTimer.setRepeats(false);
+    }
+
+    /**
+     * Queue the maps most likely to be opened after the given one: its
+     * neighbours in the same category as listed in the panel, then recently
+     * used maps.
+     */
+    private void prefetchAround(String mapId) {
+        recentMapIds.remove(mapId);
+        recentMapIds.addFirst(mapId);
+        while (recentMapIds.size() > MAX_RECENT_MAPS) {
+            recentMapIds.removeLast();
+        }
+
+        ImageMetadata current = library.getMetadata(mapId);
+        List<String> listed = new ArrayList<>();
+        for (Component comp : thumbnailGrid.getComponents()) {
+            if (comp instanceof ThumbnailPanel) {
+                listed.add(((ThumbnailPanel) comp).imageId);
+            }
+        }
+
+        List<String> candidates = new ArrayList<>();
+        int index = listed.indexOf(mapId);
+        if (index >= 0 && current != null) {
+            for (int distance = 1; distance <= PREFETCH_NEIGHBOURS; distance++) {
+                for (int neighbour : new int[]{index + distance, index - distance}) {
+                    if (neighbour < 0 || neighbour >= listed.size()) {
+                        continue;
+                    }
+                    ImageMetadata meta = library.getMetadata(listed.get(neighbour));
+                    if (meta != null && meta.getLibraryType() == ImageMetadata.LibraryType.MAP
+                            && meta.getCategory().equals(current.getCategory())) {
+                        candidates.add(listed.get(neighbour));
+                    }
+                }
+            }
+        }
+        for (String recent : recentMapIds) {
+            if (!recent.equals(mapId)) {
+                candidates.add(recent);
+            }
+        }
+        library.getPrefetcher().prefetchMaps(candidates);
+    }
+
+    /**
+     * Refresh categories and thumbnails once for a burst of library changes,
+     * e.g. a mass import that adds many images in a row.
+     */
+    private void scheduleRefresh() {
+        if (refreshPending) {
+            return;
+        }
+        refreshPending = true;
+        SwingUtilities.invokeLater(() -> {
+            refreshPending = false;
+            refreshCategories();
+            refreshThumbnails();
+        });
     }
 
     /**
@@ -203,9 +282,6 @@ public class ImageLibraryPanel extends JPanel {
                 // Show edit dialog for the new image
                 showEditDialog(meta);
 
-                refreshCategories();
-                refreshThumbnails();
-
                 JOptionPane.showMessageDialog(this,
                         "Image added successfully!",
                         "Success",
@@ -280,9 +356,6 @@ public class ImageLibraryPanel extends JPanel {
                 }
             }
 
-            refreshCategories();
-            refreshThumbnails();
-
             // Show results
             String message = String.format("Import to %s library complete!\n\nSuccessfully imported: %d\nFailed: %d",
                     libraryName, successCount, failCount);
@@ -312,8 +385,6 @@ public class ImageLibraryPanel extends JPanel {
         ImageMetadata meta = library.getMetadata(selectedImageId);
         if (meta != null) {
             showEditDialog(meta);
-            refreshCategories();
-            refreshThumbnails();
         }
     }
 
@@ -416,8 +487,6 @@ public class ImageLibraryPanel extends JPanel {
         if (result == JOptionPane.YES_OPTION) {
             library.deleteImage(selectedImageId);
             selectedImageId = null;
-            refreshCategories();
-            refreshThumbnails();
         }
     }
 
@@ -536,6 +605,10 @@ public class ImageLibraryPanel extends JPanel {
                     if (!isSelected) {
                         setBorder(BorderFactory.createLineBorder(new Color(120, 120, 120), 2));
                     }
+                    if (metadata.getLibraryType() == ImageMetadata.LibraryType.MAP) {
+                        hoveredMapId = imageId;
+                        hoverPrefetchTimer.restart();
+                    }
                 }
 
                 @Override
@@ -543,6 +616,8 @@ public class ImageLibraryPanel extends JPanel {
                     if (!isSelected) {
                         setBorder(BorderFactory.createLineBorder(new Color(80, 80, 80), 2));
                     }
+                    hoveredMapId = null;
+                    hoverPrefetchTimer.stop();
                 }
             };
 
@@ -584,6 +659,7 @@ public class ImageLibraryPanel extends JPanel {
                     selectionListener.onImageSelected(imageId, image);
                 }
                 setSelected(true);
+                prefetchAround(imageId);
             } catch (IOException ex) {
                 JOptionPane.showMessageDialog(ImageLibraryPanel.this,
                         "Error loading image: " + ex.getMessage(),
@@ -0,0 +1,194 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Central byte budget for decoded images.
+ *
+ * Every image cache registers here and reports its size. Images that must stay
+ * resident (the map currently on screen) are pinned and count against the
+ * budget without being evictable. When the total exceeds the budget, caches
+ * are asked to evict in {@link Priority} order until usage fits again.
+ *
+ * The budget defaults to half the maximum heap and can be set in megabytes
+ * with -Dezbattlemap.imageBudgetMB=N.
+ */
+public class ImageMemoryManager {
+    static final String BUDGET_PROPERTY = "ezbattlemap.imageBudgetMB";
+
+    /**
+     * Cache tiers in eviction order: earlier tiers are emptied first.
+     */
+    public enum Priority {
+        PREFETCHED_MAP,
+        PYRAMID_LEVEL,
+        SCALED_SPRITE,
+        THUMBNAIL,
+        TOKEN_SPRITE
+    }
+
+    /**
+     * A cache of decoded images that can give memory back on request.
+     */
+    public interface ImageCache {
+        Priority getPriority();
+
+        /**
+         * Bytes currently held by the cache.
+         */
+        long getSizeBytes();
+
+        /**
+         * Release entries until at least the requested number of bytes has been
+         * freed or nothing evictable is left.
+         *
+         * @return bytes actually freed
+         */
+        long evict(long bytesToFree);
+    }
+
+    private final List<ImageCache> caches = new CopyOnWriteArrayList<>();
+    private final Map<String, Long> pinnedBytes = new ConcurrentHashMap<>();
+    private final AtomicLong evictedBytes = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private volatile long budgetBytes;
+
+    public ImageMemoryManager() {
+        this(defaultBudget());
+    }
+
+    public ImageMemoryManager(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    private static long defaultBudget() {
+        long configuredMb = Long.getLong(BUDGET_PROPERTY, -1);
+        if (configuredMb > 0) {
+            return configuredMb * 1024 * 1024;
+        }
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * Estimate the memory held by a decoded image from its raster storage.
+     */
+    public static long estimateBytes(BufferedImage image) {
+        if (image == null) {
+            return 0;
+        }
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        long elementBytes = DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        return (long) buffer.getSize() * buffer.getNumBanks() * Math.max(1, elementBytes);
+    }
+
+    /**
+     * Register a cache so it counts against the budget and can be trimmed.
+     */
+    public void register(ImageCache cache) {
+        caches.add(cache);
+        trim();
+    }
+
+    public void unregister(ImageCache cache) {
+        caches.remove(cache);
+    }
+
+    /**
+     * Pin an image that must stay resident under the given owner key, replacing
+     * whatever that owner pinned before. Pass null to release the pin.
+     */
+    public void pin(String owner, BufferedImage image) {
+        if (image == null) {
+            pinnedBytes.remove(owner);
+        } else {
+            pinnedBytes.put(owner, estimateBytes(image));
+            trim();
+        }
+    }
+
+    /**
+     * Evict cached images in priority order until usage fits the budget.
+     */
+    public synchronized void trim() {
+        long excess = getUsedBytes() - budgetBytes;
+        for (Priority priority : Priority.values()) {
+            if (excess <= 0) {
+                return;
+            }
+            for (ImageCache cache : caches) {
+                if (cache.getPriority() != priority || excess <= 0) {
+                    continue;
+                }
+                long freed = cache.evict(excess);
+                if (freed > 0) {
+                    excess -= freed;
+                    evictedBytes.addAndGet(freed);
+                    evictionCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether adding the given number of bytes would stay within the budget
+     * without evicting anything.
+     */
+    public boolean hasRoomFor(long bytes) {
+        return getUsedBytes() + bytes <= budgetBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        trim();
+    }
+
+    /**
+     * Bytes held by all registered caches plus pinned images.
+     */
+    public long getUsedBytes() {
+        long used = getPinnedBytes();
+        for (ImageCache cache : caches) {
+            used += cache.getSizeBytes();
+        }
+        return used;
+    }
+
+    /**
+     * Bytes held by caches of one priority tier.
+     */
+    public long getUsedBytes(Priority priority) {
+        long used = 0;
+        for (ImageCache cache : caches) {
+            if (cache.getPriority() == priority) {
+                used += cache.getSizeBytes();
+            }
+        }
+        return used;
+    }
+
+    public long getPinnedBytes() {
+        long pinned = 0;
+        for (long bytes : pinnedBytes.values()) {
+            pinned += bytes;
+        }
+        return pinned;
+    }
+
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+}
@@ -5,6 +5,8 @@ import java.util.*;
 
 /**
  * Stores metadata information for library images including name, category, tags, and notes.
+ * Fields may be read by background library workers while the UI edits them, so
+ * simple fields are volatile and the tag set is guarded by this object's lock.
  */
 public class ImageMetadata implements Serializable {
     private static final long serialVersionUID = 2L;
@@ -13,16 +15,16 @@ public class ImageMetadata implements Serializable {
         MAP, TOKEN
     }
 
-    private String id;              // Unique identifier (filename without extension)
-    private String displayName;     // User-friendly name
-    private String category;        // Category/folder (e.g., "Maps", "Tokens")
-    private Set<String> tags;       // Search tags
-    private String notes;           // User notes/description
-    private String fileName;        // Actual file name on disk
-    private long dateAdded;         // Timestamp when added
-    private long lastModified;      // Last modification timestamp
-    private LibraryType libraryType; // MAP or TOKEN
-    private int pixelSize = 100;    // Grid square size in pixels (default 100)
+    private String id;                        // Unique identifier (filename without extension)
+    private volatile String displayName;      // User-friendly name
+    private volatile String category;         // Category/folder (e.g., "Maps", "Tokens")
+    private Set<String> tags;                 // Search tags
+    private volatile String notes;            // User notes/description
+    private String fileName;                  // Actual file name on disk
+    private long dateAdded;                   // Timestamp when added
+    private volatile long lastModified;       // Last modification timestamp
+    private LibraryType libraryType;          // MAP or TOKEN
+    private volatile int pixelSize = 100;     // Grid square size in pixels (default 100)
 
     public ImageMetadata(String id, String fileName, LibraryType libraryType) {
         this.id = id;
@@ -45,7 +47,7 @@ public class ImageMetadata implements Serializable {
     public String getId() { return id; }
     public String getDisplayName() { return displayName; }
     public String getCategory() { return category; }
-    public Set<String> getTags() { return new HashSet<>(tags); }
+    public synchronized Set<String> getTags() { return new HashSet<>(tags); }
     public String getNotes() { return notes; }
     public String getFileName() { return fileName; }
     public long getDateAdded() { return dateAdded; }
@@ -69,17 +71,17 @@ public class ImageMetadata implements Serializable {
         this.lastModified = System.currentTimeMillis();
     }
 
-    public void addTag(String tag) {
+    public synchronized void addTag(String tag) {
         this.tags.add(tag.toLowerCase().trim());
         this.lastModified = System.currentTimeMillis();
     }
 
-    public void removeTag(String tag) {
+    public synchronized void removeTag(String tag) {
         this.tags.remove(tag.toLowerCase().trim());
         this.lastModified = System.currentTimeMillis();
     }
 
-    public void setTags(Set<String> tags) {
+    public synchronized void setTags(Set<String> tags) {
         this.tags = new HashSet<>();
         for (String tag : tags) {
             this.tags.add(tag.toLowerCase().trim());
@@ -95,7 +97,7 @@ public class ImageMetadata implements Serializable {
     /**
      * Check if this metadata matches a search query.
      */
-    public boolean matchesSearch(String query) {
+    public synchronized boolean matchesSearch(String query) {
         if (query == null || query.trim().isEmpty()) {
             return true;
         }
@@ -127,6 +129,13 @@ public class ImageMetadata implements Serializable {
         return false;
     }
 
+    /**
+     * Serialize under the lock so a concurrent tag edit cannot corrupt the written set.
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+
     @Override
     public String toString() {
         return displayName + " (" + category + ")";
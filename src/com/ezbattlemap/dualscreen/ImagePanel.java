@@ -0,0 +1,505 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Panel for displaying the image with grid overlay
+ */
+class ImagePanel extends JPanel {
+    // Paint resources shared by every frame, so painting does not allocate
+    private static final Color GRID_COLOR = new Color(255, 255, 0, 150);
+    private static final Color SELECTED_CELL_COLOR = new Color(0, 255, 0, 100);
+    private static final Color WALL_COLOR = new Color(60, 60, 255, 160);
+    private static final Color VIEWPORT_COLOR = new Color(255, 0, 0, 200);
+    private static final Color TOKEN_BORDER_COLOR = new Color(255, 100, 100, 200);
+    private static final Color SELECTED_TOKEN_COLOR = new Color(100, 255, 100, 255);
+    private static final Color VISION_TOKEN_COLOR = new Color(255, 220, 80, 230);
+    private static final Color TEMPLATE_COLOR = new Color(255, 140, 0, 90);
+    private static final Color TEMPLATE_TOKEN_COLOR = new Color(255, 140, 0, 255);
+    private static final Color TEMPLATE_LABEL_COLOR = Color.WHITE;
+    private static final Font LABEL_FONT = new Font("Arial", Font.BOLD, 14);
+    private static final Color RANGE_COLOR = new Color(80, 160, 255, 70);
+    private static final Color PATH_COLOR = new Color(120, 255, 120, 230);
+    private static final Color OUT_OF_RANGE_PATH_COLOR = new Color(255, 80, 80, 230);
+    private static final Color PREVIEW_BORDER_COLOR = new Color(100, 255, 100, 200);
+    private static final AlphaComposite PREVIEW_COMPOSITE = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.6f);
+    // Line widths in panel pixels
+    private static final int GRID_LINE_WIDTH = 2;
+    private static final int TOKEN_BORDER_WIDTH = 2;
+    private static final int SELECTED_TOKEN_BORDER_WIDTH = 4;
+    private static final int VIEWPORT_BORDER_WIDTH = 3;
+    private static final int PREVIEW_BORDER_WIDTH = 3;
+    private static final int PATH_BORDER_WIDTH = 3;
+
+    private BufferedImage image;
+    private GridOverlay gridOverlay;
+    private TokenOverlay tokenOverlay;
+    private ImageLibrary library;
+    private double scale = 1.0;
+    private Point offset = new Point(0, 0);
+    private String draggingTokenImageId;
+    private BufferedImage draggingTokenImage;
+    private Point mousePosition;
+    private ControllerFrame controller;
+    private PerfOverlay perfOverlay;
+    private Timer perfOverlayTimer;
+    private final MapPyramid pyramid;
+    private int viewModCount;
+
+    // Reused by every paint: map-to-panel transform, scaled map and sprites,
+    // on-screen map area and revealed bounds
+    private final ViewTransform view = new ViewTransform();
+    private final MapViewBuffer mapBuffer = new MapViewBuffer();
+    private final ScaledSpriteCache sprites = new ScaledSpriteCache();
+    // Brushed fog in the selected cell color, brushed-hidden fog darkened
+    private final FogMaskTiles fogTiles = new FogMaskTiles(0x6400ff00, 0x8c000000, false);
+    private final Rectangle visibleArea = new Rectangle();
+    private final Rectangle viewportBounds = new Rectangle();
+    // Length label of the selected token's path, kept while the length is unchanged
+    private int pathLabelSquares = -1;
+    private String pathLabel;
+
+    public ImagePanel(GridOverlay gridOverlay, TokenOverlay tokenOverlay, ImageLibrary library) {
+        this.gridOverlay = gridOverlay;
+        this.tokenOverlay = tokenOverlay;
+        this.library = library;
+        this.pyramid = new MapPyramid(library.getMemoryManager(), this::repaint);
+        sprites.setMemoryManager(library.getMemoryManager());
+        setBackground(Color.DARK_GRAY);
+        setPreferredSize(new Dimension(800, 600));
+
+        MouseAdapter mouseAdapter = new MouseAdapter() {
+            private Point lastPoint;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                if (SwingUtilities.isMiddleMouseButton(e) ||
+                    (SwingUtilities.isLeftMouseButton(e) && e.isControlDown())) {
+                    lastPoint = e.getPoint();
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (lastPoint != null) {
+                    int dx = e.getX() - lastPoint.x;
+                    int dy = e.getY() - lastPoint.y;
+                    offset.translate(dx, dy);
+                    lastPoint = e.getPoint();
+                    viewModCount++;
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                lastPoint = null;
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                double oldScale = scale;
+                if (e.getWheelRotation() < 0) {
+                    scale *= 1.1;
+                } else {
+                    scale /= 1.1;
+                }
+                scale = Math.max(0.1, Math.min(scale, 10.0));
+
+                Point mousePoint = e.getPoint();
+                offset.x = (int) (mousePoint.x - (mousePoint.x - offset.x) * scale / oldScale);
+                offset.y = (int) (mousePoint.y - (mousePoint.y - offset.y) * scale / oldScale);
+                viewModCount++;
+
+                repaint();
+            }
+
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                // Track mouse position for drag preview
+                if (draggingTokenImageId != null) {
+                    mousePosition = e.getPoint();
+                    repaint();
+                }
+            }
+        };
+
+        addMouseListener(mouseAdapter);
+        addMouseMotionListener(mouseAdapter);
+        addMouseWheelListener(mouseAdapter);
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public void setImage(BufferedImage image) {
+        this.image = image;
+        pyramid.setBase(image);
+        if (image == null) {
+            mapBuffer.clear();
+        }
+        if (image != null) {
+            scale = Math.min(
+                getWidth() / (double) image.getWidth(),
+                getHeight() / (double) image.getHeight()
+            ) * 0.9;
+            offset.x = (getWidth() - (int) (image.getWidth() * scale)) / 2;
+            offset.y = (getHeight() - (int) (image.getHeight() * scale)) / 2;
+        }
+        viewModCount++;
+        repaint();
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public Point getOffset() {
+        return new Point(offset);
+    }
+
+    /**
+     * Restore a zoom and pan, e.g. from a saved scene.
+     */
+    public void setView(double scale, Point offset) {
+        this.scale = scale;
+        this.offset = new Point(offset);
+        viewModCount++;
+        repaint();
+    }
+
+    /**
+     * Number of zoom, pan and image changes so far, for detecting unsaved changes.
+     */
+    public int getViewModCount() {
+        return viewModCount;
+    }
+
+    public void setController(ControllerFrame controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Show or hide the performance overlay, refreshing it twice a second while shown.
+     */
+    public void setPerfOverlayVisible(boolean visible) {
+        if (visible && perfOverlay == null) {
+            perfOverlay = new PerfOverlay(library.getMemoryManager());
+            perfOverlayTimer = new Timer(500, e -> repaint());
+            perfOverlayTimer.start();
+        } else if (!visible && perfOverlay != null) {
+            perfOverlayTimer.stop();
+            perfOverlayTimer = null;
+            perfOverlay = null;
+        }
+        repaint();
+    }
+
+    public void setDraggingToken(String imageId, BufferedImage tokenImage) {
+        this.draggingTokenImageId = imageId;
+        this.draggingTokenImage = tokenImage;
+    }
+
+    public String getDraggingTokenImageId() {
+        return draggingTokenImageId;
+    }
+
+    public BufferedImage getDraggingTokenImage() {
+        return draggingTokenImage;
+    }
+
+    /**
+     * Map x under a panel x, outside the map too.
+     */
+    int getMapX(int panelX) {
+        return (int) Math.floor((panelX - offset.x) / scale);
+    }
+
+    int getMapY(int panelY) {
+        return (int) Math.floor((panelY - offset.y) / scale);
+    }
+
+    public Point getImagePoint(Point panelPoint) {
+        if (image == null) return null;
+
+        int x = (int) ((panelPoint.x - offset.x) / scale);
+        int y = (int) ((panelPoint.y - offset.y) / scale);
+
+        if (x >= 0 && x < image.getWidth() && y >= 0 && y < image.getHeight()) {
+            return new Point(x, y);
+        }
+        return null;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        long paintStart = PerfMetrics.begin();
+        // Fill the background here; super.paintComponent would copy the Graphics
+        if (isOpaque()) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+        Graphics2D g2d = (Graphics2D) g;
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+        // Scale is 0 if a map was set before the panel was laid out
+        if (image != null && scale > 0) {
+            int imageWidth = image.getWidth();
+            int imageHeight = image.getHeight();
+            view.set(g2d, scale, offset.x, offset.y, 0, 0);
+            updateVisibleArea(imageWidth, imageHeight);
+
+            // Zoomed out, draw a pre-scaled pyramid level instead of the full map
+            mapBuffer.draw(g2d, view, pyramid.getImageForScale(scale), 0, 0, imageWidth, imageHeight,
+                    getWidth(), getHeight(), getBackground());
+            drawGrid(g2d, imageWidth, imageHeight);
+            drawAreaTemplate(g2d);
+            drawMovementRange(g2d, imageWidth, imageHeight);
+            drawTokens(g2d);
+            drawDraggingTokenPreview(g2d);
+        }
+        PerfMetrics.end(PerfMetrics.Probe.CONTROLLER_PAINT, paintStart);
+
+        // Drawn after timing so the overlay does not measure itself
+        if (perfOverlay != null) {
+            perfOverlay.paint(g2d);
+        }
+    }
+
+    /**
+     * Work out which map pixels are on screen, so off-screen cells, grid
+     * lines and tokens are skipped.
+     */
+    private void updateVisibleArea(int imageWidth, int imageHeight) {
+        int left = Math.max(0, view.mapX(0));
+        int top = Math.max(0, view.mapY(0));
+        int right = Math.min(imageWidth, view.mapX(getWidth()) + 1);
+        int bottom = Math.min(imageHeight, view.mapY(getHeight()) + 1);
+        visibleArea.setBounds(left, top, Math.max(0, right - left), Math.max(0, bottom - top));
+    }
+
+    /**
+     * Shade the cells an area template covers and label it with its size.
+     */
+    private void drawAreaTemplate(Graphics2D g2d) {
+        AreaTemplate areaTemplate = (controller != null) ? controller.getAreaTemplate() : null;
+        if (areaTemplate == null || !areaTemplate.isActive()) {
+            return;
+        }
+        g2d.setColor(TEMPLATE_COLOR);
+        areaTemplate.fill(g2d, view, gridOverlay, visibleArea.x, visibleArea.y, visibleArea.width,
+                visibleArea.height);
+        g2d.setColor(TEMPLATE_LABEL_COLOR);
+        g2d.setFont(LABEL_FONT);
+        g2d.drawString(areaTemplate.getLabel(), view.x(areaTemplate.getOriginX()) + 6,
+                view.y(areaTemplate.getOriginY()) - 6);
+    }
+
+    /**
+     * Shade the squares the selected token can reach and draw its path to the
+     * square under the cursor, red past its speed.
+     */
+    private void drawMovementRange(Graphics2D g2d, int imageWidth, int imageHeight) {
+        int index = (controller != null) ? tokenOverlay.indexOf(controller.getSelectedToken()) : -1;
+        if (index < 0) {
+            return;
+        }
+        MovementRange range = controller.getMovementRange();
+        range.update(index);
+        int speed = controller.getSpeedSquares();
+        int squareSize = gridOverlay.getSquareSize();
+        int firstCol = visibleArea.x / squareSize;
+        int firstRow = visibleArea.y / squareSize;
+        int endCol = Math.min(gridOverlay.getGridCols(), (visibleArea.x + visibleArea.width + squareSize - 1) / squareSize);
+        int endRow = Math.min(gridOverlay.getGridRows(), (visibleArea.y + visibleArea.height + squareSize - 1) / squareSize);
+
+        // One rectangle per run of reachable squares in a row
+        g2d.setColor(RANGE_COLOR);
+        for (int y = firstRow; y < endRow; y++) {
+            int cellY = y * squareSize;
+            int cellHeight = Math.min(squareSize, imageHeight - cellY);
+            int x = firstCol;
+            while (x < endCol) {
+                if (!range.canReach(x, y, speed)) {
+                    x++;
+                    continue;
+                }
+                int runStart = x;
+                while (x < endCol && range.canReach(x, y, speed)) {
+                    x++;
+                }
+                int runX = runStart * squareSize;
+                view.fillRect(g2d, runX, cellY, Math.min(x * squareSize, imageWidth) - runX, cellHeight);
+            }
+        }
+
+        int length = range.pathTo(controller.getPathTargetX(), controller.getPathTargetY());
+        if (length < 2) {
+            return;
+        }
+        // A dot at the middle of the token at each step, and its footprint at the end
+        int tokenWidth = range.getTokenWidth() * squareSize;
+        int tokenHeight = range.getTokenHeight() * squareSize;
+        int dot = Math.max(1, squareSize / 5);
+        for (int i = 1; i < length; i++) {
+            g2d.setColor(i <= speed ? PATH_COLOR : OUT_OF_RANGE_PATH_COLOR);
+            view.fillRect(g2d, range.getPathCol(i) * squareSize + (tokenWidth - dot) / 2,
+                    range.getPathRow(i) * squareSize + (tokenHeight - dot) / 2, dot, dot);
+        }
+        int endX = range.getPathCol(length - 1) * squareSize;
+        int endY = range.getPathRow(length - 1) * squareSize;
+        view.drawRect(g2d, endX, endY, tokenWidth, tokenHeight, PATH_BORDER_WIDTH);
+        if (pathLabelSquares != length - 1) {
+            pathLabelSquares = length - 1;
+            pathLabel = pathLabelSquares * AreaTemplate.FEET_PER_SQUARE + " ft";
+        }
+        g2d.setFont(LABEL_FONT);
+        g2d.drawString(pathLabel, view.x(endX + tokenWidth) + 4, view.y(endY) + 14);
+    }
+
+    private void drawTokens(Graphics2D g2d) {
+        int squareSize = gridOverlay.getSquareSize();
+        Token selectedToken = (controller != null) ? controller.getSelectedToken() : null;
+        int selectedIndex = tokenOverlay.indexOf(selectedToken);
+        LineOfSight lineOfSight = (controller != null) ? controller.getLineOfSight() : null;
+        AreaTemplate areaTemplate = (controller != null) ? controller.getAreaTemplate() : null;
+        if (areaTemplate != null && areaTemplate.isActive()) {
+            areaTemplate.updateTokens(gridOverlay, tokenOverlay);
+        } else {
+            areaTemplate = null;
+        }
+        int visibleRight = visibleArea.x + visibleArea.width;
+        int visibleBottom = visibleArea.y + visibleArea.height;
+
+        // Index accessors read the token arrays directly, without allocating
+        int tokenCount = tokenOverlay.getTokenCount();
+        for (int i = 0; i < tokenCount; i++) {
+            // Token position and size in map pixels
+            int tokenX = tokenOverlay.getGridX(i) * squareSize;
+            int tokenY = tokenOverlay.getGridY(i) * squareSize;
+            int tokenWidth = tokenOverlay.getGridWidth(i) * squareSize;
+            int tokenHeight = tokenOverlay.getGridHeight(i) * squareSize;
+            if (tokenX >= visibleRight || tokenX + tokenWidth <= visibleArea.x
+                    || tokenY >= visibleBottom || tokenY + tokenHeight <= visibleArea.y) {
+                continue;
+            }
+
+            // Shared sprite cache loads the image on first use
+            BufferedImage tokenImg = library.getTokenSprite(tokenOverlay.getImageId(i));
+            if (tokenImg == null) continue; // Skip if image can't be loaded
+
+            sprites.draw(g2d, view, tokenImg, tokenX, tokenY, tokenWidth, tokenHeight);
+
+            // Draw token border (different color if selected, in the template or if it has line of sight)
+            boolean isSelected = (i == selectedIndex);
+            boolean inTemplate = areaTemplate != null && areaTemplate.isTokenCovered(tokenOverlay.getNumber(i));
+            if (isSelected) {
+                g2d.setColor(SELECTED_TOKEN_COLOR);
+            } else if (inTemplate) {
+                g2d.setColor(TEMPLATE_TOKEN_COLOR);
+            } else if (lineOfSight != null && lineOfSight.hasVision(tokenOverlay.getNumber(i))) {
+                g2d.setColor(VISION_TOKEN_COLOR);
+            } else {
+                g2d.setColor(TOKEN_BORDER_COLOR);
+            }
+            view.drawRect(g2d, tokenX, tokenY, tokenWidth, tokenHeight, isSelected || inTemplate ? SELECTED_TOKEN_BORDER_WIDTH : TOKEN_BORDER_WIDTH);
+        }
+    }
+
+    private void drawDraggingTokenPreview(Graphics2D g2d) {
+        if (draggingTokenImage != null && mousePosition != null) {
+            int squareSize = gridOverlay.getSquareSize();
+            int mapX = view.mapX(mousePosition.x);
+            int mapY = view.mapY(mousePosition.y);
+            if (mapX >= 0 && mapX < image.getWidth() && mapY >= 0 && mapY < image.getHeight()) {
+                int cellX = mapX / squareSize;
+                int cellY = mapY / squareSize;
+
+                if (cellX < gridOverlay.getGridCols() && cellY < gridOverlay.getGridRows()) {
+                    int tokenX = cellX * squareSize;
+                    int tokenY = cellY * squareSize;
+
+                    // Draw semi-transparent preview
+                    Composite originalComposite = g2d.getComposite();
+                    g2d.setComposite(PREVIEW_COMPOSITE);
+                    sprites.draw(g2d, view, draggingTokenImage, tokenX, tokenY, squareSize, squareSize);
+                    g2d.setComposite(originalComposite);
+
+                    // Draw preview border
+                    g2d.setColor(PREVIEW_BORDER_COLOR);
+                    view.drawRect(g2d, tokenX, tokenY, squareSize, squareSize, PREVIEW_BORDER_WIDTH);
+                }
+            }
+        }
+    }
+
+    private void drawGrid(Graphics2D g2d, int imageWidth, int imageHeight) {
+        int squareSize = gridOverlay.getSquareSize();
+        int gridCols = gridOverlay.getGridCols();
+        int gridRows = gridOverlay.getGridRows();
+
+        // Range of cells on screen
+        int firstCol = visibleArea.x / squareSize;
+        int firstRow = visibleArea.y / squareSize;
+        int endCol = Math.min(gridCols, (visibleArea.x + visibleArea.width + squareSize - 1) / squareSize);
+        int endRow = Math.min(gridRows, (visibleArea.y + visibleArea.height + squareSize - 1) / squareSize);
+
+        g2d.setColor(GRID_COLOR);
+
+        // Draw vertical lines
+        for (int i = firstCol; i <= endCol; i++) {
+            view.drawVerticalLine(g2d, i * squareSize, 0, imageHeight, GRID_LINE_WIDTH);
+        }
+
+        // Draw horizontal lines
+        for (int i = firstRow; i <= endRow; i++) {
+            view.drawHorizontalLine(g2d, i * squareSize, 0, imageWidth, GRID_LINE_WIDTH);
+        }
+
+        // Highlight selected cells and walls
+        g2d.setColor(SELECTED_CELL_COLOR);
+        fillCells(g2d, gridOverlay.getSelectedCells(), firstCol, firstRow, endCol, endRow, imageWidth, imageHeight);
+        g2d.setColor(WALL_COLOR);
+        fillCells(g2d, gridOverlay.getWallCells(), firstCol, firstRow, endCol, endRow, imageWidth, imageHeight);
+        if (!gridOverlay.getFogMask().isEmpty()) {
+            fogTiles.draw(g2d, view, gridOverlay, visibleArea.x, visibleArea.y, visibleArea.width, visibleArea.height);
+        }
+
+        // Draw viewport boundary
+        if (gridOverlay.getSelectedBounds(viewportBounds)) {
+            g2d.setColor(VIEWPORT_COLOR);
+            view.drawRect(g2d, viewportBounds.x, viewportBounds.y, viewportBounds.width, viewportBounds.height,
+                    VIEWPORT_BORDER_WIDTH);
+        }
+    }
+
+    /**
+     * Fill the set cells in a range, one rectangle per run of set cells in a row.
+     */
+    private void fillCells(Graphics2D g2d, boolean[][] cells, int firstCol, int firstRow, int endCol, int endRow,
+                           int imageWidth, int imageHeight) {
+        int squareSize = gridOverlay.getSquareSize();
+        for (int y = firstRow; y < endRow; y++) {
+            int cellY = y * squareSize;
+            int cellHeight = Math.min(squareSize, imageHeight - cellY);
+            int x = firstCol;
+            while (x < endCol) {
+                if (!cells[y][x]) {
+                    x++;
+                    continue;
+                }
+                int runStart = x;
+                while (x < endCol && cells[y][x]) {
+                    x++;
+                }
+                int runX = runStart * squareSize;
+                view.fillRect(g2d, runX, cellY, Math.min(x * squareSize, imageWidth) - runX, cellHeight);
+            }
+        }
+    }
+}
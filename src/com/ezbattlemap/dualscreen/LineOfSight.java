@@ -0,0 +1,344 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reveals the cells that tokens with vision can see.
+ *
+ * Walls marked on the grid block sight. Each vision token's field of view is
+ * computed with symmetric shadowcasting over a bitset of the walls, one task
+ * per token on a pool of worker threads, and the cells it sees are added to
+ * the revealed cells on the event dispatch thread. Fields of view are kept per
+ * token, so when a token moves only its own is computed again; when the walls
+ * or the grid change, all of them are. An update requested while one runs is
+ * coalesced into a single update after it. All methods other than the
+ * workers' run on the event dispatch thread.
+ */
+class LineOfSight {
+    private final GridOverlay gridOverlay;
+    private final TokenOverlay tokenOverlay;
+    private final Runnable onRevealed;
+    private final ExecutorService workers;
+    // Token numbers of the tokens with vision
+    private final BitSet viewers = new BitSet();
+    private final Map<Integer, FieldOfView> fields = new HashMap<>();
+    private BitSet walls;
+    private int wallsModCount = -1;
+    private boolean running;
+    private boolean pending;
+
+    /**
+     * @param onRevealed called on the event dispatch thread after cells were revealed
+     */
+    LineOfSight(GridOverlay gridOverlay, TokenOverlay tokenOverlay, Runnable onRevealed) {
+        this.gridOverlay = gridOverlay;
+        this.tokenOverlay = tokenOverlay;
+        this.onRevealed = onRevealed;
+        this.workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "line-of-sight");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    boolean hasVision(int tokenNumber) {
+        return tokenNumber >= 0 && viewers.get(tokenNumber);
+    }
+
+    /**
+     * Give a token vision, revealing what it sees from now on, or take it away.
+     */
+    void setVision(String tokenId, boolean vision) {
+        int number = TokenOverlay.numberOf(tokenId);
+        if (number < 0) {
+            return;
+        }
+        viewers.set(number, vision);
+        if (!vision) {
+            fields.remove(number);
+        }
+        update();
+    }
+
+    /**
+     * Take vision from every token, e.g. when another scene's tokens replace them.
+     */
+    void clearVision() {
+        viewers.clear();
+        fields.clear();
+    }
+
+    /**
+     * Reveal what the vision tokens see after tokens moved or walls changed.
+     */
+    void update() {
+        if (running) {
+            pending = true;
+            return;
+        }
+        pending = false;
+        if (viewers.isEmpty()) {
+            return;
+        }
+
+        int cols = gridOverlay.getGridCols();
+        int rows = gridOverlay.getGridRows();
+        if (wallsModCount != gridOverlay.getWallModCount()) {
+            // Every field of view depends on the walls
+            walls = toBitSet(gridOverlay.getWallCells(), cols, rows);
+            wallsModCount = gridOverlay.getWallModCount();
+            fields.clear();
+        }
+
+        // Compute the fields of tokens that are new or have moved
+        List<FieldOfView> stale = new ArrayList<>();
+        Map<Integer, FieldOfView> current = new HashMap<>();
+        int tokenCount = tokenOverlay.getTokenCount();
+        for (int i = 0; i < tokenCount; i++) {
+            int number = tokenOverlay.getNumber(i);
+            if (!viewers.get(number)) {
+                continue;
+            }
+            FieldOfView field = fields.get(number);
+            if (field == null || !field.isAt(tokenOverlay.getGridX(i), tokenOverlay.getGridY(i),
+                    tokenOverlay.getGridWidth(i), tokenOverlay.getGridHeight(i))) {
+                field = new FieldOfView(number, tokenOverlay.getGridX(i), tokenOverlay.getGridY(i),
+                        tokenOverlay.getGridWidth(i), tokenOverlay.getGridHeight(i));
+                stale.add(field);
+            }
+            current.put(number, field);
+        }
+        // Forget removed tokens
+        fields.keySet().retainAll(current.keySet());
+        if (stale.isEmpty()) {
+            return;
+        }
+
+        running = true;
+        BitSet wallSnapshot = walls;
+        int snapshotModCount = wallsModCount;
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[stale.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            FieldOfView field = stale.get(i);
+            tasks[i] = CompletableFuture.runAsync(() -> field.compute(wallSnapshot, cols, rows), workers);
+        }
+        CompletableFuture.allOf(tasks).whenComplete((result, error) ->
+                SwingUtilities.invokeLater(() -> finish(stale, snapshotModCount, error)));
+    }
+
+    private void finish(List<FieldOfView> computed, int snapshotModCount, Throwable error) {
+        running = false;
+        if (error != null) {
+            System.err.println("Error computing line of sight: " + error.getMessage());
+        } else if (snapshotModCount == gridOverlay.getWallModCount()) {
+            // Add what each moved token sees now; what the others see is revealed already
+            boolean revealed = false;
+            int cols = gridOverlay.getGridCols();
+            for (FieldOfView field : computed) {
+                fields.put(field.number, field);
+                BitSet visible = field.visible;
+                for (int cell = visible.nextSetBit(0); cell >= 0; cell = visible.nextSetBit(cell + 1)) {
+                    if (!gridOverlay.isCellSelected(cell % cols, cell / cols)) {
+                        gridOverlay.selectCell(cell % cols, cell / cols, true);
+                        revealed = true;
+                    }
+                }
+            }
+            if (revealed) {
+                onRevealed.run();
+            }
+        } else {
+            // The walls or grid changed meanwhile, so these results are stale
+            pending = true;
+        }
+        if (pending) {
+            update();
+        }
+    }
+
+    private static BitSet toBitSet(boolean[][] cells, int cols, int rows) {
+        BitSet bits = new BitSet(cols * rows);
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                if (cells[y][x]) {
+                    bits.set(y * cols + x);
+                }
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Cells visible from any cell in a rectangle of cells, as bits indexed by
+     * y * cols + x. Cells outside the grid block sight, so a map's edge
+     * works like a wall.
+     */
+    static BitSet computeVisible(BitSet walls, int cols, int rows, int gridX, int gridY,
+                                 int gridWidth, int gridHeight) {
+        BitSet visible = new BitSet(cols * rows);
+        Shadowcaster caster = new Shadowcaster(walls, cols, rows, visible);
+        for (int y = gridY; y < gridY + gridHeight; y++) {
+            for (int x = gridX; x < gridX + gridWidth; x++) {
+                if (x >= 0 && x < cols && y >= 0 && y < rows) {
+                    caster.castFrom(x, y);
+                }
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * A vision token's position and what it sees from there.
+     */
+    private static class FieldOfView {
+        private final int number;
+        private final int gridX;
+        private final int gridY;
+        private final int gridWidth;
+        private final int gridHeight;
+        // Written by a worker, read on the event dispatch thread once all workers are done
+        private BitSet visible;
+
+        FieldOfView(int number, int gridX, int gridY, int gridWidth, int gridHeight) {
+            this.number = number;
+            this.gridX = gridX;
+            this.gridY = gridY;
+            this.gridWidth = gridWidth;
+            this.gridHeight = gridHeight;
+        }
+
+        boolean isAt(int x, int y, int width, int height) {
+            return gridX == x && gridY == y && gridWidth == width && gridHeight == height;
+        }
+
+        void compute(BitSet walls, int cols, int rows) {
+            visible = computeVisible(walls, cols, rows, gridX, gridY, gridWidth, gridHeight);
+        }
+    }
+
+    /**
+     * Symmetric shadowcasting: a cell is visible if a line from the center of
+     * the origin reaches the cell's center line without passing a wall, so
+     * sight is the same in both directions and walls next to a visible floor
+     * are shown. The four quadrants are scanned row by row away from the
+     * origin, each row between a start and end slope that walls narrow or
+     * split. Slopes are exact fractions of the form (2 col - 1) / (2 depth).
+     */
+    private static class Shadowcaster {
+        private final BitSet walls;
+        private final int cols;
+        private final int rows;
+        private final BitSet visible;
+        // Rows still to scan: depth, start numerator and denominator, end numerator and denominator
+        private long[] stack = new long[5 * 64];
+        private int stackSize;
+        private int originX;
+        private int originY;
+        private int quadrant;
+
+        Shadowcaster(BitSet walls, int cols, int rows, BitSet visible) {
+            this.walls = walls;
+            this.cols = cols;
+            this.rows = rows;
+            this.visible = visible;
+        }
+
+        void castFrom(int x, int y) {
+            originX = x;
+            originY = y;
+            visible.set(y * cols + x);
+            for (quadrant = 0; quadrant < 4; quadrant++) {
+                push(1, -1, 1, 1, 1);
+                while (stackSize > 0) {
+                    stackSize -= 5;
+                    scanRow(stack[stackSize], stack[stackSize + 1], stack[stackSize + 2],
+                            stack[stackSize + 3], stack[stackSize + 4]);
+                }
+            }
+        }
+
+        private void scanRow(long depth, long startNum, long startDen, long endNum, long endDen) {
+            // Columns from the start slope rounded with ties up to the end slope rounded with ties down
+            long minCol = Math.floorDiv(2 * depth * startNum + startDen, 2 * startDen);
+            long maxCol = -Math.floorDiv(-(2 * depth * endNum - endDen), 2 * endDen);
+            boolean previousWall = false;
+            boolean hasPrevious = false;
+            for (long col = minCol; col <= maxCol; col++) {
+                boolean wall = isWall(depth, col);
+                if (wall || (col * startDen >= depth * startNum && col * endDen <= depth * endNum)) {
+                    reveal(depth, col);
+                }
+                if (hasPrevious && previousWall && !wall) {
+                    startNum = 2 * col - 1;
+                    startDen = 2 * depth;
+                }
+                if (hasPrevious && !previousWall && wall) {
+                    push(depth + 1, startNum, startDen, 2 * col - 1, 2 * depth);
+                }
+                previousWall = wall;
+                hasPrevious = true;
+            }
+            if (hasPrevious && !previousWall) {
+                push(depth + 1, startNum, startDen, endNum, endDen);
+            }
+        }
+
+        private void push(long depth, long startNum, long startDen, long endNum, long endDen) {
+            if (stackSize + 5 > stack.length) {
+                stack = java.util.Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[stackSize++] = depth;
+            stack[stackSize++] = startNum;
+            stack[stackSize++] = startDen;
+            stack[stackSize++] = endNum;
+            stack[stackSize++] = endDen;
+        }
+
+        private boolean isWall(long depth, long col) {
+            long x = mapX(depth, col);
+            long y = mapY(depth, col);
+            return x < 0 || x >= cols || y < 0 || y >= rows || walls.get((int) (y * cols + x));
+        }
+
+        private void reveal(long depth, long col) {
+            long x = mapX(depth, col);
+            long y = mapY(depth, col);
+            if (x >= 0 && x < cols && y >= 0 && y < rows) {
+                visible.set((int) (y * cols + x));
+            }
+        }
+
+        // Quadrants look north, east, south and west of the origin
+
+        private long mapX(long depth, long col) {
+            switch (quadrant) {
+                case 0:
+                case 2:
+                    return originX + col;
+                case 1:
+                    return originX + depth;
+                default:
+                    return originX - depth;
+            }
+        }
+
+        private long mapY(long depth, long col) {
+            switch (quadrant) {
+                case 0:
+                    return originY - depth;
+                case 2:
+                    return originY + depth;
+                default:
+                    return originY + col;
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used image cache that reports its size to an
+ * {@link ImageMemoryManager} and evicts when the manager asks it to.
+ *
+ * Entries used within the last {@code minIdleMillis} are considered in use
+ * and are never evicted, so sprites drawn every frame stay resident.
+ */
+class LruImageCache implements ImageMemoryManager.ImageCache {
+    private final ImageMemoryManager memoryManager;
+    private final ImageMemoryManager.Priority priority;
+    private final PerfMetrics.CacheStat stat;
+    private final long minIdleNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+
+    LruImageCache(ImageMemoryManager memoryManager, ImageMemoryManager.Priority priority,
+                  PerfMetrics.CacheStat stat, long minIdleMillis) {
+        this.memoryManager = memoryManager;
+        this.priority = priority;
+        this.stat = stat;
+        this.minIdleNanos = minIdleMillis * 1_000_000L;
+        memoryManager.register(this);
+    }
+
+    /**
+     * Get a cached image, or null on a miss.
+     */
+    synchronized BufferedImage get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            stat.miss();
+            return null;
+        }
+        stat.hit();
+        entry.lastUsed = System.nanoTime();
+        return entry.image;
+    }
+
+    /**
+     * Add or replace an image, then let the memory manager trim if needed.
+     */
+    void put(String key, BufferedImage image) {
+        if (image == null) {
+            return;
+        }
+        synchronized (this) {
+            Entry previous = entries.put(key, new Entry(image));
+            if (previous != null) {
+                sizeBytes -= previous.bytes;
+            }
+            sizeBytes += ImageMemoryManager.estimateBytes(image);
+        }
+        memoryManager.trim();
+    }
+
+    /**
+     * Remove an image and hand it to the caller, or return null on a miss.
+     */
+    synchronized BufferedImage take(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            stat.miss();
+            return null;
+        }
+        stat.hit();
+        sizeBytes -= entry.bytes;
+        return entry.image;
+    }
+
+    synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            sizeBytes -= entry.bytes;
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    @Override
+    public ImageMemoryManager.Priority getPriority() {
+        return priority;
+    }
+
+    @Override
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public synchronized long evict(long bytesToFree) {
+        long cutoff = System.nanoTime() - minIdleNanos;
+        long freed = 0;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext() && freed < bytesToFree) {
+            Entry entry = it.next().getValue();
+            if (minIdleNanos > 0 && entry.lastUsed - cutoff > 0) {
+                continue;
+            }
+            it.remove();
+            freed += entry.bytes;
+        }
+        sizeBytes -= freed;
+        return freed;
+    }
+
+    private static final class Entry {
+        final BufferedImage image;
+        final long bytes;
+        long lastUsed;
+
+        Entry(BufferedImage image) {
+            this.image = image;
+            this.bytes = ImageMemoryManager.estimateBytes(image);
+            this.lastUsed = System.nanoTime();
+        }
+    }
+}
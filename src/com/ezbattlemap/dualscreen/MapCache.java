@@ -0,0 +1,283 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Fast-decode copies of library maps.
+ *
+ * The first time a map is opened its decoded pixels are written, on a
+ * background thread, to cache/&lt;id&gt;.ezc under the library root using
+ * {@link QoiCodec}. Later opens read that file instead of decoding the
+ * original PNG or JPEG. The header records the source file's size and
+ * modification time; a cache file that no longer matches is ignored and
+ * rewritten.
+ *
+ * Pixels are stored as independently encoded strips of rows, listed in a table
+ * after the header, so a cached map is read and decoded in parallel on a
+ * shared {@link ForkJoinPool}, each strip read on its own so little memory is
+ * needed beyond the pixels. The number of decode threads defaults to the core
+ * count and can be set with -Dezbattlemap.decodeThreads=N.
+ *
+ * Maps below -Dezbattlemap.mapCacheMinPixels (default 4 megapixels) already
+ * decode quickly and are not cached, nor are maps whose cache file would pass
+ * 2 GB. -Dezbattlemap.mapCache=false disables the
+ * cache entirely.
+ */
+class MapCache {
+    static final String ENABLED_PROPERTY = "ezbattlemap.mapCache";
+    static final String MIN_PIXELS_PROPERTY = "ezbattlemap.mapCacheMinPixels";
+    static final String DECODE_THREADS_PROPERTY = "ezbattlemap.decodeThreads";
+    private static final String CACHE_DIR_NAME = "cache";
+    private static final String EXTENSION = ".ezc";
+    private static final int MAGIC = 0x455a4d43; // "EZMC"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 41;
+    private static final int STRIP_HEIGHT = 256;
+    private static final ForkJoinPool DECODE_POOL = new ForkJoinPool(
+            Math.max(1, Integer.getInteger(DECODE_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors())));
+
+    private final File cacheDir;
+    private final boolean enabled;
+    private final long minPixels;
+    private final ExecutorService writer;
+
+    MapCache(File libraryRoot) {
+        this.cacheDir = new File(libraryRoot, CACHE_DIR_NAME);
+        this.enabled = Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+        this.minPixels = Long.getLong(MIN_PIXELS_PROPERTY, 4_000_000L);
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "map-cache-writer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Read the cached pixels for a map, or return null if there is no cache
+     * file or it is stale for the given source file.
+     */
+    BufferedImage read(String id, File source) {
+        if (!enabled) {
+            return null;
+        }
+        File file = cacheFile(id);
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.wrap(readFully(channel, 0, HEADER_SIZE));
+            if (header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getLong() != source.lastModified() || header.getLong() != source.length()) {
+                return null;
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+            boolean hasAlpha = header.get() != 0;
+            int stripHeight = header.getInt();
+            int stripCount = header.getInt();
+            if (width <= 0 || height <= 0 || stripHeight <= 0
+                    || stripCount != (height + stripHeight - 1) / stripHeight
+                    || HEADER_SIZE + stripCount * 4L > fileSize) {
+                throw new IOException("Corrupt strip table");
+            }
+
+            // Strip table: encoded length of each strip, followed by the strips
+            ByteBuffer table = ByteBuffer.wrap(readFully(channel, HEADER_SIZE, stripCount * 4));
+            long[] offsets = new long[stripCount];
+            int[] lengths = new int[stripCount];
+            long offset = HEADER_SIZE + stripCount * 4L;
+            for (int i = 0; i < stripCount; i++) {
+                offsets[i] = offset;
+                lengths[i] = table.getInt();
+                if (lengths[i] < 0) {
+                    throw new IOException("Corrupt strip table");
+                }
+                offset += lengths[i];
+            }
+            if (offset > fileSize) {
+                throw new IOException("Truncated map cache");
+            }
+
+            BufferedImage image = new BufferedImage(width, height,
+                    hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            decodeStrips(channel, offsets, lengths, pixels, width, height, stripHeight);
+            return image;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading map cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read and decode every strip into its rows of the pixel array, in
+     * parallel when more than one decode thread is configured. Each strip is
+     * read on its own, so only the strips being decoded are held at once.
+     */
+    private static void decodeStrips(FileChannel channel, long[] offsets, int[] lengths, int[] pixels,
+                                     int width, int height, int stripHeight) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            int firstRow = i * stripHeight;
+            int rows = Math.min(stripHeight, height - firstRow);
+            long start = offsets[i];
+            int length = lengths[i];
+            tasks.add(() -> {
+                QoiCodec.decode(readFully(channel, start, length), 0, pixels, firstRow * width, rows * width);
+                return null;
+            });
+        }
+
+        if (DECODE_POOL.getParallelism() == 1 || tasks.size() == 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+            return;
+        }
+        for (Future<Void> result : DECODE_POOL.invokeAll(tasks)) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decoding map cache");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Read bytes at a position of the file; safe to call from several threads.
+     */
+    private static byte[] readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated map cache");
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Write the cache for a decoded map in the background if it is large
+     * enough to be worth caching. The image must not be modified afterwards.
+     */
+    void writeAsync(String id, File source, BufferedImage image) {
+        if (!enabled || image == null || (long) image.getWidth() * image.getHeight() < minPixels) {
+            return;
+        }
+        long lastModified = source.lastModified();
+        long length = source.length();
+        writer.execute(() -> {
+            try {
+                write(id, lastModified, length, image);
+            } catch (IOException e) {
+                System.err.println("Error writing map cache: " + e.getMessage());
+            }
+        });
+    }
+
+    private void write(String id, long lastModified, long length, BufferedImage image) throws IOException {
+        if (!cacheDir.exists()) {
+            cacheDir.mkdirs();
+        }
+        File file = cacheFile(id);
+        File tempFile = new File(cacheDir, id + EXTENSION + ".tmp");
+        int height = image.getHeight();
+        int stripCount = (height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(lastModified);
+            out.writeLong(length);
+            out.writeInt(image.getWidth());
+            out.writeInt(height);
+            out.writeBoolean(image.getColorModel().hasAlpha());
+            out.writeInt(STRIP_HEIGHT);
+            out.writeInt(stripCount);
+            // Placeholder strip table, filled in once the strip sizes are known
+            for (int i = 0; i < stripCount; i++) {
+                out.writeInt(0);
+            }
+
+            ByteBuffer table = ByteBuffer.allocate(stripCount * 4);
+            ByteArrayOutputStream stripOut = new ByteArrayOutputStream();
+            long total = HEADER_SIZE + stripCount * 4L;
+            for (int i = 0; i < stripCount; i++) {
+                stripOut.reset();
+                QoiCodec.encode(image, i * STRIP_HEIGHT, Math.min(height, (i + 1) * STRIP_HEIGHT), stripOut);
+                total += stripOut.size();
+                if (total > Integer.MAX_VALUE) {
+                    // Too large to be worth caching; the map is decoded as before
+                    out.close();
+                    tempFile.delete();
+                    return;
+                }
+                table.putInt(stripOut.size());
+                stripOut.writeTo(out);
+            }
+            out.flush();
+            table.flip();
+            fileOut.getChannel().write(table, HEADER_SIZE);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Wait for all queued writes, e.g. before the library is deleted.
+     */
+    void flush() {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Error writing map cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the cache file for a map, after any write still queued for it.
+     */
+    void delete(String id) {
+        writer.execute(() -> {
+            File file = cacheFile(id);
+            if (file.exists()) {
+                file.delete();
+            }
+        });
+    }
+
+    private File cacheFile(String id) {
+        return new File(cacheDir, id + EXTENSION);
+    }
+}
@@ -0,0 +1,141 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes maps the GM is likely to open next, before they are opened.
+ *
+ * Callers queue candidate map ids (neighbours in the library panel, recently
+ * used maps, the thumbnail under the mouse). A single low-priority thread
+ * decodes them into the library's prefetch cache, from which
+ * {@link ImageLibrary#loadImage(String)} takes them without decoding. A map is
+ * only prefetched if it fits the image memory budget without evicting
+ * anything, and prefetched maps are the first images evicted under pressure.
+ * {@link #cancel()} drops everything queued and discards a decode in flight.
+ */
+class MapPrefetcher {
+    private static final int MAX_QUEUED = 4;
+
+    private final ImageLibrary library;
+    private final ExecutorService worker;
+    private final Deque<String> queue = new ArrayDeque<>();
+    private boolean draining;
+    private long generation;
+
+    MapPrefetcher(ImageLibrary library) {
+        this.library = library;
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "map-prefetcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Replace the queue with new candidates, most likely first.
+     */
+    synchronized void prefetchMaps(List<String> mapIds) {
+        queue.clear();
+        for (String id : mapIds) {
+            if (queue.size() >= MAX_QUEUED) {
+                break;
+            }
+            if (!queue.contains(id)) {
+                queue.addLast(id);
+            }
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Move one candidate to the front of the queue, e.g. the hovered thumbnail.
+     */
+    synchronized void prefetchFirst(String mapId) {
+        queue.remove(mapId);
+        queue.addFirst(mapId);
+        while (queue.size() > MAX_QUEUED) {
+            queue.removeLast();
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Load token sprites into the shared sprite cache in the background.
+     */
+    void prefetchTokens(Collection<String> imageIds) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(imageIds));
+        long requested;
+        synchronized (this) {
+            requested = generation;
+        }
+        worker.execute(() -> {
+            for (String id : ids) {
+                synchronized (this) {
+                    if (requested != generation) {
+                        return;
+                    }
+                }
+                library.getTokenSprite(id);
+            }
+        });
+    }
+
+    /**
+     * Drop all queued work; a decode already running finishes but is discarded.
+     */
+    synchronized void cancel() {
+        queue.clear();
+        generation++;
+    }
+
+    private void scheduleDrain() {
+        if (!draining && !queue.isEmpty()) {
+            draining = true;
+            worker.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            String id;
+            long requested;
+            synchronized (this) {
+                id = queue.pollFirst();
+                if (id == null) {
+                    draining = false;
+                    return;
+                }
+                requested = generation;
+            }
+            prefetch(id, requested);
+        }
+    }
+
+    private void prefetch(String id, long requested) {
+        ImageMetadata meta = library.getMetadata(id);
+        if (meta == null || meta.getLibraryType() != ImageMetadata.LibraryType.MAP || library.isPrefetched(id)) {
+            return;
+        }
+        // Speculative work must never push out images that are in use
+        Dimension size = library.readImageSize(id);
+        if (size == null || !library.getMemoryManager().hasRoomFor((long) size.width * size.height * 4)) {
+            return;
+        }
+        try {
+            BufferedImage image = library.decodeImage(id);
+            synchronized (this) {
+                if (requested != generation) {
+                    return;
+                }
+            }
+            library.putPrefetched(id, image);
+        } catch (Exception e) {
+            System.err.println("Error prefetching map: " + e.getMessage());
+        }
+    }
+}
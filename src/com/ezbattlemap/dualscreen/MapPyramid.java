@@ -0,0 +1,174 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.SwingUtilities;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Downscaled copies of a map (1/2, 1/4, ...) for drawing it zoomed out.
+ *
+ * Scaling a full-resolution battlemap down on every repaint is the most
+ * expensive part of a zoomed-out frame. The pyramid hands out the smallest
+ * level that still covers the requested scale, building missing levels on a
+ * background thread and drawing the best available level meanwhile. Levels
+ * other than the one last requested are off-screen and are the first thing
+ * the {@link ImageMemoryManager} evicts.
+ */
+class MapPyramid implements ImageMemoryManager.ImageCache {
+    private static final int MIN_LEVEL_SIZE = 256;
+    private static final int MAX_LEVELS = 8;
+
+    private final ImageMemoryManager memoryManager;
+    private final ExecutorService builder;
+    private final Runnable onLevelReady;
+    private BufferedImage base;
+    private BufferedImage[] levels = new BufferedImage[0];
+    private int activeLevel;
+    private int pendingLevel = -1;
+    private long generation;
+    private long sizeBytes;
+
+    /**
+     * @param onLevelReady called on the event dispatch thread when a level finishes building
+     */
+    MapPyramid(ImageMemoryManager memoryManager, Runnable onLevelReady) {
+        this.memoryManager = memoryManager;
+        this.onLevelReady = onLevelReady;
+        this.builder = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "map-pyramid");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        memoryManager.register(this);
+    }
+
+    /**
+     * Replace the full-resolution map, discarding all levels.
+     */
+    synchronized void setBase(BufferedImage image) {
+        base = image;
+        generation++;
+        pendingLevel = -1;
+        activeLevel = 0;
+        sizeBytes = 0;
+        int count = 1;
+        if (image != null) {
+            int size = Math.min(image.getWidth(), image.getHeight());
+            while (count < MAX_LEVELS && (size >> count) >= MIN_LEVEL_SIZE) {
+                count++;
+            }
+        }
+        levels = new BufferedImage[count];
+    }
+
+    /**
+     * Get the image to draw for a display scale (display pixels per map pixel).
+     * The returned image always covers the whole map; only its resolution varies.
+     */
+    synchronized BufferedImage getImageForScale(double scale) {
+        if (base == null) {
+            return null;
+        }
+        int wanted = 0;
+        while (wanted + 1 < levels.length && scale <= 1.0 / (1 << (wanted + 1))) {
+            wanted++;
+        }
+        activeLevel = wanted;
+        if (wanted == 0) {
+            return base;
+        }
+        if (levels[wanted] != null) {
+            return levels[wanted];
+        }
+        if (pendingLevel != wanted) {
+            scheduleBuild(wanted);
+        }
+        // Fall back to the closest finer level until the wanted one is ready
+        for (int level = wanted - 1; level > 0; level--) {
+            if (levels[level] != null) {
+                return levels[level];
+            }
+        }
+        return base;
+    }
+
+    private void scheduleBuild(int level) {
+        pendingLevel = level;
+        long buildGeneration = generation;
+        builder.execute(() -> build(level, buildGeneration));
+    }
+
+    private void build(int level, long buildGeneration) {
+        BufferedImage source;
+        int sourceLevel;
+        synchronized (this) {
+            if (buildGeneration != generation) {
+                return;
+            }
+            sourceLevel = level - 1;
+            while (sourceLevel > 0 && levels[sourceLevel] == null) {
+                sourceLevel--;
+            }
+            source = sourceLevel == 0 ? base : levels[sourceLevel];
+        }
+
+        // Halve repeatedly so bilinear filtering never skips source pixels
+        BufferedImage current = source;
+        for (int l = sourceLevel + 1; l <= level; l++) {
+            current = halve(current);
+        }
+
+        synchronized (this) {
+            if (buildGeneration != generation) {
+                return;
+            }
+            levels[level] = current;
+            sizeBytes += ImageMemoryManager.estimateBytes(current);
+            if (pendingLevel == level) {
+                pendingLevel = -1;
+            }
+        }
+        memoryManager.trim();
+        if (onLevelReady != null) {
+            SwingUtilities.invokeLater(onLevelReady);
+        }
+    }
+
+    private static BufferedImage halve(BufferedImage source) {
+        int width = Math.max(1, source.getWidth() / 2);
+        int height = Math.max(1, source.getHeight() / 2);
+        BufferedImage result = CompatibleImages.create(width, height, source.getColorModel().hasAlpha());
+        Graphics2D g2d = result.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(source, 0, 0, width, height, null);
+        g2d.dispose();
+        return result;
+    }
+
+    @Override
+    public ImageMemoryManager.Priority getPriority() {
+        return ImageMemoryManager.Priority.PYRAMID_LEVEL;
+    }
+
+    @Override
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public synchronized long evict(long bytesToFree) {
+        long freed = 0;
+        for (int level = 1; level < levels.length && freed < bytesToFree; level++) {
+            if (level != activeLevel && levels[level] != null) {
+                long bytes = ImageMemoryManager.estimateBytes(levels[level]);
+                levels[level] = null;
+                freed += bytes;
+            }
+        }
+        sizeBytes -= freed;
+        return freed;
+    }
+}
@@ -0,0 +1,74 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * The map as drawn at the current zoom and pan, in a panel-sized image.
+ *
+ * Scaling the map is the most expensive part of a frame, and most repaints
+ * (revealing cells, moving tokens, refreshing overlays) leave the view
+ * unchanged. The map is scaled into the buffer only when the image, view or
+ * panel size changes; every other frame is a 1:1 blit, which does not allocate.
+ * Used only on the event dispatch thread.
+ */
+final class MapViewBuffer {
+    private BufferedImage buffer;
+    private Image drawnImage;
+    private int drawnLeft;
+    private int drawnTop;
+    private int drawnWidth;
+    private int drawnHeight;
+    private Color drawnBackground;
+
+    /**
+     * Draw an image over a rectangle given in map pixels, on a panel of the
+     * given size and background.
+     */
+    void draw(Graphics2D g2d, ViewTransform view, Image image, int mapX, int mapY, int mapWidth, int mapHeight,
+              int panelWidth, int panelHeight, Color background) {
+        if (view.isDeviceScaled() || panelWidth <= 0 || panelHeight <= 0) {
+            // Scaled displays get the map at full device resolution instead
+            buffer = null;
+            view.drawImage(g2d, image, mapX, mapY, mapWidth, mapHeight);
+            return;
+        }
+        int left = view.x(mapX);
+        int top = view.y(mapY);
+        int width = view.x(mapX + mapWidth) - left;
+        int height = view.y(mapY + mapHeight) - top;
+
+        if (buffer == null || buffer.getWidth() != panelWidth || buffer.getHeight() != panelHeight) {
+            buffer = CompatibleImages.create(panelWidth, panelHeight, false);
+            drawnImage = null;
+        }
+        if (image != drawnImage || left != drawnLeft || top != drawnTop || width != drawnWidth
+                || height != drawnHeight || !background.equals(drawnBackground)) {
+            Graphics2D bufferGraphics = buffer.createGraphics();
+            bufferGraphics.setColor(background);
+            bufferGraphics.fillRect(0, 0, panelWidth, panelHeight);
+            bufferGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            bufferGraphics.drawImage(image, left, top, width, height, null);
+            bufferGraphics.dispose();
+            drawnImage = image;
+            drawnLeft = left;
+            drawnTop = top;
+            drawnWidth = width;
+            drawnHeight = height;
+            drawnBackground = background;
+        }
+        g2d.drawImage(buffer, 0, 0, null);
+    }
+
+    /**
+     * Drop the buffer, e.g. when the panel has no map to show.
+     */
+    void clear() {
+        buffer = null;
+        drawnImage = null;
+    }
+}
@@ -0,0 +1,292 @@
+package com.ezbattlemap.dualscreen;
+
+import java.util.Arrays;
+
+/**
+ * How far a token can move: the number of squares to every cell of the grid,
+ * and the shortest path to any one of them.
+ *
+ * A step to any of the eight neighbouring cells costs one square, as with
+ * 5 ft diagonals, so Dijkstra's search needs no priority queue: cells leave a
+ * FIFO queue in order of distance. Walls and other tokens block the whole
+ * footprint of the token, and a diagonal step may not cut a blocked corner.
+ *
+ * The search starts over only when the token, the other tokens, the walls or
+ * the grid change, and goes only as far as it is asked: out to the token's
+ * speed for the range, and on to the cursor's cell for a path, resuming
+ * where it stopped. The step each cell was reached from is kept, so a path
+ * is walked back from its cell without searching again. The cells are kept
+ * with a border of blocked cells round the grid, so neighbours are fixed
+ * offsets with no edge checks. Buffers are reused, so once they fit the grid
+ * neither a new search nor a cursor move allocates. Used only on the event
+ * dispatch thread.
+ */
+class MovementRange {
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final GridOverlay gridOverlay;
+    private final TokenOverlay tokenOverlay;
+
+    private int cols;
+    private int rows;
+    // Per cell with the border, in row-major order; stride is cols + 2
+    private int stride;
+    private int[] distances = new int[0];
+    private int[] previous = new int[0];
+    private boolean[] blocked = new boolean[0];
+    private int[] queue = new int[0];
+    // Cells from head to tail are reached but their neighbours not yet tried
+    private int head;
+    private int tail;
+    private int[] freeRuns = new int[0];
+    // Index offsets of the neighbours, orthogonal first so paths prefer them
+    // between equal lengths, and of the two cells beside each diagonal step
+    private final int[] steps = new int[8];
+    private final int[] besideX = new int[8];
+    private final int[] besideY = new int[8];
+
+    // What the distances were worked out for
+    private int tokenNumber = -1;
+    private int tokensModCount = -1;
+    private int wallModCount = -1;
+    private int squareSize = -1;
+    private int tokenWidth = 1;
+    private int tokenHeight = 1;
+    private int fieldVersion;
+
+    // Cells of the last path from the token, as of pathVersion
+    private int[] path = new int[0];
+    private int pathLength;
+    private int pathTarget = -1;
+    private int pathVersion = -1;
+
+    MovementRange(GridOverlay gridOverlay, TokenOverlay tokenOverlay) {
+        this.gridOverlay = gridOverlay;
+        this.tokenOverlay = tokenOverlay;
+    }
+
+    /**
+     * Bring the distances up to date for the token at a render-order index.
+     */
+    void update(int index) {
+        int number = tokenOverlay.getNumber(index);
+        if (number == tokenNumber && tokensModCount == tokenOverlay.getModCount()
+                && wallModCount == gridOverlay.getWallModCount() && squareSize == gridOverlay.getSquareSize()
+                && cols == gridOverlay.getGridCols() && rows == gridOverlay.getGridRows()) {
+            return;
+        }
+        tokenNumber = number;
+        tokensModCount = tokenOverlay.getModCount();
+        wallModCount = gridOverlay.getWallModCount();
+        squareSize = gridOverlay.getSquareSize();
+        cols = gridOverlay.getGridCols();
+        rows = gridOverlay.getGridRows();
+        tokenWidth = tokenOverlay.getGridWidth(index);
+        tokenHeight = tokenOverlay.getGridHeight(index);
+        fieldVersion++;
+        stride = cols + 2;
+        int cells = stride * (rows + 2);
+        if (distances.length < cells) {
+            distances = new int[cells];
+            previous = new int[cells];
+            blocked = new boolean[cells];
+            queue = new int[cells];
+            freeRuns = new int[cells];
+        }
+
+        setSteps();
+        markBlocked(index);
+        start(tokenOverlay.getGridX(index), tokenOverlay.getGridY(index));
+    }
+
+    private void setSteps() {
+        int[] stepX = {1, -1, 0, 0, 1, 1, -1, -1};
+        int[] stepY = {0, 0, 1, -1, 1, -1, 1, -1};
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = stepY[i] * stride + stepX[i];
+            besideX[i] = stepX[i];
+            besideY[i] = stepY[i] * stride;
+        }
+    }
+
+    private int cell(int col, int row) {
+        return (row + 1) * stride + col + 1;
+    }
+
+    /**
+     * Mark the cells the token's top-left corner cannot move to: those where
+     * its footprint would leave the grid or overlap a wall or another token.
+     */
+    private void markBlocked(int index) {
+        boolean[][] walls = gridOverlay.getWallCells();
+        Arrays.fill(blocked, 0, stride, true);
+        Arrays.fill(blocked, (rows + 1) * stride, (rows + 2) * stride, true);
+        for (int y = 0; y < rows; y++) {
+            int rowStart = cell(0, y);
+            blocked[rowStart - 1] = true;
+            blocked[rowStart + cols] = true;
+            System.arraycopy(walls[y], 0, blocked, rowStart, cols);
+        }
+        int count = tokenOverlay.getTokenCount();
+        for (int i = 0; i < count; i++) {
+            if (i == index) {
+                continue;
+            }
+            int left = Math.max(0, tokenOverlay.getGridX(i));
+            int top = Math.max(0, tokenOverlay.getGridY(i));
+            int right = Math.min(cols, tokenOverlay.getGridX(i) + tokenOverlay.getGridWidth(i));
+            int bottom = Math.min(rows, tokenOverlay.getGridY(i) + tokenOverlay.getGridHeight(i));
+            for (int y = top; y < bottom; y++) {
+                Arrays.fill(blocked, cell(left, y), cell(right, y), true);
+            }
+        }
+
+        int width = tokenWidth;
+        int height = tokenHeight;
+        if (width == 1 && height == 1) {
+            return;
+        }
+        // Free cells from each cell rightwards, then whether the footprint's
+        // rows are all free from each cell downwards
+        for (int y = 0; y < rows; y++) {
+            int run = 0;
+            for (int x = cols - 1; x >= 0; x--) {
+                run = blocked[cell(x, y)] ? 0 : run + 1;
+                freeRuns[cell(x, y)] = run;
+            }
+        }
+        for (int x = 0; x < cols; x++) {
+            int run = 0;
+            for (int y = rows - 1; y >= 0; y--) {
+                run = freeRuns[cell(x, y)] < width ? 0 : run + 1;
+                blocked[cell(x, y)] = run < height;
+            }
+        }
+    }
+
+    private void start(int startX, int startY) {
+        Arrays.fill(distances, 0, stride * (rows + 2), UNREACHABLE);
+        head = 0;
+        tail = 0;
+        if (startX < 0 || startX >= cols || startY < 0 || startY >= rows) {
+            return;
+        }
+        int start = cell(startX, startY);
+        distances[start] = 0;
+        previous[start] = -1;
+        queue[tail++] = start;
+    }
+
+    /**
+     * Search on until every cell within a distance has been reached.
+     */
+    private void searchWithin(int distance) {
+        while (head < tail && distances[queue[head]] < distance) {
+            visitNext();
+        }
+    }
+
+    /**
+     * Search on until a cell has been reached or there is nowhere left to go.
+     * A blocked cell is never reached, so is not searched for.
+     */
+    private void searchFor(int cell) {
+        while (head < tail && distances[cell] == UNREACHABLE && !blocked[cell]) {
+            visitNext();
+        }
+    }
+
+    private void visitNext() {
+        int current = queue[head++];
+        int next = distances[current] + 1;
+        for (int step = 0; step < steps.length; step++) {
+            int neighbour = current + steps[step];
+            if (blocked[neighbour] || distances[neighbour] != UNREACHABLE) {
+                continue;
+            }
+            // A diagonal step needs both cells beside it free
+            if (step >= 4 && (blocked[current + besideX[step]] || blocked[current + besideY[step]])) {
+                continue;
+            }
+            distances[neighbour] = next;
+            previous[neighbour] = current;
+            queue[tail++] = neighbour;
+        }
+    }
+
+    /**
+     * Squares the token needs to move its top-left corner to a cell, or
+     * {@link #UNREACHABLE}, after {@link #update}.
+     */
+    int getDistance(int col, int row) {
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            return UNREACHABLE;
+        }
+        searchFor(cell(col, row));
+        return distances[cell(col, row)];
+    }
+
+    /**
+     * Whether the token can cover a cell within a number of squares of
+     * movement, i.e. reach a position whose footprint includes it.
+     */
+    boolean canReach(int col, int row, int squares) {
+        searchWithin(squares);
+        for (int y = Math.max(0, row - tokenHeight + 1); y <= row && y < rows; y++) {
+            for (int x = Math.max(0, col - tokenWidth + 1); x <= col && x < cols; x++) {
+                if (distances[cell(x, y)] <= squares) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    int getTokenWidth() {
+        return tokenWidth;
+    }
+
+    int getTokenHeight() {
+        return tokenHeight;
+    }
+
+    /**
+     * Find the shortest path from the token to a cell, after {@link #update}.
+     * Returns the number of cells on it, including the token's own, or 0 if
+     * the cell cannot be reached.
+     */
+    int pathTo(int col, int row) {
+        if (getDistance(col, row) == UNREACHABLE) {
+            pathTarget = -1;
+            pathLength = 0;
+            return 0;
+        }
+        int target = cell(col, row);
+        if (target == pathTarget && pathVersion == fieldVersion) {
+            return pathLength;
+        }
+        pathTarget = target;
+        pathVersion = fieldVersion;
+        pathLength = distances[target] + 1;
+        if (path.length < pathLength) {
+            path = new int[Math.max(pathLength, path.length * 2)];
+        }
+        int cell = target;
+        for (int i = pathLength - 1; i >= 0; i--) {
+            path[i] = cell;
+            cell = previous[cell];
+        }
+        return pathLength;
+    }
+
+    /**
+     * Column of a cell on the last path, from 0 at the token.
+     */
+    int getPathCol(int i) {
+        return path[i] % stride - 1;
+    }
+
+    int getPathRow(int i) {
+        return path[i] / stride - 1;
+    }
+}
@@ -0,0 +1,223 @@
+package com.ezbattlemap.dualscreen;
+
+import jdk.jfr.EventType;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rolling timing histograms and cache counters for the application's hot paths.
+ *
+ * Instrumented code calls {@link #begin()} and {@link #end(Probe, long)} around
+ * the measured work; each completed call is added to the probe's histogram and,
+ * while a Flight Recorder recording is running, emitted as a {@link HotPathEvent}.
+ * Recording a sample does not allocate.
+ */
+public final class PerfMetrics {
+    private static final int WINDOW_SIZE = 512;
+    private static final EventType HOT_PATH_EVENT = EventType.getEventType(HotPathEvent.class);
+
+    /**
+     * Instrumented operations.
+     */
+    public enum Probe {
+        CONTROLLER_PAINT("Controller paint"),
+        DISPLAY_PAINT("Display paint"),
+        DISPLAY_UPDATE("Display update"),
+        IMAGE_LOAD("Image load"),
+        REGION_DECODE("Region decode"),
+        THUMBNAIL_GENERATE("Thumbnail"),
+        METADATA_SAVE("Metadata save");
+
+        private final String label;
+        private final RollingHistogram histogram = new RollingHistogram(WINDOW_SIZE);
+
+        Probe(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public RollingHistogram getHistogram() {
+            return histogram;
+        }
+    }
+
+    /**
+     * Caches whose hit rate is tracked.
+     */
+    public enum CacheStat {
+        THUMBNAILS("Thumbnails"),
+        TOKEN_IMAGES("Token images"),
+        DECODED_MAPS("Map decode cache"),
+        PREFETCHED_MAPS("Prefetched maps");
+
+        private final String label;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        CacheStat(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public void hit() {
+            hits.incrementAndGet();
+        }
+
+        public void miss() {
+            misses.incrementAndGet();
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        /**
+         * Fraction of lookups served from the cache, or -1 before the first lookup.
+         */
+        public double getHitRate() {
+            long h = hits.get();
+            long total = h + misses.get();
+            return total == 0 ? -1 : (double) h / total;
+        }
+    }
+
+    /**
+     * Plain event counts.
+     */
+    public enum Counter {
+        DISPLAY_UPDATES_REQUESTED("Display updates requested"),
+        DISPLAY_UPDATES_FLUSHED("Display updates flushed"),
+        STREAM_BYTES_SENT("Network player screen bytes sent");
+
+        private final String label;
+        private final AtomicLong count = new AtomicLong();
+
+        Counter(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public void increment() {
+            count.incrementAndGet();
+        }
+
+        public void add(long amount) {
+            count.addAndGet(amount);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+    }
+
+    private PerfMetrics() {
+    }
+
+    /**
+     * Start timing an operation; pass the result to {@link #end(Probe, long)}.
+     */
+    public static long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Finish timing an operation started with {@link #begin()}.
+     */
+    public static void end(Probe probe, long startNanos) {
+        long now = System.nanoTime();
+        long elapsed = now - startNanos;
+        probe.histogram.record(now, elapsed);
+
+        if (HOT_PATH_EVENT.isEnabled()) {
+            HotPathEvent event = new HotPathEvent();
+            event.operation = probe.label;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Heap currently in use, in bytes.
+     */
+    public static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Fixed-size window of the most recent samples of one operation.
+     */
+    public static final class RollingHistogram {
+        private static final long ONE_SECOND_NANOS = 1_000_000_000L;
+
+        private final long[] durations;
+        private final long[] timestamps;
+        private long count;
+
+        RollingHistogram(int windowSize) {
+            this.durations = new long[windowSize];
+            this.timestamps = new long[windowSize];
+        }
+
+        synchronized void record(long timestamp, long duration) {
+            int slot = (int) (count % durations.length);
+            durations[slot] = duration;
+            timestamps[slot] = timestamp;
+            count++;
+        }
+
+        /**
+         * Total number of samples recorded since startup.
+         */
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /**
+         * Duration at the given percentile (0-1) of the current window, in milliseconds.
+         */
+        public double getPercentileMillis(double percentile) {
+            long[] window;
+            synchronized (this) {
+                int size = (int) Math.min(count, durations.length);
+                if (size == 0) {
+                    return 0;
+                }
+                window = Arrays.copyOf(durations, size);
+            }
+            Arrays.sort(window);
+            int index = (int) Math.ceil(percentile * window.length) - 1;
+            index = Math.max(0, Math.min(index, window.length - 1));
+            return window[index] / 1_000_000.0;
+        }
+
+        /**
+         * Number of samples completed during the last second.
+         */
+        public synchronized int getRatePerSecond() {
+            int size = (int) Math.min(count, timestamps.length);
+            long cutoff = System.nanoTime() - ONE_SECOND_NANOS;
+            int rate = 0;
+            for (int i = 0; i < size; i++) {
+                if (timestamps[i] - cutoff > 0) {
+                    rate++;
+                }
+            }
+            return rate;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.*;
+
+/**
+ * On-screen performance readout drawn over the controller map view.
+ */
+class PerfOverlay {
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final Color BACKGROUND = new Color(0, 0, 0, 170);
+    private static final Color TEXT = new Color(220, 255, 220);
+    private static final int PADDING = 8;
+    private static final int MARGIN = 10;
+
+    private static final long MB = 1024 * 1024;
+
+    private final ImageMemoryManager memoryManager;
+    private final PerfMetrics.Probe[] timedProbes = PerfMetrics.Probe.values();
+    private final PerfMetrics.CacheStat[] cacheStats = PerfMetrics.CacheStat.values();
+
+    PerfOverlay(ImageMemoryManager memoryManager) {
+        this.memoryManager = memoryManager;
+    }
+
+    /**
+     * Draw the overlay in the top-left corner of the component.
+     */
+    void paint(Graphics2D g2d) {
+        String[] lines = buildLines();
+
+        g2d.setFont(FONT);
+        FontMetrics fm = g2d.getFontMetrics();
+        int lineHeight = fm.getHeight();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, fm.stringWidth(line));
+        }
+        int height = lines.length * lineHeight;
+
+        g2d.setColor(BACKGROUND);
+        g2d.fillRect(MARGIN, MARGIN, width + PADDING * 2, height + PADDING * 2);
+        g2d.setColor(TEXT);
+        int y = MARGIN + PADDING + fm.getAscent();
+        for (String line : lines) {
+            g2d.drawString(line, MARGIN + PADDING, y);
+            y += lineHeight;
+        }
+    }
+
+    private String[] buildLines() {
+        String[] lines = new String[7 + timedProbes.length + cacheStats.length];
+        int i = 0;
+        lines[i++] = String.format("FPS  controller %3d   display %3d",
+                PerfMetrics.Probe.CONTROLLER_PAINT.getHistogram().getRatePerSecond(),
+                PerfMetrics.Probe.DISPLAY_PAINT.getHistogram().getRatePerSecond());
+        lines[i++] = String.format("%-17s %8s %8s %8s", "ms", "p50", "p95", "p99");
+        for (PerfMetrics.Probe probe : timedProbes) {
+            PerfMetrics.RollingHistogram histogram = probe.getHistogram();
+            if (histogram.getCount() == 0) {
+                lines[i++] = String.format("%-17s %8s %8s %8s", probe.getLabel(), "-", "-", "-");
+            } else {
+                lines[i++] = String.format("%-17s %8.2f %8.2f %8.2f", probe.getLabel(),
+                        histogram.getPercentileMillis(0.50),
+                        histogram.getPercentileMillis(0.95),
+                        histogram.getPercentileMillis(0.99));
+            }
+        }
+        for (PerfMetrics.CacheStat stat : cacheStats) {
+            double hitRate = stat.getHitRate();
+            lines[i++] = String.format("%-17s %s hit (%d/%d)", stat.getLabel(),
+                    hitRate < 0 ? "   -" : String.format("%3.0f%%", hitRate * 100),
+                    stat.getHits(), stat.getHits() + stat.getMisses());
+        }
+        long requested = PerfMetrics.Counter.DISPLAY_UPDATES_REQUESTED.getCount();
+        long flushed = PerfMetrics.Counter.DISPLAY_UPDATES_FLUSHED.getCount();
+        lines[i++] = String.format("Display updates   %d flushed / %d requested (%s coalesced)", flushed, requested,
+                requested == 0 ? "-" : String.format("%.0f%%", 100.0 * (requested - flushed) / requested));
+        lines[i++] = String.format("Network stream    %d KB sent",
+                PerfMetrics.Counter.STREAM_BYTES_SENT.getCount() / 1024);
+        lines[i++] = String.format("Images            %d MB / %d MB budget, %d evictions",
+                memoryManager.getUsedBytes() / MB, memoryManager.getBudgetBytes() / MB,
+                memoryManager.getEvictionCount());
+        lines[i++] = String.format("  map %d  prefetch %d  pyramid %d  scaled %d  thumbs %d  tokens %d (MB)",
+                memoryManager.getPinnedBytes() / MB,
+                memoryManager.getUsedBytes(ImageMemoryManager.Priority.PREFETCHED_MAP) / MB,
+                memoryManager.getUsedBytes(ImageMemoryManager.Priority.PYRAMID_LEVEL) / MB,
+                memoryManager.getUsedBytes(ImageMemoryManager.Priority.SCALED_SPRITE) / MB,
+                memoryManager.getUsedBytes(ImageMemoryManager.Priority.THUMBNAIL) / MB,
+                memoryManager.getUsedBytes(ImageMemoryManager.Priority.TOKEN_SPRITE) / MB);
+        lines[i] = String.format("Heap in use       %d MB / %d MB",
+                PerfMetrics.getUsedHeap() / MB, Runtime.getRuntime().maxMemory() / MB);
+        return lines;
+    }
+}
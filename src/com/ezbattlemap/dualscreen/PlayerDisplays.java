@@ -0,0 +1,184 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.JFrame;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The player screens, e.g. a projector and a wall TV, each a
+ * {@link DisplayFrame} with its own screen, zoom and pan.
+ *
+ * The controller makes each scene update once here and it is broadcast to
+ * every display. The displays share the decoded map, the library's token
+ * sprites and one {@link ViewportDecoder}, so a region decoded for one
+ * display serves the others instead of being decoded again per window. The
+ * first display is the primary one: its view is saved with scenes, and
+ * closing it quits the application as before. Updates also go to the
+ * {@link PlayerStreamServer} and the {@link PlayerWebServer}, which pass them
+ * on to network viewers and browsers while they run. All methods run on the
+ * event dispatch thread.
+ */
+class PlayerDisplays {
+    private final DualScreenImageApp app;
+    private final ImageLibrary library;
+    private final ViewportDecoder viewportDecoder;
+    private final List<DisplayFrame> displays = new ArrayList<>();
+    private final PlayerStreamServer streamServer;
+    private final PlayerWebServer webServer;
+    private BufferedImage image;
+    private GridOverlay gridOverlay;
+    private TokenOverlay tokenOverlay;
+    private AreaTemplate areaTemplate;
+
+    /**
+     * Create the group with its primary display, not yet shown.
+     */
+    PlayerDisplays(DualScreenImageApp app, ImageLibrary library) {
+        this.app = app;
+        this.library = library;
+        this.viewportDecoder = new ViewportDecoder(library.getMemoryManager(), this::regionDecoded);
+        this.streamServer = new PlayerStreamServer(library);
+        this.webServer = new PlayerWebServer(library);
+        add(JFrame.EXIT_ON_CLOSE);
+    }
+
+    DisplayFrame getPrimary() {
+        return displays.get(0);
+    }
+
+    List<DisplayFrame> getDisplays() {
+        return Collections.unmodifiableList(displays);
+    }
+
+    PlayerStreamServer getStreamServer() {
+        return streamServer;
+    }
+
+    PlayerWebServer getWebServer() {
+        return webServer;
+    }
+
+    /**
+     * Open another display on a screen, showing the current scene. Closing
+     * its window removes it again.
+     */
+    DisplayFrame open(GraphicsDevice screen) {
+        DisplayFrame display = add(JFrame.DISPOSE_ON_CLOSE);
+        display.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                // Leaving full screen disposes the frame too, but keeps it displayable
+                if (!display.isDisplayable()) {
+                    displays.remove(display);
+                }
+            }
+        });
+        Rectangle bounds = screen.getDefaultConfiguration().getBounds();
+        display.setLocation(bounds.x, bounds.y);
+        display.setVisible(true);
+        return display;
+    }
+
+    private DisplayFrame add(int closeOperation) {
+        DisplayFrame display = new DisplayFrame(app);
+        display.setDefaultCloseOperation(closeOperation);
+        display.setImageLibrary(library, viewportDecoder);
+        // Catch up on the current scene
+        display.setImage(image);
+        if (gridOverlay != null) {
+            display.updateGridOverlay(gridOverlay);
+            display.updateViewport(gridOverlay.getSelectedBounds());
+        }
+        if (tokenOverlay != null) {
+            display.updateTokenOverlay(tokenOverlay);
+        }
+        if (areaTemplate != null) {
+            display.updateAreaTemplate(areaTemplate);
+        }
+        displays.add(display);
+        return display;
+    }
+
+    /**
+     * Show a map on every display, along with the file it was decoded from so
+     * large maps can be decoded by region.
+     */
+    void setImage(BufferedImage image, File sourceFile) {
+        this.image = image;
+        viewportDecoder.setSource(image != null ? sourceFile : null,
+                image != null ? image.getWidth() : 0, image != null ? image.getHeight() : 0);
+        for (DisplayFrame display : displays) {
+            display.setImage(image);
+        }
+        streamServer.setImage(image);
+        webServer.setImage(image);
+    }
+
+    void updateGridOverlay(GridOverlay gridOverlay) {
+        this.gridOverlay = gridOverlay;
+        for (DisplayFrame display : displays) {
+            display.updateGridOverlay(gridOverlay);
+        }
+        streamServer.updateGridOverlay(gridOverlay);
+        webServer.updateGridOverlay(gridOverlay);
+    }
+
+    void updateTokenOverlay(TokenOverlay tokenOverlay) {
+        this.tokenOverlay = tokenOverlay;
+        for (DisplayFrame display : displays) {
+            display.updateTokenOverlay(tokenOverlay);
+        }
+        streamServer.updateTokenOverlay(tokenOverlay);
+        webServer.updateTokenOverlay(tokenOverlay);
+    }
+
+    void updateViewport(Rectangle viewport) {
+        for (DisplayFrame display : displays) {
+            display.updateViewport(viewport);
+        }
+        streamServer.updateRevealedCells();
+        webServer.updateRevealedCells();
+    }
+
+    void updateRevealedCells() {
+        for (DisplayFrame display : displays) {
+            display.updateRevealedCells();
+        }
+        streamServer.updateRevealedCells();
+        webServer.updateRevealedCells();
+    }
+
+    /**
+     * Show an area template on the displays, or null to hide it. Network
+     * viewers and browsers are sent the map, fog and tokens only.
+     */
+    void updateAreaTemplate(AreaTemplate areaTemplate) {
+        this.areaTemplate = areaTemplate;
+        for (DisplayFrame display : displays) {
+            display.updateAreaTemplate(areaTemplate);
+        }
+    }
+
+    /**
+     * Number of zoom, pan and viewport changes on any display so far.
+     */
+    int getViewModCount() {
+        int count = 0;
+        for (DisplayFrame display : displays) {
+            count += display.getViewModCount();
+        }
+        return count;
+    }
+
+    private void regionDecoded() {
+        for (DisplayFrame display : displays) {
+            display.regionDecoded();
+        }
+    }
+}
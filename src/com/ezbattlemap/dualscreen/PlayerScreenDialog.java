@@ -0,0 +1,128 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Asks which screen a player screen should fill and, where the screen
+ * allows it, which display mode to switch it to.
+ */
+class PlayerScreenDialog {
+    private static final Comparator<DisplayMode> LARGEST_FIRST = Comparator
+            .comparingInt(DisplayMode::getWidth)
+            .thenComparingInt(DisplayMode::getHeight)
+            .thenComparingInt(DisplayMode::getRefreshRate)
+            .thenComparingInt(DisplayMode::getBitDepth)
+            .reversed();
+
+    private final JComboBox<Item<GraphicsDevice>> screenCombo = new JComboBox<>();
+    private final JComboBox<Item<DisplayMode>> modeCombo = new JComboBox<>();
+
+    private GraphicsDevice device;
+    private DisplayMode mode;
+
+    private PlayerScreenDialog(GraphicsDevice current) {
+        GraphicsDevice[] screens = GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices();
+        for (int i = 0; i < screens.length; i++) {
+            Rectangle bounds = screens[i].getDefaultConfiguration().getBounds();
+            screenCombo.addItem(new Item<>(screens[i],
+                    "Screen " + (i + 1) + " (" + bounds.width + " x " + bounds.height + ")"));
+            if (screens[i] == current) {
+                screenCombo.setSelectedIndex(i);
+            }
+        }
+        screenCombo.addActionListener(e -> fillModes());
+        fillModes();
+    }
+
+    /**
+     * Show the dialog. Returns null if it was cancelled.
+     */
+    static PlayerScreenDialog show(Component parent, String title, GraphicsDevice current) {
+        PlayerScreenDialog dialog = new PlayerScreenDialog(current);
+        JPanel panel = new JPanel(new GridLayout(0, 1, 5, 5));
+        panel.add(new JLabel("Screen:"));
+        panel.add(dialog.screenCombo);
+        panel.add(new JLabel("Display mode:"));
+        panel.add(dialog.modeCombo);
+
+        int result = JOptionPane.showConfirmDialog(parent, panel, title,
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) {
+            return null;
+        }
+        dialog.device = dialog.selected(dialog.screenCombo);
+        dialog.mode = dialog.selected(dialog.modeCombo);
+        return dialog;
+    }
+
+    GraphicsDevice getDevice() {
+        return device;
+    }
+
+    /**
+     * The chosen display mode, or null to keep the current one.
+     */
+    DisplayMode getMode() {
+        return mode;
+    }
+
+    private void fillModes() {
+        modeCombo.removeAllItems();
+        GraphicsDevice screen = selected(screenCombo);
+        DisplayMode current = screen.getDisplayMode();
+        modeCombo.addItem(new Item<>(null, "Keep current (" + describe(current) + ")"));
+        if (!screen.isDisplayChangeSupported()) {
+            modeCombo.setEnabled(false);
+            return;
+        }
+        Set<DisplayMode> modes = new LinkedHashSet<>(List.of(screen.getDisplayModes()));
+        List<DisplayMode> sorted = new ArrayList<>(modes);
+        sorted.sort(LARGEST_FIRST);
+        for (DisplayMode displayMode : sorted) {
+            modeCombo.addItem(new Item<>(displayMode, describe(displayMode)));
+        }
+        modeCombo.setEnabled(true);
+    }
+
+    private <T> T selected(JComboBox<Item<T>> combo) {
+        @SuppressWarnings("unchecked")
+        Item<T> item = (Item<T>) combo.getSelectedItem();
+        return item != null ? item.value : null;
+    }
+
+    static String describe(DisplayMode mode) {
+        StringBuilder text = new StringBuilder();
+        text.append(mode.getWidth()).append(" x ").append(mode.getHeight());
+        if (mode.getRefreshRate() != DisplayMode.REFRESH_RATE_UNKNOWN) {
+            text.append(", ").append(mode.getRefreshRate()).append(" Hz");
+        }
+        if (mode.getBitDepth() != DisplayMode.BIT_DEPTH_MULTI) {
+            text.append(", ").append(mode.getBitDepth()).append("-bit");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Combo box entry with its own label.
+     */
+    private static class Item<T> {
+        private final T value;
+        private final String label;
+
+        Item(T value, String label) {
+            this.value = value;
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.SwingUtilities;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Receives a {@link PlayerStreamServer}'s stream and shows it on a
+ * {@link DisplayPanel}.
+ *
+ * The stream is mirrored into a grid and token overlay of its own and a
+ * canvas holding the map tiles received so far, which only grows to cover
+ * the areas that have been in view. Messages are read and decoded on a
+ * background thread and applied on the event dispatch thread in batches, with
+ * one repaint per batch. A lost connection is retried until {@link #close()}.
+ */
+class PlayerStreamClient {
+    private static final int RETRY_MILLIS = 2000;
+    private static final int MAX_BATCH = 256;
+
+    private final String host;
+    private final int port;
+    private final DisplayPanel panel;
+    private final Consumer<String> statusListener;
+    private final Thread reader;
+    private volatile boolean closed;
+    private volatile Socket socket;
+
+    // The mirrored scene, used on the event dispatch thread
+    private final GridOverlay gridOverlay = new GridOverlay();
+    private final TokenOverlay tokenOverlay = new TokenOverlay();
+    private final Map<String, BufferedImage> sprites = new HashMap<>();
+    private int mapWidth;
+    private int mapHeight;
+    private BufferedImage canvas;
+    private final Rectangle canvasBounds = new Rectangle();
+    // Tiles received since the map was last reset, by row-major index
+    private final BitSet receivedTiles = new BitSet();
+    private Rectangle viewport;
+    private boolean viewportChanged;
+    private boolean pixelsChanged;
+
+    /**
+     * @param statusListener told about connection changes on the event dispatch thread
+     */
+    PlayerStreamClient(String host, int port, DisplayPanel panel, Consumer<String> statusListener) {
+        this.host = host;
+        this.port = port;
+        this.panel = panel;
+        this.statusListener = statusListener;
+        this.reader = new Thread(this::read, "player-stream-reader");
+        this.reader.setDaemon(true);
+        panel.setGridOverlay(gridOverlay);
+        panel.setTokenOverlay(tokenOverlay);
+        panel.setTokenSprites(sprites::get);
+    }
+
+    void start() {
+        reader.start();
+    }
+
+    void close() {
+        closed = true;
+        reader.interrupt();
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                System.err.println("Error closing player stream: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The mirrored grid; read it on the event dispatch thread.
+     */
+    GridOverlay getGridOverlay() {
+        return gridOverlay;
+    }
+
+    /**
+     * The mirrored tokens; read them on the event dispatch thread.
+     */
+    TokenOverlay getTokenOverlay() {
+        return tokenOverlay;
+    }
+
+    /**
+     * Distinct map tiles received since the map was last reset; read it on
+     * the event dispatch thread.
+     */
+    int getTileCount() {
+        return receivedTiles.cardinality();
+    }
+
+    /**
+     * Fit the viewport to the panel again, e.g. once it has its size.
+     */
+    void refit() {
+        viewportChanged = true;
+        refresh();
+    }
+
+    private void read() {
+        String address = host + ":" + port;
+        while (!closed) {
+            showStatus("Connecting to " + address + "...");
+            try (Socket connection = new Socket(host, port)) {
+                socket = connection;
+                connection.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                PlayerStreamCodec.readHeader(in);
+                showStatus("Connected to " + address);
+
+                List<Runnable> batch = new ArrayList<>();
+                while (true) {
+                    batch.add(readMessage(in));
+                    // Apply once everything that has arrived is decoded
+                    if (in.available() == 0 || batch.size() >= MAX_BATCH) {
+                        List<Runnable> ready = batch;
+                        batch = new ArrayList<>();
+                        SwingUtilities.invokeLater(() -> apply(ready));
+                    }
+                }
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                String reason = e.getMessage() != null ? e.getMessage() : "connection closed";
+                showStatus("Lost " + address + " (" + reason + "), retrying...");
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void showStatus(String status) {
+        if (statusListener != null) {
+            SwingUtilities.invokeLater(() -> statusListener.accept(status));
+        }
+    }
+
+    /**
+     * Decode one message into the change it makes to the mirrored scene.
+     */
+    private Runnable readMessage(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        if (type == PlayerStreamCodec.MAP) {
+            int width = SceneCodec.readVarInt(in);
+            int height = SceneCodec.readVarInt(in);
+            return () -> resetMap(width, height);
+        } else if (type == PlayerStreamCodec.TILE) {
+            int tileX = SceneCodec.readVarInt(in);
+            int tileY = SceneCodec.readVarInt(in);
+            BufferedImage tile = PlayerStreamCodec.readPixels(in, false);
+            return () -> drawTile(tileX, tileY, tile);
+        } else if (type == PlayerStreamCodec.GRID) {
+            int squareSize = SceneCodec.readVarInt(in);
+            int cols = SceneCodec.readVarInt(in);
+            int rows = SceneCodec.readVarInt(in);
+            boolean[][] cells = SceneCodec.readCells(in, cols, rows);
+            return () -> setGrid(squareSize, cols, rows, cells);
+        } else if (type == PlayerStreamCodec.FOG) {
+            int row = SceneCodec.readVarInt(in);
+            int col = SceneCodec.readVarInt(in);
+            int length = SceneCodec.readVarInt(in);
+            boolean revealed = in.readBoolean();
+            return () -> {
+                for (int x = col; x < col + length; x++) {
+                    gridOverlay.selectCell(x, row, revealed);
+                }
+            };
+        } else if (type == PlayerStreamCodec.SPRITE) {
+            String imageId = in.readUTF();
+            BufferedImage sprite = PlayerStreamCodec.readPixels(in, true);
+            return () -> sprites.put(imageId, sprite);
+        } else if (type == PlayerStreamCodec.TOKEN) {
+            String tokenId = TokenOverlay.idOf(SceneCodec.readVarInt(in));
+            String imageId = in.readUTF();
+            int gridX = SceneCodec.readSignedVarInt(in);
+            int gridY = SceneCodec.readSignedVarInt(in);
+            int gridWidth = SceneCodec.readVarInt(in);
+            int gridHeight = SceneCodec.readVarInt(in);
+            return () -> {
+                if (tokenOverlay.addToken(tokenId, imageId, gridX, gridY, gridWidth, gridHeight) == null) {
+                    moveToken(tokenId, gridX, gridY, gridWidth, gridHeight);
+                }
+            };
+        } else if (type == PlayerStreamCodec.TOKEN_MOVE) {
+            String tokenId = TokenOverlay.idOf(SceneCodec.readVarInt(in));
+            int gridX = SceneCodec.readSignedVarInt(in);
+            int gridY = SceneCodec.readSignedVarInt(in);
+            int gridWidth = SceneCodec.readVarInt(in);
+            int gridHeight = SceneCodec.readVarInt(in);
+            return () -> moveToken(tokenId, gridX, gridY, gridWidth, gridHeight);
+        } else if (type == PlayerStreamCodec.TOKEN_REMOVE) {
+            String tokenId = TokenOverlay.idOf(SceneCodec.readVarInt(in));
+            return () -> tokenOverlay.removeToken(tokenId);
+        } else if (type == PlayerStreamCodec.VIEWPORT) {
+            Rectangle bounds = PlayerStreamCodec.readViewport(in);
+            return () -> setViewport(bounds);
+        }
+        throw new IOException("Corrupt stream: unknown message " + type);
+    }
+
+    private void apply(List<Runnable> batch) {
+        if (closed) {
+            return;
+        }
+        for (Runnable change : batch) {
+            change.run();
+        }
+        refresh();
+    }
+
+    private void resetMap(int width, int height) {
+        mapWidth = width;
+        mapHeight = height;
+        canvas = null;
+        canvasBounds.setBounds(0, 0, 0, 0);
+        receivedTiles.clear();
+        gridOverlay.setImageDimensions(width, height);
+        tokenOverlay.clearAll();
+        viewport = null;
+        viewportChanged = true;
+        panel.setFullImage(null);
+    }
+
+    private void drawTile(int tileX, int tileY, BufferedImage tile) {
+        if (tile == null) {
+            return;
+        }
+        int x = tileX * PlayerStreamCodec.TILE_SIZE;
+        int y = tileY * PlayerStreamCodec.TILE_SIZE;
+        int columns = (mapWidth + PlayerStreamCodec.TILE_SIZE - 1) / PlayerStreamCodec.TILE_SIZE;
+        receivedTiles.set(tileY * columns + tileX);
+        ensureCanvas(new Rectangle(x, y, tile.getWidth(), tile.getHeight()));
+        if (canvasBounds.contains(x, y, tile.getWidth(), tile.getHeight())) {
+            canvas.getRaster().setRect(x - canvasBounds.x, y - canvasBounds.y, tile.getRaster());
+            pixelsChanged = true;
+        }
+    }
+
+    /**
+     * Grow the canvas to cover an area of the map, rounded out to whole tiles.
+     */
+    private void ensureCanvas(Rectangle area) {
+        Rectangle clip = area.intersection(new Rectangle(0, 0, mapWidth, mapHeight));
+        if (clip.isEmpty() || (canvas != null && canvasBounds.contains(clip))) {
+            return;
+        }
+        int size = PlayerStreamCodec.TILE_SIZE;
+        int left = clip.x / size * size;
+        int top = clip.y / size * size;
+        int right = Math.min(mapWidth, (clip.x + clip.width + size - 1) / size * size);
+        int bottom = Math.min(mapHeight, (clip.y + clip.height + size - 1) / size * size);
+        Rectangle bounds = new Rectangle(left, top, right - left, bottom - top);
+        if (canvas != null) {
+            bounds = bounds.union(canvasBounds);
+        }
+
+        BufferedImage grown = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_RGB);
+        if (canvas != null) {
+            grown.getRaster().setRect(canvasBounds.x - bounds.x, canvasBounds.y - bounds.y, canvas.getRaster());
+        }
+        canvas = grown;
+        canvasBounds.setBounds(bounds);
+        panel.setFullImage(canvas);
+        pixelsChanged = true;
+    }
+
+    private void setGrid(int squareSize, int cols, int rows, boolean[][] cells) {
+        gridOverlay.setSquareSize(squareSize);
+        if (gridOverlay.getGridCols() != cols || gridOverlay.getGridRows() != rows) {
+            System.err.println("Error in player stream: grid does not match the map");
+            return;
+        }
+        gridOverlay.setSelectedCells(cells);
+    }
+
+    private void moveToken(String tokenId, int gridX, int gridY, int gridWidth, int gridHeight) {
+        tokenOverlay.moveToken(tokenId, gridX, gridY);
+        tokenOverlay.resizeToken(tokenId, gridWidth, gridHeight);
+    }
+
+    private void setViewport(Rectangle bounds) {
+        viewport = bounds;
+        viewportChanged = true;
+        if (bounds != null) {
+            ensureCanvas(bounds);
+        }
+    }
+
+    /**
+     * Show the changes of a batch: lay the view out again if the viewport
+     * moved, swap in the canvas if tiles arrived, otherwise just repaint.
+     */
+    private void refresh() {
+        BufferedImage image = null;
+        Rectangle region = null;
+        if (viewport != null && canvas != null) {
+            region = viewport.intersection(new Rectangle(0, 0, mapWidth, mapHeight));
+            if (!region.isEmpty() && canvasBounds.contains(region)) {
+                // A new subimage each time, so the panel sees that its pixels changed
+                image = canvas.getSubimage(region.x - canvasBounds.x, region.y - canvasBounds.y,
+                        region.width, region.height);
+            }
+        }
+
+        if (viewportChanged) {
+            if (image != null) {
+                panel.setViewportImage(image, region, viewport);
+            } else {
+                panel.setViewportImage(null, null, null);
+            }
+        } else if (pixelsChanged && image != null) {
+            panel.replaceViewportImage(image);
+        } else {
+            panel.repaint();
+        }
+        viewportChanged = false;
+        pixelsChanged = false;
+    }
+}
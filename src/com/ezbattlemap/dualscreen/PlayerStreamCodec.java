@@ -0,0 +1,203 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+
+/**
+ * Wire format of the network player screen.
+ *
+ * A connection starts with a header, followed by messages that are each a
+ * type byte and its fields. The first messages describe the whole scene; after
+ * that only changes are sent: runs of fog cells, single token moves and
+ * viewport changes, so the stream grows with the size of a change rather than
+ * with the map. Map pixels travel as fixed-size tiles compressed with
+ * {@link QoiCodec}, each sent once per viewer when it first comes into view,
+ * and token sprites are likewise sent once per image.
+ */
+final class PlayerStreamCodec {
+    static final int MAGIC = 0x455a5053; // "EZPS"
+    static final int VERSION = 1;
+    static final int DEFAULT_PORT = 7777;
+    static final int TILE_SIZE = 256;
+
+    /** New map: width, height. Viewers drop everything they have. */
+    static final int MAP = 1;
+    /** Map pixels: tile column, tile row, width, height, pixel data. */
+    static final int TILE = 2;
+    /** Whole fog: square size, columns, rows, cells. */
+    static final int GRID = 3;
+    /** Run of fog cells: row, first column, length, revealed. */
+    static final int FOG = 4;
+    /** Token image: id, width, height, pixel data. */
+    static final int SPRITE = 5;
+    /** Added token: number, image id, x, y, width, height. */
+    static final int TOKEN = 6;
+    /** Moved or resized token: number, x, y, width, height. */
+    static final int TOKEN_MOVE = 7;
+    /** Removed token: number. */
+    static final int TOKEN_REMOVE = 8;
+    /** Viewport: present, then x, y, width, height. */
+    static final int VIEWPORT = 9;
+
+    private static final int MAX_IMAGE_PIXELS = 1 << 26;
+
+    private PlayerStreamCodec() {
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    static void readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a player screen stream");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported stream version " + version);
+        }
+    }
+
+    static void writeMap(DataOutputStream out, int width, int height) throws IOException {
+        out.writeByte(MAP);
+        SceneCodec.writeVarInt(out, width);
+        SceneCodec.writeVarInt(out, height);
+    }
+
+    /**
+     * Encode one map tile as a complete TILE message.
+     */
+    static byte[] encodeTile(BufferedImage map, int tileX, int tileY) throws IOException {
+        int x = tileX * TILE_SIZE;
+        int y = tileY * TILE_SIZE;
+        int width = Math.min(TILE_SIZE, map.getWidth() - x);
+        int height = Math.min(TILE_SIZE, map.getHeight() - y);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TILE);
+        SceneCodec.writeVarInt(out, tileX);
+        SceneCodec.writeVarInt(out, tileY);
+        writePixels(out, map.getSubimage(x, y, width, height));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode a token image as a complete SPRITE message. A missing image is
+     * sent as 0 x 0 so the viewer stops waiting for it.
+     */
+    static byte[] encodeSprite(String imageId, BufferedImage sprite) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(SPRITE);
+        out.writeUTF(imageId);
+        if (sprite != null) {
+            writePixels(out, sprite);
+        } else {
+            SceneCodec.writeVarInt(out, 0);
+            SceneCodec.writeVarInt(out, 0);
+        }
+        return bytes.toByteArray();
+    }
+
+    static void writeGrid(DataOutputStream out, int squareSize, boolean[][] cells, int cols, int rows)
+            throws IOException {
+        out.writeByte(GRID);
+        SceneCodec.writeVarInt(out, squareSize);
+        SceneCodec.writeVarInt(out, cols);
+        SceneCodec.writeVarInt(out, rows);
+        SceneCodec.writeCells(out, cells, cols, rows);
+    }
+
+    static void writeFog(DataOutputStream out, int row, int col, int length, boolean revealed)
+            throws IOException {
+        out.writeByte(FOG);
+        SceneCodec.writeVarInt(out, row);
+        SceneCodec.writeVarInt(out, col);
+        SceneCodec.writeVarInt(out, length);
+        out.writeBoolean(revealed);
+    }
+
+    static void writeToken(DataOutputStream out, int number, String imageId,
+                           int gridX, int gridY, int gridWidth, int gridHeight) throws IOException {
+        out.writeByte(TOKEN);
+        SceneCodec.writeVarInt(out, number);
+        out.writeUTF(imageId);
+        writeTokenBounds(out, gridX, gridY, gridWidth, gridHeight);
+    }
+
+    static void writeTokenMove(DataOutputStream out, int number,
+                               int gridX, int gridY, int gridWidth, int gridHeight) throws IOException {
+        out.writeByte(TOKEN_MOVE);
+        SceneCodec.writeVarInt(out, number);
+        writeTokenBounds(out, gridX, gridY, gridWidth, gridHeight);
+    }
+
+    static void writeTokenRemove(DataOutputStream out, int number) throws IOException {
+        out.writeByte(TOKEN_REMOVE);
+        SceneCodec.writeVarInt(out, number);
+    }
+
+    private static void writeTokenBounds(DataOutputStream out, int gridX, int gridY,
+                                         int gridWidth, int gridHeight) throws IOException {
+        SceneCodec.writeSignedVarInt(out, gridX);
+        SceneCodec.writeSignedVarInt(out, gridY);
+        SceneCodec.writeVarInt(out, gridWidth);
+        SceneCodec.writeVarInt(out, gridHeight);
+    }
+
+    static void writeViewport(DataOutputStream out, Rectangle viewport) throws IOException {
+        out.writeByte(VIEWPORT);
+        out.writeBoolean(viewport != null);
+        if (viewport != null) {
+            SceneCodec.writeSignedVarInt(out, viewport.x);
+            SceneCodec.writeSignedVarInt(out, viewport.y);
+            SceneCodec.writeVarInt(out, viewport.width);
+            SceneCodec.writeVarInt(out, viewport.height);
+        }
+    }
+
+    static Rectangle readViewport(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return new Rectangle(SceneCodec.readSignedVarInt(in), SceneCodec.readSignedVarInt(in),
+                SceneCodec.readVarInt(in), SceneCodec.readVarInt(in));
+    }
+
+    private static void writePixels(DataOutputStream out, BufferedImage image) throws IOException {
+        SceneCodec.writeVarInt(out, image.getWidth());
+        SceneCodec.writeVarInt(out, image.getHeight());
+        ByteArrayOutputStream pixels = new ByteArrayOutputStream();
+        QoiCodec.encode(image, 0, image.getHeight(), pixels);
+        SceneCodec.writeVarInt(out, pixels.size());
+        pixels.writeTo(out);
+    }
+
+    /**
+     * Read pixels written for a TILE or SPRITE message, or null for an empty image.
+     */
+    static BufferedImage readPixels(DataInputStream in, boolean alpha) throws IOException {
+        int width = SceneCodec.readVarInt(in);
+        int height = SceneCodec.readVarInt(in);
+        if (width < 0 || height < 0 || (long) width * height > MAX_IMAGE_PIXELS) {
+            throw new IOException("Corrupt stream: image too large");
+        }
+        if (width == 0 || height == 0) {
+            return null;
+        }
+        int length = SceneCodec.readVarInt(in);
+        if (length < 0 || length > (long) width * height * 5 + 1) {
+            throw new IOException("Corrupt stream: bad pixel data length");
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        BufferedImage image = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        QoiCodec.decode(data, 0, pixels, 0, width * height);
+        return image;
+    }
+}
@@ -0,0 +1,441 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.SwingUtilities;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the player screen to {@link PlayerStreamViewer}s over the network.
+ *
+ * The server receives the same updates as the local player screens. Like
+ * them it coalesces updates, and on each flush compares the scene with what it
+ * last published ({@link PublishedScene}) and encodes only the differences with
+ * {@link PlayerStreamCodec}, once for all viewers. A viewer that connects gets
+ * the published scene in full, and map tiles as they come into view. Tiles and
+ * sprites are compressed on the viewers' writer threads, once per map and
+ * image, and shared between viewers.
+ *
+ * Each viewer has a writer thread and a queue of encoded messages. A viewer
+ * that falls too far behind on scene messages has its queue dropped and is
+ * sent the whole scene again; tiles and sprites do not count, so revealing a
+ * large map, thousands of tiles at once, does not start the viewer over. Every method other than the writer threads' runs on the event
+ * dispatch thread.
+ */
+class PlayerStreamServer {
+    static final String PORT_PROPERTY = "ezbattlemap.streamPort";
+    private static final int UPDATE_RATE = 60;
+    private static final int MAX_QUEUED_MESSAGES = 4096;
+    private static final int ALL_CHANGES =
+            DisplayUpdateChannel.FOG | DisplayUpdateChannel.TOKENS | DisplayUpdateChannel.VIEWPORT;
+
+    private final ImageLibrary library;
+    private final DisplayUpdateChannel updates;
+    private final List<Viewer> viewers = new ArrayList<>();
+    private final Map<String, byte[]> encodedSprites = new ConcurrentHashMap<>();
+    private ServerSocket serverSocket;
+
+    // The live scene
+    private BufferedImage image;
+    private GridOverlay gridOverlay;
+    private TokenOverlay tokenOverlay;
+
+    // The scene as last sent to viewers
+    private final PublishedScene published = new PublishedScene();
+    private MapTiles tiles;
+
+    PlayerStreamServer(ImageLibrary library) {
+        this.library = library;
+        this.updates = new DisplayUpdateChannel(this::publish, UPDATE_RATE);
+    }
+
+    /**
+     * Start accepting viewers on a port, or 0 for any free port.
+     */
+    void start(int port) throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        ServerSocket socket = new ServerSocket(port);
+        serverSocket = socket;
+        Thread acceptor = new Thread(() -> accept(socket), "player-stream-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stop accepting viewers and disconnect the current ones.
+     */
+    void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing player stream: " + e.getMessage());
+        }
+        serverSocket = null;
+        for (Viewer viewer : new ArrayList<>(viewers)) {
+            viewer.close();
+        }
+        viewers.clear();
+    }
+
+    boolean isRunning() {
+        return serverSocket != null;
+    }
+
+    /**
+     * The port viewers connect to, or -1 when stopped.
+     */
+    int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    int getViewerCount() {
+        return viewers.size();
+    }
+
+    void setImage(BufferedImage image) {
+        this.image = image;
+        mark(DisplayUpdateChannel.VIEWPORT);
+    }
+
+    void updateGridOverlay(GridOverlay gridOverlay) {
+        this.gridOverlay = gridOverlay;
+        mark(DisplayUpdateChannel.VIEWPORT);
+    }
+
+    void updateTokenOverlay(TokenOverlay tokenOverlay) {
+        this.tokenOverlay = tokenOverlay;
+        mark(DisplayUpdateChannel.TOKENS);
+    }
+
+    /**
+     * Cells were revealed or hidden. Viewers are sent the changed cells and
+     * the resulting viewport, which is recomputed from the grid.
+     */
+    void updateRevealedCells() {
+        mark(DisplayUpdateChannel.FOG);
+    }
+
+    private void mark(int changes) {
+        if (!viewers.isEmpty()) {
+            updates.mark(changes);
+        }
+    }
+
+    private void accept(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                connection.setTcpNoDelay(true);
+                SwingUtilities.invokeLater(() -> addViewer(socket, connection));
+            } catch (SocketException e) {
+                // Closed by stop()
+            } catch (IOException e) {
+                System.err.println("Error accepting player stream viewer: " + e.getMessage());
+            }
+        }
+    }
+
+    private void addViewer(ServerSocket acceptedBy, Socket connection) {
+        Viewer viewer;
+        try {
+            viewer = new Viewer(connection);
+        } catch (IOException e) {
+            System.err.println("Error connecting player stream viewer: " + e.getMessage());
+            return;
+        }
+        if (serverSocket != acceptedBy) {
+            viewer.close();
+            return;
+        }
+        // Updates are not published while nobody watches, so catch up first
+        updates.flush();
+        publish(ALL_CHANGES);
+        viewers.add(viewer);
+        sendSnapshot(viewer);
+        viewer.start();
+    }
+
+    /**
+     * Compare the live scene with the published one and send the differences.
+     */
+    private void publish(int changes) {
+        EncodedChanges message = new EncodedChanges();
+        boolean newMap;
+        try {
+            newMap = published.publish(image, gridOverlay, tokenOverlay, changes, message);
+        } catch (IOException e) {
+            // Not thrown by a byte array stream
+            throw new UncheckedIOException(e);
+        }
+        if (newMap) {
+            tiles = image != null ? new MapTiles(image) : null;
+        }
+
+        for (Viewer viewer : viewers) {
+            if (newMap || viewer.queuedMessages.get() > MAX_QUEUED_MESSAGES) {
+                // Start the viewer over rather than let its queue grow
+                viewer.clear();
+                sendSnapshot(viewer);
+            } else if (message.bytes.size() > 0) {
+                // Pixels first, so nothing is drawn before its tiles and sprites arrive
+                viewer.sendTiles(published.getViewport());
+                viewer.sendSprites(message.sprites);
+                viewer.send(message.bytes.toByteArray());
+            }
+        }
+    }
+
+    /**
+     * Send the whole published scene, e.g. to a new viewer.
+     */
+    private void sendSnapshot(Viewer viewer) {
+        viewer.sentTiles.clear();
+        viewer.sentSprites.clear();
+        BufferedImage publishedImage = published.getImage();
+        EncodedChanges map = new EncodedChanges();
+        EncodedChanges scene = new EncodedChanges();
+        try {
+            PlayerStreamCodec.writeMap(map.out, publishedImage != null ? publishedImage.getWidth() : 0,
+                    publishedImage != null ? publishedImage.getHeight() : 0);
+            published.snapshot(scene);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        viewer.send(map.bytes.toByteArray());
+        viewer.sendTiles(published.getViewport());
+        viewer.sendSprites(scene.sprites);
+        viewer.send(scene.bytes.toByteArray());
+    }
+
+    private byte[] encodeSprite(String imageId) {
+        byte[] encoded = encodedSprites.get(imageId);
+        if (encoded != null) {
+            return encoded;
+        }
+        BufferedImage sprite = library.getTokenSprite(imageId);
+        try {
+            encoded = PlayerStreamCodec.encodeSprite(imageId, sprite);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Images that failed to load are tried again for the next viewer
+        if (sprite != null) {
+            encodedSprites.put(imageId, encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * A map's tiles, compressed on first request and shared by all viewers.
+     */
+    private static class MapTiles {
+        private final BufferedImage map;
+        private final int columns;
+        private final int rows;
+        private final Map<Integer, byte[]> encoded = new ConcurrentHashMap<>();
+
+        MapTiles(BufferedImage map) {
+            this.map = map;
+            this.columns = (map.getWidth() + PlayerStreamCodec.TILE_SIZE - 1) / PlayerStreamCodec.TILE_SIZE;
+            this.rows = (map.getHeight() + PlayerStreamCodec.TILE_SIZE - 1) / PlayerStreamCodec.TILE_SIZE;
+        }
+
+        byte[] get(int index) {
+            return encoded.computeIfAbsent(index, i -> {
+                try {
+                    return PlayerStreamCodec.encodeTile(map, i % columns, i / columns);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Changes encoded as stream messages, with the token images they use.
+     */
+    private static class EncodedChanges implements PublishedScene.Changes {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final List<String> sprites = new ArrayList<>();
+
+        @Override
+        public void grid(int squareSize, boolean[][] cells, int cols, int rows) throws IOException {
+            PlayerStreamCodec.writeGrid(out, squareSize, cells, cols, rows);
+        }
+
+        @Override
+        public void fog(int row, int col, int length, boolean revealed) throws IOException {
+            PlayerStreamCodec.writeFog(out, row, col, length, revealed);
+        }
+
+        @Override
+        public void tokenAdded(int number, String imageId, int gridX, int gridY, int gridWidth, int gridHeight)
+                throws IOException {
+            PlayerStreamCodec.writeToken(out, number, imageId, gridX, gridY, gridWidth, gridHeight);
+            sprites.add(imageId);
+        }
+
+        @Override
+        public void tokenMoved(int number, int gridX, int gridY, int gridWidth, int gridHeight)
+                throws IOException {
+            PlayerStreamCodec.writeTokenMove(out, number, gridX, gridY, gridWidth, gridHeight);
+        }
+
+        @Override
+        public void tokenRemoved(int number) throws IOException {
+            PlayerStreamCodec.writeTokenRemove(out, number);
+        }
+
+        @Override
+        public void viewport(Rectangle viewport) throws IOException {
+            PlayerStreamCodec.writeViewport(out, viewport);
+        }
+    }
+
+    /**
+     * One connected viewer. Messages are queued on the event dispatch thread
+     * and written by the viewer's own thread; tiles and sprites are queued as
+     * references and compressed there.
+     */
+    private class Viewer {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        // Scene messages in the queue, not counting tiles and sprites
+        private final AtomicInteger queuedMessages = new AtomicInteger();
+        private final Thread writer;
+        // Tiles and sprites already queued for this viewer
+        private final BitSet sentTiles = new BitSet();
+        private final Set<String> sentSprites = new HashSet<>();
+
+        Viewer(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.writer = new Thread(this::write, "player-stream-viewer");
+            this.writer.setDaemon(true);
+        }
+
+        void start() {
+            writer.start();
+        }
+
+        void send(byte[] message) {
+            queuedMessages.incrementAndGet();
+            queue.add(new SceneMessage(message));
+        }
+
+        /**
+         * Drop everything queued. Messages the writer has already taken are
+         * counted off by the writer, so the count stays right.
+         */
+        void clear() {
+            List<Message> dropped = new ArrayList<>();
+            queue.drainTo(dropped);
+            for (Message message : dropped) {
+                if (message instanceof SceneMessage) {
+                    queuedMessages.decrementAndGet();
+                }
+            }
+        }
+
+        void sendTiles(Rectangle viewport) {
+            if (viewport == null || tiles == null) {
+                return;
+            }
+            MapTiles mapTiles = tiles;
+            int size = PlayerStreamCodec.TILE_SIZE;
+            int firstColumn = Math.max(0, viewport.x / size);
+            int firstRow = Math.max(0, viewport.y / size);
+            int lastColumn = Math.min(mapTiles.columns - 1, (viewport.x + viewport.width - 1) / size);
+            int lastRow = Math.min(mapTiles.rows - 1, (viewport.y + viewport.height - 1) / size);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    int index = row * mapTiles.columns + column;
+                    if (!sentTiles.get(index)) {
+                        sentTiles.set(index);
+                        queue.add(() -> mapTiles.get(index));
+                    }
+                }
+            }
+        }
+
+        void sendSprites(Collection<String> imageIds) {
+            for (String imageId : imageIds) {
+                if (sentSprites.add(imageId)) {
+                    queue.add(() -> encodeSprite(imageId));
+                }
+            }
+        }
+
+        private void write() {
+            try {
+                PlayerStreamCodec.writeHeader(out);
+                while (true) {
+                    Message message = queue.take();
+                    if (message instanceof SceneMessage) {
+                        queuedMessages.decrementAndGet();
+                    }
+                    int start = out.size();
+                    out.write(message.encode());
+                    PerfMetrics.Counter.STREAM_BYTES_SENT.add(out.size() - start);
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                if (!socket.isClosed()) {
+                    System.err.println("Error sending player stream: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                // Disconnected by close()
+            } finally {
+                close();
+                SwingUtilities.invokeLater(() -> viewers.remove(this));
+            }
+        }
+
+        void close() {
+            writer.interrupt();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Error closing player stream viewer: " + e.getMessage());
+            }
+        }
+    }
+
+    private interface Message {
+        byte[] encode();
+    }
+
+    /**
+     * An encoded scene message, as opposed to a tile or sprite compressed
+     * when written.
+     */
+    private static class SceneMessage implements Message {
+        private final byte[] bytes;
+
+        SceneMessage(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public byte[] encode() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyEvent;
+
+/**
+ * Player screen on another computer, showing the stream of a GM's
+ * {@link PlayerStreamServer}. Started with {@code --viewer host[:port]}.
+ */
+public class PlayerStreamViewer extends JFrame {
+    private static final long serialVersionUID = 1L;
+
+    /** Start as a network player screen instead of the GM application. */
+    static final String VIEWER_ARG = "--viewer";
+
+    private final DisplayPanel displayPanel;
+    private final JPanel statusPanel;
+    private final PlayerStreamClient client;
+    private Rectangle windowedBounds;
+    // Fit the viewport once the panel has its size
+    private boolean refitOnResize = true;
+
+    public PlayerStreamViewer(String host, int port) {
+        setTitle("EZBattleMap - Network Player Screen");
+        setSize(1024, 768);
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setLayout(new BorderLayout());
+
+        displayPanel = new DisplayPanel();
+        add(displayPanel, BorderLayout.CENTER);
+
+        statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        statusPanel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+        JLabel statusLabel = new JLabel();
+        statusPanel.add(statusLabel);
+        add(statusPanel, BorderLayout.SOUTH);
+
+        client = new PlayerStreamClient(host, port, displayPanel, statusLabel::setText);
+
+        // Fit the viewport to the new panel size when first shown and after
+        // switching to or from full screen
+        displayPanel.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (refitOnResize) {
+                    refitOnResize = false;
+                    client.refit();
+                }
+            }
+        });
+
+        InputMap inputMap = getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F11, 0), "toggleFullScreen");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "exitFullScreen");
+        getRootPane().getActionMap().put("toggleFullScreen", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                setFullScreen(!isFullScreen());
+            }
+        });
+        getRootPane().getActionMap().put("exitFullScreen", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                setFullScreen(false);
+            }
+        });
+    }
+
+    public static void main(String[] args) {
+        String address = args.length > 0 ? args[0] : "localhost";
+        String host = address;
+        int port = Integer.getInteger(PlayerStreamServer.PORT_PROPERTY, PlayerStreamCodec.DEFAULT_PORT);
+        int colon = address.lastIndexOf(':');
+        // A single colon separates the port; IPv6 addresses have several
+        if (colon > 0 && colon == address.indexOf(':')) {
+            host = address.substring(0, colon);
+            try {
+                port = Integer.parseInt(address.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                System.err.println("Error in viewer address: bad port " + address.substring(colon + 1));
+                System.exit(1);
+            }
+        }
+
+        String viewerHost = host;
+        int viewerPort = port;
+        SwingUtilities.invokeLater(() -> {
+            try {
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            PlayerStreamViewer viewer = new PlayerStreamViewer(viewerHost, viewerPort);
+            viewer.setVisible(true);
+            viewer.client.start();
+        });
+    }
+
+    private boolean isFullScreen() {
+        return getGraphicsConfiguration().getDevice().getFullScreenWindow() == this;
+    }
+
+    /**
+     * Fill the screen the viewer is on, hiding the status bar, or return to a window.
+     */
+    private void setFullScreen(boolean fullScreen) {
+        if (fullScreen == isFullScreen()) {
+            return;
+        }
+        GraphicsDevice device = getGraphicsConfiguration().getDevice();
+        if (fullScreen) {
+            windowedBounds = getBounds();
+        } else {
+            device.setFullScreenWindow(null);
+        }
+        // Decorations can only be changed while the frame is not displayable
+        dispose();
+        setUndecorated(fullScreen);
+        statusPanel.setVisible(!fullScreen);
+        refitOnResize = true;
+        if (fullScreen) {
+            device.setFullScreenWindow(this);
+        } else {
+            if (windowedBounds != null) {
+                setBounds(windowedBounds);
+            }
+            setVisible(true);
+        }
+    }
+}
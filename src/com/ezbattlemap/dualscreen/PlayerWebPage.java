@@ -0,0 +1,201 @@
+package com.ezbattlemap.dualscreen;
+
+/**
+ * The browser player screen served by {@link PlayerWebServer}.
+ *
+ * The page mirrors the scene from the server's event stream and draws it on a
+ * canvas the way {@link DisplayPanel} does: the revealed area fitted to the
+ * window, hidden cells blacked out and tokens on top. Map tiles with
+ * revealed cells and token images are fetched as they are first needed and
+ * redrawn once loaded. The
+ * browser reconnects by itself, and the server then sends the whole scene
+ * again. A double tap or double click toggles full screen.
+ */
+final class PlayerWebPage {
+    static final String HTML = String.join("\n",
+            "<!DOCTYPE html>",
+            "<html>",
+            "<head>",
+            "<meta charset='utf-8'>",
+            "<meta name='viewport' content='width=device-width, initial-scale=1, user-scalable=no'>",
+            "<title>EZBattleMap - Player Screen</title>",
+            "<style>",
+            "html, body { margin: 0; height: 100%; background: #000; overflow: hidden; }",
+            "canvas { display: block; width: 100%; height: 100%; }",
+            "#status { position: fixed; left: 10px; bottom: 8px; color: #888; font: 14px sans-serif; }",
+            "</style>",
+            "</head>",
+            "<body>",
+            "<canvas id='screen'></canvas>",
+            "<div id='status'>Connecting...</div>",
+            "<script>",
+            "'use strict';",
+            "var canvas = document.getElementById('screen');",
+            "var context = canvas.getContext('2d');",
+            "var statusLine = document.getElementById('status');",
+            "var map = null, grid = null, view = null, tokens = {}, tiles = {}, sprites = {};",
+            "var drawPending = false;",
+            "",
+            "function apply(change) {",
+            "  switch (change.t) {",
+            "  case 'map':",
+            "    // Tiles of the same map version stay valid across reconnects",
+            "    if (!map || map.v !== change.v) tiles = {};",
+            "    map = change; grid = null; view = null; tokens = {};",
+            "    break;",
+            "  case 'grid':",
+            "    grid = { size: change.size, cols: change.cols, rows: change.rows,",
+            "             cells: new Uint8Array(change.cols * change.rows) };",
+            "    var index = 0, revealed = 0;",
+            "    change.runs.forEach(function (run) {",
+            "      grid.cells.fill(revealed, index, index + run);",
+            "      index += run; revealed ^= 1;",
+            "    });",
+            "    break;",
+            "  case 'fog':",
+            "    if (grid) {",
+            "      var start = change.y * grid.cols + change.x;",
+            "      grid.cells.fill(change.on ? 1 : 0, start, start + change.n);",
+            "    }",
+            "    break;",
+            "  case 'token':",
+            "    tokens[change.id] = change;",
+            "    break;",
+            "  case 'move':",
+            "    var token = tokens[change.id];",
+            "    if (token) { token.x = change.x; token.y = change.y; token.w = change.w; token.h = change.h; }",
+            "    break;",
+            "  case 'remove':",
+            "    delete tokens[change.id];",
+            "    break;",
+            "  case 'view':",
+            "    view = change.w ? change : null;",
+            "    break;",
+            "  }",
+            "}",
+            "",
+            "function load(cache, key, url) {",
+            "  var image = cache[key];",
+            "  if (!image) {",
+            "    image = cache[key] = new Image();",
+            "    image.onload = redraw;",
+            "    // Asked for again on a later draw",
+            "    image.onerror = function () { delete cache[key]; };",
+            "    image.src = url;",
+            "  }",
+            "  return image.complete && image.naturalWidth ? image : null;",
+            "}",
+            "",
+            "function tileShown(col, row) {",
+            "  var size = map.tile, square = grid.size;",
+            "  var endCol = Math.min(grid.cols, Math.floor((Math.min(map.w, (col + 1) * size) - 1) / square) + 1);",
+            "  var endRow = Math.min(grid.rows, Math.floor((Math.min(map.h, (row + 1) * size) - 1) / square) + 1);",
+            "  for (var y = Math.floor(row * size / square); y < endRow; y++) {",
+            "    for (var x = Math.floor(col * size / square); x < endCol; x++) {",
+            "      if (grid.cells[y * grid.cols + x]) return true;",
+            "    }",
+            "  }",
+            "  return false;",
+            "}",
+            "",
+            "function redraw() {",
+            "  if (!drawPending) {",
+            "    drawPending = true;",
+            "    requestAnimationFrame(function () { drawPending = false; draw(); });",
+            "  }",
+            "}",
+            "",
+            "function draw() {",
+            "  var ratio = window.devicePixelRatio || 1;",
+            "  var width = Math.round(canvas.clientWidth * ratio), height = Math.round(canvas.clientHeight * ratio);",
+            "  if (canvas.width !== width || canvas.height !== height) { canvas.width = width; canvas.height = height; }",
+            "  context.setTransform(1, 0, 0, 1, 0, 0);",
+            "  context.fillStyle = '#000';",
+            "  context.fillRect(0, 0, width, height);",
+            "  if (!map || !map.w || !grid || !view) {",
+            "    context.fillStyle = '#808080';",
+            "    context.font = (24 * ratio) + 'px Arial';",
+            "    context.textAlign = 'center';",
+            "    context.fillText(map && map.w ? 'Waiting for the GM to reveal the map' : 'Waiting for image...',",
+            "        width / 2, height / 2);",
+            "    return;",
+            "  }",
+            "",
+            "  // Fit the revealed part of the map, with its top-left corner at the offset",
+            "  var left = Math.max(0, view.x), top = Math.max(0, view.y);",
+            "  var right = Math.min(map.w, view.x + view.w), bottom = Math.min(map.h, view.y + view.h);",
+            "  if (right <= left || bottom <= top) return;",
+            "  var scale = Math.min(width / (right - left), height / (bottom - top)) * 0.95;",
+            "  var offsetX = (width - (right - left) * scale) / 2, offsetY = (height - (bottom - top) * scale) / 2;",
+            "  context.setTransform(scale, 0, 0, scale, offsetX - view.x * scale, offsetY - view.y * scale);",
+            "",
+            "  context.save();",
+            "  context.beginPath();",
+            "  context.rect(left, top, right - left, bottom - top);",
+            "  context.clip();",
+            "  var size = map.tile;",
+            "  for (var row = Math.floor(top / size); row * size < bottom; row++) {",
+            "    for (var col = Math.floor(left / size); col * size < right; col++) {",
+            "      // The server withholds tiles with no revealed cells",
+            "      if (!tileShown(col, row)) continue;",
+            "      var key = col + '_' + row;",
+            "      var tile = load(tiles, key, '/tiles/' + map.v + '/' + key + '.png');",
+            "      if (tile) context.drawImage(tile, col * size, row * size);",
+            "    }",
+            "  }",
+            "",
+            "  // Black out hidden cells, one rectangle per run in a row",
+            "  var square = grid.size;",
+            "  var firstCol = Math.max(0, Math.floor(view.x / square));",
+            "  var endCol = Math.min(grid.cols, Math.ceil((view.x + view.w) / square));",
+            "  var endRow = Math.min(grid.rows, Math.ceil((view.y + view.h) / square));",
+            "  context.fillStyle = '#000';",
+            "  for (var y = Math.max(0, Math.floor(view.y / square)); y < endRow; y++) {",
+            "    var x = firstCol;",
+            "    while (x < endCol) {",
+            "      if (grid.cells[y * grid.cols + x]) { x++; continue; }",
+            "      var runStart = x;",
+            "      while (x < endCol && !grid.cells[y * grid.cols + x]) x++;",
+            "      // Slightly larger, so no seams show between runs when scaled",
+            "      context.fillRect(runStart * square, y * square, (x - runStart) * square + 0.5, square + 0.5);",
+            "    }",
+            "  }",
+            "  context.restore();",
+            "",
+            "  // Tokens on top of everything",
+            "  for (var id in tokens) {",
+            "    var token = tokens[id];",
+            "    var tokenX = token.x * square, tokenY = token.y * square;",
+            "    var tokenWidth = token.w * square, tokenHeight = token.h * square;",
+            "    if (tokenX < view.x + view.w && tokenX + tokenWidth > view.x",
+            "        && tokenY < view.y + view.h && tokenY + tokenHeight > view.y) {",
+            "      var sprite = load(sprites, token.img, '/sprites/' + encodeURIComponent(token.img));",
+            "      if (sprite) context.drawImage(sprite, tokenX, tokenY, tokenWidth, tokenHeight);",
+            "    }",
+            "  }",
+            "}",
+            "",
+            "var events = new EventSource('/events');",
+            "events.onopen = function () { statusLine.style.display = 'none'; };",
+            "events.onerror = function () {",
+            "  statusLine.textContent = 'Connection lost, retrying...';",
+            "  statusLine.style.display = '';",
+            "};",
+            "events.onmessage = function (event) {",
+            "  JSON.parse(event.data).forEach(apply);",
+            "  redraw();",
+            "};",
+            "window.addEventListener('resize', redraw);",
+            "canvas.addEventListener('dblclick', function () {",
+            "  if (document.fullscreenElement) document.exitFullscreen();",
+            "  else if (document.documentElement.requestFullscreen) document.documentElement.requestFullscreen();",
+            "});",
+            "redraw();",
+            "</script>",
+            "</body>",
+            "</html>",
+            "");
+
+    private PlayerWebPage() {
+    }
+}
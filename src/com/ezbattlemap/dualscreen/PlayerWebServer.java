@@ -0,0 +1,578 @@
+package com.ezbattlemap.dualscreen;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the player screen to web browsers, e.g. players' phones, with the
+ * JDK's built-in HTTP server.
+ *
+ * A browser loads {@link PlayerWebPage} from {@code /}, which opens
+ * {@code /events} as a stream of server-sent events. Like
+ * {@link PlayerStreamServer}, the server coalesces updates and on each flush
+ * sends only what changed since it last published ({@link PublishedScene}),
+ * here as one event holding a JSON array of changes, encoded once for all
+ * browsers. A browser that connects, or falls too far behind, is sent the
+ * whole scene instead. Map tiles are PNG files under a URL that includes the
+ * map's version, so browsers may cache them for good; the version starts with
+ * a random value drawn at launch, so a URL is never reused for another map
+ * after a restart. Token images are revalidated with an ETag.
+ *
+ * Only what the published scene shows is served: a tile once one of its
+ * cells is revealed, and the images of the tokens on the map. A tile is sent
+ * whole, so the hidden cells of a partly revealed tile reach the browser too,
+ * though the page blacks them out.
+ *
+ * Requests are handled on virtual threads where the Java runtime has them,
+ * otherwise on a pool of daemon threads. Each open event stream holds a
+ * thread that waits on its queue of events. Every method other than the
+ * request handlers runs on the event dispatch thread.
+ */
+class PlayerWebServer {
+    static final String PORT_PROPERTY = "ezbattlemap.webPort";
+    static final int DEFAULT_PORT = 8080;
+    private static final int UPDATE_RATE = 60;
+    private static final int MAX_QUEUED_EVENTS = 256;
+    // Comment lines keep idle streams open through proxies and find dead ones
+    private static final long KEEP_ALIVE_MILLIS = 15000;
+    private static final int ALL_CHANGES =
+            DisplayUpdateChannel.FOG | DisplayUpdateChannel.TOKENS | DisplayUpdateChannel.VIEWPORT;
+    private static final byte[] KEEP_ALIVE = ":\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PAGE = PlayerWebPage.HTML.getBytes(StandardCharsets.UTF_8);
+    // Makes map versions unique across launches, as browsers keep tiles between them
+    private static final String LAUNCH = Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
+
+    private final ImageLibrary library;
+    private final DisplayUpdateChannel updates;
+    private final List<Browser> browsers = new ArrayList<>();
+    // The published tokens' images by image id; read by request handlers
+    private final Map<String, Sprite> sprites = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    // The live scene
+    private BufferedImage image;
+    private GridOverlay gridOverlay;
+    private TokenOverlay tokenOverlay;
+
+    // The scene as last sent to browsers; tiles are also read by request handlers
+    private final PublishedScene published = new PublishedScene();
+    private volatile MapTiles tiles;
+    private int mapCount;
+    private String mapVersion = LAUNCH + "-0";
+
+    PlayerWebServer(ImageLibrary library) {
+        this.library = library;
+        this.updates = new DisplayUpdateChannel(this::publish, UPDATE_RATE);
+    }
+
+    /**
+     * Start serving on a port, or 0 for any free port.
+     */
+    void start(int port) throws IOException {
+        if (server != null) {
+            return;
+        }
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        httpServer.createContext("/", this::handlePage);
+        httpServer.createContext("/events", this::handleEvents);
+        httpServer.createContext("/tiles/", this::handleTile);
+        httpServer.createContext("/sprites/", this::handleSprite);
+        executor = newExecutor();
+        httpServer.setExecutor(executor);
+        httpServer.start();
+        server = httpServer;
+    }
+
+    /**
+     * Stop serving and disconnect the browsers.
+     */
+    void stop() {
+        if (server == null) {
+            return;
+        }
+        for (Browser browser : browsers) {
+            browser.close();
+        }
+        browsers.clear();
+        server.stop(0);
+        executor.shutdown();
+        server = null;
+        executor = null;
+    }
+
+    boolean isRunning() {
+        return server != null;
+    }
+
+    /**
+     * The port browsers connect to, or -1 when stopped.
+     */
+    int getPort() {
+        return server != null ? server.getAddress().getPort() : -1;
+    }
+
+    int getBrowserCount() {
+        return browsers.size();
+    }
+
+    void setImage(BufferedImage image) {
+        this.image = image;
+        mark(DisplayUpdateChannel.VIEWPORT);
+    }
+
+    void updateGridOverlay(GridOverlay gridOverlay) {
+        this.gridOverlay = gridOverlay;
+        mark(DisplayUpdateChannel.VIEWPORT);
+    }
+
+    void updateTokenOverlay(TokenOverlay tokenOverlay) {
+        this.tokenOverlay = tokenOverlay;
+        mark(DisplayUpdateChannel.TOKENS);
+    }
+
+    /**
+     * Cells were revealed or hidden, and with them perhaps the viewport.
+     */
+    void updateRevealedCells() {
+        mark(DisplayUpdateChannel.FOG);
+    }
+
+    private void mark(int changes) {
+        if (!browsers.isEmpty()) {
+            updates.mark(changes);
+        }
+    }
+
+    /**
+     * One virtual thread per request on Java 21 and later, where an idle event
+     * stream costs next to nothing; a growing pool of daemon threads before.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "player-web");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void addBrowser(HttpServer acceptedBy, Browser browser) {
+        if (server != acceptedBy) {
+            browser.close();
+            return;
+        }
+        // Updates are not published while nobody watches, so catch up first
+        updates.flush();
+        publish(ALL_CHANGES);
+        browsers.add(browser);
+        sendSnapshot(browser);
+    }
+
+    /**
+     * Compare the live scene with the published one and send the differences.
+     */
+    private void publish(int changes) {
+        JsonChanges event = new JsonChanges();
+        boolean newMap;
+        try {
+            newMap = published.publish(image, gridOverlay, tokenOverlay, changes, event);
+        } catch (IOException e) {
+            // Not thrown when writing JSON to a string
+            throw new UncheckedIOException(e);
+        }
+        if (newMap) {
+            mapCount++;
+            mapVersion = LAUNCH + "-" + mapCount;
+            tiles = image != null ? new MapTiles(image, mapVersion) : null;
+        }
+        if (tiles != null && (newMap || (changes & (DisplayUpdateChannel.FOG | DisplayUpdateChannel.VIEWPORT)) != 0)) {
+            tiles.show(published);
+        }
+        if (newMap || (changes & DisplayUpdateChannel.TOKENS) != 0) {
+            Set<String> imageIds = published.getTokenImageIds();
+            sprites.keySet().retainAll(imageIds);
+            for (String imageId : imageIds) {
+                sprites.computeIfAbsent(imageId, Sprite::new);
+            }
+        }
+
+        byte[] encoded = event.isEmpty() ? null : event.toEvent();
+        for (Browser browser : browsers) {
+            if (newMap || browser.queue.size() > MAX_QUEUED_EVENTS) {
+                // Start the browser over rather than let its queue grow
+                browser.queue.clear();
+                sendSnapshot(browser);
+            } else if (encoded != null) {
+                browser.queue.add(encoded);
+            }
+        }
+    }
+
+    /**
+     * Send the whole published scene, starting with the map it is on.
+     */
+    private void sendSnapshot(Browser browser) {
+        BufferedImage publishedImage = published.getImage();
+        JsonChanges event = new JsonChanges();
+        event.map(mapVersion, publishedImage != null ? publishedImage.getWidth() : 0,
+                publishedImage != null ? publishedImage.getHeight() : 0);
+        try {
+            published.snapshot(event);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        browser.queue.add(event.toEvent());
+    }
+
+    private void handlePage(HttpExchange exchange) throws IOException {
+        if (!"/".equals(exchange.getRequestURI().getPath())) {
+            sendError(exchange, 404);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        send(exchange, PAGE);
+    }
+
+    /**
+     * Keep the request open as an event stream until the browser leaves or
+     * the server stops.
+     */
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        HttpServer acceptedBy = exchange.getHttpContext().getServer();
+        Browser browser = new Browser();
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        SwingUtilities.invokeLater(() -> addBrowser(acceptedBy, browser));
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (true) {
+                byte[] event = browser.queue.poll(KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+                if (event == Browser.CLOSED) {
+                    break;
+                }
+                byte[] data = event != null ? event : KEEP_ALIVE;
+                out.write(data);
+                out.flush();
+                PerfMetrics.Counter.STREAM_BYTES_SENT.add(data.length);
+            }
+        } catch (IOException e) {
+            // The browser went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+            SwingUtilities.invokeLater(() -> browsers.remove(browser));
+        }
+    }
+
+    /**
+     * Serve /tiles/version/column_row.png, if any of the tile is revealed. A
+     * tile's URL never shows other pixels, so browsers keep it as long as
+     * they like.
+     */
+    private void handleTile(HttpExchange exchange) throws IOException {
+        String[] parts = exchange.getRequestURI().getPath().substring("/tiles/".length()).split("[/_.]");
+        MapTiles mapTiles = tiles;
+        byte[] png = null;
+        if (mapTiles != null && parts.length == 4 && "png".equals(parts[3])) {
+            try {
+                if (parts[0].equals(mapTiles.version)) {
+                    png = mapTiles.get(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                }
+            } catch (NumberFormatException e) {
+                // Not a tile URL
+            }
+        }
+        if (png == null) {
+            sendError(exchange, 404);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "image/png");
+        exchange.getResponseHeaders().set("Cache-Control", "public, max-age=31536000, immutable");
+        send(exchange, png);
+    }
+
+    /**
+     * Serve /sprites/imageId as a PNG if a published token shows it, answering
+     * 304 when the browser's copy is still current.
+     */
+    private void handleSprite(HttpExchange exchange) throws IOException {
+        Sprite sprite = sprites.get(exchange.getRequestURI().getPath().substring("/sprites/".length()));
+        byte[] png = sprite != null ? sprite.get(library) : null;
+        if (png == null) {
+            sendError(exchange, 404);
+            return;
+        }
+        String etag = '"' + Integer.toHexString(Arrays.hashCode(png)) + '"';
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "image/png");
+        send(exchange, png);
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        return bytes.toByteArray();
+    }
+
+    private static void send(HttpExchange exchange, byte[] body) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            PerfMetrics.Counter.STREAM_BYTES_SENT.add(body.length);
+        }
+        exchange.close();
+    }
+
+    private static void sendError(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    /**
+     * A map's tiles as PNG files, encoded on first request and shared by all
+     * browsers.
+     */
+    private static class MapTiles {
+        private final BufferedImage map;
+        private final String version;
+        private final int columns;
+        private final int rows;
+        private final Map<Integer, byte[]> encoded = new ConcurrentHashMap<>();
+        // Per tile in row-major order, whether any of its cells is revealed
+        private volatile boolean[] shown;
+
+        MapTiles(BufferedImage map, String version) {
+            this.map = map;
+            this.version = version;
+            this.columns = (map.getWidth() + PlayerStreamCodec.TILE_SIZE - 1) / PlayerStreamCodec.TILE_SIZE;
+            this.rows = (map.getHeight() + PlayerStreamCodec.TILE_SIZE - 1) / PlayerStreamCodec.TILE_SIZE;
+            this.shown = new boolean[columns * rows];
+        }
+
+        /**
+         * Work out which tiles have revealed cells in the published scene.
+         */
+        void show(PublishedScene scene) {
+            int size = PlayerStreamCodec.TILE_SIZE;
+            boolean[] shownTiles = new boolean[columns * rows];
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    shownTiles[row * columns + column] = scene.anyRevealed(column * size, row * size,
+                            Math.min(size, map.getWidth() - column * size), Math.min(size, map.getHeight() - row * size));
+                }
+            }
+            shown = shownTiles;
+        }
+
+        /**
+         * The tile's PNG, or null outside the map or while none of it is revealed.
+         */
+        byte[] get(int column, int row) {
+            if (column < 0 || column >= columns || row < 0 || row >= rows || !shown[row * columns + column]) {
+                return null;
+            }
+            return encoded.computeIfAbsent(row * columns + column, i -> {
+                int size = PlayerStreamCodec.TILE_SIZE;
+                int x = column * size;
+                int y = row * size;
+                try {
+                    return encodePng(map.getSubimage(x, y,
+                            Math.min(size, map.getWidth() - x), Math.min(size, map.getHeight() - y)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * A published token's image as a PNG file, encoded on first request.
+     */
+    private static class Sprite {
+        private final String imageId;
+        private byte[] encoded;
+        private boolean missing;
+
+        Sprite(String imageId) {
+            this.imageId = imageId;
+        }
+
+        /**
+         * The PNG, or null if the image cannot be loaded. Loading is tried
+         * only once, until the image leaves the scene and comes back.
+         */
+        synchronized byte[] get(ImageLibrary library) throws IOException {
+            if (encoded == null && !missing) {
+                BufferedImage sprite = library.getTokenSprite(imageId);
+                missing = sprite == null;
+                encoded = sprite != null ? encodePng(sprite) : null;
+            }
+            return encoded;
+        }
+    }
+
+    /**
+     * One open event stream. Events are queued on the event dispatch thread
+     * and written by the request's thread.
+     */
+    private static class Browser {
+        // Ends the stream when queued
+        private static final byte[] CLOSED = new byte[0];
+
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+
+        void close() {
+            queue.clear();
+            queue.add(CLOSED);
+        }
+    }
+
+    /**
+     * Changes as one server-sent event holding a JSON array, read by
+     * {@link PlayerWebPage}.
+     */
+    private static class JsonChanges implements PublishedScene.Changes {
+        private final StringBuilder json = new StringBuilder("data: [");
+        private boolean empty = true;
+
+        boolean isEmpty() {
+            return empty;
+        }
+
+        byte[] toEvent() {
+            return json.toString().concat("]\n\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        void map(String version, int width, int height) {
+            begin("map").append(",\"v\":");
+            quote(version);
+            json.append(",\"w\":").append(width)
+                    .append(",\"h\":").append(height).append(",\"tile\":").append(PlayerStreamCodec.TILE_SIZE)
+                    .append('}');
+        }
+
+        /**
+         * The cells as lengths of alternately hidden and revealed runs,
+         * row after row, starting with hidden.
+         */
+        @Override
+        public void grid(int squareSize, boolean[][] cells, int cols, int rows) {
+            begin("grid").append(",\"size\":").append(squareSize).append(",\"cols\":").append(cols)
+                    .append(",\"rows\":").append(rows).append(",\"runs\":[");
+            boolean revealed = false;
+            int run = 0;
+            boolean first = true;
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < cols; x++) {
+                    if (cells[y][x] != revealed) {
+                        json.append(first ? "" : ",").append(run);
+                        first = false;
+                        revealed = !revealed;
+                        run = 0;
+                    }
+                    run++;
+                }
+            }
+            json.append(first ? "" : ",").append(run).append("]}");
+        }
+
+        @Override
+        public void fog(int row, int col, int length, boolean revealed) {
+            begin("fog").append(",\"y\":").append(row).append(",\"x\":").append(col)
+                    .append(",\"n\":").append(length).append(",\"on\":").append(revealed).append('}');
+        }
+
+        @Override
+        public void tokenAdded(int number, String imageId, int gridX, int gridY, int gridWidth, int gridHeight) {
+            begin("token").append(",\"id\":").append(number).append(",\"img\":");
+            quote(imageId);
+            bounds(gridX, gridY, gridWidth, gridHeight);
+        }
+
+        @Override
+        public void tokenMoved(int number, int gridX, int gridY, int gridWidth, int gridHeight) {
+            begin("move").append(",\"id\":").append(number);
+            bounds(gridX, gridY, gridWidth, gridHeight);
+        }
+
+        @Override
+        public void tokenRemoved(int number) {
+            begin("remove").append(",\"id\":").append(number).append('}');
+        }
+
+        @Override
+        public void viewport(Rectangle viewport) {
+            begin("view");
+            if (viewport != null) {
+                bounds(viewport.x, viewport.y, viewport.width, viewport.height);
+            } else {
+                json.append('}');
+            }
+        }
+
+        private StringBuilder begin(String type) {
+            if (!empty) {
+                json.append(',');
+            }
+            empty = false;
+            return json.append("{\"t\":\"").append(type).append('"');
+        }
+
+        private void bounds(int x, int y, int width, int height) {
+            json.append(",\"x\":").append(x).append(",\"y\":").append(y)
+                    .append(",\"w\":").append(width).append(",\"h\":").append(height).append('}');
+        }
+
+        private void quote(String value) {
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The scene as last sent to network viewers.
+ *
+ * Each {@link #publish} compares the live scene with the published one,
+ * reports the differences to a {@link Changes} and brings the published scene
+ * up to date, so a server only ever sends what changed since its last flush.
+ * A server encodes the changes in its own format: {@link PlayerStreamServer}
+ * as binary messages, {@link PlayerWebServer} as JSON events. Network
+ * viewers see fog by cell: a cell is published as revealed only if it is
+ * selected and none of it was brushed hidden, and brushed reveals in hidden
+ * cells stay hidden, so they never see more than the player screen. Used on
+ * the event dispatch thread.
+ */
+class PublishedScene {
+    /**
+     * Receives the differences found by {@link #publish} or the whole scene
+     * from {@link #snapshot}.
+     */
+    interface Changes {
+        /** The whole fog, row by row; true cells are revealed. */
+        void grid(int squareSize, boolean[][] cells, int cols, int rows) throws IOException;
+
+        /** A run of cells in a row that were all revealed or all hidden. */
+        void fog(int row, int col, int length, boolean revealed) throws IOException;
+
+        void tokenAdded(int number, String imageId, int gridX, int gridY, int gridWidth, int gridHeight)
+                throws IOException;
+
+        void tokenMoved(int number, int gridX, int gridY, int gridWidth, int gridHeight) throws IOException;
+
+        void tokenRemoved(int number) throws IOException;
+
+        /** The revealed area in map pixels, or null when nothing is revealed. */
+        void viewport(Rectangle viewport) throws IOException;
+    }
+
+    private BufferedImage image;
+    private boolean[][] fog;
+    private int squareSize;
+    private final Map<Integer, PublishedToken> tokens = new LinkedHashMap<>();
+    private Rectangle viewport;
+    // Shown cells of one row, when brushed-hidden fog has to be taken out
+    private boolean[] shownRow = new boolean[0];
+
+    BufferedImage getImage() {
+        return image;
+    }
+
+    Rectangle getViewport() {
+        return viewport;
+    }
+
+    /**
+     * Image ids of the published tokens.
+     */
+    Set<String> getTokenImageIds() {
+        Set<String> imageIds = new HashSet<>();
+        for (PublishedToken token : tokens.values()) {
+            imageIds.add(token.imageId);
+        }
+        return imageIds;
+    }
+
+    /**
+     * Whether any published cell within a rectangle of map pixels is revealed.
+     */
+    boolean anyRevealed(int x, int y, int width, int height) {
+        if (fog == null || squareSize <= 0 || width <= 0 || height <= 0) {
+            return false;
+        }
+        int endRow = Math.min(fog.length, (y + height - 1) / squareSize + 1);
+        for (int row = y / squareSize; row < endRow; row++) {
+            int endCol = Math.min(fog[row].length, (x + width - 1) / squareSize + 1);
+            for (int col = x / squareSize; col < endCol; col++) {
+                if (fog[row][col]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Report how the live scene differs from the published one. Only the parts
+     * named in changes, a mask of {@link DisplayUpdateChannel} flags, are
+     * compared, except after a new map, when everything is reported.
+     *
+     * @return whether the map changed, in which case viewers need a snapshot
+     */
+    boolean publish(BufferedImage image, GridOverlay gridOverlay, TokenOverlay tokenOverlay, int changes,
+                    Changes out) throws IOException {
+        boolean newMap = image != this.image;
+        if (newMap) {
+            this.image = image;
+            fog = null;
+            tokens.clear();
+            viewport = null;
+        }
+        if (image == null) {
+            return newMap;
+        }
+        if (newMap || (changes & (DisplayUpdateChannel.FOG | DisplayUpdateChannel.VIEWPORT)) != 0) {
+            publishFog(gridOverlay, out);
+        }
+        if (newMap || (changes & DisplayUpdateChannel.TOKENS) != 0) {
+            publishTokens(tokenOverlay, out);
+        }
+        Rectangle current = gridOverlay != null ? gridOverlay.getSelectedBounds() : null;
+        if (!Objects.equals(current, viewport)) {
+            viewport = current;
+            out.viewport(current);
+        }
+        return newMap;
+    }
+
+    /**
+     * Report the whole published scene, e.g. to a new viewer.
+     */
+    void snapshot(Changes out) throws IOException {
+        if (fog != null) {
+            out.grid(squareSize, fog, fog.length > 0 ? fog[0].length : 0, fog.length);
+        }
+        for (Map.Entry<Integer, PublishedToken> entry : tokens.entrySet()) {
+            PublishedToken token = entry.getValue();
+            out.tokenAdded(entry.getKey(), token.imageId,
+                    token.gridX, token.gridY, token.gridWidth, token.gridHeight);
+        }
+        out.viewport(viewport);
+    }
+
+    private void publishFog(GridOverlay gridOverlay, Changes out) throws IOException {
+        if (gridOverlay == null) {
+            return;
+        }
+        boolean[][] cells = gridOverlay.getSelectedCells();
+        int cols = gridOverlay.getGridCols();
+        int rows = gridOverlay.getGridRows();
+        if (fog == null || squareSize != gridOverlay.getSquareSize()
+                || fog.length != rows || (rows > 0 && fog[0].length != cols)) {
+            // New or resized grid: send it whole
+            squareSize = gridOverlay.getSquareSize();
+            fog = new boolean[rows][];
+            for (int y = 0; y < rows; y++) {
+                fog[y] = shownCells(gridOverlay, cells, y).clone();
+            }
+            out.grid(squareSize, fog, cols, rows);
+            return;
+        }
+        for (int y = 0; y < rows; y++) {
+            boolean[] before = fog[y];
+            boolean[] after = shownCells(gridOverlay, cells, y);
+            int x = 0;
+            while (x < cols) {
+                if (before[x] == after[x]) {
+                    x++;
+                    continue;
+                }
+                boolean revealed = after[x];
+                int start = x;
+                while (x < cols && before[x] != after[x] && after[x] == revealed) {
+                    before[x] = revealed;
+                    x++;
+                }
+                out.fog(y, start, x - start, revealed);
+            }
+        }
+    }
+
+    /**
+     * A row of selected cells without those that were partly brushed hidden.
+     */
+    private boolean[] shownCells(GridOverlay gridOverlay, boolean[][] cells, int y) {
+        FogMask mask = gridOverlay.getFogMask();
+        if (!mask.hasHidden()) {
+            return cells[y];
+        }
+        int cols = gridOverlay.getGridCols();
+        if (shownRow.length != cols) {
+            shownRow = new boolean[cols];
+        }
+        int size = gridOverlay.getSquareSize();
+        for (int x = 0; x < cols; x++) {
+            shownRow[x] = cells[y][x] && !mask.anyHidden(x * size, y * size, size, size);
+        }
+        return shownRow;
+    }
+
+    private void publishTokens(TokenOverlay tokenOverlay, Changes out) throws IOException {
+        if (tokenOverlay == null) {
+            return;
+        }
+        Set<Integer> removed = new HashSet<>(tokens.keySet());
+        int count = tokenOverlay.getTokenCount();
+        for (int i = 0; i < count; i++) {
+            int number = TokenOverlay.numberOf(tokenOverlay.getTokenId(i));
+            int x = tokenOverlay.getGridX(i);
+            int y = tokenOverlay.getGridY(i);
+            int width = tokenOverlay.getGridWidth(i);
+            int height = tokenOverlay.getGridHeight(i);
+            PublishedToken token = tokens.get(number);
+            removed.remove(number);
+            if (token == null) {
+                String imageId = tokenOverlay.getImageId(i);
+                tokens.put(number, new PublishedToken(imageId, x, y, width, height));
+                out.tokenAdded(number, imageId, x, y, width, height);
+            } else if (token.gridX != x || token.gridY != y || token.gridWidth != width || token.gridHeight != height) {
+                token.gridX = x;
+                token.gridY = y;
+                token.gridWidth = width;
+                token.gridHeight = height;
+                out.tokenMoved(number, x, y, width, height);
+            }
+        }
+        for (Integer number : removed) {
+            tokens.remove(number);
+            out.tokenRemoved(number);
+        }
+    }
+
+    private static class PublishedToken {
+        private final String imageId;
+        private int gridX;
+        private int gridY;
+        private int gridWidth;
+        private int gridHeight;
+
+        PublishedToken(String imageId, int gridX, int gridY, int gridWidth, int gridHeight) {
+            this.imageId = imageId;
+            this.gridX = gridX;
+            this.gridY = gridY;
+            this.gridWidth = gridWidth;
+            this.gridHeight = gridHeight;
+        }
+    }
+}
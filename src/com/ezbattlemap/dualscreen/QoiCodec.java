@@ -0,0 +1,199 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Lossless pixel codec following the QOI ("Quite OK Image") operations.
+ *
+ * Each pixel is written as a run of the previous pixel, a reference into a
+ * 64-entry table of recently seen colors, a small difference from the
+ * previous pixel, or a literal. Encoding and decoding are a single linear pass
+ * with no entropy coding, which makes decoding many times faster than PNG or
+ * JPEG while still compressing battlemaps well. Only the pixel stream is
+ * handled here; callers frame it with their own header.
+ */
+final class QoiCodec {
+    private static final int OP_INDEX = 0x00;
+    private static final int OP_DIFF = 0x40;
+    private static final int OP_LUMA = 0x80;
+    private static final int OP_RUN = 0xc0;
+    private static final int OP_RGB = 0xfe;
+    private static final int OP_RGBA = 0xff;
+    private static final int MASK_2 = 0xc0;
+    private static final int MAX_RUN = 62;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private QoiCodec() {
+    }
+
+    /**
+     * Encode rows [startRow, endRow) of the image as non-premultiplied ARGB.
+     */
+    static void encode(BufferedImage image, int startRow, int endRow, OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int[] row = new int[width];
+        int[] directPixels = directPixels(image);
+        int scanline = directPixels != null ? scanlineStride(image) : 0;
+        int alphaMask = image.getColorModel().hasAlpha() ? 0 : 0xff000000;
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int pos = 0;
+        int[] index = new int[64];
+        int previous = 0xff000000;
+        int run = 0;
+
+        for (int y = startRow; y < endRow; y++) {
+            if (directPixels != null) {
+                System.arraycopy(directPixels, y * scanline, row, 0, width);
+            } else {
+                image.getRGB(0, y, width, 1, row, 0, width);
+            }
+            for (int x = 0; x < width; x++) {
+                int pixel = row[x] | alphaMask;
+                if (pos > BUFFER_SIZE - 8) {
+                    out.write(buffer, 0, pos);
+                    pos = 0;
+                }
+                if (pixel == previous) {
+                    run++;
+                    if (run == MAX_RUN) {
+                        buffer[pos++] = (byte) (OP_RUN | (run - 1));
+                        run = 0;
+                    }
+                    continue;
+                }
+                if (run > 0) {
+                    buffer[pos++] = (byte) (OP_RUN | (run - 1));
+                    run = 0;
+                }
+
+                int hash = hash(pixel);
+                if (index[hash] == pixel) {
+                    buffer[pos++] = (byte) (OP_INDEX | hash);
+                } else {
+                    index[hash] = pixel;
+                    int a = pixel >>> 24;
+                    int r = (pixel >> 16) & 0xff;
+                    int g = (pixel >> 8) & 0xff;
+                    int b = pixel & 0xff;
+                    if (a == previous >>> 24) {
+                        int dr = (byte) (r - ((previous >> 16) & 0xff));
+                        int dg = (byte) (g - ((previous >> 8) & 0xff));
+                        int db = (byte) (b - (previous & 0xff));
+                        int drDg = dr - dg;
+                        int dbDg = db - dg;
+                        if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1) {
+                            buffer[pos++] = (byte) (OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                        } else if (dg >= -32 && dg <= 31 && drDg >= -8 && drDg <= 7 && dbDg >= -8 && dbDg <= 7) {
+                            buffer[pos++] = (byte) (OP_LUMA | (dg + 32));
+                            buffer[pos++] = (byte) ((drDg + 8) << 4 | (dbDg + 8));
+                        } else {
+                            buffer[pos++] = (byte) OP_RGB;
+                            buffer[pos++] = (byte) r;
+                            buffer[pos++] = (byte) g;
+                            buffer[pos++] = (byte) b;
+                        }
+                    } else {
+                        buffer[pos++] = (byte) OP_RGBA;
+                        buffer[pos++] = (byte) r;
+                        buffer[pos++] = (byte) g;
+                        buffer[pos++] = (byte) b;
+                        buffer[pos++] = (byte) a;
+                    }
+                }
+                previous = pixel;
+            }
+        }
+        if (run > 0) {
+            buffer[pos++] = (byte) (OP_RUN | (run - 1));
+        }
+        out.write(buffer, 0, pos);
+    }
+
+    /**
+     * Decode a pixel stream into pixels[offset, offset + count).
+     *
+     * @return the position in data after the last byte consumed
+     */
+    static int decode(byte[] data, int position, int[] pixels, int offset, int count) throws IOException {
+        int[] index = new int[64];
+        int pixel = 0xff000000;
+        int run = 0;
+        int pos = position;
+        int end = offset + count;
+        try {
+            for (int p = offset; p < end; p++) {
+                if (run > 0) {
+                    run--;
+                    pixels[p] = pixel;
+                    continue;
+                }
+                int op = data[pos++] & 0xff;
+                if (op == OP_RGB) {
+                    pixel = (pixel & 0xff000000) | (data[pos] & 0xff) << 16 | (data[pos + 1] & 0xff) << 8 | (data[pos + 2] & 0xff);
+                    pos += 3;
+                } else if (op == OP_RGBA) {
+                    pixel = (data[pos + 3] & 0xff) << 24 | (data[pos] & 0xff) << 16 | (data[pos + 1] & 0xff) << 8 | (data[pos + 2] & 0xff);
+                    pos += 4;
+                } else if ((op & MASK_2) == OP_INDEX) {
+                    pixel = index[op];
+                    pixels[p] = pixel;
+                    continue;
+                } else if ((op & MASK_2) == OP_DIFF) {
+                    int r = ((pixel >> 16) + ((op >> 4) & 3) - 2) & 0xff;
+                    int g = ((pixel >> 8) + ((op >> 2) & 3) - 2) & 0xff;
+                    int b = (pixel + (op & 3) - 2) & 0xff;
+                    pixel = (pixel & 0xff000000) | r << 16 | g << 8 | b;
+                } else if ((op & MASK_2) == OP_LUMA) {
+                    int next = data[pos++] & 0xff;
+                    int dg = (op & 0x3f) - 32;
+                    int r = ((pixel >> 16) + dg - 8 + ((next >> 4) & 0x0f)) & 0xff;
+                    int g = ((pixel >> 8) + dg) & 0xff;
+                    int b = (pixel + dg - 8 + (next & 0x0f)) & 0xff;
+                    pixel = (pixel & 0xff000000) | r << 16 | g << 8 | b;
+                } else {
+                    run = op & 0x3f;
+                }
+                index[hash(pixel)] = pixel;
+                pixels[p] = pixel;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated pixel data");
+        }
+        return pos;
+    }
+
+    private static int hash(int pixel) {
+        int a = pixel >>> 24;
+        int r = (pixel >> 16) & 0xff;
+        int g = (pixel >> 8) & 0xff;
+        int b = pixel & 0xff;
+        return (r * 3 + g * 5 + b * 7 + a * 11) & 63;
+    }
+
+    /**
+     * The backing int array of a packed RGB or ARGB image, or null if pixels
+     * must be read through getRGB.
+     */
+    private static int[] directPixels(BufferedImage image) {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+        Raster raster = image.getRaster();
+        if (raster.getParent() != null || !(raster.getDataBuffer() instanceof DataBufferInt)
+                || raster.getDataBuffer().getOffset() != 0) {
+            return null;
+        }
+        return ((DataBufferInt) raster.getDataBuffer()).getData();
+    }
+
+    private static int scanlineStride(BufferedImage image) {
+        return ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+    }
+}
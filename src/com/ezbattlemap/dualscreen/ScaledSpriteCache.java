@@ -0,0 +1,186 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token sprites scaled to the size they are drawn at the current zoom.
+ *
+ * Java2D allocates and filters every pixel again each time an image is drawn
+ * scaled, so a panel draws each sprite from a copy at its on-screen size,
+ * blitted 1:1. A copy's size follows from the token's size in map pixels and
+ * the zoom alone, not from where it lands on screen, so panning reuses it.
+ * Copies are kept least recently used first and counted against the
+ * {@link ImageMemoryManager}, which may evict those not drawn lately; the
+ * cache is emptied when the zoom changes. Sprites too large to copy cheaply
+ * are drawn scaled as before. Drawn on the event dispatch thread; evicted
+ * from any thread.
+ */
+final class ScaledSpriteCache implements ImageMemoryManager.ImageCache {
+    private static final int MAX_ENTRIES = 256;
+    // Beyond this a copy costs more memory than scaling the visible part each frame
+    private static final long MAX_SCALED_PIXELS = 1024 * 1024;
+    // Copies drawn this recently are on screen and are not evicted
+    private static final long MIN_IDLE_NANOS = 1_000_000_000L;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Reused for lookups, so a hit does not allocate
+    private final Key probe = new Key(null, 0, 0);
+    private ImageMemoryManager memoryManager;
+    private long sizeBytes;
+    private double scale;
+
+    /**
+     * Count the copies against a memory budget, or none if null.
+     */
+    void setMemoryManager(ImageMemoryManager memoryManager) {
+        if (this.memoryManager == memoryManager) {
+            return;
+        }
+        if (this.memoryManager != null) {
+            this.memoryManager.unregister(this);
+        }
+        this.memoryManager = memoryManager;
+        if (memoryManager != null) {
+            memoryManager.register(this);
+        }
+    }
+
+    /**
+     * Draw a sprite over a rectangle given in map pixels.
+     */
+    void draw(Graphics2D g2d, ViewTransform view, BufferedImage sprite,
+              int mapX, int mapY, int mapWidth, int mapHeight) {
+        double viewScale = view.getScale();
+        long width = Math.round(mapWidth * viewScale);
+        long height = Math.round(mapHeight * viewScale);
+        if (view.isDeviceScaled() || width * height > MAX_SCALED_PIXELS) {
+            view.drawImage(g2d, sprite, mapX, mapY, mapWidth, mapHeight);
+            return;
+        }
+        if (viewScale != scale) {
+            clear();
+            scale = viewScale;
+        }
+        BufferedImage image = get(sprite, (int) width, (int) height);
+        if (image != null) {
+            g2d.drawImage(image, view.x(mapX), view.y(mapY), null);
+        }
+    }
+
+    private BufferedImage get(BufferedImage sprite, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(probe.set(sprite, width, height));
+            probe.set(null, 0, 0);
+            if (entry != null) {
+                entry.lastUsed = System.nanoTime();
+                return entry.image;
+            }
+        }
+
+        BufferedImage image = CompatibleImages.create(width, height, true);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(sprite, 0, 0, width, height, null);
+        g2d.dispose();
+        synchronized (this) {
+            Entry entry = new Entry(image);
+            entries.put(new Key(sprite, width, height), entry);
+            sizeBytes += entry.bytes;
+            if (entries.size() > MAX_ENTRIES) {
+                Iterator<Entry> eldest = entries.values().iterator();
+                sizeBytes -= eldest.next().bytes;
+                eldest.remove();
+            }
+        }
+        if (memoryManager != null) {
+            memoryManager.trim();
+        }
+        return image;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    @Override
+    public ImageMemoryManager.Priority getPriority() {
+        return ImageMemoryManager.Priority.SCALED_SPRITE;
+    }
+
+    @Override
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public synchronized long evict(long bytesToFree) {
+        long cutoff = System.nanoTime() - MIN_IDLE_NANOS;
+        long freed = 0;
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext() && freed < bytesToFree) {
+            Entry entry = it.next().getValue();
+            if (entry.lastUsed - cutoff > 0) {
+                continue;
+            }
+            it.remove();
+            freed += entry.bytes;
+        }
+        sizeBytes -= freed;
+        return freed;
+    }
+
+    /**
+     * A sprite, by identity, at one size.
+     */
+    private static final class Key {
+        private BufferedImage sprite;
+        private int width;
+        private int height;
+
+        Key(BufferedImage sprite, int width, int height) {
+            set(sprite, width, height);
+        }
+
+        Key set(BufferedImage sprite, int width, int height) {
+            this.sprite = sprite;
+            this.width = width;
+            this.height = height;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return sprite == other.sprite && width == other.width && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(sprite) * 31 + width) * 31 + height;
+        }
+    }
+
+    private static final class Entry {
+        final BufferedImage image;
+        final long bytes;
+        long lastUsed;
+
+        Entry(BufferedImage image) {
+            this.image = image;
+            this.bytes = ImageMemoryManager.estimateBytes(image);
+            this.lastUsed = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot of a live battlemap scene: the library map, grid, revealed cells,
+ * brushed fog, tokens and the controller and display view transforms.
+ *
+ * A scene is captured on the event dispatch thread and then only read, so it
+ * can be encoded on a background thread while play continues.
+ */
+class Scene {
+    private final String mapId;
+    private final int squareSize;
+    private final int gridCols;
+    private final int gridRows;
+    private final boolean[][] revealedCells;
+    private final FogMask fogMask;
+    private final List<Token> tokens;
+    private final int nextTokenId;
+    private final double controllerScale;
+    private final Point controllerOffset;
+    private final double displayScale;
+    private final Point displayOffset;
+
+    Scene(String mapId, int squareSize, int gridCols, int gridRows, boolean[][] revealedCells,
+          FogMask fogMask, List<Token> tokens, int nextTokenId, double controllerScale, Point controllerOffset,
+          double displayScale, Point displayOffset) {
+        this.mapId = mapId;
+        this.squareSize = squareSize;
+        this.gridCols = gridCols;
+        this.gridRows = gridRows;
+        this.revealedCells = revealedCells;
+        this.fogMask = fogMask;
+        this.tokens = tokens;
+        this.nextTokenId = nextTokenId;
+        this.controllerScale = controllerScale;
+        this.controllerOffset = controllerOffset;
+        this.displayScale = displayScale;
+        this.displayOffset = displayOffset;
+    }
+
+    /**
+     * Capture the current state, copying the grid selection, brushed fog and
+     * tokens so later edits do not change the snapshot.
+     */
+    static Scene capture(String mapId, GridOverlay gridOverlay, TokenOverlay tokenOverlay,
+                         double controllerScale, Point controllerOffset,
+                         double displayScale, Point displayOffset) {
+        int cols = gridOverlay.getGridCols();
+        int rows = gridOverlay.getGridRows();
+        boolean[][] selected = gridOverlay.getSelectedCells();
+        boolean[][] revealed = new boolean[rows][];
+        for (int y = 0; y < rows; y++) {
+            revealed[y] = selected[y].clone();
+        }
+
+        int tokenCount = tokenOverlay.getTokenCount();
+        List<Token> tokens = new ArrayList<>(tokenCount);
+        for (int i = 0; i < tokenCount; i++) {
+            Token token = new Token(tokenOverlay.getTokenId(i), tokenOverlay.getImageId(i),
+                    tokenOverlay.getGridX(i), tokenOverlay.getGridY(i));
+            token.setGridWidth(tokenOverlay.getGridWidth(i));
+            token.setGridHeight(tokenOverlay.getGridHeight(i));
+            tokens.add(token);
+        }
+        return new Scene(mapId, gridOverlay.getSquareSize(), cols, rows, revealed,
+                gridOverlay.getFogMask().copy(), tokens,
+                tokenOverlay.getNextTokenId(), controllerScale, new Point(controllerOffset),
+                displayScale, new Point(displayOffset));
+    }
+
+    String getMapId() {
+        return mapId;
+    }
+
+    int getSquareSize() {
+        return squareSize;
+    }
+
+    int getGridCols() {
+        return gridCols;
+    }
+
+    int getGridRows() {
+        return gridRows;
+    }
+
+    boolean[][] getRevealedCells() {
+        return revealedCells;
+    }
+
+    /**
+     * Brushed fog, or null for scenes saved before it was kept.
+     */
+    FogMask getFogMask() {
+        return fogMask;
+    }
+
+    List<Token> getTokens() {
+        return tokens;
+    }
+
+    int getNextTokenId() {
+        return nextTokenId;
+    }
+
+    double getControllerScale() {
+        return controllerScale;
+    }
+
+    Point getControllerOffset() {
+        return controllerOffset;
+    }
+
+    double getDisplayScale() {
+        return displayScale;
+    }
+
+    Point getDisplayOffset() {
+        return displayOffset;
+    }
+}
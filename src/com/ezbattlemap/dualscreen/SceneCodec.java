@@ -0,0 +1,270 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.Point;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a {@link Scene}.
+ *
+ * Integers are written as variable-length values, so small grid coordinates
+ * and sizes take one or two bytes. Revealed cells are stored row-major as
+ * alternating run lengths of hidden and revealed cells, or as a plain bitset
+ * when the reveal pattern is too fragmented for runs to be smaller, followed
+ * by the brushed {@link FogMask}, which version 1 files lack. Token
+ * image ids are written once each and referenced by index, since most scenes
+ * repeat a few sprites many times.
+ */
+final class SceneCodec {
+    private static final int MAGIC = 0x455a5343; // "EZSC"
+    private static final int VERSION = 2;
+    private static final int CELLS_RUNS = 0;
+    private static final int CELLS_BITS = 1;
+    private static final int MAX_CELLS = 1 << 28;
+
+    private SceneCodec() {
+    }
+
+    static void write(Scene scene, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(scene.getMapId());
+        writeVarInt(out, scene.getSquareSize());
+        writeVarInt(out, scene.getGridCols());
+        writeVarInt(out, scene.getGridRows());
+        writeCells(out, scene.getRevealedCells(), scene.getGridCols(), scene.getGridRows());
+        FogMask mask = scene.getFogMask();
+        writeVarInt(out, mask.getWidth());
+        writeVarInt(out, mask.getHeight());
+        mask.write(out);
+
+        out.writeDouble(scene.getControllerScale());
+        writeSignedVarInt(out, scene.getControllerOffset().x);
+        writeSignedVarInt(out, scene.getControllerOffset().y);
+        out.writeDouble(scene.getDisplayScale());
+        writeSignedVarInt(out, scene.getDisplayOffset().x);
+        writeSignedVarInt(out, scene.getDisplayOffset().y);
+
+        // Distinct image ids first, then tokens referring to them by index
+        Map<String, Integer> imageIndex = new HashMap<>();
+        List<String> imageIds = new ArrayList<>();
+        for (Token token : scene.getTokens()) {
+            if (imageIndex.putIfAbsent(token.getImageId(), imageIds.size()) == null) {
+                imageIds.add(token.getImageId());
+            }
+        }
+        writeVarInt(out, imageIds.size());
+        for (String imageId : imageIds) {
+            out.writeUTF(imageId);
+        }
+        writeVarInt(out, scene.getNextTokenId());
+        writeVarInt(out, scene.getTokens().size());
+        for (Token token : scene.getTokens()) {
+            out.writeUTF(token.getId());
+            writeVarInt(out, imageIndex.get(token.getImageId()));
+            writeSignedVarInt(out, token.getGridX());
+            writeSignedVarInt(out, token.getGridY());
+            writeVarInt(out, token.getGridWidth());
+            writeVarInt(out, token.getGridHeight());
+        }
+        out.flush();
+    }
+
+    static Scene read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a scene file");
+        }
+        int version = in.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported scene version " + version);
+        }
+        String mapId = in.readUTF();
+        int squareSize = readVarInt(in);
+        int cols = readVarInt(in);
+        int rows = readVarInt(in);
+        boolean[][] revealed = readCells(in, cols, rows);
+        FogMask mask = null;
+        if (version >= 2) {
+            int width = readVarInt(in);
+            int height = readVarInt(in);
+            mask = FogMask.read(in, width, height);
+        }
+
+        double controllerScale = in.readDouble();
+        Point controllerOffset = new Point(readSignedVarInt(in), readSignedVarInt(in));
+        double displayScale = in.readDouble();
+        Point displayOffset = new Point(readSignedVarInt(in), readSignedVarInt(in));
+
+        int imageCount = readVarInt(in);
+        if (imageCount < 0) {
+            throw new IOException("Corrupt scene file: bad image count");
+        }
+        String[] imageIds = new String[imageCount];
+        for (int i = 0; i < imageCount; i++) {
+            imageIds[i] = in.readUTF();
+        }
+        int nextTokenId = readVarInt(in);
+        int tokenCount = readVarInt(in);
+        List<Token> tokens = new ArrayList<>(Math.min(tokenCount, 1 << 16));
+        for (int i = 0; i < tokenCount; i++) {
+            String id = in.readUTF();
+            int image = readVarInt(in);
+            if (image >= imageCount) {
+                throw new IOException("Corrupt scene file: bad image index");
+            }
+            Token token = new Token(id, imageIds[image], readSignedVarInt(in), readSignedVarInt(in));
+            token.setGridWidth(readVarInt(in));
+            token.setGridHeight(readVarInt(in));
+            tokens.add(token);
+        }
+        return new Scene(mapId, squareSize, cols, rows, revealed, mask, tokens, nextTokenId,
+                controllerScale, controllerOffset, displayScale, displayOffset);
+    }
+
+    /**
+     * Write a cols x rows cell bitmap using whichever of run lengths or a
+     * bitset is smaller. The dimensions are not written.
+     */
+    static void writeCells(DataOutputStream out, boolean[][] cells, int cols, int rows) throws IOException {
+        // Size the runs first so only the smaller encoding is ever written
+        long runBytes = 0;
+        boolean current = false;
+        int run = 0;
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                if (cells[y][x] != current) {
+                    runBytes += varIntSize(run);
+                    current = !current;
+                    run = 0;
+                }
+                run++;
+            }
+        }
+        runBytes += varIntSize(run);
+
+        long bitsetSize = ((long) cols * rows + 7) / 8;
+        if (runBytes <= bitsetSize) {
+            out.writeByte(CELLS_RUNS);
+            current = false;
+            run = 0;
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < cols; x++) {
+                    if (cells[y][x] != current) {
+                        writeVarInt(out, run);
+                        current = !current;
+                        run = 0;
+                    }
+                    run++;
+                }
+            }
+            writeVarInt(out, run);
+            return;
+        }
+
+        out.writeByte(CELLS_BITS);
+        byte[] bits = new byte[(int) bitsetSize];
+        int index = 0;
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++, index++) {
+                if (cells[y][x]) {
+                    bits[index >> 3] |= 1 << (index & 7);
+                }
+            }
+        }
+        out.write(bits);
+    }
+
+    /**
+     * Read a cols x rows cell bitmap written by {@link #writeCells}.
+     */
+    static boolean[][] readCells(DataInputStream in, int cols, int rows) throws IOException {
+        if (cols < 0 || rows < 0 || (long) cols * rows > MAX_CELLS) {
+            throw new IOException("Corrupt scene file: grid too large");
+        }
+        boolean[][] cells = new boolean[rows][cols];
+        int format = in.readUnsignedByte();
+        if (format == CELLS_RUNS) {
+            // Runs alternate hidden, revealed, hidden, ... and cover every cell
+            long total = (long) cols * rows;
+            long position = 0;
+            boolean value = false;
+            while (true) {
+                int run = readVarInt(in);
+                if (run < 0 || run > total - position) {
+                    throw new IOException("Corrupt scene file: cell run overflows grid");
+                }
+                if (value) {
+                    fillRun(cells, cols, position, run);
+                }
+                position += run;
+                if (position == total) {
+                    break;
+                }
+                value = !value;
+            }
+        } else if (format == CELLS_BITS) {
+            byte[] bits = new byte[(int) (((long) cols * rows + 7) / 8)];
+            in.readFully(bits);
+            int index = 0;
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < cols; x++, index++) {
+                    cells[y][x] = (bits[index >> 3] & (1 << (index & 7))) != 0;
+                }
+            }
+        } else {
+            throw new IOException("Corrupt scene file: unknown cell format " + format);
+        }
+        return cells;
+    }
+
+    private static void fillRun(boolean[][] cells, int cols, long position, int run) {
+        int y = (int) (position / cols);
+        int x = (int) (position % cols);
+        while (run > 0) {
+            int length = Math.min(run, cols - x);
+            Arrays.fill(cells[y], x, x + length, true);
+            run -= length;
+            x = 0;
+            y++;
+        }
+    }
+
+    private static int varIntSize(int value) {
+        return value < (1 << 7) ? 1 : value < (1 << 14) ? 2 : value < (1 << 21) ? 3 : value < (1 << 28) ? 4 : 5;
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt scene file: malformed number");
+    }
+
+    static void writeSignedVarInt(DataOutput out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int readSignedVarInt(DataInput in) throws IOException {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,129 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.swing.Timer;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Saves and restores scenes, and autosaves the live scene.
+ *
+ * Every few seconds the controller's change count is compared with the one
+ * last saved; only when something changed is the scene captured on the event
+ * dispatch thread and encoded and written on a background thread, so
+ * autosave costs nothing while the table is idle. Files are written to a
+ * temporary file and moved into place, so a crash mid-write never leaves a
+ * truncated scene. The autosave lives at scenes/autosave.ezscene under the
+ * library root. The same tick saves the open map's fog to its {@link FogStore}.
+ */
+class SceneManager {
+    static final String EXTENSION = ".ezscene";
+    private static final String SCENES_DIR_NAME = "scenes";
+    private static final String AUTOSAVE_NAME = "autosave" + EXTENSION;
+    private static final int AUTOSAVE_INTERVAL_MILLIS = 5000;
+
+    private final ControllerFrame controller;
+    private final File scenesDir;
+    private final ExecutorService writer;
+    private final Timer autosaveTimer;
+    private long savedModCount;
+
+    SceneManager(ControllerFrame controller, File libraryRoot) {
+        this.controller = controller;
+        this.scenesDir = new File(libraryRoot, SCENES_DIR_NAME);
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "scene-writer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.autosaveTimer = new Timer(AUTOSAVE_INTERVAL_MILLIS, e -> autosave());
+        this.savedModCount = controller.getSceneModCount();
+    }
+
+    File getScenesDirectory() {
+        return scenesDir;
+    }
+
+    File getAutosaveFile() {
+        return new File(scenesDir, AUTOSAVE_NAME);
+    }
+
+    void startAutosave() {
+        autosaveTimer.start();
+    }
+
+    /**
+     * Mark the current state as saved, e.g. right after a scene was opened.
+     */
+    void markSaved() {
+        savedModCount = controller.getSceneModCount();
+    }
+
+    private void autosave() {
+        controller.saveFog();
+        long modCount = controller.getSceneModCount();
+        if (modCount == savedModCount) {
+            return;
+        }
+        Scene scene = controller.captureScene();
+        savedModCount = modCount;
+        if (scene != null) {
+            File file = getAutosaveFile();
+            writer.execute(() -> writeQuietly(scene, file));
+        }
+    }
+
+    /**
+     * Write any unsaved changes to the autosave and wait for all pending
+     * writes, e.g. before the application exits.
+     */
+    void flush() {
+        autosave();
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Error saving scene: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write a scene to a file in the background.
+     */
+    void saveAsync(Scene scene, File file) {
+        writer.execute(() -> writeQuietly(scene, file));
+    }
+
+    private void writeQuietly(Scene scene, File file) {
+        try {
+            write(scene, file);
+        } catch (IOException e) {
+            System.err.println("Error saving scene: " + e.getMessage());
+        }
+    }
+
+    static void write(Scene scene, File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        File tempFile = new File(dir, file.getName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+            SceneCodec.write(scene, out);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static Scene read(File file) throws IOException {
+        try {
+            return SceneCodec.read(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt scene file: " + e.getMessage(), e);
+        }
+    }
+}
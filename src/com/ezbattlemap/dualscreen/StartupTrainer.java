@@ -0,0 +1,183 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Training run used by the fast-start launch mode.
+ *
+ * The launcher scripts run the application once with "--train" while the JVM
+ * records every class it loads into a class data sharing archive (or AOT cache
+ * on newer JDKs). The training pass imports a generated map into a library in
+ * a temporary directory, decodes it through ImageIO and renders it on both
+ * screens, then deletes the library and exits, so the archive covers the
+ * Swing, Java2D and ImageIO classes needed by a normal session start without
+ * touching the user's library.
+ */
+class StartupTrainer {
+    static final String TRAIN_ARG = "--train";
+
+    private static final int SYNTHETIC_MAP_SIZE = 2048;
+    private static final int SYNTHETIC_SQUARE_SIZE = 128;
+    private static final int EXIT_DELAY_MS = 1500;
+
+    private StartupTrainer() {
+    }
+
+    /**
+     * Exercise the interactive startup path: start the application on a
+     * training library, load its map, reveal it, render both frames and exit.
+     */
+    static void run(boolean fullScreen) {
+        ImageLibrary library = createLibrary();
+        if (library == null) {
+            System.exit(0);
+            return;
+        }
+        DualScreenImageApp app = new DualScreenImageApp(fullScreen, library);
+        app.showImage(loadTrainingMap(library));
+        app.revealAll();
+
+        Timer exitTimer = new Timer(EXIT_DELAY_MS, e -> {
+            for (Window window : Window.getWindows()) {
+                if (window.isShowing()) {
+                    renderOffscreen(window);
+                }
+            }
+            deleteLibrary(library);
+            System.exit(0);
+        });
+        exitTimer.setRepeats(false);
+        exitTimer.start();
+    }
+
+    /**
+     * Exercise the same classes without opening windows, for machines that
+     * generate the archive without a display.
+     */
+    static void runHeadless() {
+        ImageLibrary library = createLibrary();
+        if (library == null) {
+            System.exit(0);
+            return;
+        }
+        try {
+            BufferedImage map = loadTrainingMap(library);
+
+            GridOverlay gridOverlay = new GridOverlay();
+            gridOverlay.setSquareSize(SYNTHETIC_SQUARE_SIZE);
+            gridOverlay.setImageDimensions(map.getWidth(), map.getHeight());
+            gridOverlay.selectAll();
+            TokenOverlay tokenOverlay = new TokenOverlay();
+
+            ImagePanel imagePanel = new ImagePanel(gridOverlay, tokenOverlay, library);
+            imagePanel.setSize(1280, 720);
+            imagePanel.setImage(map);
+            renderOffscreen(imagePanel);
+
+            DisplayPanel displayPanel = new DisplayPanel();
+            displayPanel.setSize(1280, 720);
+            displayPanel.setImageLibrary(library);
+            displayPanel.setGridOverlay(gridOverlay);
+            displayPanel.setTokenOverlay(tokenOverlay);
+            displayPanel.setFullImage(map);
+            displayPanel.setViewportImage(map, gridOverlay.getSelectedBounds());
+            renderOffscreen(displayPanel);
+        } catch (Exception e) {
+            System.err.println("Training run failed: " + e.getMessage());
+        }
+        deleteLibrary(library);
+        System.exit(0);
+    }
+
+    /**
+     * Create a library in a temporary directory holding one generated map,
+     * imported as a PNG. A JPEG copy is decoded too, so both readers are
+     * loaded. Returns null if the library cannot be created.
+     */
+    private static ImageLibrary createLibrary() {
+        try {
+            ImageLibrary library = new ImageLibrary(Files.createTempDirectory("ezbattlemap-train").toFile());
+            BufferedImage synthetic = createSyntheticMap();
+            for (String format : new String[]{"jpg", "png"}) {
+                File temp = File.createTempFile("ezbattlemap-train", "." + format);
+                try {
+                    ImageIO.write(synthetic, format, temp);
+                    if ("png".equals(format)) {
+                        library.addImage(temp, ImageMetadata.LibraryType.MAP);
+                    } else {
+                        ImageIO.read(temp);
+                    }
+                } finally {
+                    temp.delete();
+                }
+            }
+            return library;
+        } catch (Exception e) {
+            System.err.println("Error creating training library: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Load the training library's map, or fall back to a generated one if it
+     * cannot be decoded.
+     */
+    private static BufferedImage loadTrainingMap(ImageLibrary library) {
+        for (String id : library.getImageIdsByType(ImageMetadata.LibraryType.MAP)) {
+            try {
+                BufferedImage image = library.loadImage(id);
+                if (image != null) {
+                    library.getThumbnail(id);
+                    return image;
+                }
+            } catch (Exception e) {
+                System.err.println("Error loading training map: " + e.getMessage());
+            }
+        }
+        return createSyntheticMap();
+    }
+
+    /**
+     * Delete the training library once its background writes are done.
+     */
+    private static void deleteLibrary(ImageLibrary library) {
+        library.flushWrites();
+        try (Stream<Path> paths = Files.walk(library.getLibraryRoot().toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            System.err.println("Error deleting training library: " + e.getMessage());
+        }
+    }
+
+    private static BufferedImage createSyntheticMap() {
+        BufferedImage image = new BufferedImage(SYNTHETIC_MAP_SIZE, SYNTHETIC_MAP_SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setPaint(new GradientPaint(0, 0, new Color(70, 90, 60), SYNTHETIC_MAP_SIZE, SYNTHETIC_MAP_SIZE, new Color(120, 100, 80)));
+        g2d.fillRect(0, 0, SYNTHETIC_MAP_SIZE, SYNTHETIC_MAP_SIZE);
+        g2d.setColor(new Color(0, 0, 0, 80));
+        for (int i = 0; i <= SYNTHETIC_MAP_SIZE; i += SYNTHETIC_SQUARE_SIZE) {
+            g2d.drawLine(i, 0, i, SYNTHETIC_MAP_SIZE);
+            g2d.drawLine(0, i, SYNTHETIC_MAP_SIZE, i);
+        }
+        g2d.dispose();
+        return image;
+    }
+
+    private static void renderOffscreen(Component component) {
+        int width = Math.max(1, component.getWidth());
+        int height = Math.max(1, component.getHeight());
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = target.createGraphics();
+        component.paint(g2d);
+        g2d.dispose();
+    }
+}
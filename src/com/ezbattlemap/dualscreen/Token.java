@@ -1,10 +1,14 @@
 package com.ezbattlemap.dualscreen;
 
-import java.awt.image.BufferedImage;
 import java.io.Serializable;
 
 /**
  * Represents a token placed on the map grid.
+ *
+ * Tokens on a {@link TokenOverlay} are lightweight views of its arrays: the
+ * overlay hands out one view per token, reads and writes go straight to the
+ * overlay, and once the token is removed the view keeps its last values.
+ * Tokens created with the public constructor stand alone, e.g. in a saved scene.
  */
 public class Token implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -15,7 +19,9 @@ public class Token implements Serializable {
     private int gridY;                  // Grid cell Y position
     private int gridWidth;              // Token width in grid squares (default 1)
     private int gridHeight;             // Token height in grid squares (default 1)
-    private transient BufferedImage cachedImage;  // Cached image (not serialized)
+
+    private transient TokenOverlay overlay; // Backing overlay while placed on it
+    private transient int number;           // Numeric id within the overlay
 
     public Token(String id, String imageId, int gridX, int gridY) {
         this.id = id;
@@ -26,66 +32,114 @@ public class Token implements Serializable {
         this.gridHeight = 1;
     }
 
+    /**
+     * View of a token stored in an overlay.
+     */
+    Token(TokenOverlay overlay, int number) {
+        this.id = TokenOverlay.idOf(number);
+        this.overlay = overlay;
+        this.number = number;
+    }
+
+    /**
+     * Copy the overlay's values into this view when its token is removed.
+     */
+    void detach() {
+        imageId = overlay.imageIdOf(number);
+        gridX = overlay.gridXOf(number);
+        gridY = overlay.gridYOf(number);
+        gridWidth = overlay.gridWidthOf(number);
+        gridHeight = overlay.gridHeightOf(number);
+        overlay = null;
+    }
+
+    /**
+     * This view's number on the given overlay, or -1 if it is not one of its views.
+     */
+    int numberOn(TokenOverlay overlay) {
+        return overlay != null && this.overlay == overlay ? number : -1;
+    }
+
     // Getters
     public String getId() {
         return id;
     }
 
     public String getImageId() {
-        return imageId;
+        return overlay != null ? overlay.imageIdOf(number) : imageId;
     }
 
     public int getGridX() {
-        return gridX;
+        return overlay != null ? overlay.gridXOf(number) : gridX;
     }
 
     public int getGridY() {
-        return gridY;
+        return overlay != null ? overlay.gridYOf(number) : gridY;
     }
 
     public int getGridWidth() {
-        return gridWidth;
+        return overlay != null ? overlay.gridWidthOf(number) : gridWidth;
     }
 
     public int getGridHeight() {
-        return gridHeight;
-    }
-
-    public BufferedImage getCachedImage() {
-        return cachedImage;
+        return overlay != null ? overlay.gridHeightOf(number) : gridHeight;
     }
 
     // Setters
     public void setGridX(int gridX) {
-        this.gridX = gridX;
+        if (overlay != null) {
+            overlay.moveToken(id, gridX, getGridY());
+        } else {
+            this.gridX = gridX;
+        }
     }
 
     public void setGridY(int gridY) {
-        this.gridY = gridY;
+        if (overlay != null) {
+            overlay.moveToken(id, getGridX(), gridY);
+        } else {
+            this.gridY = gridY;
+        }
     }
 
     public void setGridWidth(int gridWidth) {
-        this.gridWidth = gridWidth;
+        if (overlay != null) {
+            overlay.resizeToken(id, gridWidth, getGridHeight());
+        } else {
+            this.gridWidth = gridWidth;
+        }
     }
 
     public void setGridHeight(int gridHeight) {
-        this.gridHeight = gridHeight;
-    }
-
-    public void setCachedImage(BufferedImage cachedImage) {
-        this.cachedImage = cachedImage;
+        if (overlay != null) {
+            overlay.resizeToken(id, getGridWidth(), gridHeight);
+        } else {
+            this.gridHeight = gridHeight;
+        }
     }
 
     /**
      * Check if this token overlaps with the given grid cell.
      */
     public boolean overlapsCell(int cellX, int cellY) {
-        return cellX >= gridX && cellX < gridX + gridWidth &&
-               cellY >= gridY && cellY < gridY + gridHeight;
+        int x = getGridX();
+        int y = getGridY();
+        return cellX >= x && cellX < x + getGridWidth() &&
+               cellY >= y && cellY < y + getGridHeight();
+    }
+
+    private Object writeReplace() {
+        if (overlay == null) {
+            return this;
+        }
+        Token copy = new Token(id, getImageId(), getGridX(), getGridY());
+        copy.gridWidth = getGridWidth();
+        copy.gridHeight = getGridHeight();
+        return copy;
     }
 
     @Override
     public String toString() {
-        return "Token[" + id + " at (" + gridX + "," + gridY + ") size " + gridWidth + "x" + gridHeight + "]";
+        return "Token[" + id + " at (" + getGridX() + "," + getGridY() + ") size " + getGridWidth() + "x" + getGridHeight() + "]";
     }
 }
@@ -4,57 +4,126 @@ import java.util.*;
 
 /**
  * Manages tokens placed on the battlemap.
+ *
+ * Tokens are stored as parallel primitive arrays indexed by slot, with a
+ * z-order array listing slots from bottom to top and image ids shared through
+ * a small table, so mass battles with thousands of tokens stay compact and can
+ * be drawn with the index accessors ({@link #getTokenCount()},
+ * {@link #getGridX(int)}, ...) without allocating. {@link Token} objects are
+ * views created on demand and reused for the token's lifetime.
  */
 public class TokenOverlay {
-    private final Map<String, Token> tokens;
+    private static final String ID_PREFIX = "token_";
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MAX_RESTORED_NUMBER = 1 << 24;
+
+    // Per-slot token data; slots of removed tokens are reused
+    private int[] numbers = new int[INITIAL_CAPACITY];
+    private int[] gridXs = new int[INITIAL_CAPACITY];
+    private int[] gridYs = new int[INITIAL_CAPACITY];
+    private int[] gridWidths = new int[INITIAL_CAPACITY];
+    private int[] gridHeights = new int[INITIAL_CAPACITY];
+    private int[] imageIndexes = new int[INITIAL_CAPACITY];
+    private Token[] views = new Token[INITIAL_CAPACITY];
+    private int slotCount;
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount;
+
+    // Slots in render order, bottom to top
+    private int[] zOrder = new int[INITIAL_CAPACITY];
+    private int count;
+
+    // Slot of each token number, or -1
+    private int[] slotOfNumber = new int[INITIAL_CAPACITY];
+
+    private final List<String> imageIds = new ArrayList<>();
+    private final Map<String, Integer> imageIndex = new HashMap<>();
     private int nextTokenId;
+    private int modCount;
 
     public TokenOverlay() {
-        this.tokens = new LinkedHashMap<>();  // Preserve insertion order for rendering
         this.nextTokenId = 1;
+        Arrays.fill(slotOfNumber, -1);
     }
 
     /**
      * Add a token to the overlay.
      */
     public Token addToken(String imageId, int gridX, int gridY) {
-        String tokenId = "token_" + nextTokenId++;
-        Token token = new Token(tokenId, imageId, gridX, gridY);
-        tokens.put(tokenId, token);
-        return token;
+        int slot = insert(nextTokenId++, imageId, gridX, gridY, 1, 1);
+        modCount++;
+        return view(slot);
+    }
+
+    /**
+     * Add a token under a given id, e.g. one mirrored from another overlay.
+     * Returns null if the id is not a "token_N" id or is already in use.
+     */
+    Token addToken(String tokenId, String imageId, int gridX, int gridY, int gridWidth, int gridHeight) {
+        int number = numberOf(tokenId);
+        if (number < 0 || number > MAX_RESTORED_NUMBER || slotOf(tokenId) >= 0) {
+            return null;
+        }
+        int slot = insert(number, imageId, gridX, gridY, gridWidth, gridHeight);
+        nextTokenId = Math.max(nextTokenId, number + 1);
+        modCount++;
+        return view(slot);
     }
 
     /**
      * Remove a token from the overlay.
      */
     public void removeToken(String tokenId) {
-        tokens.remove(tokenId);
+        int slot = slotOf(tokenId);
+        if (slot < 0) {
+            return;
+        }
+        if (views[slot] != null) {
+            views[slot].detach();
+            views[slot] = null;
+        }
+        for (int i = 0; i < count; i++) {
+            if (zOrder[i] == slot) {
+                System.arraycopy(zOrder, i + 1, zOrder, i, count - i - 1);
+                break;
+            }
+        }
+        count--;
+        slotOfNumber[numbers[slot]] = -1;
+        freeSlots[freeCount++] = slot;
+        modCount++;
     }
 
     /**
      * Get a token by ID.
      */
     public Token getToken(String tokenId) {
-        return tokens.get(tokenId);
+        int slot = slotOf(tokenId);
+        return slot >= 0 ? view(slot) : null;
     }
 
     /**
-     * Get all tokens.
+     * Get all tokens, bottom to top. Paint code should use the index
+     * accessors instead, which do not allocate.
      */
     public Collection<Token> getAllTokens() {
-        return new ArrayList<>(tokens.values());
+        List<Token> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add(view(zOrder[i]));
+        }
+        return tokens;
     }
 
     /**
      * Find token at a specific grid position (returns topmost token).
      */
     public Token getTokenAtPosition(int gridX, int gridY) {
-        // Iterate in reverse order to get topmost token
-        List<Token> tokenList = new ArrayList<>(tokens.values());
-        for (int i = tokenList.size() - 1; i >= 0; i--) {
-            Token token = tokenList.get(i);
-            if (token.overlapsCell(gridX, gridY)) {
-                return token;
+        for (int i = count - 1; i >= 0; i--) {
+            int slot = zOrder[i];
+            int x = gridXs[slot];
+            int y = gridYs[slot];
+            if (gridX >= x && gridX < x + gridWidths[slot] && gridY >= y && gridY < y + gridHeights[slot]) {
+                return view(slot);
             }
         }
         return null;
@@ -64,10 +133,11 @@ public class TokenOverlay {
      * Move a token to a new grid position.
      */
     public void moveToken(String tokenId, int newGridX, int newGridY) {
-        Token token = tokens.get(tokenId);
-        if (token != null) {
-            token.setGridX(newGridX);
-            token.setGridY(newGridY);
+        int slot = slotOf(tokenId);
+        if (slot >= 0) {
+            gridXs[slot] = newGridX;
+            gridYs[slot] = newGridY;
+            modCount++;
         }
     }
 
@@ -75,10 +145,11 @@ public class TokenOverlay {
      * Change the size of a token.
      */
     public void resizeToken(String tokenId, int gridWidth, int gridHeight) {
-        Token token = tokens.get(tokenId);
-        if (token != null) {
-            token.setGridWidth(gridWidth);
-            token.setGridHeight(gridHeight);
+        int slot = slotOf(tokenId);
+        if (slot >= 0) {
+            gridWidths[slot] = gridWidth;
+            gridHeights[slot] = gridHeight;
+            modCount++;
         }
     }
 
@@ -86,13 +157,234 @@ public class TokenOverlay {
      * Clear all tokens.
      */
     public void clearAll() {
-        tokens.clear();
+        removeAll();
+        modCount++;
+    }
+
+    /**
+     * Replace all tokens, e.g. from a saved scene. Ids handed out afterwards
+     * start at nextTokenId so they never collide with the restored tokens.
+     */
+    public void restoreTokens(Collection<Token> restored, int nextTokenId) {
+        removeAll();
+        this.nextTokenId = Math.max(1, nextTokenId);
+        List<Token> renumbered = new ArrayList<>();
+        for (Token token : restored) {
+            int number = numberOf(token.getId());
+            if (number < 0 || number > MAX_RESTORED_NUMBER
+                    || (number < slotOfNumber.length && slotOfNumber[number] >= 0)) {
+                // Unusual or duplicate ids get fresh numbers below
+                renumbered.add(token);
+                continue;
+            }
+            insert(number, token.getImageId(), token.getGridX(), token.getGridY(),
+                    token.getGridWidth(), token.getGridHeight());
+            this.nextTokenId = Math.max(this.nextTokenId, number + 1);
+        }
+        for (Token token : renumbered) {
+            insert(this.nextTokenId++, token.getImageId(), token.getGridX(), token.getGridY(),
+                    token.getGridWidth(), token.getGridHeight());
+        }
+        modCount++;
+    }
+
+    /**
+     * The number the next added token's id will use.
+     */
+    public int getNextTokenId() {
+        return nextTokenId;
+    }
+
+    /**
+     * Number of changes to the tokens so far, for detecting unsaved changes.
+     */
+    public int getModCount() {
+        return modCount;
     }
 
     /**
      * Get number of tokens.
      */
     public int getTokenCount() {
-        return tokens.size();
+        return count;
+    }
+
+    // Index accessors: index 0 is the bottom token, getTokenCount() - 1 the top
+
+    public int getGridX(int index) {
+        return gridXs[zOrder[index]];
+    }
+
+    public int getGridY(int index) {
+        return gridYs[zOrder[index]];
+    }
+
+    public int getGridWidth(int index) {
+        return gridWidths[zOrder[index]];
+    }
+
+    public int getGridHeight(int index) {
+        return gridHeights[zOrder[index]];
+    }
+
+    public String getImageId(int index) {
+        return imageIds.get(imageIndexes[zOrder[index]]);
+    }
+
+    public String getTokenId(int index) {
+        return idOf(numbers[zOrder[index]]);
+    }
+
+    public Token getTokenAt(int index) {
+        return view(zOrder[index]);
+    }
+
+    /**
+     * Number of a token's id, for lookups that should not build the id string.
+     */
+    int getNumber(int index) {
+        return numbers[zOrder[index]];
+    }
+
+    /**
+     * Render-order index of a token, or -1 if it is not on this overlay.
+     */
+    public int indexOf(Token token) {
+        if (token == null) {
+            return -1;
+        }
+        // Views of this overlay know their number, so no id needs parsing
+        int number = token.numberOn(this);
+        int slot = number >= 0 ? slotOfNumber[number] : slotOf(token.getId());
+        if (slot >= 0) {
+            for (int i = 0; i < count; i++) {
+                if (zOrder[i] == slot) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Lookups by token number, used by Token views
+
+    String imageIdOf(int number) {
+        return imageIds.get(imageIndexes[slotOfNumber[number]]);
+    }
+
+    int gridXOf(int number) {
+        return gridXs[slotOfNumber[number]];
+    }
+
+    int gridYOf(int number) {
+        return gridYs[slotOfNumber[number]];
+    }
+
+    int gridWidthOf(int number) {
+        return gridWidths[slotOfNumber[number]];
+    }
+
+    int gridHeightOf(int number) {
+        return gridHeights[slotOfNumber[number]];
+    }
+
+    static String idOf(int number) {
+        return ID_PREFIX + number;
+    }
+
+    /**
+     * The number in a "token_N" id, or -1 for any other string.
+     */
+    static int numberOf(String tokenId) {
+        if (tokenId == null || !tokenId.startsWith(ID_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(tokenId.substring(ID_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int slotOf(String tokenId) {
+        int number = numberOf(tokenId);
+        if (number < 0 || number >= slotOfNumber.length) {
+            return -1;
+        }
+        return slotOfNumber[number];
+    }
+
+    private Token view(int slot) {
+        Token view = views[slot];
+        if (view == null) {
+            view = new Token(this, numbers[slot]);
+            views[slot] = view;
+        }
+        return view;
+    }
+
+    private int insert(int number, String imageId, int gridX, int gridY, int gridWidth, int gridHeight) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount == numbers.length) {
+                growSlots();
+            }
+            slot = slotCount++;
+        }
+        Integer index = imageIndex.get(imageId);
+        if (index == null) {
+            index = imageIds.size();
+            imageIds.add(imageId);
+            imageIndex.put(imageId, index);
+        }
+        numbers[slot] = number;
+        gridXs[slot] = gridX;
+        gridYs[slot] = gridY;
+        gridWidths[slot] = gridWidth;
+        gridHeights[slot] = gridHeight;
+        imageIndexes[slot] = index;
+
+        if (count == zOrder.length) {
+            zOrder = Arrays.copyOf(zOrder, count * 2);
+        }
+        zOrder[count++] = slot;
+
+        if (number >= slotOfNumber.length) {
+            int oldLength = slotOfNumber.length;
+            slotOfNumber = Arrays.copyOf(slotOfNumber, Math.max(number + 1, oldLength * 2));
+            Arrays.fill(slotOfNumber, oldLength, slotOfNumber.length, -1);
+        }
+        slotOfNumber[number] = slot;
+        return slot;
+    }
+
+    private void growSlots() {
+        int capacity = numbers.length * 2;
+        numbers = Arrays.copyOf(numbers, capacity);
+        gridXs = Arrays.copyOf(gridXs, capacity);
+        gridYs = Arrays.copyOf(gridYs, capacity);
+        gridWidths = Arrays.copyOf(gridWidths, capacity);
+        gridHeights = Arrays.copyOf(gridHeights, capacity);
+        imageIndexes = Arrays.copyOf(imageIndexes, capacity);
+        views = Arrays.copyOf(views, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+    }
+
+    private void removeAll() {
+        for (int i = 0; i < count; i++) {
+            int slot = zOrder[i];
+            if (views[slot] != null) {
+                views[slot].detach();
+                views[slot] = null;
+            }
+            slotOfNumber[numbers[slot]] = -1;
+        }
+        count = 0;
+        slotCount = 0;
+        freeCount = 0;
+        imageIds.clear();
+        imageIndex.clear();
     }
 }
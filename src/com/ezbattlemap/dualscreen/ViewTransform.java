@@ -0,0 +1,130 @@
+package com.ezbattlemap.dualscreen;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.geom.AffineTransform;
+
+/**
+ * Map-to-panel transform used by a panel's paint code.
+ *
+ * Holds the zoom and pan as one {@link AffineTransform} and maps map pixels to
+ * whole panel pixels, rounding every edge the same way so neighbouring cells
+ * meet exactly. Geometry is drawn with integer fills rather than through a
+ * scaling Graphics transform: Java2D sends transformed fills and strokes
+ * through its general shape pipeline, which allocates on every call.
+ */
+final class ViewTransform {
+    private final AffineTransform transform = new AffineTransform();
+    private GraphicsConfiguration checkedConfiguration;
+    private boolean deviceScaled;
+
+    /**
+     * Scale about the map point (originX, originY), placing it at (offsetX, offsetY),
+     * for painting into the given Graphics.
+     */
+    void set(Graphics2D g2d, double scale, int offsetX, int offsetY, int originX, int originY) {
+        transform.setToTranslation(offsetX, offsetY);
+        transform.scale(scale, scale);
+        transform.translate(-originX, -originY);
+
+        GraphicsConfiguration configuration = g2d.getDeviceConfiguration();
+        if (configuration != checkedConfiguration) {
+            checkedConfiguration = configuration;
+            AffineTransform device = configuration.getDefaultTransform();
+            deviceScaled = device.getScaleX() != 1 || device.getScaleY() != 1;
+        }
+    }
+
+    double getScale() {
+        return transform.getScaleX();
+    }
+
+    /**
+     * Whether panel pixels are scaled again on the way to the screen (HiDPI),
+     * so images prepared at panel resolution would look soft there.
+     */
+    boolean isDeviceScaled() {
+        return deviceScaled;
+    }
+
+    /**
+     * Panel x of a map x.
+     */
+    int x(int mapX) {
+        return (int) Math.floor(transform.getTranslateX() + mapX * transform.getScaleX());
+    }
+
+    /**
+     * Panel y of a map y.
+     */
+    int y(int mapY) {
+        return (int) Math.floor(transform.getTranslateY() + mapY * transform.getScaleY());
+    }
+
+    /**
+     * Map x under a panel x, rounded down.
+     */
+    int mapX(int panelX) {
+        return (int) Math.floor((panelX - transform.getTranslateX()) / transform.getScaleX());
+    }
+
+    /**
+     * Map y under a panel y, rounded down.
+     */
+    int mapY(int panelY) {
+        return (int) Math.floor((panelY - transform.getTranslateY()) / transform.getScaleY());
+    }
+
+    /**
+     * Draw an image scaled over a rectangle given in map pixels.
+     */
+    void drawImage(Graphics2D g2d, Image image, int mapX, int mapY, int mapWidth, int mapHeight) {
+        int left = x(mapX);
+        int top = y(mapY);
+        g2d.drawImage(image, left, top, x(mapX + mapWidth) - left, y(mapY + mapHeight) - top, null);
+    }
+
+    /**
+     * Fill a rectangle given in map pixels.
+     */
+    void fillRect(Graphics2D g2d, int mapX, int mapY, int mapWidth, int mapHeight) {
+        int left = x(mapX);
+        int top = y(mapY);
+        g2d.fillRect(left, top, x(mapX + mapWidth) - left, y(mapY + mapHeight) - top);
+    }
+
+    /**
+     * Outline a rectangle given in map pixels with a border lineWidth panel
+     * pixels wide, centred on its edges as drawRect does with a BasicStroke.
+     */
+    void drawRect(Graphics2D g2d, int mapX, int mapY, int mapWidth, int mapHeight, int lineWidth) {
+        int left = x(mapX) - lineWidth / 2;
+        int top = y(mapY) - lineWidth / 2;
+        int width = x(mapX + mapWidth) - x(mapX) + lineWidth;
+        int height = y(mapY + mapHeight) - y(mapY) + lineWidth;
+        g2d.fillRect(left, top, width, lineWidth);
+        g2d.fillRect(left, top + height - lineWidth, width, lineWidth);
+        int sideHeight = height - 2 * lineWidth;
+        if (sideHeight > 0) {
+            g2d.fillRect(left, top + lineWidth, lineWidth, sideHeight);
+            g2d.fillRect(left + width - lineWidth, top + lineWidth, lineWidth, sideHeight);
+        }
+    }
+
+    /**
+     * Vertical line at a map x from mapTop to mapBottom, lineWidth panel pixels wide.
+     */
+    void drawVerticalLine(Graphics2D g2d, int mapX, int mapTop, int mapBottom, int lineWidth) {
+        int top = y(mapTop);
+        g2d.fillRect(x(mapX) - lineWidth / 2, top, lineWidth, y(mapBottom) - top);
+    }
+
+    /**
+     * Horizontal line at a map y from mapLeft to mapRight, lineWidth panel pixels wide.
+     */
+    void drawHorizontalLine(Graphics2D g2d, int mapY, int mapLeft, int mapRight, int lineWidth) {
+        int left = x(mapLeft);
+        g2d.fillRect(left, y(mapY) - lineWidth / 2, x(mapRight) - left, lineWidth);
+    }
+}
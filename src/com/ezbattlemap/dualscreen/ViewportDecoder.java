@@ -0,0 +1,212 @@
+package com.ezbattlemap.dualscreen;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Region-of-interest decoder for the player screen.
+ *
+ * For large maps the player screen only needs the selected viewport at the
+ * display's resolution. This decodes just that region, plus a margin, straight
+ * from the map file with {@link ImageReadParam#setSourceRegion} and a
+ * subsampling factor matched to the output size. The decoded region is cached;
+ * viewports inside it are cropped from the cache, and viewports that grow past
+ * it trigger a larger decode on a background thread. Until a region is ready,
+ * callers keep using whatever image they already have.
+ *
+ * Maps smaller than -Dezbattlemap.roiMinPixels (default 16 megapixels) are not
+ * worth a second decode and are left to the caller.
+ */
+class ViewportDecoder {
+    static final String MIN_PIXELS_PROPERTY = "ezbattlemap.roiMinPixels";
+    private static final long MIN_PIXELS = Long.getLong(MIN_PIXELS_PROPERTY, 16_000_000L);
+    private static final double MARGIN_FRACTION = 0.25;
+    private static final int MIN_MARGIN = 256;
+    private static final String PIN_OWNER = "display-region";
+
+    private final ImageMemoryManager memoryManager;
+    private final Runnable onRegionReady;
+    private final ExecutorService decoder;
+    private File source;
+    private int imageWidth;
+    private int imageHeight;
+    private BufferedImage region;
+    private Rectangle regionBounds;
+    private int regionSubsampling;
+    private Rectangle pendingBounds;
+    private int pendingSubsampling;
+    private long generation;
+
+    /**
+     * @param onRegionReady called on the event dispatch thread when a decoded region arrives
+     */
+    ViewportDecoder(ImageMemoryManager memoryManager, Runnable onRegionReady) {
+        this.memoryManager = memoryManager;
+        this.onRegionReady = onRegionReady;
+        this.decoder = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "viewport-decoder");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Set the file the current map was decoded from, or null when unknown.
+     * Discards any cached region.
+     */
+    synchronized void setSource(File file, int width, int height) {
+        generation++;
+        source = file;
+        imageWidth = width;
+        imageHeight = height;
+        region = null;
+        regionBounds = null;
+        pendingBounds = null;
+        if (memoryManager != null) {
+            memoryManager.pin(PIN_OWNER, null);
+        }
+    }
+
+    /**
+     * Whether the current map is large enough to be decoded by region.
+     */
+    synchronized boolean isActive() {
+        return source != null && (long) imageWidth * imageHeight >= MIN_PIXELS;
+    }
+
+    /**
+     * Get the viewport, clipped to the map, at a resolution no coarser than the
+     * output needs. Returns null and schedules a background decode if the
+     * cached region does not cover it yet.
+     */
+    synchronized BufferedImage getViewportImage(Rectangle viewport, int outputWidth, int outputHeight) {
+        if (!isActive()) {
+            return null;
+        }
+        Rectangle clip = viewport.intersection(new Rectangle(0, 0, imageWidth, imageHeight));
+        if (clip.isEmpty()) {
+            return null;
+        }
+        int subsampling = subsamplingFor(clip, outputWidth, outputHeight);
+
+        if (region != null && regionBounds.contains(clip) && regionSubsampling <= subsampling) {
+            return crop(clip);
+        }
+        if (pendingBounds == null || !pendingBounds.contains(clip) || pendingSubsampling > subsampling) {
+            schedule(clip, subsampling);
+        }
+        return null;
+    }
+
+    /**
+     * Largest subsampling factor that still gives at least one source pixel
+     * per output pixel when the viewport is fitted to the output.
+     */
+    private static int subsamplingFor(Rectangle clip, int outputWidth, int outputHeight) {
+        if (outputWidth <= 0 || outputHeight <= 0) {
+            return 1;
+        }
+        double ratio = Math.max(clip.width / (double) outputWidth, clip.height / (double) outputHeight);
+        return Math.max(1, (int) Math.floor(ratio));
+    }
+
+    private BufferedImage crop(Rectangle clip) {
+        int s = regionSubsampling;
+        int x0 = (clip.x - regionBounds.x) / s;
+        int y0 = (clip.y - regionBounds.y) / s;
+        int x1 = Math.min(region.getWidth(), (clip.x + clip.width - regionBounds.x + s - 1) / s);
+        int y1 = Math.min(region.getHeight(), (clip.y + clip.height - regionBounds.y + s - 1) / s);
+        if (x1 <= x0 || y1 <= y0) {
+            return null;
+        }
+        return region.getSubimage(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    private void schedule(Rectangle clip, int subsampling) {
+        int marginX = Math.max(MIN_MARGIN, (int) (clip.width * MARGIN_FRACTION));
+        int marginY = Math.max(MIN_MARGIN, (int) (clip.height * MARGIN_FRACTION));
+        Rectangle bounds = new Rectangle(clip.x - marginX, clip.y - marginY,
+                clip.width + 2 * marginX, clip.height + 2 * marginY)
+                .intersection(new Rectangle(0, 0, imageWidth, imageHeight));
+
+        pendingBounds = bounds;
+        pendingSubsampling = subsampling;
+        final long requested = generation;
+        final File file = source;
+        decoder.execute(() -> {
+            synchronized (this) {
+                // A newer request superseded this one while it was queued
+                if (requested != generation || pendingBounds != bounds) {
+                    return;
+                }
+            }
+            BufferedImage decoded = null;
+            long start = PerfMetrics.begin();
+            try {
+                decoded = decodeRegion(file, bounds, subsampling);
+            } catch (IOException e) {
+                System.err.println("Error decoding viewport region: " + e.getMessage());
+            } finally {
+                PerfMetrics.end(PerfMetrics.Probe.REGION_DECODE, start);
+            }
+            synchronized (this) {
+                if (requested != generation) {
+                    return;
+                }
+                if (pendingBounds == bounds) {
+                    pendingBounds = null;
+                }
+                if (decoded == null) {
+                    // Give up on region decoding for this map; callers fall back
+                    source = null;
+                    return;
+                }
+                region = decoded;
+                regionBounds = bounds;
+                regionSubsampling = subsampling;
+                if (memoryManager != null) {
+                    memoryManager.pin(PIN_OWNER, decoded);
+                }
+            }
+            if (onRegionReady != null) {
+                SwingUtilities.invokeLater(onRegionReady);
+            }
+        });
+    }
+
+    /**
+     * Decode one region of an image file with the given subsampling.
+     */
+    static BufferedImage decodeRegion(File file, Rectangle bounds, int subsampling) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                throw new IOException("Cannot open " + file);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader for " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(bounds);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return CompatibleImages.toCompatible(reader.read(0, param), false);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}